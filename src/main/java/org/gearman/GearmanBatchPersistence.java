@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+import java.util.Collection;
+
+/**
+ * A {@link GearmanPersistence} able to write and delete many items in one operation.<br>
+ * <br>
+ * The server collects the writes and deletes waiting for storage and passes them to an
+ * implementation of this interface in batches, so it can use multi-row statements or
+ * share one sync between many items. Implementations of {@link GearmanPersistence} alone
+ * are still supported, and receive the items one at a time. To add batch methods to an
+ * existing implementation that loop over the single-item methods, see
+ * {@link org.gearman.persistence.GearmanBatchPersistenceAdapter}.
+ * 
+ * @author isaiah
+ */
+public interface GearmanBatchPersistence extends GearmanPersistence {
+	
+	/**
+	 * Writes the {@link GearmanPersistable} items to a persistent medium.<br>
+	 * <br>
+	 * When this method returns, it is guaranteed every write operation has completed. If
+	 * an exception is thrown, none of the items are considered written.
+	 * @param items
+	 * 		The items to write to a persistent medium
+	 * @throws Exception
+	 * 		If an exception occurs while writing the items
+	 */
+	public void writeBatch(Collection<GearmanPersistable> items) throws Exception;
+	
+	/**
+	 * Removes the {@link GearmanPersistable} items from the persistent medium.<br>
+	 * <br>
+	 * When this method returns, it is guaranteed every delete operation has completed.
+	 * @param items
+	 * 		The items to remove
+	 * @throws Exception
+	 * 		If an exception occurs while removing the items
+	 */
+	public void deleteBatch(Collection<GearmanPersistable> items) throws Exception;
+}
@@ -1,248 +1,597 @@
-/*
- * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
- * All rights reserved.
- * 
- * Redistribution and use in source and binary forms, with or without
- * modification, are permitted provided that the following conditions are met:
- * 
- * - Redistributions of source code must retain the above copyright notice,
- *   this list of conditions and the following disclaimer.
- *   
- * - Redistributions in binary form must reproduce the above copyright notice,
- *   this list of conditions and the following disclaimer in the documentation
- *   and/or other materials provided with the distribution.
- *   
- * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
- * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
- * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
- * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
- * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
- * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
- * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
- * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
- * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
- * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
- * POSSIBILITY OF SUCH DAMAGE.
- */
-
-package org.gearman;
-
-import java.io.IOException;
-import java.util.Collection;
-
-/**
- * The gearman client is used to submit jobs to the job server.
- * @author isaiah
- */
-public interface GearmanClient extends GearmanService {
-	
-	/**
-	 * Polls for the job status. This is a blocking operation. The current thread may block and wait
-	 * for the operation to complete
-	 * @param jobHandle
-	 * 		The job handle of the of the job in question. 
-	 * @return
-	 * 		The job status of the job in question.
-	 * @throws IOException
-	 * 		If an I/O exception occurs while performing this operation 
-	 */
-	public GearmanJobStatus getStatus(byte[] jobHandle);
-	
-	/**
-	 * Sends a job to a registered job server.
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @return
-	 * 		The job return used to poll result data
-	 * @throws NullPointerException
-	 * 		if the function name is <code>null</code>
-	 */
-	public GearmanJobReturn submitJob(String functionName, byte[] data);
-	
-	/**
-	 * Sends a job to a registered job server.
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param attachment
-	 * 		An object used to identify this job from within the 
-	 * @param callback
-	 * 		An asynchronous callback object used to receive result data
-	 * @return
-	 * 		A joining object used to synchronize jobs
-	 * @throws NullPointerException
-	 * 		if the function name is <code>null</code> or the callback is null
-	 */
-	public <A> GearmanJoin<A> submitJob(String functionName, byte[] data, A attachment, GearmanJobEventCallback<A> callback);
-	
-	/**
-	 * Sends a job to a registered job server.
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param priority
-	 * 		gearman job priority
-	 * @return
-	 * 		The job return used to poll result data
-	 * @throws NullPointerException
-	 * 		if the function name is <code>null</code>
-	 */
-	public GearmanJobReturn submitJob(String functionName, byte[] data, GearmanJobPriority priority);
-	
-	/**
-	 * Sends a job to a registered job server.
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param priority
-	 * 		gearman job priority
-	 * @param attachment
-	 * 		An object used to identify this job from within the
-	 * @param callback
-	 * 		An asynchronous callback object used to receive result data
-	 * @return
-	 * 		A joining object used to synchronize jobs
-	 * @throws NullPointerException
-	 * 		If the function name or callback is <code>null</code>
-	 */
-	public <A> GearmanJoin<A> submitJob(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback);
-	
-	/**
-	 * Submits a background job to a registered job server
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @return
-	 * 		The job return used to poll submit operation status
-	 * @throws NullPointerException
-	 * 		If the function name is <code>null</code>
-	 */
-	public GearmanJobReturn submitBackgroundJob(String functionName, byte[] data);
-	
-	/**
-	 * Submits a background job to a registered job server
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param attachment
-	 * 		An object used to identify this job from within the
-	 * @param callback
-	 * 		An asynchronous callback object used to receive submit operation status
-	 * @return
-	 * 		A joining object used to synchronize jobs
-	 * @throws NullPointerException
-	 * 		if the function name or callback is <code>null</code>
-	 */
-	public <A> GearmanJoin<A> submitBackgroundJob(String functionName, byte[] data, A attachment, GearmanJobEventCallback<A> callback);
-	
-	/**
-	 * Submits a background job to a registered job server
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param priority
-	 * 		gearman job priority
-	 * @return
-	 * 		The job return used to poll submit operation status
-	 * @throws NullPointerException
-	 * 		If the function name is <code>null</code>
-	 */
-	public GearmanJobReturn submitBackgroundJob(String functionName, byte[] data, GearmanJobPriority priority);
-	
-	/**
-	 * Submits a background job to a registered job server
-	 * @param functionName
-	 * 		gearman function name
-	 * @param data
-	 * 		gearman job data
-	 * @param priority
-	 * 		gearman job priority
-	 * @param attachment
-	 * 		An object used to identify this job from within the
-	 * @param callback
-	 * 		An asynchronous callback object used to receive submit operation status
-	 * @return
-	 * 		A joining object used to synchronize jobs
-	 * @throws NullPointerException
-	 * 		if the function name or callback is <code>null</code>
-	 */
-	public <A> GearmanJoin<A> submitBackgroundJob(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback);
-	
-	/**
-	 * Adds a {@link GearmanServer} to the service.<br>
-	 * <br>
-	 * Note: connections are not made to the server at this time. A connection is only established when needed
-	 * @param server
-	 * 		The gearman server to add
-	 * @return
-	 * 		<code>true</code> if the server was added to the service
-	 */
-	public boolean addServer(GearmanServer server);
-	
-	/**
-	 * Returns the number of servers managed by this service
-	 * @return
-	 * 		The number of servers managed by this service
-	 */
-	public int getServerCount();
-	
-	/**
-	 * Removes all servers from this service
-	 */
-	public void removeAllServers();
-	
-	/**
-	 * Removes the given server from the list of available server to
-	 * @param server
-	 * 		The server to remove
-	 * @return
-	 * 		<code>true</code> if the service contained the given server and it was successfully removed. <code>false</code> if the service did not contain the given server
-	 */
-	public boolean removeServer(GearmanServer server);
-	
-	/**
-	 * Sets the client ID
-	 * @param id
-	 * 		the new client ID
-	 */
-	public void setClientID(String id);
-	
-	/**
-	 * Gets the current client ID
-	 * @return
-	 * 		The current client ID
-	 */
-	public String getClientID();
-	
-	/**
-	 * Tests if this client has the given server
-	 * @param server
-	 * 		The given server
-	 * @return
-	 * 		<code>true</code> if this client contains the given server
-	 */
-	public boolean hasServer(GearmanServer server);
-	
-	/**
-	 * Returns the collection of servers this service is managing
-	 * @return
-	 * 		The collection of servers this service is managing
-	 */
-	public Collection<GearmanServer> getServers();
-	
-	/**
-	 * Sets the {@link GearmanLostConnectionPolicy}. The lost connection policy describes
-	 * what should be done in the event that the server unexpectedly disconnects
-	 * @param policy
-	 * 		The policy for handling unexpected disconnects
-	 */
-	public void setLostConnectionPolicy(GearmanLostConnectionPolicy policy);
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * The gearman client is used to submit jobs to the job server.
+ * @author isaiah
+ */
+public interface GearmanClient extends GearmanService {
+	
+	/**
+	 * Polls for the job status. This is a blocking operation. The current thread may block and wait
+	 * for the operation to complete
+	 * @param jobHandle
+	 * 		The job handle of the of the job in question. 
+	 * @return
+	 * 		The job status of the job in question.
+	 * @throws IOException
+	 * 		If an I/O exception occurs while performing this operation 
+	 */
+	public GearmanJobStatus getStatus(byte[] jobHandle);
+	
+	/**
+	 * Requests the statuses of many jobs at once, without blocking. The requests to each
+	 * server are pipelined, so all statuses arrive in about one round trip per server.
+	 * Once the client has seen a job handle's prefix from a single server, jobs with that
+	 * prefix are only asked of that server. Other jobs are asked of every server.
+	 * 
+	 * @param jobHandles
+	 * 		The job handles
+	 * @return
+	 * 		A future for the statuses, keyed by job handle
+	 */
+	public GearmanStatusFuture getStatusAsync(Collection<byte[]> jobHandles);
+	
+	/**
+	 * Sends a job to a registered job server.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @return
+	 * 		The job return used to poll result data
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitJob(String functionName, byte[] data);
+	
+	/**
+	 * Sends a job to a registered job server.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param attachment
+	 * 		An object used to identify this job from within the 
+	 * @param callback
+	 * 		An asynchronous callback object used to receive result data
+	 * @return
+	 * 		A joining object used to synchronize jobs
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code> or the callback is null
+	 */
+	public <A> GearmanJoin<A> submitJob(String functionName, byte[] data, A attachment, GearmanJobEventCallback<A> callback);
+	
+	/**
+	 * Sends a job to a registered job server.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @return
+	 * 		The job return used to poll result data
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitJob(String functionName, byte[] data, GearmanJobPriority priority);
+	
+	/**
+	 * Sends a job to a registered job server.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @param attachment
+	 * 		An object used to identify this job from within the
+	 * @param callback
+	 * 		An asynchronous callback object used to receive result data
+	 * @return
+	 * 		A joining object used to synchronize jobs
+	 * @throws NullPointerException
+	 * 		If the function name or callback is <code>null</code>
+	 */
+	public <A> GearmanJoin<A> submitJob(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback);
+	
+	/**
+	 * Submits a background job to a registered job server
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @return
+	 * 		The job return used to poll submit operation status
+	 * @throws NullPointerException
+	 * 		If the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitBackgroundJob(String functionName, byte[] data);
+	
+	/**
+	 * Submits a background job to a registered job server
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param attachment
+	 * 		An object used to identify this job from within the
+	 * @param callback
+	 * 		An asynchronous callback object used to receive submit operation status
+	 * @return
+	 * 		A joining object used to synchronize jobs
+	 * @throws NullPointerException
+	 * 		if the function name or callback is <code>null</code>
+	 */
+	public <A> GearmanJoin<A> submitBackgroundJob(String functionName, byte[] data, A attachment, GearmanJobEventCallback<A> callback);
+	
+	/**
+	 * Submits a background job to a registered job server
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @return
+	 * 		The job return used to poll submit operation status
+	 * @throws NullPointerException
+	 * 		If the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitBackgroundJob(String functionName, byte[] data, GearmanJobPriority priority);
+	
+	/**
+	 * Submits a background job to a registered job server
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @param attachment
+	 * 		An object used to identify this job from within the
+	 * @param callback
+	 * 		An asynchronous callback object used to receive submit operation status
+	 * @return
+	 * 		A joining object used to synchronize jobs
+	 * @throws NullPointerException
+	 * 		if the function name or callback is <code>null</code>
+	 */
+	public <A> GearmanJoin<A> submitBackgroundJob(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback);
+	
+	/**
+	 * Sends a job to a registered job server without blocking or holding a thread while
+	 * the job runs.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @return
+	 * 		A future completed with the job's final event
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data);
+	
+	/**
+	 * Sends a job to a registered job server without blocking or holding a thread while
+	 * the job runs.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @return
+	 * 		A future completed with the job's final event
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobPriority priority);
+	
+	/**
+	 * Sends a job to a registered job server without blocking or holding a thread while
+	 * the job runs. Every event, including intermediate data, warning and status events,
+	 * is also passed to the given callback, in order.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @param attachment
+	 * 		An object used to identify this job from within the callback
+	 * @param callback
+	 * 		An asynchronous callback object used to receive intermediate events
+	 * @return
+	 * 		A future completed with the job's final event
+	 * @throws NullPointerException
+	 * 		If the function name or callback is <code>null</code>
+	 */
+	public <A> GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback);
+	
+	/**
+	 * Submits a background job to a registered job server without blocking.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param priority
+	 * 		gearman job priority
+	 * @return
+	 * 		A future completed once the job server accepts or rejects the job
+	 * @throws NullPointerException
+	 * 		If the function name is <code>null</code>
+	 */
+	public GearmanJobFuture submitBackgroundJobAsync(String functionName, byte[] data, GearmanJobPriority priority);
+	
+	/**
+	 * Sends a job to a registered job server using the given submission options.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param options
+	 * 		The submission options, or <code>null</code> for the defaults
+	 * @return
+	 * 		The job return used to poll result data
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitJob(String functionName, byte[] data, GearmanJobOptions options);
+	
+	/**
+	 * Sends a job to a registered job server using the given submission options, without
+	 * blocking or holding a thread while the job runs.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param options
+	 * 		The submission options, or <code>null</code> for the defaults
+	 * @return
+	 * 		A future completed with the job's final event
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobOptions options);
+	
+	/**
+	 * Sends a job whose data is held in a buffer. The buffer's remaining bytes are the job's
+	 * data and are written to the connection as they are, so a direct buffer, or a file
+	 * region mapped with {@link java.nio.channels.FileChannel#map}, reaches the socket
+	 * without being copied onto the heap. The buffer's position is not changed, but its
+	 * content must not change until the job has finished.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param options
+	 * 		The submission options, or <code>null</code> for the defaults
+	 * @return
+	 * 		The job return used to poll result data
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 */
+	public GearmanJobReturn submitJob(String functionName, ByteBuffer data, GearmanJobOptions options);
+	
+	/**
+	 * Sends a job whose data is held in a buffer, without blocking or holding a thread while
+	 * the job runs.
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param options
+	 * 		The submission options, or <code>null</code> for the defaults
+	 * @return
+	 * 		A future completed with the job's final event
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 * @see #submitJob(String, ByteBuffer, GearmanJobOptions)
+	 */
+	public GearmanJobFuture submitJobAsync(String functionName, ByteBuffer data, GearmanJobOptions options);
+	
+	/**
+	 * Sends a job whose output is read as a stream. On a large payload connection, the
+	 * output is buffered up to the {@link #getStreamBufferSize() stream buffer size}, so a
+	 * large result never needs to fit in memory at once. Streamed jobs are never hedged.
+	 * @see GearmanConnectionSelection#SEPARATE_LARGE_PAYLOADS
+	 * @param functionName
+	 * 		gearman function name
+	 * @param data
+	 * 		gearman job data
+	 * @param options
+	 * 		The submission options, or <code>null</code> for the defaults
+	 * @return
+	 * 		The stream of the job's output
+	 * @throws NullPointerException
+	 * 		if the function name is <code>null</code>
+	 * @throws IllegalArgumentException
+	 * 		if the options specify a background job
+	 * @see #submitJob(String, ByteBuffer, GearmanJobOptions)
+	 */
+	public GearmanJobStream submitJobStream(String functionName, ByteBuffer data, GearmanJobOptions options);
+	
+	/**
+	 * Sets the policy used to choose the job server for each submission. The default is
+	 * {@link GearmanRoutingPolicy#ANY_SERVER}
+	 * @param policy
+	 * 		The routing policy
+	 */
+	public void setRoutingPolicy(GearmanRoutingPolicy policy);
+	
+	/**
+	 * Returns the policy used to choose the job server for each submission
+	 * @return
+	 * 		The routing policy
+	 */
+	public GearmanRoutingPolicy getRoutingPolicy();
+	
+	/**
+	 * Sets if jobs waiting to be submitted are queued per function. Waiting jobs are always
+	 * sent in priority order. With per-function queues, the functions with waiting jobs of
+	 * the same priority also take turns, so a burst of jobs for one function doesn't hold
+	 * back the others. The default is <code>false</code>
+	 * @param isPerFunction
+	 * 		<code>true</code> to queue waiting jobs per function
+	 */
+	public void setPerFunctionQueues(boolean isPerFunction);
+	
+	/**
+	 * Tests if jobs waiting to be submitted are queued per function
+	 * @return
+	 * 		<code>true</code> if waiting jobs are queued per function
+	 */
+	public boolean isPerFunctionQueues();
+	
+	/**
+	 * Sets the generator used to create unique IDs for jobs submitted without one. The
+	 * default generator doesn't block or contend between threads
+	 * @param generator
+	 * 		The unique ID generator, or <code>null</code> for the default
+	 */
+	public void setUniqueIdGenerator(GearmanUniqueIdGenerator generator);
+	
+	/**
+	 * Returns the generator used to create unique IDs
+	 * @return
+	 * 		The unique ID generator
+	 */
+	public GearmanUniqueIdGenerator getUniqueIdGenerator();
+	
+	/**
+	 * Sets how jobs are spread over the connections to a server. The selection only matters
+	 * when more than one connection is made to each server. It applies to servers added
+	 * after the call. The default is {@link GearmanConnectionSelection#ANY_CONNECTION}
+	 * @param selection
+	 * 		The connection selection policy
+	 */
+	public void setConnectionSelection(GearmanConnectionSelection selection);
+	
+	/**
+	 * Returns how jobs are spread over the connections to a server
+	 * @return
+	 * 		The connection selection policy
+	 */
+	public GearmanConnectionSelection getConnectionSelection();
+	
+	/**
+	 * Sets the size, in bytes, at which a job's data counts as a large payload. The default
+	 * is 64 KiB
+	 * @param size
+	 * 		The large payload threshold in bytes
+	 * @see GearmanConnectionSelection#SEPARATE_LARGE_PAYLOADS
+	 */
+	public void setLargePayloadThreshold(int size);
+	
+	/**
+	 * Returns the size, in bytes, at which a job's data counts as a large payload
+	 * @return
+	 * 		The large payload threshold in bytes
+	 */
+	public int getLargePayloadThreshold();
+	
+	/**
+	 * Sets the number of bytes a job stream buffers before the client stops reading from
+	 * the job's connection. Only large payload connections are suspended, connections
+	 * shared with small jobs keep reading. The default is 4 MiB
+	 * @param size
+	 * 		The stream buffer size in bytes
+	 * @throws IllegalArgumentException
+	 * 		if the size is not positive
+	 * @see #submitJobStream(String, ByteBuffer, GearmanJobOptions)
+	 */
+	public void setStreamBufferSize(int size);
+	
+	/**
+	 * Returns the number of bytes a job stream buffers before the client stops reading from
+	 * the job's connection
+	 * @return
+	 * 		The stream buffer size in bytes
+	 */
+	public int getStreamBufferSize();
+	
+	/**
+	 * Sets if all jobs of the given function are hedged. Only idempotent functions should be
+	 * hedged. By default no function is hedged
+	 * @param functionName
+	 * 		The function name
+	 * @param isHedged
+	 * 		<code>true</code> to hedge the function's jobs
+	 * @see GearmanJobOptions#setHedged(boolean)
+	 */
+	public void setHedged(String functionName, boolean isHedged);
+	
+	/**
+	 * Tests if all jobs of the given function are hedged
+	 * @param functionName
+	 * 		The function name
+	 * @return
+	 * 		<code>true</code> if the function's jobs are hedged
+	 */
+	public boolean isHedged(String functionName);
+	
+	/**
+	 * Sets the percentile of a server's recent job round trips after which a hedged job is
+	 * copied to a second server. At 0.95, about one job in twenty is copied. Copies are
+	 * also limited to a tenth of the hedged jobs, so a slow cluster does not see its load
+	 * doubled. The default is 0.95
+	 * @param percentile
+	 * 		The percentile, greater than 0 and at most 1
+	 */
+	public void setHedgePercentile(double percentile);
+	
+	/**
+	 * Returns the percentile of a server's recent job round trips after which a hedged job
+	 * is copied to a second server
+	 * @return
+	 * 		The hedge percentile
+	 */
+	public double getHedgePercentile();
+	
+	/**
+	 * Sets if the jobs in flight on each server are limited by an adaptive window. Each
+	 * function has its own window on each server. The window shrinks when the server
+	 * rejects a job because its queue is full or when the time it takes to acknowledge jobs
+	 * rises, and grows back slowly while jobs are acknowledged quickly, so submissions
+	 * follow the server's capacity. Jobs that don't fit wait in the client's queue, while
+	 * the jobs of other functions are still sent.<br>
+	 * <br>
+	 * Either way, a job rejected because the server's queue is full is sent again after a
+	 * pause that grows while the rejections continue, and its function's submissions to
+	 * the server pause with it. After repeated rejections, the job fails with a
+	 * {@link GearmanJobEventType#GEARMAN_SUBMIT_FAIL} event. The default is <code>false</code>
+	 * @param isAdaptive
+	 * 		<code>true</code> to limit the jobs in flight
+	 */
+	public void setAdaptiveSubmission(boolean isAdaptive);
+	
+	/**
+	 * Tests if the jobs in flight on each server are limited by an adaptive window
+	 * @return
+	 * 		<code>true</code> if the jobs in flight are limited
+	 */
+	public boolean isAdaptiveSubmission();
+	
+	/**
+	 * Adds a {@link GearmanServer} to the service.<br>
+	 * <br>
+	 * Note: connections are not made to the server at this time. A connection is only established when needed
+	 * @param server
+	 * 		The gearman server to add
+	 * @return
+	 * 		<code>true</code> if the server was added to the service
+	 */
+	public boolean addServer(GearmanServer server);
+	
+	/**
+	 * Returns the number of servers managed by this service
+	 * @return
+	 * 		The number of servers managed by this service
+	 */
+	public int getServerCount();
+	
+	/**
+	 * Sets the number of connections this client makes to each server. More connections let
+	 * submissions to one server be sent in parallel. The connection a job uses is chosen by
+	 * the {@link GearmanConnectionSelection}. Servers already added keep their current
+	 * connections, so the value should be set before servers are added. The default is one
+	 * connection per server.
+	 * @param count
+	 * 		The number of connections per server
+	 * @throws IllegalArgumentException
+	 * 		if the count is less than one
+	 */
+	public void setConnectionsPerServer(int count);
+	
+	/**
+	 * Returns the number of connections made to each server
+	 * @return
+	 * 		The number of connections per server
+	 */
+	public int getConnectionsPerServer();
+	
+	/**
+	 * Removes all servers from this service
+	 */
+	public void removeAllServers();
+	
+	/**
+	 * Removes the given server from the list of available server to
+	 * @param server
+	 * 		The server to remove
+	 * @return
+	 * 		<code>true</code> if the service contained the given server and it was successfully removed. <code>false</code> if the service did not contain the given server
+	 */
+	public boolean removeServer(GearmanServer server);
+	
+	/**
+	 * Sets the client ID
+	 * @param id
+	 * 		the new client ID
+	 */
+	public void setClientID(String id);
+	
+	/**
+	 * Gets the current client ID
+	 * @return
+	 * 		The current client ID
+	 */
+	public String getClientID();
+	
+	/**
+	 * Tests if this client has the given server
+	 * @param server
+	 * 		The given server
+	 * @return
+	 * 		<code>true</code> if this client contains the given server
+	 */
+	public boolean hasServer(GearmanServer server);
+	
+	/**
+	 * Returns the collection of servers this service is managing
+	 * @return
+	 * 		The collection of servers this service is managing
+	 */
+	public Collection<GearmanServer> getServers();
+	
+	/**
+	 * Sets the {@link GearmanLostConnectionPolicy}. The lost connection policy describes
+	 * what should be done in the event that the server unexpectedly disconnects
+	 * @param policy
+	 * 		The policy for handling unexpected disconnects
+	 */
+	public void setLostConnectionPolicy(GearmanLostConnectionPolicy policy);
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman;
+
+import java.io.Serializable;
+
+/**
+ * Defines how a {@link GearmanClient} chooses among its connections to a server, when it
+ * makes more than one
+ * @author isaiah
+ * @see GearmanClient#setConnectionsPerServer(int)
+ */
+public enum GearmanConnectionSelection implements Serializable {
+	/** Send jobs over whichever connection is ready first */
+	ANY_CONNECTION,
+	
+	/**
+	 * Keep large payloads off the connection used by small ones. The first connection to
+	 * each server carries jobs below the large payload threshold. The remaining connections
+	 * carry the large jobs and the streamed jobs, spread by load. Small jobs and their
+	 * results are then not held up behind large transfers or slow stream readers. If a
+	 * server has only one connection, it carries both.
+	 */
+	SEPARATE_LARGE_PAYLOADS;
+}
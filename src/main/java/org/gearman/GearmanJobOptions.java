@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional settings for a single job submission. Unset values use the client's defaults.
+ * @author isaiah
+ */
+public class GearmanJobOptions {
+	
+	private GearmanJobPriority priority = GearmanJobPriority.NORMAL_PRIORITY;
+	private boolean isBackground = false;
+	private byte[] uniqueID;
+	private byte[] routingKey;
+	private boolean isHedged = false;
+	private long deadline = 0;
+	
+	/**
+	 * Returns the job priority
+	 * @return
+	 * 		The job priority
+	 */
+	public GearmanJobPriority getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Sets the job priority. The default is {@link GearmanJobPriority#NORMAL_PRIORITY}
+	 * @param priority
+	 * 		The job priority
+	 * @return
+	 * 		This object
+	 */
+	public GearmanJobOptions setPriority(GearmanJobPriority priority) {
+		this.priority = priority==null? GearmanJobPriority.NORMAL_PRIORITY: priority;
+		return this;
+	}
+	
+	/**
+	 * Tests if the job is submitted as a background job
+	 * @return
+	 * 		<code>true</code> if the job is a background job
+	 */
+	public boolean isBackground() {
+		return isBackground;
+	}
+	
+	/**
+	 * Sets if the job is submitted as a background job. The default is <code>false</code>
+	 * @param isBackground
+	 * 		<code>true</code> to submit a background job
+	 * @return
+	 * 		This object
+	 */
+	public GearmanJobOptions setBackground(boolean isBackground) {
+		this.isBackground = isBackground;
+		return this;
+	}
+	
+	/**
+	 * Returns the unique ID, or <code>null</code> if one will be generated
+	 * @return
+	 * 		The unique ID
+	 */
+	public byte[] getUniqueID() {
+		return uniqueID;
+	}
+	
+	/**
+	 * Sets the job's unique ID. Jobs with the same function name and unique ID are
+	 * coalesced by the job server. If <code>null</code>, a unique ID is generated.
+	 * @param uniqueID
+	 * 		The unique ID
+	 * @return
+	 * 		This object
+	 */
+	public GearmanJobOptions setUniqueID(byte[] uniqueID) {
+		this.uniqueID = uniqueID;
+		return this;
+	}
+	
+	/**
+	 * Returns the routing key, or <code>null</code> if the unique ID is used
+	 * @return
+	 * 		The routing key
+	 */
+	public byte[] getRoutingKey() {
+		return routingKey;
+	}
+	
+	/**
+	 * Sets the key used to choose a job server when the client's routing policy is
+	 * {@link GearmanRoutingPolicy#CONSISTENT_HASH}. If <code>null</code>, the unique ID is used.
+	 * @param routingKey
+	 * 		The routing key
+	 * @return
+	 * 		This object
+	 */
+	public GearmanJobOptions setRoutingKey(byte[] routingKey) {
+		this.routingKey = routingKey;
+		return this;
+	}
+	
+	/**
+	 * Tests if the job is hedged
+	 * @return
+	 * 		<code>true</code> if the job is hedged
+	 */
+	public boolean isHedged() {
+		return isHedged;
+	}
+	
+	/**
+	 * Sets if the job is hedged. If a hedged job has not completed once the server's usual
+	 * completion time has passed, a copy with the same unique ID is sent to a second server
+	 * and the first result is used. Only idempotent functions should be hedged. Background
+	 * jobs are never hedged. The default is <code>false</code>
+	 * @param isHedged
+	 * 		<code>true</code> to hedge the job
+	 * @return
+	 * 		This object
+	 * @see GearmanClient#setHedgePercentile(double)
+	 */
+	public GearmanJobOptions setHedged(boolean isHedged) {
+		this.isHedged = isHedged;
+		return this;
+	}
+	
+	/**
+	 * Returns the job's deadline, relative to submission
+	 * @param unit
+	 * 		The time unit of the returned value
+	 * @return
+	 * 		The job's deadline, or 0 if the job has no deadline
+	 */
+	public long getDeadline(TimeUnit unit) {
+		return unit.convert(this.deadline, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Sets the time the caller is willing to wait for the job's result, starting when the
+	 * job is submitted. Once the deadline passes, the job's return receives a
+	 * {@link GearmanJobEventType#GEARMAN_JOB_FAIL} event and later events are ignored. The
+	 * deadline is also passed on to job servers that accept it, so the job is dropped if
+	 * it is still queued when the deadline passes. Background jobs have no deadline. The
+	 * default is 0, no deadline
+	 * @param time
+	 * 		The deadline, or 0 for no deadline
+	 * @param unit
+	 * 		The time unit of the deadline
+	 * @return
+	 * 		This object
+	 * @throws IllegalArgumentException
+	 * 		If the deadline is negative
+	 */
+	public GearmanJobOptions setDeadline(long time, TimeUnit unit) {
+		if(time<0) throw new IllegalArgumentException("deadline is negative");
+		this.deadline = unit.toNanos(time);
+		return this;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The output of a submitted job, read as a stream of bytes. The stream is made of the job's
+ * data packets, in the order the worker sent them, followed by the data of the job's
+ * completion packet. Each packet is handed to the reader as it was received, the packets
+ * are never joined into one array.<br>
+ * <br>
+ * With {@link GearmanConnectionSelection#SEPARATE_LARGE_PAYLOADS}, streamed jobs are sent
+ * over the large payload connections, and the stream holds a bounded number of bytes.
+ * When the reader falls behind, the client stops reading from the connection carrying the
+ * job until the reader catches up. Other large jobs on the same connection are held back
+ * with it. Otherwise the job shares its connection with small jobs, and the stream buffers
+ * the output the reader hasn't taken yet rather than hold them back. Output from a job
+ * server running in the same process is handed over by the sending thread and is not
+ * bounded.<br>
+ * <br>
+ * Reads block until data is available. Once the job completes successfully, reads return
+ * end of stream. If the job fails, reads throw an {@link java.io.IOException} once the
+ * data received before the failure has been read.
+ * 
+ * @author isaiah
+ */
+public interface GearmanJobStream extends ReadableByteChannel {
+	
+	/**
+	 * Returns an input stream over the job's output. Closing either closes both
+	 * 
+	 * @return
+	 * 		An input stream over the job's output
+	 */
+	public InputStream getInputStream();
+	
+	/**
+	 * Returns the job handle assigned by the job server, or <code>null</code> if the job
+	 * has not yet been created
+	 * 
+	 * @return
+	 * 		The job handle or <code>null</code> if the job has not yet been created
+	 */
+	public byte[] getJobHandle();
+	
+	/**
+	 * Returns the job's final event without blocking. The data of a
+	 * {@link GearmanJobEventType#GEARMAN_JOB_SUCCESS} event is also part of the stream
+	 * 
+	 * @return
+	 * 		The final event or <code>null</code> if the job has not finished
+	 */
+	public GearmanJobEvent getResult();
+}
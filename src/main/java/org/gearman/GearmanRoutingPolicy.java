@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+import java.io.Serializable;
+
+/**
+ * Defines how a {@link GearmanClient} chooses the job server for a submission
+ * @author isaiah
+ */
+public enum GearmanRoutingPolicy implements Serializable {
+	/** Send jobs to whichever open server is ready first */
+	ANY_SERVER,
+	
+	/**
+	 * Send jobs to a server chosen by a consistent hash of the job's routing key, or its
+	 * unique ID if no routing key is given. Jobs with the same key reach the same server,
+	 * so the server can coalesce them. Adding or removing a server only remaps the keys
+	 * owned by that server. If the chosen server is unavailable, the job is sent to any
+	 * server.
+	 */
+	CONSISTENT_HASH,
+	
+	/**
+	 * Send jobs to the less loaded of two randomly chosen open servers. A server's load is
+	 * its average job latency, measured from the submit to the JOB_CREATED and from the
+	 * JOB_CREATED to the job's completion, scaled by its outstanding jobs. Servers that
+	 * slow down receive fewer jobs.
+	 */
+	POWER_OF_TWO_CHOICES;
+}
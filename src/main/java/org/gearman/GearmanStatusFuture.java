@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A future for the statuses of many jobs, requested at once. The result maps each
+ * requested job handle, decoded as a string, to the job's status. Jobs no server knows
+ * about have a status that is not known.
+ * 
+ * @author isaiah
+ * @see GearmanClient#getStatusAsync(java.util.Collection)
+ */
+public interface GearmanStatusFuture extends Future<Map<String, GearmanJobStatus>> {
+	
+	/**
+	 * Registers a listener to be run on the given executor once this future completes
+	 * or is cancelled. If the future is already done, the listener is submitted to the
+	 * executor immediately.
+	 * 
+	 * @param listener
+	 * 		The listener to run
+	 * @param executor
+	 * 		The executor used to run the listener
+	 * @throws NullPointerException
+	 * 		if the listener or executor is <code>null</code>
+	 */
+	public void addListener(Runnable listener, Executor executor);
+	
+	/**
+	 * Returns the statuses without blocking
+	 * 
+	 * @return
+	 * 		The statuses or <code>null</code> if this future has not completed or was
+	 * 		cancelled
+	 */
+	public Map<String, GearmanJobStatus> getNow();
+}
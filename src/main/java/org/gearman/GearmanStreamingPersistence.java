@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman;
+
+/**
+ * A {@link GearmanPersistence} able to stream its items during recovery instead of
+ * returning them all at once.<br>
+ * <br>
+ * When the server starts with a streaming persistence, it calls
+ * {@link #readAll(GearmanRecoveryHandler)} instead of {@link #readAll()}. Items are
+ * rebuilt in parallel as they're received, so the persistence only needs to hold the
+ * items it hasn't passed on yet.
+ * 
+ * @author isaiah
+ */
+public interface GearmanStreamingPersistence extends GearmanPersistence {
+	
+	/**
+	 * Reads all persistable items from the persistent medium, passing each one to the
+	 * given handler.<br>
+	 * <br>
+	 * The handler is called from the thread calling this method. When this method
+	 * returns, every item has been passed to the handler.
+	 * @param handler
+	 * 		Receives each persisted item
+	 * @throws Exception
+	 * 		If an exception occurs while reading the items
+	 */
+	public void readAll(GearmanRecoveryHandler handler) throws Exception;
+}
@@ -55,6 +55,27 @@ public interface GearmanWorker extends GearmanService {
 	 * @return The number of jobs that that may execute concurrently
 	 */
 	public int getMaximumConcurrency();
+	
+	/**
+	 * Sets if assigned jobs run on virtual threads instead of the gearman thread pool.
+	 * A blocked virtual thread doesn't hold a platform thread, so functions that spend
+	 * most of their time waiting on I/O can run thousands of jobs at once. The number of
+	 * jobs is still limited by the {@link #setMaximumConcurrency(int) maximum concurrency},
+	 * which should be raised to match. Virtual threads require Java 21 or later.
+	 * 
+	 * @param isVirtual
+	 *            <code>true</code> to run jobs on virtual threads
+	 * @throws UnsupportedOperationException
+	 *             if virtual threads are requested and the runtime does not support them
+	 */
+	public void setVirtualThreads(boolean isVirtual);
+	
+	/**
+	 * Tests if assigned jobs run on virtual threads
+	 * 
+	 * @return <code>true</code> if jobs run on virtual threads
+	 */
+	public boolean isVirtualThreads();
 
 	/**
 	 * Registers a particular {@link GearmanFunction} with the worker. Once a
@@ -134,6 +155,25 @@ public interface GearmanWorker extends GearmanService {
 	 * @return The number of servers managed by this service
 	 */
 	public int getServerCount();
+	
+	/**
+	 * Sets the number of connections this worker makes to each server. More connections let
+	 * jobs from one server be received and answered in parallel, so one large job does not
+	 * hold up the others. Servers already added keep their current connections, so the
+	 * value should be set before servers are added. The default is one connection per server.
+	 * @param count
+	 * 		The number of connections per server
+	 * @throws IllegalArgumentException
+	 * 		if the count is less than one
+	 */
+	public void setConnectionsPerServer(int count);
+	
+	/**
+	 * Returns the number of connections made to each server
+	 * @return
+	 * 		The number of connections per server
+	 */
+	public int getConnectionsPerServer();
 
 	/**
 	 * Removes all servers from this service
@@ -55,6 +55,17 @@ public class GearmanContext {
 	public static final String PROPERTY_LOGGER_NAME = "gearman.loggerName";
 	public static final String PROPERTY_WORKER_THREADS = "gearman.workerThreads";
 	public static final String PROPERTY_JOB_HANDLE_PREFIX = "gearman.jobHandlePrefix";
+	public static final String PROPERTY_STATUS_INTERVAL = "gearman.statusInterval";
+	public static final String PROPERTY_MAX_QUEUE_JOBS = "gearman.maxQueueJobs";
+	public static final String PROPERTY_MAX_QUEUE_BYTES = "gearman.maxQueueBytes";
+	public static final String PROPERTY_OFF_HEAP_THRESHOLD = "gearman.offHeapThreshold";
+	public static final String PROPERTY_OFF_HEAP_SLAB_SIZE = "gearman.offHeapSlabSize";
+	public static final String PROPERTY_SPILL_THRESHOLD = "gearman.spillThreshold";
+	public static final String PROPERTY_SPILL_DIRECTORY = "gearman.spillDirectory";
+	public static final String PROPERTY_SPILL_SEGMENT_SIZE = "gearman.spillSegmentSize";
+	public static final String PROPERTY_PERSISTENCE_ACK = "gearman.persistenceAck";
+	public static final String PROPERTY_PERSISTENCE_THREADS = "gearman.persistenceThreads";
+	public static final String PROPERTY_PERSISTENCE_QUEUE_SIZE = "gearman.persistenceQueueSize";
 	
 	/**<b>Attribute Type:</b> java.lang.Integer<br><br>The default port number. */
 	public static final String ATTRIBUTE_PORT = "gearman.port";
@@ -62,6 +73,28 @@ public class GearmanContext {
 	public static final String ATTRIBUTE_THREAD_TIMEOUT = "gearman.threadTimeout";
 	public static final String ATTRIBUTE_WORKER_THREADS = "gearman.workerThreads";
 	public static final String ATTRIBUTE_CHARSET = "gearman.charset";
+	/** <b>Attribute Type:</b> java.lang.Long<br><br>The minimum time, in milliseconds, between WORK_STATUS packets forwarded by the server. */
+	public static final String ATTRIBUTE_STATUS_INTERVAL = "gearman.statusInterval";
+	/** <b>Attribute Type:</b> java.lang.Long<br><br>The maximum number of jobs the server may hold. 0 is unlimited. */
+	public static final String ATTRIBUTE_MAX_QUEUE_JOBS = "gearman.maxQueueJobs";
+	/** <b>Attribute Type:</b> java.lang.Long<br><br>The maximum number of payload bytes the server may hold. 0 is unlimited. */
+	public static final String ATTRIBUTE_MAX_QUEUE_BYTES = "gearman.maxQueueBytes";
+	/** <b>Attribute Type:</b> java.lang.Integer<br><br>Job payloads at or above this size, in bytes, are stored off-heap. 0 disables off-heap storage. */
+	public static final String ATTRIBUTE_OFF_HEAP_THRESHOLD = "gearman.offHeapThreshold";
+	/** <b>Attribute Type:</b> java.lang.Integer<br><br>The size, in bytes, of the direct memory slabs holding off-heap payloads. */
+	public static final String ATTRIBUTE_OFF_HEAP_SLAB_SIZE = "gearman.offHeapSlabSize";
+	/** <b>Attribute Type:</b> java.lang.Long<br><br>The number of payload bytes a function holds in memory before new payloads are spilled to disk. 0 disables spilling. */
+	public static final String ATTRIBUTE_SPILL_THRESHOLD = "gearman.spillThreshold";
+	/** <b>Attribute Type:</b> java.io.File<br><br>The directory holding spilled payloads. Each process spills to its own subdirectory. */
+	public static final String ATTRIBUTE_SPILL_DIRECTORY = "gearman.spillDirectory";
+	/** <b>Attribute Type:</b> java.lang.Integer<br><br>The size, in bytes, of each spill segment file. */
+	public static final String ATTRIBUTE_SPILL_SEGMENT_SIZE = "gearman.spillSegmentSize";
+	/** <b>Attribute Type:</b> java.lang.String<br><br>When background jobs are acknowledged: AFTER_PERSIST or IMMEDIATE. */
+	public static final String ATTRIBUTE_PERSISTENCE_ACK = "gearman.persistenceAck";
+	/** <b>Attribute Type:</b> java.lang.Integer<br><br>The number of threads writing background jobs to persistent storage. */
+	public static final String ATTRIBUTE_PERSISTENCE_THREADS = "gearman.persistenceThreads";
+	/** <b>Attribute Type:</b> java.lang.Integer<br><br>The number of background job writes that may wait for storage before submits are refused. */
+	public static final String ATTRIBUTE_PERSISTENCE_QUEUE_SIZE = "gearman.persistenceQueueSize";
 	
 	private static final Properties properties = initProperties();
 	private static final Map<String, Object> attributes = initAttributes();
@@ -96,6 +129,41 @@ public class GearmanContext {
 		String workerThreads = getProperty(PROPERTY_WORKER_THREADS);
 		value.put(ATTRIBUTE_WORKER_THREADS, Integer.parseInt(workerThreads));
 		
+		String statusInterval = getProperty(PROPERTY_STATUS_INTERVAL);
+		value.put(ATTRIBUTE_STATUS_INTERVAL, statusInterval==null? 0L: Long.parseLong(statusInterval));
+		
+		String maxQueueJobs = getProperty(PROPERTY_MAX_QUEUE_JOBS);
+		value.put(ATTRIBUTE_MAX_QUEUE_JOBS, maxQueueJobs==null? 0L: Long.parseLong(maxQueueJobs));
+		
+		String maxQueueBytes = getProperty(PROPERTY_MAX_QUEUE_BYTES);
+		value.put(ATTRIBUTE_MAX_QUEUE_BYTES, maxQueueBytes==null? 0L: Long.parseLong(maxQueueBytes));
+		
+		String offHeapThreshold = getProperty(PROPERTY_OFF_HEAP_THRESHOLD);
+		value.put(ATTRIBUTE_OFF_HEAP_THRESHOLD, offHeapThreshold==null? 0: Integer.parseInt(offHeapThreshold));
+		
+		String offHeapSlabSize = getProperty(PROPERTY_OFF_HEAP_SLAB_SIZE);
+		value.put(ATTRIBUTE_OFF_HEAP_SLAB_SIZE, offHeapSlabSize==null? 4194304: Integer.parseInt(offHeapSlabSize));
+		
+		String spillThreshold = getProperty(PROPERTY_SPILL_THRESHOLD);
+		value.put(ATTRIBUTE_SPILL_THRESHOLD, spillThreshold==null? 0L: Long.parseLong(spillThreshold));
+		
+		String spillDirectory = getProperty(PROPERTY_SPILL_DIRECTORY);
+		if(spillDirectory==null || spillDirectory.trim().isEmpty())
+			spillDirectory = new File(System.getProperty("java.io.tmpdir"), "gearman-spill").getPath();
+		value.put(ATTRIBUTE_SPILL_DIRECTORY, new File(spillDirectory.trim()));
+		
+		String spillSegmentSize = getProperty(PROPERTY_SPILL_SEGMENT_SIZE);
+		value.put(ATTRIBUTE_SPILL_SEGMENT_SIZE, spillSegmentSize==null? 67108864: Integer.parseInt(spillSegmentSize));
+		
+		String persistenceAck = getProperty(PROPERTY_PERSISTENCE_ACK);
+		value.put(ATTRIBUTE_PERSISTENCE_ACK, persistenceAck==null? "AFTER_PERSIST": persistenceAck.trim());
+		
+		String persistenceThreads = getProperty(PROPERTY_PERSISTENCE_THREADS);
+		value.put(ATTRIBUTE_PERSISTENCE_THREADS, persistenceThreads==null? 4: Integer.parseInt(persistenceThreads));
+		
+		String persistenceQueueSize = getProperty(PROPERTY_PERSISTENCE_QUEUE_SIZE);
+		value.put(ATTRIBUTE_PERSISTENCE_QUEUE_SIZE, persistenceQueueSize==null? 65536: Integer.parseInt(persistenceQueueSize));
+		
 		String charset = "UTF-8";
 		value.put(ATTRIBUTE_CHARSET, Charset.forName(charset));
 		
@@ -27,9 +27,17 @@
 
 package org.gearman.impl.client;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.gearman.GearmanJobEvent;
 import org.gearman.GearmanJobEventType;
 import org.gearman.GearmanJobPriority;
 import org.gearman.impl.core.GearmanCallbackHandler;
@@ -50,28 +58,76 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 	private static final int RESPONCE_TIMEOUT = 19000;	// TODO decouple property
 	private static final int IDLE_TIMEOUT = 9000;		// TODO decouple property
 	
+	/** The number of times a job rejected with queue_full is sent again before it's failed */
+	private static final int QUEUE_FULL_RETRIES = 10;
+	private static final String QUEUE_FULL = "queue_full";
+	
+	/** Job data smaller than this is copied into the encoded packet, larger data is written from its buffer */
+	private static final int ENCODE_MAX = 64*1024;
+	
 	private final InnerGearmanCallback jobSendCallback = new InnerGearmanCallback();
 	
 	/**
 	 * The set of executing jobs. The key is the job's handle and the value is the job itself
 	 */
-	private final ConcurrentHashMap<ByteArray, BackendJobReturn> jobs = new ConcurrentHashMap<>();
-	private ClientJobSubmission pendingJob = null;
+	private final ConcurrentHashMap<ByteArray, ClientJobSubmission> jobs = new ConcurrentHashMap<>();
+	private volatile ClientJobSubmission pendingJob = null;
+	
+	/** The thread submitting the pending job. Guarded by this */
+	private Thread sender = null;
+	/** Set if a grab was requested while the pending job was being sent. Guarded by this */
+	private boolean regrab = false;
+	
+	/** The submission windows of the functions sent on this connection */
+	private final ConcurrentHashMap<String, SubmitWindow> windows = new ConcurrentHashMap<>();
+	/**
+	 * Set while jobs wait because their functions' windows are full, so the jobs finishing
+	 * on this connection grab the next job
+	 */
+	private volatile boolean isWindowFull = false;
+	/** The functions turned away by the last grab. Guarded by this */
+	private Set<String> fullFunctions = Collections.emptySet();
+	/** The time of the next scheduled grab, or 0 if none is scheduled. Guarded by this */
+	private long scheduledGrab = 0;
+	
+	private final ScheduledExecutorService scheduler;
+	
+	private final ConnectionStats stats = new ConnectionStats();
+	
+	/**
+	 * The number of OPTION_REQ packets sent and not yet answered. The server answers
+	 * packets in order, so while options are pending the next OPTION_RES or ERROR answers
+	 * an option
+	 */
+	private final AtomicInteger pendingOptions = new AtomicInteger();
+	
+	/** Cleared if the server rejects the deadline option */
+	private volatile boolean isDeadlineSupported = true;
 	
 	private long responceTimeout = Long.MAX_VALUE;
 	private long idleTimeout = Long.MAX_VALUE;
 	
 	protected ClientConnectionController(AbstractJobServerPool<?> sc, GearmanServerInterface key) {
 		super(sc, key);
+		this.scheduler = sc.getGearman().getScheduler();
 	}
 	
 	@Override
 	public void onClose(ControllerState oldState) {
-		for(BackendJobReturn bjr : jobs.values()) {
-			bjr.eof(GearmanJobEventImmutable.GEARMAN_JOB_DISCONNECT);
+		for(ClientJobSubmission jobSub : jobs.values()) {
+			jobSub.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_DISCONNECT);
 		}
 	}
 	
+	/**
+	 * Returns the load and latency statistics of this connection
+	 * @return
+	 * 		The connection's statistics
+	 */
+	public final ConnectionStats getStats() {
+		return this.stats;
+	}
+	
 	public final void timeoutCheck(long time) {
 		if(time-this.responceTimeout>RESPONCE_TIMEOUT) {
 			super.timeout();
@@ -82,79 +138,335 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 	
 	protected final void close() {
 		if(this.pendingJob!=null) {
+			this.release(pendingJob);
 			this.requeueJob(pendingJob);
 			this.pendingJob = null;
 		}
 		
-		Iterator<BackendJobReturn> it = this.jobs.values().iterator();
+		Iterator<ClientJobSubmission> it = this.jobs.values().iterator();
 		while(it.hasNext()) {
-			BackendJobReturn jobReturn = it.next();
+			ClientJobSubmission jobSub = it.next();
 			it.remove();
-			jobReturn.eof(isShutdown() ? GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN : GearmanJobEventImmutable.GEARMAN_JOB_DISCONNECT);
+			this.release(jobSub);
+			jobSub.jobReturn.eof(isShutdown() ? GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN : GearmanJobEventImmutable.GEARMAN_JOB_DISCONNECT);
 		}
+		this.stats.onClose();
+		this.pendingOptions.set(0);
 		
 		this.responceTimeout = Long.MAX_VALUE;
 		this.idleTimeout = Long.MAX_VALUE;
 	}
 	
-	protected abstract ClientJobSubmission pollNextJob();
+	/**
+	 * Polls the next job of a function the filter accepts
+	 */
+	protected abstract ClientJobSubmission pollNextJob(ClientJobQueue.Filter filter);
 	protected abstract void requeueJob(ClientJobSubmission jobSub);
 	
+	/**
+	 * Called when the server acknowledges a foreground job with JOB_CREATED
+	 */
+	protected abstract void onJobCreated(ClientJobSubmission jobSub);
+	
+	/**
+	 * Called with the job handle of every job the server acknowledges with JOB_CREATED
+	 */
+	protected abstract void onJobHandle(byte[] jobHandle);
+	
+	/**
+	 * Called when jobs are left waiting because their function's window on this
+	 * connection is full. Other connections may take the jobs
+	 */
+	protected abstract void onWindowFull();
+	
+	/**
+	 * Tests if this connection only carries large payloads and streamed jobs. Reading from
+	 * it may then be suspended while a stream's reader falls behind
+	 */
+	protected abstract boolean isLargeLane();
+	
+	/**
+	 * Tests if the submission windows limit the jobs in flight
+	 */
+	protected abstract boolean isAdaptiveSubmission();
+	
+	/**
+	 * Returns the submission window of the given function on this connection
+	 */
+	public final SubmitWindow getWindow(final String functionName) {
+		SubmitWindow window = this.windows.get(functionName);
+		if(window==null) {
+			final SubmitWindow created = new SubmitWindow();
+			window = this.windows.putIfAbsent(functionName, created);
+			if(window==null) window = created;
+		}
+		return window;
+	}
+	
+	/**
+	 * Takes the next job from the queue and submits it, if this connection is not already
+	 * waiting on a submission
+	 * @return
+	 * 		<code>true</code> if a job was submitted
+	 */
 	protected final boolean grab() {
 		
-		final ClientJobSubmission jobSub;
-		synchronized(this) {
-			if(this.pendingJob!=null) return false;
-			jobSub = this.pollNextJob();
+		// Cheap check so busy connections can be skipped without taking the lock
+		if(this.pendingJob!=null) return false;
+		
+		final Thread current = Thread.currentThread();
+		final boolean isAdaptive = this.isAdaptiveSubmission();
+		boolean grabbed = false;
+		
+		for(;;) {
+			final ClientJobSubmission jobSub;
+			final WindowFilter filter;
+			long pause = 0;
+			boolean isNewlyFull = false;
+			synchronized(this) {
+				if(this.sender!=null) {
+					/*
+					 * A job is being sent. The server may have answered synchronously, from
+					 * within the send, before it queued the job. Let the sending thread send
+					 * the next job once the send returns, instead of recursing once per queued
+					 * job or sending ahead of the job the server is still queuing.
+					 */
+					this.regrab = true;
+					return false;
+				}
+				
+				if(this.pendingJob!=null) return grabbed;
+				
+				final long now = System.nanoTime();
+				
+				// Jobs of functions with full windows are skipped, not waited on
+				this.isWindowFull = false;
+				filter = new WindowFilter(now, isAdaptive);
+				jobSub = this.pollUnexpired(filter);
+				
+				if(jobSub!=null) {
+					final SubmitWindow window = this.getWindow(jobSub.functionName);
+					if(!window.tryAcquire(now, isAdaptive)) {
+						// Paused by a rejection since the filter accepted it
+						this.requeueJob(jobSub);
+						continue;
+					}
+					jobSub.hold(window, this);
+					this.pendingJob = jobSub;
+					this.sender = current;
+				}
+				
+				if(!filter.full.isEmpty()) {
+					isNewlyFull = !this.fullFunctions.containsAll(filter.full);
+					
+					// A paused window opens with time, rather than with a finished job
+					if(filter.pause>0 && (this.scheduledGrab==0 || now+filter.pause-this.scheduledGrab<0)) {
+						this.scheduledGrab = now+filter.pause;
+						pause = filter.pause;
+					}
+				}
+				this.fullFunctions = filter.full;
+			}
+			
+			if(pause>0) this.scheduleGrab(pause);
+			if(isNewlyFull) this.onWindowFull();
+			if(jobSub==null) return grabbed;
+			
+			final boolean again;
+			try {
+				this.sendJob(jobSub);
+				grabbed = true;
+			} finally {
+				synchronized(this) {
+					if(this.sender==current) this.sender = null;
+					again = this.regrab;
+					this.regrab = false;
+				}
+			}
+			
+			if(!again) return grabbed;
+		}
+	}
+	
+	/**
+	 * Grabs the next job once the given time has passed
+	 * @param delay
+	 * 		The delay in nanoseconds
+	 */
+	private final void scheduleGrab(final long delay) {
+		this.scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized(ClientConnectionController.this) {
+					ClientConnectionController.this.scheduledGrab = 0;
+				}
+				ClientConnectionController.this.grab();
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Accepts the functions with room in their windows on this connection. A function
+	 * turned away stays turned away for the rest of the grab, so its jobs keep their order
+	 */
+	private final class WindowFilter implements ClientJobQueue.Filter {
+		private final long now;
+		private final boolean isAdaptive;
+		
+		/** The functions turned away */
+		private Set<String> full = Collections.emptySet();
+		/** The shortest pause of the windows turned away, or 0 if none is paused */
+		private long pause = 0;
+		
+		private WindowFilter(final long now, final boolean isAdaptive) {
+			this.now = now;
+			this.isAdaptive = isAdaptive;
+		}
+		
+		@Override
+		public boolean accept(final String functionName) {
+			if(this.full.contains(functionName)) return false;
+			
+			final SubmitWindow window = ClientConnectionController.this.getWindow(functionName);
+			if(window.hasRoom(this.now, this.isAdaptive)) return true;
+			
+			/*
+			 * Flag the full window, then test it again. A job finishing in between either
+			 * sees the flag and grabs again, or leaves room this test sees.
+			 */
+			ClientConnectionController.this.isWindowFull = true;
+			if(window.hasRoom(this.now, this.isAdaptive)) return true;
+			
+			if(this.full.isEmpty()) this.full = new HashSet<>();
+			this.full.add(functionName);
 			
-			if(jobSub!=null) 
-				this.pendingJob = jobSub;
-			else
-				return false;
+			final long windowPause = window.getPause(this.now);
+			if(windowPause>0 && (this.pause==0 || windowPause<this.pause)) this.pause = windowPause;
+			return false;
 		}
+	}
+	
+	/**
+	 * Releases the job's place in its submission window and its in-flight count, without a
+	 * latency sample. A job is released once, so later calls do nothing
+	 * @return
+	 * 		<code>true</code> if the job was released by this call
+	 */
+	private final boolean release(final ClientJobSubmission jobSub) {
+		final SubmitWindow window = jobSub.takeWindow();
+		if(window==null) return false;
+		
+		this.stats.onFinish();
+		window.onFinish();
+		return true;
+	}
+	
+	/**
+	 * Releases a job that finished normally
+	 * @param latency
+	 * 		The job's latency, in nanoseconds
+	 */
+	private final void release(final ClientJobSubmission jobSub, final long latency) {
+		final SubmitWindow window = jobSub.takeWindow();
+		if(window==null) return;
 		
+		this.stats.onFinish();
+		window.onSuccess(latency);
+	}
+	
+	/**
+	 * Called when the deadline of a job sent on this connection passes. The job's later
+	 * events are ignored, so it's released now rather than when the server answers
+	 */
+	final void onDeadline(final ClientJobSubmission jobSub) {
+		if(this.release(jobSub)) this.grab();
+	}
+	
+	/**
+	 * Polls the next job, dropping the jobs that expired while queued. The deadline timer
+	 * delivers their deadline events
+	 */
+	private final ClientJobSubmission pollUnexpired(final ClientJobQueue.Filter filter) {
+		ClientJobSubmission jobSub;
+		long now = 0;
+		while((jobSub=this.pollNextJob(filter))!=null) {
+			if(jobSub.deadline==null) return jobSub;
+			if(now==0) now = System.nanoTime();
+			if(!jobSub.isExpired(now)) return jobSub;
+		}
+		return null;
+	}
+	
+	private final void sendJob(final ClientJobSubmission jobSub) {
 		final GearmanJobPriority p = jobSub.priority;
 		final String funcName = jobSub.functionName;
-		final byte[] data = jobSub.data;
+		final byte[] data = toArray(jobSub.data);
+		final ByteBuffer buffer = jobSub.data;
 		final byte[] uID = jobSub.uniqueID;
 		
+		jobSub.sendTime = System.nanoTime();
+		this.stats.onSubmit();
+		
+		if(jobSub.deadline!=null && this.isDeadlineSupported) {
+			/*
+			 * Tells the server the job's deadline, so the job is dropped if it's still queued
+			 * when the deadline passes. The option applies to the next submission only
+			 */
+			final long remaining = TimeUnit.NANOSECONDS.toMillis(jobSub.deadline.getRemaining(jobSub.sendTime));
+			this.pendingOptions.incrementAndGet();
+			this.sendPacket(GearmanPacket.createOPTION_REQ("deadline=" + Math.max(remaining, 1)), null);
+		}
+		
 		if(jobSub.isBackground) {
 			switch(p) {
 			case LOW_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB_LOW_BG(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB_LOW_BG(funcName, uID, data): GearmanPacket.createSUBMIT_JOB_LOW_BG(funcName, uID, buffer), jobSendCallback);
 				break;
 			case HIGH_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB_HIGH_BG(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB_HIGH_BG(funcName, uID, data): GearmanPacket.createSUBMIT_JOB_HIGH_BG(funcName, uID, buffer), jobSendCallback);
 				break;
 			case NORMAL_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB_BG(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB_BG(funcName, uID, data): GearmanPacket.createSUBMIT_JOB_BG(funcName, uID, buffer), jobSendCallback);
 				break;
 			}
 		} else {
 		
 			switch(p) {
 			case LOW_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB_LOW(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB_LOW(funcName, uID, data): GearmanPacket.createSUBMIT_JOB_LOW(funcName, uID, buffer), jobSendCallback);
 				break;
 			case HIGH_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB_HIGH(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB_HIGH(funcName, uID, data): GearmanPacket.createSUBMIT_JOB_HIGH(funcName, uID, buffer), jobSendCallback);
 				break;
 			case NORMAL_PRIORITY:
-				this.sendPacket(GearmanPacket.createSUBMIT_JOB(funcName, uID, data), jobSendCallback);
+				this.sendPacket(data!=null? GearmanPacket.createSUBMIT_JOB(funcName, uID, data): GearmanPacket.createSUBMIT_JOB(funcName, uID, buffer), jobSendCallback);
 				break;
 			}
 		}
-		
-		return true;
 	}
 		
+	/**
+	 * Returns the array holding the job's data if the data is small and spans the array.
+	 * Such jobs are encoded into a single buffer. Larger jobs are written from the job's
+	 * buffer as it is, so the data isn't copied into the encoded packet first
+	 * @return
+	 * 		The buffer's array, or <code>null</code> if the data should be written from the buffer
+	 */
+	private static final byte[] toArray(final ByteBuffer data) {
+		if(data.remaining()>=ENCODE_MAX || !data.hasArray() || data.arrayOffset()!=0 || data.position()!=0) return null;
+		
+		final byte[] array = data.array();
+		return data.remaining()==array.length? array: null;
+	}
+	
 	@Override
 	public void onPacketReceived(GearmanPacket packet, GearmanConnection<Object> conn) {
-		LOGGER.info(GearmanUtils.toString(conn) + " : IN : " + packet.getPacketType());
+		if(LOGGER.isInfoEnabled())
+			LOGGER.info(GearmanUtils.toString(conn) + " : IN : " + packet.getPacketType());
 		
 		switch (packet.getPacketType()) {
 		case JOB_CREATED:
-			jobCreated(packet);
+			jobCreated(packet, conn);
 			break;
 		case WORK_STATUS:
 			workStatus(packet);
@@ -179,7 +491,7 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 			assert false;
 			break;
 		case OPTION_RES:
-			//TODO
+			this.optionRes();
 			break;
 		case WORK_DATA:
 			workData(packet);
@@ -194,28 +506,28 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 	
 	private final void workWarning(final GearmanPacket packet) {
 		final ByteArray jobHandle = new ByteArray(packet.getArgumentData(0));
-		final BackendJobReturn jobReturn = this.jobs.get(jobHandle);
+		final ClientJobSubmission jobSub = this.jobs.get(jobHandle);
 		
-		if(jobReturn==null) {
+		if(jobSub==null) {
 			LOGGER.warn("Unexspected Packet : WORK_WARNING : "+ jobHandle.toString(GearmanUtils.getCharset()));
 			return;
 		}
 		
 		final byte[] warning = packet.getArgumentData(1);
-		jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_WARNING, warning));
+		jobSub.jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_WARNING, warning));
 	}
 	
 	private final void workData(final GearmanPacket packet) {
 		final ByteArray jobHandle = new ByteArray(packet.getArgumentData(0));
-		final BackendJobReturn jobReturn = this.jobs.get(jobHandle);
+		final ClientJobSubmission jobSub = this.jobs.get(jobHandle);
 		
-		if(jobReturn==null) {
+		if(jobSub==null) {
 			LOGGER.warn("Unexspected Packet : WORK_DATA : "+ jobHandle.toString(GearmanUtils.getCharset()));
 			return;
 		}
 		
 		final byte[] data= packet.getArgumentData(1);
-		jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_DATA, data));
+		jobSub.jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_DATA, data));
 	}
 
 /*
@@ -244,20 +556,23 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 		/*
 		 * Note: synchronization is not needed here.
 		 */
-		final BackendJobReturn jobReturn = this.jobs.remove(jobHandle);
+		final ClientJobSubmission jobSub = this.jobs.remove(jobHandle);
 		if(this.jobs.isEmpty()) {
 			this.idleTimeout = System.currentTimeMillis();
 		}
 		
-		if(jobReturn==null) {
+		if(jobSub==null) {
 			LOGGER.warn("Unexspected Packet : WORK_FAIL : "+ jobHandle.toString(GearmanUtils.getCharset()));
 			return;
 		}
 		
-		jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		this.release(jobSub);
+		jobSub.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		
+		if(this.isWindowFull) this.grab();
 	}
 	
-	private final void jobCreated(final GearmanPacket packet) {
+	private final void jobCreated(final GearmanPacket packet, final GearmanConnection<?> conn) {
 		final ClientJobSubmission jobSub;
 		
 		synchronized(this.jobs) {
@@ -269,11 +584,34 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 		
 		final byte[] jobHandle = packet.getArgumentData(0);
 		
+		jobSub.createdTime = System.nanoTime();
+		this.stats.recordCreated(jobSub.createdTime-jobSub.sendTime);
+		this.onJobHandle(jobHandle);
+		
 		if(jobSub.isBackground) {
+			this.release(jobSub, jobSub.createdTime-jobSub.sendTime);
 			jobReturn.eof(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS, jobHandle));
 		} else {
+			/*
+			 * A streamed job may slow a large payload lane down when its reader falls
+			 * behind. On other connections the stream buffers its output instead, so the
+			 * connection's other jobs aren't held back.
+			 */
+			if(jobSub.stream!=null && this.isLargeLane()) jobSub.stream.bind(conn);
 			jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS, jobHandle));
-			this.jobs.put(new ByteArray(jobHandle), jobReturn);
+			
+			/*
+			 * Jobs with the same unique ID are coalesced by the server and share a job
+			 * handle. If this connection already waits on the handle, both returns
+			 * receive the job's events.
+			 */
+			final ClientJobSubmission current = this.jobs.putIfAbsent(new ByteArray(jobHandle), jobSub);
+			if(current!=null) {
+				current.jobReturn = new CoalescedJobReturn(current.jobReturn, jobReturn);
+				this.release(jobSub);
+			}
+			
+			this.onJobCreated(jobSub);
 		}
 		
 		this.grab();
@@ -282,9 +620,9 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 	private final void workStatus(final GearmanPacket packet) {
 		
 		final ByteArray jobHandle = new ByteArray(packet.getArgumentData(0));
-		final BackendJobReturn jobReturn = ClientConnectionController.this.jobs.get(jobHandle);
+		final ClientJobSubmission jobSub = this.jobs.get(jobHandle);
 		
-		if(jobReturn==null) {
+		if(jobSub==null) {
 			LOGGER.warn("Unexspected Packet : WORK_STATUS : "+ jobHandle.toString(GearmanUtils.getCharset()));
 			return;
 		}
@@ -300,7 +638,7 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 			data[i+1+numerator.length] = denominator[i];
 		}
 		
-		jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_STATUS, data));				
+		jobSub.jobReturn.put(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_STATUS, data));				
 	}
 			
 	private final void workComplete(final GearmanPacket packet) {
@@ -309,25 +647,113 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 		/*
 		 * Note: synchronization is not needed here.
 		 */
-		final BackendJobReturn jobReturn = this.jobs.remove(jobHandle);
+		final ClientJobSubmission jobSub = this.jobs.remove(jobHandle);
 		if(this.jobs.isEmpty()) {
 			this.idleTimeout = System.currentTimeMillis();
 		}
 		
-		if(jobReturn==null) {
+		if(jobSub==null) {
 			LOGGER.warn("Unexspected Packet : WORK_COMPLETE : "+ jobHandle.toString(GearmanUtils.getCharset()));
 			return;
 		}
 		
+		final long time = System.nanoTime();
+		this.stats.recordCompleted(time-jobSub.createdTime);
+		this.stats.recordRoundTrip(time-jobSub.sendTime);
+		// The window follows the time the server takes to queue a job, not the job's run time
+		this.release(jobSub, jobSub.createdTime-jobSub.sendTime);
+		
 		final byte[] data = packet.getArgumentData(1);
-		jobReturn.eof(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_SUCCESS, data));
+		jobSub.jobReturn.eof(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_SUCCESS, data));
+		
+		if(this.isWindowFull) this.grab();
+	}
+	
+	private final boolean takePendingOption() {
+		int current;
+		do {
+			current = this.pendingOptions.get();
+			if(current==0) return false;
+		} while(!this.pendingOptions.compareAndSet(current, current-1));
+		return true;
+	}
+	
+	private final void optionRes() {
+		if(!this.takePendingOption())
+			LOGGER.warn("Unexspected Packet : OPTION_RES");
 	}
 	
 	private final void error(final GearmanPacket packet) {
 		final String errorCode = new String(packet.getArgumentData(0), GearmanUtils.getCharset());
 		final String errorText = new String(packet.getArgumentData(1), GearmanUtils.getCharset());
 		
-		LOGGER.error("Recived Error Packet: " + errorText + "(" + errorCode + ")");
+		if(this.takePendingOption()) {
+			// The server does not support job deadlines. Deadlines are still enforced by the client
+			if(this.isDeadlineSupported) {
+				this.isDeadlineSupported = false;
+				LOGGER.info("Job server does not support deadlines: " + errorText + "(" + errorCode + ")");
+			}
+			return;
+		}
+		
+		final ClientJobSubmission jobSub;
+		synchronized(this.jobs) {
+			jobSub = this.pendingJob;
+			this.pendingJob = null;
+		}
+		
+		if(jobSub==null) {
+			LOGGER.error("Recived Error Packet: " + errorText + "(" + errorCode + ")");
+			return;
+		}
+		
+		// The server rejected the pending submission
+		if(errorCode.equals(QUEUE_FULL)) {
+			final SubmitWindow window = jobSub.takeWindow();
+			if(window!=null) {
+				this.stats.onFinish();
+				window.onQueueFull(System.nanoTime());
+			}
+			
+			if(++jobSub.rejections<=QUEUE_FULL_RETRIES) {
+				// Sent again once the function's submissions resume, here or on another server
+				this.requeueJob(jobSub);
+			} else {
+				jobSub.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_QUEUE_FULL);
+			}
+		} else {
+			LOGGER.error("Job Rejected: " + errorText + "(" + errorCode + ")");
+			
+			this.release(jobSub);
+			jobSub.jobReturn.eof(new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_SUBMIT_FAIL, packet.getArgumentData(1)));
+		}
+		
+		this.grab();
+	}
+	
+	/**
+	 * Forwards the events of a coalesced job to every submission waiting on it
+	 */
+	private static final class CoalescedJobReturn implements BackendJobReturn {
+		private final BackendJobReturn first;
+		private final BackendJobReturn second;
+		
+		private CoalescedJobReturn(BackendJobReturn first, BackendJobReturn second) {
+			this.first = first;
+			this.second = second;
+		}
+		
+		@Override
+		public void put(GearmanJobEvent event) {
+			first.put(event);
+			second.put(event);
+		}
+
+		@Override
+		public void eof(GearmanJobEvent lastevent) {
+			first.eof(lastevent);
+			second.eof(lastevent);
+		}
 	}
 	
 	private final class InnerGearmanCallback implements GearmanCallbackHandler<GearmanPacket, SendCallbackResult>  {
@@ -342,6 +768,7 @@ abstract class ClientConnectionController extends AbstractConnectionController {
 				}
 				
 				// TODO log
+				release(jobSub);
 				jobSub.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SEND_FAILED);
 				
 				grab();
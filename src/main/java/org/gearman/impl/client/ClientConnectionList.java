@@ -49,7 +49,8 @@ class ClientConnectionList <V, K> {
 	private Node head = null;
 	private Node tail = null;
 	
-	private int size = 0;
+	/** The number of nodes. Volatile so it may be checked without locking */
+	private volatile int size = 0;
 	
 	public int size() {
 		return size;
@@ -27,23 +27,37 @@
 
 package org.gearman.impl.client;
 
-import java.util.Deque;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import org.gearman.GearmanClient;
+import org.gearman.GearmanConnectionSelection;
 import org.gearman.GearmanJobEvent;
 import org.gearman.GearmanJobEventCallback;
+import org.gearman.GearmanJobFuture;
+import org.gearman.GearmanJobOptions;
 import org.gearman.GearmanJobPriority;
 import org.gearman.GearmanJobReturn;
 import org.gearman.GearmanJobStatus;
+import org.gearman.GearmanJobStream;
 import org.gearman.GearmanJoin;
 import org.gearman.GearmanLostConnectionAction;
 import org.gearman.GearmanLostConnectionGrounds;
 import org.gearman.GearmanLostConnectionPolicy;
+import org.gearman.GearmanRoutingPolicy;
+import org.gearman.GearmanStatusFuture;
+import org.gearman.GearmanUniqueIdGenerator;
 import org.gearman.impl.GearmanImpl;
 import org.gearman.impl.server.GearmanServerInterface;
 import org.gearman.impl.serverpool.AbstractJobServerPool;
@@ -51,20 +65,90 @@ import org.gearman.impl.serverpool.ControllerState;
 import org.gearman.impl.serverpool.GearmanJobStatusImpl;
 import org.gearman.impl.util.ByteArray;
 import org.gearman.impl.util.GearmanUtils;
+import org.gearman.impl.util.SequenceUniqueIdGenerator;
 import org.gearman.impl.util.TaskJoin;
 
 public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnectionController> implements GearmanClient {
 
 	protected class InnerConnectionController extends ClientConnectionController {
 		
+		/** Jobs routed to this server by the routing policy */
+		private final ClientJobQueue routed = new ClientJobQueue();
 		
-		protected InnerConnectionController(GearmanServerInterface key) {
+		/** The controller's position among the connections to the server */
+		private final int index;
+		
+		/**
+		 * If <code>true</code>, this connection only carries large payloads routed to it. It
+		 * is kept out of the open and available sets.
+		 */
+		private final boolean isLargeLane;
+		
+		/** The job handle prefix last learned from this connection */
+		private volatile byte[] handlePrefix;
+		
+		protected InnerConnectionController(GearmanServerInterface key, int index) {
 			super(ClientImpl.this, key);
+			this.index = index;
+			this.isLargeLane = index>0 && ClientImpl.this.connectionSelection.equals(GearmanConnectionSelection.SEPARATE_LARGE_PAYLOADS);
 		}
 
 		@Override
-		protected ClientJobSubmission pollNextJob() {
-			return ClientImpl.this.pollJob();
+		protected ClientJobSubmission pollNextJob(ClientJobQueue.Filter filter) {
+			if(this.isLargeLane) return this.routed.poll(filter);
+			
+			// Take the routed job first, unless a shared job has a higher priority
+			final GearmanJobPriority routedPriority = this.routed.peekPriority();
+			if(routedPriority!=null) {
+				final GearmanJobPriority sharedPriority = ClientImpl.this.jobQueue.peekPriority();
+				if(sharedPriority==null || routedPriority.ordinal()>=sharedPriority.ordinal()) {
+					final ClientJobSubmission jobSub = this.routed.poll(filter);
+					if(jobSub!=null) return jobSub;
+				}
+			}
+			
+			final ClientJobSubmission jobSub = ClientImpl.this.pollJob(filter);
+			return jobSub!=null? jobSub: this.routed.poll(filter);
+		}
+		
+		@Override
+		protected void onJobCreated(ClientJobSubmission jobSub) {
+			if(jobSub.hedge!=null)
+				ClientImpl.this.scheduleHedge(this, jobSub);
+		}
+		
+		@Override
+		protected void onJobHandle(byte[] jobHandle) {
+			final int end = prefixEnd(jobHandle);
+			if(end<0) return;
+			
+			// Servers use one prefix for all their handles, so the prefix is only learned once
+			final byte[] last = this.handlePrefix;
+			if(last!=null && last.length==end && hasPrefix(jobHandle, last)) return;
+			
+			final byte[] prefix = Arrays.copyOf(jobHandle, end);
+			this.handlePrefix = prefix;
+			ClientImpl.this.learnPrefix(new String(prefix, GearmanUtils.getCharset()), super.getKey());
+		}
+		
+		@Override
+		protected void onWindowFull() {
+			if(this.isLargeLane) return;
+			
+			// Let the other servers take the shared jobs
+			for(InnerConnectionController icc : ClientImpl.this.open) {
+				if(icc!=this) icc.grab();
+			}
+		}
+		
+		@Override
+		protected boolean isLargeLane() {
+			return this.isLargeLane;
+		}
+		
+		@Override
+		protected boolean isAdaptiveSubmission() {
+			return ClientImpl.this.isAdaptiveSubmission;
 		}
 		
 		@Override
@@ -73,11 +157,35 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 			 * Note: this method may me called by super.close()
 			 */
 			
-			ClientImpl.this.requeueJob(jobSub);
+			if(jobSub.isRouted)
+				this.routed.addFirst(jobSub);
+			else
+				ClientImpl.this.requeueJob(jobSub);
+		}
+		
+		/**
+		 * Hands the routed jobs back to the pool once this connection can no longer
+		 * take them. They are then sent to any server.
+		 */
+		private void flushRouted() {
+			ClientJobSubmission jobSub;
+			while((jobSub=this.routed.poll())!=null) {
+				jobSub.routingKey = null;
+				jobSub.isRouted = false;
+				ClientImpl.this.addJob(jobSub);
+			}
 		}
 		
 		@Override
 		public void onLostConnection(GearmanLostConnectionPolicy policy, GearmanLostConnectionGrounds grounds) {
+			try {
+				this.lostConnection(policy, grounds);
+			} finally {
+				this.flushRouted();
+			}
+		}
+		
+		private void lostConnection(GearmanLostConnectionPolicy policy, GearmanLostConnectionGrounds grounds) {
 			super.close();
 			
 			if(this.getKey().isShutdown()) {
@@ -105,6 +213,8 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 			} else {
 				// reconnect
 				
+				if(this.isLargeLane) return;
+				
 				switch(grounds) {
 				case UNEXPECTED_DISCONNECT:
 				case RESPONSE_TIMEOUT:
@@ -128,19 +238,22 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 		public void onDrop(ControllerState oldState) {
 			super.close();
 			ClientImpl.this.dropController(this, oldState);
+			this.flushRouted();
 		}
 		
 		@Override
 		public void onWait(ControllerState oldState) {
 			super.close();
+			this.flushRouted();
 		}
 		
 		@Override
 		public void onClose(ControllerState oldState) {
 			super.close();
 			super.onClose(oldState);
-			if(oldState.equals(ControllerState.OPEN))
+			if(oldState.equals(ControllerState.OPEN) && !this.isLargeLane)
 				ClientImpl.this.onClose(this);
+			this.flushRouted();
 		}
 
 		@Override
@@ -150,59 +263,138 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 
 		@Override
 		public void onOpen(ControllerState oldState) {
-			ClientImpl.this.onConnectionOpen(this);
+			if(this.isLargeLane)
+				this.grab();
+			else
+				ClientImpl.this.onConnectionOpen(this);
 		}
 	}
 	
-	/** The set of open connections */ 
-	private final Queue<InnerConnectionController> open = new LinkedBlockingQueue<InnerConnectionController>();
+	/**
+	 * The set of open connections. Changes are made while holding its lock, but it may be
+	 * read and iterated without locking
+	 */ 
+	private final List<InnerConnectionController> open = new CopyOnWriteArrayList<InnerConnectionController>();
 	
 	/** The set of available connections*/
 	private final ClientConnectionList<InnerConnectionController, ClientJobSubmission> available = new ClientConnectionList<InnerConnectionController, ClientJobSubmission>();
 	
-	/** The set of jobs waiting to be submitted */
-	private final Deque<ClientJobSubmission> jobQueue = new LinkedBlockingDeque<ClientJobSubmission>();
+	/** The set of jobs waiting to be submitted, ordered by priority */
+	private final ClientJobQueue jobQueue = new ClientJobQueue();
+	
+	/** All servers in the pool, used by the consistent-hash routing policy */
+	private final ConsistentHashRing<GearmanServerInterface> ring = new ConsistentHashRing<GearmanServerInterface>();
+	
+	private volatile GearmanRoutingPolicy routingPolicy = GearmanRoutingPolicy.ANY_SERVER;
+	
+	private volatile GearmanUniqueIdGenerator uniqueIdGenerator = SequenceUniqueIdGenerator.INSTANCE;
+	
+	private volatile GearmanConnectionSelection connectionSelection = GearmanConnectionSelection.ANY_CONNECTION;
+	
+	private volatile int largePayloadThreshold = 64*1024;
+	
+	private volatile int streamBufferSize = 4*1024*1024;
+	
+	/** The functions whose jobs are all hedged */
+	private final Set<String> hedgedFunctions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	private volatile double hedgePercentile = 0.95;
+	
+	/** Limits copies to a tenth of the hedged jobs, while allowing short bursts */
+	private static final int HEDGE_COST = 10;
+	private static final int HEDGE_TOKENS_MAX = 100 * HEDGE_COST;
+	private final HedgeBudget hedgeBudget = new HedgeBudget(HEDGE_COST, HEDGE_TOKENS_MAX);
+	
+	private volatile boolean isAdaptiveSubmission = false;
+	
+	/** The server that assigns each job handle prefix, learned from JOB_CREATED packets */
+	private final ConcurrentHashMap<String, GearmanServerInterface> handleOwners = new ConcurrentHashMap<String, GearmanServerInterface>();
+	/** The job handle prefixes assigned by more than one server */
+	private final Set<String> sharedPrefixes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/** Expires the jobs submitted with a deadline */
+	private final DeadlineTimer deadlineTimer;
 	
 	public ClientImpl(GearmanImpl gearman) {
 		super(gearman, new ClientLostConnectionPolicy(), 0L, TimeUnit.MILLISECONDS);
+		this.deadlineTimer = new DeadlineTimer(gearman.getScheduler());
 	}
 	
 	@Override
-	protected InnerConnectionController createController(GearmanServerInterface key) {
-		return new InnerConnectionController(key);
+	protected InnerConnectionController createController(GearmanServerInterface key, int index) {
+		return new InnerConnectionController(key, index);
 	}
 	
 	private final void addJob(ClientJobSubmission job) {
+		
+		final boolean isLarge = this.isLarge(job);
+		
+		if(job.routingKey!=null) {
+			final GearmanServerInterface key = this.ring.get(job.routingKey);
+			if(key!=null && this.routeJob(job, this.selectConnection(key, isLarge))) return;
+			job.routingKey = null;
+		} else if(isLarge) {
+			if(this.routeJob(job, this.chooseLargeLane())) return;
+		} else if(this.routingPolicy.equals(GearmanRoutingPolicy.POWER_OF_TWO_CHOICES)) {
+			final InnerConnectionController icc = this.chooseOpen();
+			if(icc!=null && this.routeJob(job, icc)) {
+				// Connect to the remaining servers, so they can be chosen
+				this.openAvailable();
+				return;
+			}
+		}
+		
+		if(!this.open.isEmpty()) {
+			/*
+			 * Fast path: at least one connection is open. The job is queued and handed to
+			 * the first idle connection without taking the pool lock. If every connection
+			 * is busy, the job is picked up when one of them finishes its current
+			 * submission.
+			 */
+			this.jobQueue.add(job);
+			
+			for(InnerConnectionController icc : this.open) {
+				if(icc.grab()) return;
+			}
+			
+			/*
+			 * The job is queued before the open set is checked again. If the last open
+			 * connection closes concurrently, either its onClose sees the job, or this
+			 * check sees the empty open set.
+			 */
+			if(!this.open.isEmpty())
+				this.openAvailable();
+			else
+				this.connectForQueue();
+			
+			return;
+		}
 	
 		InnerConnectionController conn = null;
 		
 		synchronized(this.open) {
 			
 			if(!this.open.isEmpty()) {
-				this.jobQueue.addLast(job);
+				this.jobQueue.add(job);
 				
 				for(InnerConnectionController icc : this.open) {
 					if(icc.grab()) return;
 				}
 				
-				final InnerConnectionController icc;
-				if ((icc = this.available.tryFirst(null))!=null){
-					// Make a connection
-					conn = icc;
-				}
+				conn = this.available.tryFirst(null);
 				
 			} else {
 				
 				final InnerConnectionController icc;
 				if ((icc = this.available.tryFirst(job))!=null){
 					// Add job to job queue
-					this.jobQueue.addLast(job);
+					this.jobQueue.add(job);
 					
 					// Make a connection
 					conn = icc;
 				} else {
 					// No available servers to connect to, fail job
-					job.jobReturn.put(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN);
+					job.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN);
 				}
 			}
 		}
@@ -210,6 +402,228 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 		if(conn!=null) conn.openServer(false);
 	}
 	
+	/**
+	 * Opens the next available connection, if there is one
+	 */
+	private final void openAvailable() {
+		if(this.available.size()==0) return;
+		
+		final InnerConnectionController conn;
+		synchronized(this.open) {
+			conn = this.available.tryFirst(null);
+		}
+		if(conn!=null) conn.openServer(false);
+	}
+	
+	/**
+	 * Called when queued jobs may have been left behind by the last open connection.
+	 * Makes a new connection for them, or fails them if no server is available.
+	 */
+	private final void connectForQueue() {
+		final InnerConnectionController conn;
+		
+		synchronized(this.open) {
+			if(!this.open.isEmpty()) return;
+			
+			final ClientJobSubmission job = this.jobQueue.peekNewest();
+			if(job==null) return;
+			
+			conn = this.available.tryFirst(job);
+			if(conn==null) {
+				this.failTo(job, GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVER_NOT_AVAILABLE);
+				return;
+			}
+		}
+		
+		conn.openServer(false);
+	}
+	
+	private final boolean isLarge(final ClientJobSubmission job) {
+		// Streamed jobs also take the large payload lanes, as their reading may be suspended
+		return this.connectionSelection.equals(GearmanConnectionSelection.SEPARATE_LARGE_PAYLOADS)
+				&& (job.stream!=null || job.data.remaining()>=this.largePayloadThreshold);
+	}
+	
+	/**
+	 * Schedules the copy of a hedged job. The copy is sent if the job has not completed
+	 * once the given percentile of the connection's recent round trips has passed.
+	 */
+	private final void scheduleHedge(final InnerConnectionController icc, final ClientJobSubmission job) {
+		final HedgedJobReturn hedge = job.hedge;
+		if(hedge.isDone() || hedge.isHedged()) return;
+		
+		final long percentile = icc.getStats().getRoundTripPercentile(this.hedgePercentile);
+		if(percentile<0) return;	// Too few samples to know what is slow
+		
+		final long delay = Math.max(0, percentile - (job.createdTime-job.sendTime));
+		final GearmanServerInterface key = icc.getKey();
+		
+		hedge.setTimer(super.getGearman().getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				ClientImpl.this.hedge(key, job);
+			}
+		}, delay, TimeUnit.NANOSECONDS));
+	}
+	
+	/**
+	 * Sends a copy of the hedged job to the least loaded server, other than the one
+	 * running the job
+	 */
+	private final void hedge(final GearmanServerInterface running, final ClientJobSubmission job) {
+		final HedgedJobReturn hedge = job.hedge;
+		if(hedge.isDone() || hedge.isHedged()) return;
+		
+		final boolean isLarge = this.isLarge(job);
+		
+		InnerConnectionController icc = null;
+		double load = 0;
+		for(GearmanServerInterface key : super.getConnections().keySet()) {
+			if(key.equals(running)) continue;
+			
+			final InnerConnectionController conn = this.selectConnection(key, isLarge);
+			if(conn==null) continue;
+			
+			final double connLoad = conn.getStats().getLoad(conn.routed.size());
+			if(icc==null || connLoad<load) {
+				icc = conn;
+				load = connLoad;
+			}
+		}
+		
+		if(icc==null || !this.hedgeBudget.take()) return;
+		
+		final BackendJobReturn copyReturn = hedge.createHedge();
+		if(copyReturn==null) return;
+		
+		final ClientJobSubmission copy = new ClientJobSubmission(job.functionName, job.data, job.uniqueID, copyReturn, job.priority, false);
+		copy.deadline = job.deadline;
+		if(copy.deadline!=null) copy.deadline.addSubmission(copy);
+		if(!this.routeJob(copy, icc))
+			copyReturn.eof(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVER_NOT_AVAILABLE);
+	}
+	
+	/**
+	 * Picks the connection to the given server that should carry the job
+	 * @param key
+	 * 		The server
+	 * @param isLarge
+	 * 		<code>true</code> if the job has a large payload
+	 * @return
+	 * 		The chosen connection, or <code>null</code> if the server has no usable connection
+	 */
+	private final InnerConnectionController selectConnection(final GearmanServerInterface key, final boolean isLarge) {
+		final List<InnerConnectionController> conns = super.getConnections().get(key);
+		if(conns==null) return null;
+		
+		InnerConnectionController value = null;
+		if(isLarge) value = this.leastLoaded(conns, true);
+		if(value==null) value = this.leastLoaded(conns, false);
+		return value;
+	}
+	
+	/**
+	 * Picks the least loaded large payload connection across all servers
+	 * @return
+	 * 		The chosen connection, or <code>null</code> if there are no usable large payload
+	 * 		connections
+	 */
+	private final InnerConnectionController chooseLargeLane() {
+		InnerConnectionController value = null;
+		double load = 0;
+		
+		for(List<InnerConnectionController> conns : super.getConnections().values()) {
+			final InnerConnectionController icc = this.leastLoaded(conns, true);
+			if(icc==null) continue;
+			
+			final double iccLoad = icc.getStats().getLoad(icc.routed.size());
+			if(value==null || iccLoad<load) {
+				value = icc;
+				load = iccLoad;
+			}
+		}
+		
+		return value;
+	}
+	
+	private final InnerConnectionController leastLoaded(final List<InnerConnectionController> conns, final boolean isLargeLane) {
+		InnerConnectionController value = null;
+		double load = 0;
+		
+		for(InnerConnectionController icc : conns) {
+			if(icc.isLargeLane!=isLargeLane || icc.isWaiting() || icc.isDropped()) continue;
+			
+			final double iccLoad = icc.getStats().getLoad(icc.routed.size());
+			if(value==null || iccLoad<load) {
+				value = icc;
+				load = iccLoad;
+			}
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Picks two open connections at random and returns the one with the lower load. Load
+	 * is the connection's average job latency scaled by its outstanding jobs, so a slow
+	 * or backed-up server receives fewer new jobs.
+	 * @return
+	 * 		The chosen connection, or <code>null</code> if no connection is open
+	 */
+	private final InnerConnectionController chooseOpen() {
+		final Object[] conns = this.open.toArray();
+		
+		switch(conns.length) {
+		case 0:
+			return null;
+		case 1:
+			return (InnerConnectionController)conns[0];
+		}
+		
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int i = random.nextInt(conns.length);
+		int j = random.nextInt(conns.length-1);
+		if(j>=i) j++;
+		
+		final InnerConnectionController a = (InnerConnectionController)conns[i];
+		final InnerConnectionController b = (InnerConnectionController)conns[j];
+		
+		return a.getStats().getLoad(a.routed.size()) <= b.getStats().getLoad(b.routed.size())? a: b;
+	}
+	
+	/**
+	 * Hands a job to the given connection.
+	 * @return
+	 * 		<code>true</code> if the connection took the job. <code>false</code> if the
+	 * 		server is unavailable and the job should be sent to any server
+	 */
+	private final boolean routeJob(final ClientJobSubmission job, final InnerConnectionController icc) {
+		if(icc==null) return false;
+		
+		job.isRouted = true;
+		
+		/*
+		 * The job is queued before the state is checked. If the connection closes
+		 * concurrently, either its flush picks up the job, or the state check below sees
+		 * the closed connection.
+		 */
+		icc.routed.add(job);
+		
+		if(icc.isOpen()) {
+			icc.grab();
+			return true;
+		}
+		
+		if(icc.isConnecting() || icc.openServer(false))
+			return true;
+		
+		// Waiting to reconnect or dropped. If the flush already took the job, it was handled
+		if(!icc.routed.remove(job)) return true;
+		
+		job.isRouted = false;
+		return false;
+	}
+	
 	private final void onConnectionOpen(final InnerConnectionController icc) {
 		synchronized(this.open) {
 			if(this.open.isEmpty())
@@ -228,12 +642,18 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 	}
 	
 	private final void addController(final InnerConnectionController icc) {
-		synchronized(this.open) {
-			this.available.add(icc);
+		if(!icc.isLargeLane) {
+			synchronized(this.open) {
+				this.available.add(icc);
+			}
 		}
+		if(icc.index==0) this.ring.add(icc.getKey());
 	}
 	
 	private final void dropController(final InnerConnectionController icc, final ControllerState oldState) {
+		if(icc.index==0) this.ring.remove(icc.getKey());
+		if(icc.isLargeLane) return;
+		
 		synchronized(this.open) {
 			assert icc.getState().equals(ControllerState.DROPPED);
 			
@@ -306,7 +726,7 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 				 */
 				
 				// Grab the last job added to the job queue, if one exits 
-				final ClientJobSubmission job = this.jobQueue.peekLast();
+				final ClientJobSubmission job = this.jobQueue.peekNewest();
 				if(job!=null) {
 					// If there are jobs in the jobQueue, make a new connection
 					
@@ -367,18 +787,16 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 			 */
 			
 			assert this.open.isEmpty();
-			assert this.jobQueue.contains(job);
 			
-			ClientJobSubmission current;
-			do {
-				current=this.jobQueue.pollFirst();
+			// Fail the job and every job queued before it, regardless of priority
+			for(ClientJobSubmission current : this.jobQueue.pollUpTo(job)) {
 				current.jobReturn.eof(failevent);
-			} while(current!=job);
+			}
 		}
 	}
 	
-	private final ClientJobSubmission pollJob() {
-		return this.jobQueue.poll();
+	private final ClientJobSubmission pollJob(ClientJobQueue.Filter filter) {
+		return this.jobQueue.poll(filter);
 	}
 	
 	private final void requeueJob(ClientJobSubmission job) {
@@ -397,15 +815,19 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 	@Override
 	public final void shutdown() {
 		synchronized(this.open) {
-			for(ClientJobSubmission jobSub : this.jobQueue){
+			for(ClientJobSubmission jobSub : this.jobQueue.clear()){
 				jobSub.jobReturn.eof(GearmanJobEventImmutable.GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN);
 			}
-			this.open.clear();
-			this.available.clear();
-			
-			super.shutdown();
-			super.getGearman().onServiceShutdown(this);
 		}
+		
+		/*
+		 * Connections are dropped outside of the lock. A connection closing concurrently
+		 * holds its own lock while it takes this one. Each dropped connection removes itself
+		 * from the open or available set.
+		 */
+		super.shutdown();
+		this.deadlineTimer.shutdown();
+		super.getGearman().onServiceShutdown(this);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -420,7 +842,7 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 			taskJoins = new TaskJoin[this.open.size()];
 			int i=0;
 			for(InnerConnectionController icc : this.open) {
-				taskJoins[i] = icc.getStatus(byteArray);
+				taskJoins[i++] = icc.getStatus(byteArray);
 			}
 			avail = this.available.createList();
 		}
@@ -439,6 +861,85 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 		return GearmanJobStatusImpl.NOT_KNOWN;
 	}
 
+	@Override
+	public GearmanStatusFuture getStatusAsync(Collection<byte[]> jobHandles) {
+		if(jobHandles==null) throw new NullPointerException();
+		
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		final Map<GearmanServerInterface, List<InnerConnectionController>> conns = super.getConnections();
+		final Set<String> requested = new HashSet<String>();
+		
+		for(byte[] jobHandle : jobHandles) {
+			final String key = new String(jobHandle, GearmanUtils.getCharset());
+			if(!requested.add(key)) continue;
+			
+			/*
+			 * Requests are written without waiting for answers, so each server answers all
+			 * of its requests in about one round trip. A job is only asked of the server
+			 * owning its handle's prefix, if known
+			 */
+			final ByteArray byteArray = new ByteArray(jobHandle);
+			final List<TaskJoin<GearmanJobStatus>> requests = new ArrayList<TaskJoin<GearmanJobStatus>>(1);
+			
+			final GearmanServerInterface owner = this.getOwner(jobHandle);
+			final List<InnerConnectionController> ownerConns = owner==null? null: conns.get(owner);
+			if(ownerConns!=null) {
+				requests.add(ownerConns.get(0).getStatus(byteArray));
+			} else {
+				for(List<InnerConnectionController> serverConns : conns.values()) {
+					requests.add(serverConns.get(0).getStatus(byteArray));
+				}
+			}
+			
+			future.add(key, requests);
+		}
+		
+		future.ready();
+		return future;
+	}
+	
+	/**
+	 * Returns the index of the last ':' in the job handle. Everything before it is the
+	 * handle's prefix, shared by all handles from the same server
+	 * @return
+	 * 		The prefix's length, or -1 if the handle has no prefix
+	 */
+	private static final int prefixEnd(final byte[] jobHandle) {
+		for(int i=jobHandle.length-1; i>0; i--) {
+			if(jobHandle[i]==':') return i;
+		}
+		return -1;
+	}
+	
+	private static final boolean hasPrefix(final byte[] jobHandle, final byte[] prefix) {
+		for(int i=0; i<prefix.length; i++) {
+			if(jobHandle[i]!=prefix[i]) return false;
+		}
+		return true;
+	}
+	
+	private final void learnPrefix(final String prefix, final GearmanServerInterface key) {
+		final GearmanServerInterface owner = this.handleOwners.putIfAbsent(prefix, key);
+		if(owner!=null && !owner.equals(key)) this.sharedPrefixes.add(prefix);
+	}
+	
+	/**
+	 * Returns the server that assigned the job handle
+	 * @return
+	 * 		The server, or <code>null</code> if unknown or if several servers use the
+	 * 		handle's prefix
+	 */
+	private final GearmanServerInterface getOwner(final byte[] jobHandle) {
+		if(this.handleOwners.isEmpty()) return null;
+		
+		final int end = prefixEnd(jobHandle);
+		if(end<0) return null;
+		
+		final String prefix = new String(jobHandle, 0, end, GearmanUtils.getCharset());
+		if(this.sharedPrefixes.contains(prefix)) return null;
+		return this.handleOwners.get(prefix);
+	}
+	
 	@Override
 	public GearmanJobReturn submitJob(String functionName, byte[] data) {
 		return submitJob(functionName, data, GearmanJobPriority.NORMAL_PRIORITY, false);
@@ -466,8 +967,23 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 	}
 	
 	private void submitJob(BackendJobReturn jobReturn, String functionName, byte[] data, GearmanJobPriority priority, boolean isBackground) {
+		submitJob(jobReturn, functionName, wrap(data), priority, isBackground, null, null, false, 0);
+	}
+	
+	private void submitJob(BackendJobReturn jobReturn, String functionName, ByteBuffer data, GearmanJobOptions options) {
+		if(options==null) options = new GearmanJobOptions();
+		submitJob(jobReturn, functionName, data, options.getPriority(), options.isBackground(), options.getUniqueID(), options.getRoutingKey(), options.isHedged(), options.getDeadline(TimeUnit.NANOSECONDS));
+	}
+	
+	private static ByteBuffer wrap(byte[] data) {
+		return ByteBuffer.wrap(data==null? new byte[0]: data);
+	}
+	
+	private void submitJob(BackendJobReturn jobReturn, String functionName, ByteBuffer data, GearmanJobPriority priority, boolean isBackground, byte[] uniqueID, byte[] routingKey, boolean isHedged, long deadline) {
 		if(functionName==null) throw new NullPointerException();
-		if(data==null) data = new byte[0];
+		
+		// The job keeps its own view of the data, so the caller's position and limit may change
+		data = data==null? ByteBuffer.allocate(0): data.slice();
 		if(priority==null) priority = GearmanJobPriority.NORMAL_PRIORITY;
 		
 		if(this.isShutdown()) {
@@ -478,7 +994,164 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 			return;
 		}
 		
-		this.addJob(new ClientJobSubmission(functionName, data, GearmanUtils.createUID() , jobReturn, priority, isBackground));
+		if(uniqueID==null) uniqueID = this.uniqueIdGenerator.createUniqueID();
+		
+		// A streamed job's output can't be taken from two copies of the job, so it's never hedged
+		final GearmanJobStreamImpl stream = jobReturn instanceof GearmanJobStreamImpl? (GearmanJobStreamImpl)jobReturn: null;
+		
+		DeadlineJobReturn deadlineReturn = null;
+		if(!isBackground && deadline>0) {
+			deadlineReturn = this.deadlineTimer.create(jobReturn, deadline);
+			jobReturn = deadlineReturn;
+		}
+		
+		HedgedJobReturn hedge = null;
+		if(!isBackground && stream==null && (isHedged || (!this.hedgedFunctions.isEmpty() && this.hedgedFunctions.contains(functionName)))) {
+			hedge = new HedgedJobReturn(jobReturn);
+			jobReturn = hedge;
+			this.hedgeBudget.deposit();
+		}
+		
+		final ClientJobSubmission jobSub = new ClientJobSubmission(functionName, data, uniqueID, jobReturn, priority, isBackground);
+		jobSub.hedge = hedge;
+		jobSub.deadline = deadlineReturn;
+		if(deadlineReturn!=null) deadlineReturn.addSubmission(jobSub);
+		jobSub.stream = stream;
+		if(this.routingPolicy.equals(GearmanRoutingPolicy.CONSISTENT_HASH))
+			jobSub.routingKey = routingKey!=null? routingKey: uniqueID;
+		
+		this.addJob(jobSub);
+	}
+	
+	@Override
+	public GearmanJobReturn submitJob(String functionName, byte[] data, GearmanJobOptions options) {
+		return submitJob(functionName, wrap(data), options);
+	}
+	
+	@Override
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobOptions options) {
+		return submitJobAsync(functionName, wrap(data), options);
+	}
+	
+	@Override
+	public GearmanJobReturn submitJob(String functionName, ByteBuffer data, GearmanJobOptions options) {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+		submitJob(jobReturn, functionName, data, options);
+		return jobReturn;
+	}
+	
+	@Override
+	public GearmanJobFuture submitJobAsync(String functionName, ByteBuffer data, GearmanJobOptions options) {
+		final GearmanJobFutureImpl future = new GearmanJobFutureImpl(null);
+		submitJob(future, functionName, data, options);
+		return future;
+	}
+	
+	@Override
+	public GearmanJobStream submitJobStream(String functionName, ByteBuffer data, GearmanJobOptions options) {
+		if(options!=null && options.isBackground()) throw new IllegalArgumentException("background jobs have no output to stream");
+		
+		final GearmanJobStreamImpl stream = new GearmanJobStreamImpl(this.streamBufferSize);
+		submitJob(stream, functionName, data, options);
+		return stream;
+	}
+	
+	@Override
+	public void setStreamBufferSize(int size) {
+		if(size<=0) throw new IllegalArgumentException("size must be positive: " + size);
+		this.streamBufferSize = size;
+	}
+	
+	@Override
+	public int getStreamBufferSize() {
+		return this.streamBufferSize;
+	}
+	
+	@Override
+	public void setRoutingPolicy(GearmanRoutingPolicy policy) {
+		this.routingPolicy = policy==null? GearmanRoutingPolicy.ANY_SERVER: policy;
+	}
+	
+	@Override
+	public GearmanRoutingPolicy getRoutingPolicy() {
+		return this.routingPolicy;
+	}
+	
+	@Override
+	public void setConnectionSelection(GearmanConnectionSelection selection) {
+		this.connectionSelection = selection==null? GearmanConnectionSelection.ANY_CONNECTION: selection;
+	}
+	
+	@Override
+	public GearmanConnectionSelection getConnectionSelection() {
+		return this.connectionSelection;
+	}
+	
+	@Override
+	public void setLargePayloadThreshold(int size) {
+		if(size<0) throw new IllegalArgumentException("size must not be negative: " + size);
+		this.largePayloadThreshold = size;
+	}
+	
+	@Override
+	public int getLargePayloadThreshold() {
+		return this.largePayloadThreshold;
+	}
+	
+	@Override
+	public void setHedged(String functionName, boolean isHedged) {
+		if(functionName==null) throw new NullPointerException();
+		
+		if(isHedged)
+			this.hedgedFunctions.add(functionName);
+		else
+			this.hedgedFunctions.remove(functionName);
+	}
+	
+	@Override
+	public boolean isHedged(String functionName) {
+		return this.hedgedFunctions.contains(functionName);
+	}
+	
+	@Override
+	public void setHedgePercentile(double percentile) {
+		if(!(percentile>0 && percentile<=1)) throw new IllegalArgumentException("percentile must be in (0, 1]: " + percentile);
+		this.hedgePercentile = percentile;
+	}
+	
+	@Override
+	public double getHedgePercentile() {
+		return this.hedgePercentile;
+	}
+	
+	@Override
+	public void setAdaptiveSubmission(boolean isAdaptive) {
+		this.isAdaptiveSubmission = isAdaptive;
+	}
+	
+	@Override
+	public boolean isAdaptiveSubmission() {
+		return this.isAdaptiveSubmission;
+	}
+	
+	@Override
+	public void setPerFunctionQueues(boolean isPerFunction) {
+		this.jobQueue.setPerFunction(isPerFunction);
+	}
+	
+	@Override
+	public boolean isPerFunctionQueues() {
+		return this.jobQueue.isPerFunction();
+	}
+	
+	@Override
+	public void setUniqueIdGenerator(GearmanUniqueIdGenerator generator) {
+		this.uniqueIdGenerator = generator==null? SequenceUniqueIdGenerator.INSTANCE: generator;
+	}
+	
+	@Override
+	public GearmanUniqueIdGenerator getUniqueIdGenerator() {
+		return this.uniqueIdGenerator;
 	}
 
 	@Override
@@ -508,4 +1181,31 @@ public class ClientImpl extends AbstractJobServerPool<ClientImpl.InnerConnection
 		submitJob(jobReturn, functionName, data, priority, isBackground);
 		return jobReturn;
 	}
+
+	@Override
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data) {
+		return submitJobAsync(functionName, data, GearmanJobPriority.NORMAL_PRIORITY, false, null);
+	}
+
+	@Override
+	public GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobPriority priority) {
+		return submitJobAsync(functionName, data, priority, false, null);
+	}
+
+	@Override
+	public <A> GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobPriority priority, A attachment, GearmanJobEventCallback<A> callback) {
+		if(callback==null) throw new NullPointerException();
+		return submitJobAsync(functionName, data, priority, false, new GearmanJobEventCallbackCaller<A>(attachment, callback, this.getGearman().getScheduler()));
+	}
+
+	@Override
+	public GearmanJobFuture submitBackgroundJobAsync(String functionName, byte[] data, GearmanJobPriority priority) {
+		return submitJobAsync(functionName, data, priority, true, null);
+	}
+	
+	private GearmanJobFuture submitJobAsync(String functionName, byte[] data, GearmanJobPriority priority, boolean isBackground, BackendJobReturn events) {
+		final GearmanJobFutureImpl future = new GearmanJobFutureImpl(events);
+		submitJob(future, functionName, data, priority, isBackground);
+		return future;
+	}
 }
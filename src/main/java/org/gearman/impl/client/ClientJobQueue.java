@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gearman.GearmanJobPriority;
+
+/**
+ * The queue of jobs waiting to be submitted. Jobs are polled by priority, high first, and
+ * in submission order within a priority.<br>
+ * <br>
+ * Optionally, each priority level keeps a sub-queue per function, and the functions with
+ * waiting jobs take turns. A burst of jobs for one function then doesn't hold back the
+ * jobs of other functions with the same priority.<br>
+ * <br>
+ * A poll may skip the functions a filter turns away. With a sub-queue per function, only
+ * the head of each sub-queue is tested; otherwise the jobs are scanned past the skipped
+ * functions.<br>
+ * <br>
+ * No operation locks. Jobs are numbered as they are first added, so jobs can be failed
+ * up to a given job regardless of their priorities.
+ * 
+ * @author isaiah
+ */
+class ClientJobQueue {
+	
+	private static final GearmanJobPriority[] POLL_ORDER = {
+		GearmanJobPriority.HIGH_PRIORITY,
+		GearmanJobPriority.NORMAL_PRIORITY,
+		GearmanJobPriority.LOW_PRIORITY
+	};
+	
+	/** Shared by all queues, so a job keeps its place when it moves between queues */
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	
+	private final Level[] levels = new Level[GearmanJobPriority.values().length];
+	
+	private volatile boolean isPerFunction = false;
+	
+	ClientJobQueue() {
+		for(int i=0; i<levels.length; i++) {
+			levels[i] = new Level();
+		}
+	}
+	
+	public void setPerFunction(boolean isPerFunction) {
+		this.isPerFunction = isPerFunction;
+	}
+	
+	public boolean isPerFunction() {
+		return this.isPerFunction;
+	}
+	
+	/**
+	 * Adds a job behind the waiting jobs of the same priority
+	 */
+	public void add(ClientJobSubmission job) {
+		if(job.sequence==0) job.sequence = SEQUENCE.incrementAndGet();
+		this.level(job).add(job, false);
+	}
+	
+	/**
+	 * Adds a job ahead of the waiting jobs of the same priority. Used to return a job that
+	 * was polled but couldn't be sent
+	 */
+	public void addFirst(ClientJobSubmission job) {
+		if(job.sequence==0) job.sequence = SEQUENCE.incrementAndGet();
+		this.level(job).add(job, true);
+	}
+	
+	public ClientJobSubmission poll() {
+		return this.poll(null);
+	}
+	
+	/**
+	 * Polls the next job of a function the filter accepts. The jobs of the other functions
+	 * keep their places
+	 * @param filter
+	 * 		The filter, or <code>null</code> to accept every function
+	 * @return
+	 * 		The next accepted job, or <code>null</code> if there is none
+	 */
+	public ClientJobSubmission poll(Filter filter) {
+		for(GearmanJobPriority p : POLL_ORDER) {
+			final ClientJobSubmission job = this.levels[p.ordinal()].poll(filter);
+			if(job!=null) return job;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the highest priority with waiting jobs
+	 * @return
+	 * 		The highest priority with waiting jobs, or <code>null</code> if the queue is empty
+	 */
+	public GearmanJobPriority peekPriority() {
+		for(GearmanJobPriority p : POLL_ORDER) {
+			if(this.levels[p.ordinal()].count.get()>0) return p;
+		}
+		return null;
+	}
+	
+	public boolean remove(ClientJobSubmission job) {
+		return this.level(job).remove(job);
+	}
+	
+	public boolean contains(ClientJobSubmission job) {
+		return this.level(job).contains(job);
+	}
+	
+	public boolean isEmpty() {
+		return this.peekPriority()==null;
+	}
+	
+	public int size() {
+		int size = 0;
+		for(Level level : this.levels) {
+			size += level.count.get();
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the most recently added job
+	 * @return
+	 * 		The most recently added job, or <code>null</code> if the queue is empty
+	 */
+	public ClientJobSubmission peekNewest() {
+		ClientJobSubmission newest = null;
+		for(Level level : this.levels) {
+			final ClientJobSubmission job = level.peekNewest();
+			if(job!=null && (newest==null || job.sequence>newest.sequence)) newest = job;
+		}
+		return newest;
+	}
+	
+	/**
+	 * Removes the given job and every job added before it
+	 * @return
+	 * 		The removed jobs, in the order they were added
+	 */
+	public List<ClientJobSubmission> pollUpTo(ClientJobSubmission job) {
+		final List<ClientJobSubmission> jobs = new ArrayList<>();
+		for(Level level : this.levels) {
+			level.pollUpTo(job.sequence, jobs);
+		}
+		
+		Collections.sort(jobs, new Comparator<ClientJobSubmission>() {
+			@Override
+			public int compare(ClientJobSubmission o1, ClientJobSubmission o2) {
+				return Long.compare(o1.sequence, o2.sequence);
+			}
+		});
+		return jobs;
+	}
+	
+	/**
+	 * Removes every job
+	 * @return
+	 * 		The removed jobs
+	 */
+	public List<ClientJobSubmission> clear() {
+		final List<ClientJobSubmission> jobs = new ArrayList<>();
+		for(Level level : this.levels) {
+			level.pollUpTo(Long.MAX_VALUE, jobs);
+		}
+		return jobs;
+	}
+	
+	/**
+	 * Selects the functions whose jobs may be polled. A function turned away should stay
+	 * turned away until the poll returns, so its jobs are not taken out of order
+	 */
+	interface Filter {
+		public boolean accept(String functionName);
+	}
+	
+	private Level level(ClientJobSubmission job) {
+		return this.levels[job.priority.ordinal()];
+	}
+	
+	/**
+	 * The jobs of one priority. Sub-queues with waiting jobs are listed in the ready queue
+	 * once, and are polled round robin.
+	 */
+	private final class Level {
+		private final SubQueue shared = new SubQueue(true);
+		private final ConcurrentHashMap<String, SubQueue> functions = new ConcurrentHashMap<>();
+		private final Queue<SubQueue> ready = new ConcurrentLinkedQueue<>();
+		
+		/** The number of jobs in this level */
+		private final AtomicInteger count = new AtomicInteger();
+		
+		private void add(ClientJobSubmission job, boolean first) {
+			this.count.incrementAndGet();
+			
+			final SubQueue sub = this.subQueue(job.functionName);
+			if(first)
+				sub.jobs.addFirst(job);
+			else
+				sub.jobs.addLast(job);
+			
+			if(sub.isReady.compareAndSet(false, true)) this.ready.add(sub);
+		}
+		
+		private SubQueue subQueue(String functionName) {
+			if(!isPerFunction) return this.shared;
+			
+			SubQueue sub = this.functions.get(functionName);
+			if(sub==null) {
+				final SubQueue created = new SubQueue(false);
+				sub = this.functions.putIfAbsent(functionName, created);
+				if(sub==null) sub = created;
+			}
+			return sub;
+		}
+		
+		private ClientJobSubmission poll(Filter filter) {
+			if(this.count.get()<=0) return null;
+			
+			// With a filter, each sub-queue is visited once, as its jobs may all be turned away
+			int visits = filter==null? Integer.MAX_VALUE: this.ready.size();
+			
+			SubQueue sub;
+			while(visits-->0 && (sub=this.ready.poll())!=null) {
+				final ClientJobSubmission job = sub.poll(filter);
+				
+				// Put the sub-queue at the back of the line, or let it go if it's empty
+				if(!sub.jobs.isEmpty()) {
+					this.ready.add(sub);
+				} else {
+					sub.isReady.set(false);
+					if(!sub.jobs.isEmpty() && sub.isReady.compareAndSet(false, true)) this.ready.add(sub);
+				}
+				
+				if(job!=null) {
+					this.count.decrementAndGet();
+					return job;
+				}
+			}
+			return null;
+		}
+		
+		private Iterable<SubQueue> all() {
+			if(this.functions.isEmpty()) return Collections.singletonList(this.shared);
+			
+			final List<SubQueue> all = new ArrayList<>(this.functions.values());
+			all.add(this.shared);
+			return all;
+		}
+		
+		private boolean remove(ClientJobSubmission job) {
+			for(SubQueue sub : this.all()) {
+				if(sub.jobs.remove(job)) {
+					this.count.decrementAndGet();
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private boolean contains(ClientJobSubmission job) {
+			for(SubQueue sub : this.all()) {
+				if(sub.jobs.contains(job)) return true;
+			}
+			return false;
+		}
+		
+		private ClientJobSubmission peekNewest() {
+			ClientJobSubmission newest = null;
+			for(SubQueue sub : this.all()) {
+				// Requeued jobs are put at the front, so check every job
+				for(ClientJobSubmission job : sub.jobs) {
+					if(newest==null || job.sequence>newest.sequence) newest = job;
+				}
+			}
+			return newest;
+		}
+		
+		private void pollUpTo(long sequence, List<ClientJobSubmission> out) {
+			for(SubQueue sub : this.all()) {
+				final Iterator<ClientJobSubmission> it = sub.jobs.iterator();
+				while(it.hasNext()) {
+					final ClientJobSubmission job = it.next();
+					if(job.sequence<=sequence && sub.jobs.removeFirstOccurrence(job)) {
+						this.count.decrementAndGet();
+						out.add(job);
+					}
+				}
+			}
+		}
+	}
+	
+	private static final class SubQueue {
+		private final Deque<ClientJobSubmission> jobs = new ConcurrentLinkedDeque<>();
+		private final AtomicBoolean isReady = new AtomicBoolean(false);
+		
+		/** Set if the sub-queue holds the jobs of any function */
+		private final boolean isShared;
+		
+		private SubQueue(boolean isShared) {
+			this.isShared = isShared;
+		}
+		
+		private ClientJobSubmission poll(Filter filter) {
+			if(filter==null) return this.jobs.poll();
+			
+			// The shared sub-queue is scanned past the jobs turned away
+			for(ClientJobSubmission job : this.jobs) {
+				if(!filter.accept(job.functionName)) {
+					if(this.isShared) continue;
+					return null;
+				}
+				if(this.jobs.removeFirstOccurrence(job)) return job;
+			}
+			return null;
+		}
+	}
+}
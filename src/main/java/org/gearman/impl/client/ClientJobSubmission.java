@@ -27,17 +27,53 @@
 
 package org.gearman.impl.client;
 
+import java.nio.ByteBuffer;
+
 import org.gearman.GearmanJobPriority;
 
 class ClientJobSubmission {
 	final String functionName;
-	final byte[] data;
+	
+	/** The job's data. Each send reads it through its own view, so the position never moves */
+	final ByteBuffer data;
 	final byte[] uniqueID;
-	final BackendJobReturn jobReturn;
+	
+	/** The job's return. Replaced when the server coalesces another submission into this job */
+	volatile BackendJobReturn jobReturn;
 	final GearmanJobPriority priority;
 	final boolean isBackground;
 	
-	public ClientJobSubmission(String functionName, byte[] data, byte[] uniqueID, BackendJobReturn jobReturn, GearmanJobPriority priority ,boolean isBackground) {
+	/** The consistent-hash routing key, or null if the job may go to any server */
+	byte[] routingKey;
+	
+	/** true while the job waits in a connection's routed queue */
+	boolean isRouted;
+	
+	/** The hedged return, or null if the job is not hedged */
+	HedgedJobReturn hedge;
+	
+	/** The job's deadline, or null if the job has no deadline */
+	DeadlineJobReturn deadline;
+	
+	/** The stream receiving the job's output, or null if the job's output is not streamed */
+	GearmanJobStreamImpl stream;
+	
+	/** The window the job holds a place in while in flight, or null. Guarded by this */
+	private SubmitWindow window;
+	/** The connection whose window the job holds a place in, or null. Guarded by this */
+	private ClientConnectionController connection;
+	
+	/** The number of times the server rejected the job because its queue was full */
+	int rejections;
+	
+	/** The order in which the job was first queued */
+	long sequence;
+	
+	/** The time the job was sent and the time JOB_CREATED was received, in nanoseconds */
+	long sendTime;
+	long createdTime;
+	
+	public ClientJobSubmission(String functionName, ByteBuffer data, byte[] uniqueID, BackendJobReturn jobReturn, GearmanJobPriority priority ,boolean isBackground) {
 		this.functionName = functionName;
 		this.data = data;
 		this.uniqueID = uniqueID;
@@ -45,4 +81,41 @@ class ClientJobSubmission {
 		this.priority = priority;
 		this.isBackground = isBackground;
 	}
+	
+	/**
+	 * Tests if the job's deadline has passed, or the job finished before it was sent
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 */
+	boolean isExpired(long now) {
+		return this.deadline!=null && this.deadline.isExpired(now);
+	}
+	
+	/**
+	 * Records the job's place in a connection's submission window
+	 */
+	synchronized void hold(SubmitWindow window, ClientConnectionController connection) {
+		this.window = window;
+		this.connection = connection;
+	}
+	
+	/**
+	 * Takes the job's place in its submission window. The place is taken once, by whichever
+	 * of the server's answer, the connection closing or the job's deadline comes first
+	 * @return
+	 * 		The window, or null if the job holds no place
+	 */
+	synchronized SubmitWindow takeWindow() {
+		final SubmitWindow window = this.window;
+		this.window = null;
+		this.connection = null;
+		return window;
+	}
+	
+	/**
+	 * Returns the connection whose window the job holds a place in, or null
+	 */
+	synchronized ClientConnectionController getConnection() {
+		return this.connection;
+	}
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load and latency statistics for one client connection. Latencies are exponentially
+ * weighted moving averages, updated by the connection's I/O thread.
+ * 
+ * @author isaiah
+ */
+class ConnectionStats {
+	
+	/** The weight given to each new sample */
+	private static final double ALPHA = 0.2;
+	
+	/** Jobs submitted on the connection and not yet finished */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/** Average time from sending a job to receiving its JOB_CREATED, in nanoseconds */
+	private volatile double createdLatency = -1;
+	
+	/** Average time from JOB_CREATED to the job's completion, in nanoseconds */
+	private volatile double completedLatency = -1;
+	
+	/** Recent times from sending a job to its completion */
+	private final LatencyTracker roundTrip = new LatencyTracker();
+	
+	public void onSubmit() {
+		this.inFlight.incrementAndGet();
+	}
+	
+	public void onFinish() {
+		int current;
+		do {
+			current = this.inFlight.get();
+			if(current==0) return;
+		} while(!this.inFlight.compareAndSet(current, current-1));
+	}
+	
+	public void onClose() {
+		this.inFlight.set(0);
+	}
+	
+	public void recordCreated(long nanos) {
+		this.createdLatency = average(this.createdLatency, nanos);
+	}
+	
+	public void recordCompleted(long nanos) {
+		this.completedLatency = average(this.completedLatency, nanos);
+	}
+	
+	public void recordRoundTrip(long nanos) {
+		this.roundTrip.record(nanos);
+	}
+	
+	/**
+	 * Returns the given percentile of the recent round trips, from sending a job to its
+	 * completion, in nanoseconds
+	 * @return
+	 * 		The percentile, or -1 if too few jobs have completed
+	 */
+	public long getRoundTripPercentile(double percentile) {
+		return this.roundTrip.getPercentile(percentile);
+	}
+	
+	private static double average(double current, long sample) {
+		return current<0? sample: current + ALPHA * (sample - current);
+	}
+	
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+	
+	/**
+	 * Returns the expected round trip of a job on this connection, in nanoseconds
+	 */
+	public double getLatency() {
+		return Math.max(this.createdLatency, 0) + Math.max(this.completedLatency, 0);
+	}
+	
+	/**
+	 * Returns the connection's load, the expected latency scaled by the outstanding jobs.
+	 * Lower is better. A connection without samples has the lowest load, so new servers
+	 * are tried.
+	 * 
+	 * @param queued
+	 * 		The number of jobs waiting to be sent on the connection
+	 */
+	public double getLoad(int queued) {
+		return (this.getLatency() + 1) * (this.inFlight.get() + queued + 1);
+	}
+}
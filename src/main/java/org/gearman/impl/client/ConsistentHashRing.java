@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A consistent-hash ring. Each node is placed on the ring at a number of virtual points,
+ * and a key belongs to the first node found clockwise from the key's hash. Adding or
+ * removing a node only moves the keys next to that node's points.<br>
+ * <br>
+ * Lookups do not lock. Nodes are identified by their toString value, which must be stable.
+ * 
+ * @author isaiah
+ */
+class ConsistentHashRing<K> {
+	
+	/** The number of virtual points per node */
+	static final int DEFAULT_VIRTUAL_NODES = 160;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final ConcurrentNavigableMap<Long, K> ring = new ConcurrentSkipListMap<>();
+	private final int virtualNodes;
+	
+	ConsistentHashRing() {
+		this(DEFAULT_VIRTUAL_NODES);
+	}
+	
+	ConsistentHashRing(int virtualNodes) {
+		if(virtualNodes<=0) throw new IllegalArgumentException("virtual nodes must be positive");
+		this.virtualNodes = virtualNodes;
+	}
+	
+	public void add(K node) {
+		final String name = node.toString();
+		for(int i=0; i<virtualNodes; i++) {
+			// On a collision the first node keeps the point
+			this.ring.putIfAbsent(hash((name + '#' + i).getBytes(UTF8)), node);
+		}
+	}
+	
+	public void remove(K node) {
+		final String name = node.toString();
+		for(int i=0; i<virtualNodes; i++) {
+			this.ring.remove(hash((name + '#' + i).getBytes(UTF8)), node);
+		}
+	}
+	
+	/**
+	 * Returns the node owning the given key
+	 * @param key
+	 * 		The key
+	 * @return
+	 * 		The owning node, or <code>null</code> if the ring is empty
+	 */
+	public K get(byte[] key) {
+		if(this.ring.isEmpty()) return null;
+		
+		Map.Entry<Long, K> entry = this.ring.ceilingEntry(hash(key));
+		if(entry==null) entry = this.ring.firstEntry();
+		
+		return entry==null? null: entry.getValue();
+	}
+	
+	public boolean isEmpty() {
+		return this.ring.isEmpty();
+	}
+	
+	/**
+	 * 64-bit FNV-1a followed by the murmur3 finalizer, which spreads similar keys across
+	 * the whole ring
+	 */
+	static long hash(byte[] key) {
+		long h = 0xcbf29ce484222325L;
+		for(byte b : key) {
+			h ^= (b & 0xff);
+			h *= 0x100000001b3L;
+		}
+		
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe1a85a3bL;
+		h ^= h >>> 33;
+		return h;
+	}
+}
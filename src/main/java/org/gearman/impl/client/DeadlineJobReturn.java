@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gearman.GearmanJobEvent;
+
+/**
+ * The return of a job with a deadline. If the job has not finished when the deadline
+ * passes, a {@link GearmanJobEventImmutable#GEARMAN_JOB_DEADLINE_EXCEEDED} event is
+ * delivered, and the events arriving afterwards are ignored. The job's submissions then
+ * give up their places on their connections, without waiting for the server to answer.
+ * 
+ * @author isaiah
+ */
+class DeadlineJobReturn implements BackendJobReturn, Comparable<DeadlineJobReturn> {
+	
+	/** Orders returns with the same deadline */
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	
+	private final BackendJobReturn target;
+	private final DeadlineTimer timer;
+	
+	/** The deadline, as given by {@link System#nanoTime()} */
+	private final long deadline;
+	private final long sequence = SEQUENCE.incrementAndGet();
+	
+	private final AtomicBoolean isDone = new AtomicBoolean(false);
+	
+	/** The job's submissions, more than one if the job is hedged */
+	private final CopyOnWriteArrayList<ClientJobSubmission> submissions = new CopyOnWriteArrayList<ClientJobSubmission>();
+	
+	DeadlineJobReturn(BackendJobReturn target, DeadlineTimer timer, long deadline) {
+		this.target = target;
+		this.timer = timer;
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Tests if the job finished or its deadline has passed. Expired jobs that have not been
+	 * sent are dropped, even if the timer has not yet expired them
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 * @return
+	 * 		<code>true</code> if the job finished or its deadline has passed
+	 */
+	public boolean isExpired(long now) {
+		return now-this.deadline>=0 || this.isDone.get();
+	}
+	
+	/**
+	 * Returns the time left before the deadline
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 * @return
+	 * 		The time left in nanoseconds. Negative if the deadline has passed
+	 */
+	public long getRemaining(long now) {
+		return this.deadline-now;
+	}
+	
+	/**
+	 * Adds a submission of the job, released from its connection when the deadline passes
+	 */
+	void addSubmission(ClientJobSubmission jobSub) {
+		this.submissions.add(jobSub);
+	}
+	
+	/**
+	 * Delivers the deadline event, unless the job already finished, and releases the
+	 * submissions in flight
+	 */
+	void expire() {
+		if(!this.isDone.compareAndSet(false, true)) return;
+		this.target.eof(GearmanJobEventImmutable.GEARMAN_JOB_DEADLINE_EXCEEDED);
+		
+		for(ClientJobSubmission jobSub : this.submissions) {
+			final ClientConnectionController conn = jobSub.getConnection();
+			if(conn!=null) conn.onDeadline(jobSub);
+		}
+	}
+	
+	@Override
+	public void put(GearmanJobEvent event) {
+		if(this.isDone.get()) return;
+		this.target.put(event);
+	}
+
+	@Override
+	public void eof(GearmanJobEvent lastevent) {
+		if(!this.isDone.compareAndSet(false, true)) return;
+		
+		this.timer.remove(this);
+		this.target.eof(lastevent);
+	}
+
+	@Override
+	public int compareTo(DeadlineJobReturn o) {
+		final long diff = this.deadline-o.deadline;
+		if(diff!=0) return diff<0? -1: 1;
+		return this.sequence<o.sequence? -1: (this.sequence==o.sequence? 0: 1);
+	}
+}
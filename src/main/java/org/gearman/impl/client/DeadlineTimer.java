@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires the jobs of a client whose deadlines have passed. All deadlines share one
+ * periodic task, which runs while there are deadlines to watch.
+ * 
+ * @author isaiah
+ */
+class DeadlineTimer implements Runnable {
+	
+	/** The period at which deadlines are checked, in milliseconds */
+	private static final long TICK = 10;
+	
+	private final ScheduledExecutorService scheduler;
+	
+	/** The pending deadlines, earliest first */
+	private final ConcurrentSkipListSet<DeadlineJobReturn> deadlines = new ConcurrentSkipListSet<DeadlineJobReturn>();
+	
+	/** The periodic task, or null if stopped. Guarded by this */
+	private Future<?> task;
+	
+	/** Guarded by this */
+	private boolean isShutdown = false;
+	
+	DeadlineTimer(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Creates a return that expires after the given timeout
+	 * @param target
+	 * 		The job's return
+	 * @param timeout
+	 * 		The time until the deadline, in nanoseconds
+	 * @return
+	 * 		The return to give the job
+	 */
+	public DeadlineJobReturn create(BackendJobReturn target, long timeout) {
+		final DeadlineJobReturn jobReturn = new DeadlineJobReturn(target, this, System.nanoTime()+timeout);
+		this.deadlines.add(jobReturn);
+		
+		synchronized(this) {
+			if(this.task==null && !this.isShutdown) {
+				try {
+					this.task = this.scheduler.scheduleWithFixedDelay(this, TICK, TICK, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException ree) {
+					// The service is shutting down. The job is failed when the client shuts down
+				}
+			}
+		}
+		
+		return jobReturn;
+	}
+	
+	void remove(DeadlineJobReturn jobReturn) {
+		this.deadlines.remove(jobReturn);
+	}
+	
+	public void shutdown() {
+		synchronized(this) {
+			this.isShutdown = true;
+			if(this.task!=null) {
+				this.task.cancel(false);
+				this.task = null;
+			}
+		}
+		this.deadlines.clear();
+	}
+	
+	@Override
+	public void run() {
+		final long now = System.nanoTime();
+		
+		final Iterator<DeadlineJobReturn> it = this.deadlines.iterator();
+		while(it.hasNext()) {
+			final DeadlineJobReturn jobReturn = it.next();
+			if(jobReturn.getRemaining(now)>0) break;
+			
+			it.remove();
+			jobReturn.expire();
+		}
+		
+		if(!this.deadlines.isEmpty()) return;
+		
+		synchronized(this) {
+			/*
+			 * Checked again under the lock. A deadline added after this check finds the
+			 * task stopped and starts a new one.
+			 */
+			if(this.deadlines.isEmpty() && this.task!=null) {
+				this.task.cancel(false);
+				this.task = null;
+			}
+		}
+	}
+}
@@ -27,29 +27,38 @@
 
 package org.gearman.impl.client;
 
-import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gearman.GearmanJobEvent;
 import org.gearman.GearmanJobEventCallback;
 import org.gearman.GearmanJoin;
 
+import static org.gearman.context.GearmanContext.LOGGER;
+
 public class GearmanJobEventCallbackCaller<A> implements BackendJobReturn, GearmanJoin<A> ,Runnable {
 
 	/** <code>true</code> if the eof method has been called */
-	private boolean isEOF = false;
+	private volatile boolean isEOF = false;
 	
-	/** <code>true</code> if the eof method has been called and all events have been processed */
-	private boolean isDone = false;
+	/** Released once the eof method has been called and all events have been processed */
+	private final CountDownLatch isDone = new CountDownLatch(1);
 	
-	private final Queue<GearmanJobEvent> eventQueue = new LinkedList<GearmanJobEvent>();
+	private final Queue<GearmanJobEvent> eventQueue = new ConcurrentLinkedQueue<GearmanJobEvent>();
 	private final Executor exe;
 	private final A att;
 	private final GearmanJobEventCallback<A> callback;
 	
-	private boolean isRunning = false;
+	/**
+	 * The number of events put since the running drain last checked in. Only the caller that
+	 * moves this counter off zero schedules a drain, so at most one drain runs at a time and
+	 * a burst of events costs a single task.
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
 	
 	GearmanJobEventCallbackCaller(A att, GearmanJobEventCallback<A> callback,Executor exe) {
 		this.att = att;
@@ -59,46 +68,44 @@ public class GearmanJobEventCallbackCaller<A> implements BackendJobReturn, Gearm
 	
 	@Override
 	public void run() {
+		int missed = 1;
 		while(true) {
-			
 			GearmanJobEvent event;
-			
-			synchronized(this) {
-				event = eventQueue.poll();
-				if(event!=null) {
-					this.isRunning = true;
-				} else {
-					this.isRunning = false;
-					if(this.isEOF) {
-						this.isDone = true;
-						this.notifyAll();
-					}
-					return;
+			while((event=eventQueue.poll())!=null) {
+				try {
+					callback.onEvent(att, event);
+				} catch(Throwable th) {
+					LOGGER.warn("job event callback failed", th);
+				}
+				
+				if(event==GearmanJobEventImmutable.GEARMAN_EOF) {
+					this.isDone.countDown();
 				}
 			}
 			
-			try {
-				callback.onEvent(att, event);
-			} catch(Throwable th) {
-				// TODO log issue
-			}
+			missed = this.pending.addAndGet(-missed);
+			if(missed==0) return;
 		}
 	}
+	
+	private void schedule() {
+		if(this.pending.getAndIncrement()==0) exe.execute(this);
+	}
 
 	@Override
-	public synchronized void put(GearmanJobEvent event) {
+	public void put(GearmanJobEvent event) {
 		if(this.isEOF) throw new IllegalStateException();
 		
 		eventQueue.add(event);
-		if(!this.isRunning) exe.execute(this);
+		this.schedule();
 	}
 
 	@Override
-	public synchronized void eof(GearmanJobEvent lastevent) {
+	public void eof(GearmanJobEvent lastevent) {
+		this.isEOF = true;
 		eventQueue.add(lastevent);
 		eventQueue.add(GearmanJobEventImmutable.GEARMAN_EOF);
-		this.isEOF = true;
-		if(!this.isRunning) exe.execute(this);
+		this.schedule();
 	}
 
 	@Override
@@ -107,30 +114,22 @@ public class GearmanJobEventCallbackCaller<A> implements BackendJobReturn, Gearm
 	}
 
 	@Override
-	public synchronized void join() throws InterruptedException {
-		while(!this.isDone) {
-			this.wait();
-		}
+	public void join() throws InterruptedException {
+		this.isDone.await();
 	}
 
 	@Override
-	public synchronized void join(long timeout, TimeUnit unit) throws InterruptedException {
+	public void join(long timeout, TimeUnit unit) throws InterruptedException {
 		if(timeout==0) {
 			join();
 			return;
 		}
 		
-		timeout = TimeUnit.MILLISECONDS.convert(timeout, unit);
-		while(!this.isDone && timeout>0) {
-			long startTime = System.currentTimeMillis();
-			
-			this.wait(timeout);
-			timeout = timeout - (startTime - System.currentTimeMillis());
-		}
+		this.isDone.await(timeout, unit);
 	}
 
 	@Override
 	public boolean isEOF() {
-		return isDone;
+		return this.isDone.getCount()==0;
 	}
 }
@@ -38,7 +38,9 @@ class GearmanJobEventImmutable extends GearmanJobEventImpl {
 	public static final GearmanJobEvent GEARMAN_SUBMIT_FAIL_SERVER_NOT_AVAILABLE = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_SUBMIT_FAIL, "Server Not Available".getBytes(GearmanUtils.getCharset()));
 	public static final GearmanJobEvent GEARMAN_SUBMIT_FAIL_SERVICE_SHUTDOWN = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_SUBMIT_FAIL, "Service Shutdown".getBytes(GearmanUtils.getCharset()));
 	public static final GearmanJobEvent GEARMAN_SUBMIT_FAIL_SEND_FAILED = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_SUBMIT_FAIL, "Failed to Send Job".getBytes(GearmanUtils.getCharset()));
+	public static final GearmanJobEvent GEARMAN_SUBMIT_FAIL_QUEUE_FULL = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_SUBMIT_FAIL, "Queue Full".getBytes(GearmanUtils.getCharset()));
 	public static final GearmanJobEvent GEARMAN_JOB_DISCONNECT = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_JOB_FAIL, "Server Disconnect".getBytes(GearmanUtils.getCharset()));
+	public static final GearmanJobEvent GEARMAN_JOB_DEADLINE_EXCEEDED = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_JOB_FAIL, "Deadline Exceeded".getBytes(GearmanUtils.getCharset()));
 	public static final GearmanJobEvent GEARMAN_JOB_FAIL = new GearmanJobEventImmutable(GearmanJobEventType.GEARMAN_JOB_FAIL, "Failed By Worker".getBytes(GearmanUtils.getCharset()));
 
 	private GearmanJobEventImmutable(GearmanJobEventType type, byte[] data) {
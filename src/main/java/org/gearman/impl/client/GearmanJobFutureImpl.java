@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobFuture;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * A {@link GearmanJobFuture} completed directly by the connection controller. Intermediate
+ * events are optionally forwarded to a {@link GearmanJobEventCallbackCaller}, which runs
+ * the user's callback on the gearman scheduler.
+ * 
+ * @author isaiah
+ */
+class GearmanJobFutureImpl implements GearmanJobFuture, BackendJobReturn {
+	
+	/** Marks a cancelled future */
+	private static final GearmanJobEvent CANCELLED = new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_EOF, new byte[0]);
+	
+	private final AtomicReference<GearmanJobEvent> result = new AtomicReference<>();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final Queue<Listener> listeners = new ConcurrentLinkedQueue<>();
+	
+	/** Receives a copy of every event, may be null */
+	private final BackendJobReturn events;
+	
+	private volatile byte[] jobHandle;
+	
+	GearmanJobFutureImpl(BackendJobReturn events) {
+		this.events = events;
+	}
+	
+	@Override
+	public void put(GearmanJobEvent event) {
+		if(event.getEventType().equals(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS))
+			this.jobHandle = event.getData();
+		
+		if(this.events!=null) this.events.put(event);
+	}
+	
+	@Override
+	public void eof(GearmanJobEvent lastevent) {
+		if(lastevent.getEventType().equals(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS))
+			this.jobHandle = lastevent.getData();
+		
+		if(this.events!=null) this.events.eof(lastevent);
+		this.complete(lastevent);
+	}
+	
+	private boolean complete(GearmanJobEvent event) {
+		if(!this.result.compareAndSet(null, event)) return false;
+		
+		this.done.countDown();
+		this.runListeners();
+		return true;
+	}
+	
+	private void runListeners() {
+		Listener l;
+		while((l=this.listeners.poll())!=null) {
+			try {
+				l.executor.execute(l.listener);
+			} catch (Throwable th) {
+				LOGGER.warn("failed to execute future listener", th);
+			}
+		}
+	}
+	
+	@Override
+	public void addListener(Runnable listener, Executor executor) {
+		if(listener==null || executor==null) throw new NullPointerException();
+		
+		this.listeners.add(new Listener(listener, executor));
+		
+		/*
+		 * If the future completed while the listener was being added, the completing
+		 * thread may have already drained the queue. Drain it again here. Each
+		 * listener is polled only once, so it is never run twice.
+		 */
+		if(this.isDone()) this.runListeners();
+	}
+
+	@Override
+	public byte[] getJobHandle() {
+		return this.jobHandle;
+	}
+	
+	@Override
+	public GearmanJobEvent getNow() {
+		final GearmanJobEvent event = this.result.get();
+		return event==CANCELLED? null: event;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		/*
+		 * The gearman protocol has no way to cancel a submitted job. Cancelling only
+		 * completes this future, the job itself continues on the server.
+		 */
+		return this.complete(CANCELLED);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return this.result.get()==CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return this.result.get()!=null;
+	}
+
+	@Override
+	public GearmanJobEvent get() throws InterruptedException {
+		this.done.await();
+		return this.getResult();
+	}
+
+	@Override
+	public GearmanJobEvent get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if(!this.done.await(timeout, unit)) throw new TimeoutException();
+		return this.getResult();
+	}
+	
+	private GearmanJobEvent getResult() {
+		final GearmanJobEvent event = this.result.get();
+		if(event==CANCELLED) throw new CancellationException();
+		return event;
+	}
+	
+	private static final class Listener {
+		private final Runnable listener;
+		private final Executor executor;
+		
+		private Listener(Runnable listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+	}
+}
@@ -27,73 +27,115 @@
 
 package org.gearman.impl.client;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import org.gearman.GearmanJobEvent;
 import org.gearman.GearmanJobReturn;
 
+/**
+ * A lock-free {@link GearmanJobReturn}. Events are put by the connection's thread into a
+ * non-blocking queue. Polling threads park only while the queue is empty, and are unparked
+ * by the producer. Parking does not hold a monitor, so a blocked virtual thread does not
+ * pin its carrier thread.
+ * 
+ * @author isaiah
+ */
 public class GearmanJobReturnImpl implements GearmanJobReturn, BackendJobReturn {
-
-	private boolean isEOF = false;
-	private final Deque<GearmanJobEvent> eventList = new LinkedList<>();
+	
+	/** Set once eof has been called */
+	private final AtomicBoolean eofCalled = new AtomicBoolean(false);
+	
+	/** Set after the last event has been queued */
+	private volatile boolean isEOF = false;
+	
+	private final Queue<GearmanJobEvent> eventList = new ConcurrentLinkedQueue<>();
+	
+	/** Threads currently blocked in poll */
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
 	
 	@Override
-	public synchronized GearmanJobEvent poll() throws InterruptedException {
-		while(eventList.isEmpty() && !this.isEOF) {
-			this.wait();
-		}
-		
-		if(this.isEOF())
-			return GearmanJobEventImmutable.GEARMAN_EOF;
-		
-		return eventList.pollFirst();
+	public GearmanJobEvent poll() throws InterruptedException {
+		return this.await(Long.MAX_VALUE, false);
 	}
 
 	@Override
-	public synchronized GearmanJobEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+	public GearmanJobEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
 		if(timeout==0) return poll();
-			
-		timeout = TimeUnit.MILLISECONDS.convert(timeout, unit);
-		while(eventList.isEmpty() && !this.isEOF && timeout>0) {
-			long startTime = System.currentTimeMillis();
-			
-			this.wait(timeout);
-			timeout = timeout - (System.currentTimeMillis()-startTime);
-		}
-		
-		if(this.isEOF())
-			return GearmanJobEventImmutable.GEARMAN_EOF;
-		
-		return eventList.pollFirst();
+		return this.await(unit.toNanos(timeout), true);
 	}
 
 	@Override
-	public synchronized GearmanJobEvent pollNow() {
-		if(this.isEOF())
-			return GearmanJobEventImmutable.GEARMAN_EOF;
+	public GearmanJobEvent pollNow() {
+		final GearmanJobEvent event = this.eventList.poll();
+		if(event!=null) return event;
+		
+		if(this.isEOF) {
+			/*
+			 * The last event is queued before isEOF is set. Poll again in case it
+			 * arrived after the first check.
+			 */
+			final GearmanJobEvent last = this.eventList.poll();
+			return last!=null? last: GearmanJobEventImmutable.GEARMAN_EOF;
+		}
+		return null;
+	}
+	
+	private GearmanJobEvent await(long nanos, boolean timed) throws InterruptedException {
+		GearmanJobEvent event = this.pollNow();
+		if(event!=null) return event;
 		
-		return this.eventList.pollFirst();
+		final long deadline = timed? System.nanoTime() + nanos: 0L;
+		final Thread current = Thread.currentThread();
+		
+		this.waiters.add(current);
+		try {
+			while(true) {
+				// Check after registering, so a concurrent put is never missed
+				if((event=this.pollNow())!=null) return event;
+				
+				if(Thread.interrupted()) throw new InterruptedException();
+				
+				if(timed) {
+					final long remaining = deadline - System.nanoTime();
+					if(remaining<=0) return null;
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+		} finally {
+			this.waiters.remove(current);
+		}
+	}
+	
+	private void signal() {
+		if(this.waiters.isEmpty()) return;
+		for(Thread t : this.waiters) {
+			LockSupport.unpark(t);
+		}
 	}
 	
 	@Override
-	public synchronized void put(GearmanJobEvent event) {
-		if(this.isEOF)
+	public void put(GearmanJobEvent event) {
+		if(this.eofCalled.get())
 			throw new IllegalStateException();
 		
-		this.eventList.addLast(event);
-		this.notifyAll();
+		this.eventList.add(event);
+		this.signal();
 	}
 	
 	@Override
-	public synchronized void eof(GearmanJobEvent lastevent) {
-		if(this.isEOF)
+	public void eof(GearmanJobEvent lastevent) {
+		if(!this.eofCalled.compareAndSet(false, true))
 			throw new IllegalStateException();
 		
+		this.eventList.add(lastevent);
 		this.isEOF = true;
-		this.eventList.addLast(lastevent);
-		this.notifyAll();
+		this.signal();
 	}
 
 	@Override
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobStream;
+import org.gearman.impl.core.GearmanConnection;
+import org.gearman.impl.util.GearmanUtils;
+
+/**
+ * A {@link GearmanJobStream} fed directly by the connection controller. Data packets are
+ * queued as they are received and handed out without being joined.<br>
+ * <br>
+ * If the stream is bound to a large payload lane, reading from the lane is suspended once
+ * the queued bytes reach the capacity, until the reader has drained half of them. A
+ * stream on a shared connection is never bound, and queues all its data, since
+ * suspending the connection would hold back every other job on it.
+ * 
+ * @author isaiah
+ */
+class GearmanJobStreamImpl extends InputStream implements GearmanJobStream, BackendJobReturn {
+	
+	private final int capacity;
+	
+	/** The received data not yet read. Guarded by this */
+	private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+	/** The number of bytes in the chunks. Guarded by this */
+	private long buffered = 0;
+	
+	/** The connection carrying the job, or null once the job is finished. Guarded by this */
+	private GearmanConnection<?> conn;
+	/** Set while this stream holds the connection's reading. Guarded by this */
+	private boolean isSuspended = false;
+	/** Guarded by this */
+	private boolean isClosed = false;
+	
+	private volatile GearmanJobEvent result;
+	private volatile byte[] jobHandle;
+	
+	GearmanJobStreamImpl(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Sets the connection carrying the job. The connection is suspended while the stream is
+	 * full, so only connections dedicated to large payloads and streams are bound
+	 */
+	void bind(GearmanConnection<?> conn) {
+		synchronized(this) {
+			if(this.result!=null || this.isClosed) return;
+			this.conn = conn;
+		}
+	}
+	
+	@Override
+	public void put(GearmanJobEvent event) {
+		switch(event.getEventType()) {
+		case GEARMAN_SUBMIT_SUCCESS:
+			this.jobHandle = event.getData();
+			break;
+		case GEARMAN_JOB_DATA:
+			this.offer(event.getData());
+			break;
+		default:
+			// Status and warning events are not part of the output
+		}
+	}
+	
+	@Override
+	public void eof(GearmanJobEvent lastevent) {
+		final GearmanConnection<?> resume;
+		synchronized(this) {
+			if(this.result!=null) return;
+			
+			if(lastevent.getEventType().equals(GearmanJobEventType.GEARMAN_JOB_SUCCESS))
+				this.add(lastevent.getData());
+			this.result = lastevent;
+			
+			resume = this.isSuspended? this.conn: null;
+			this.isSuspended = false;
+			this.conn = null;
+			
+			this.notifyAll();
+		}
+		
+		if(resume!=null) resume.resumeRead();
+	}
+	
+	private void offer(final byte[] data) {
+		final GearmanConnection<?> suspend;
+		synchronized(this) {
+			if(this.result!=null) return;
+			this.add(data);
+			
+			if(!this.isSuspended && this.conn!=null && this.buffered>=this.capacity) {
+				this.isSuspended = true;
+				suspend = this.conn;
+			} else {
+				suspend = null;
+			}
+			
+			this.notifyAll();
+		}
+		
+		/*
+		 * Suspensions are counted by the connection, so a resume made by the reader before
+		 * this suspend still cancels it out
+		 */
+		if(suspend!=null) suspend.suspendRead();
+	}
+	
+	private void add(final byte[] data) {
+		if(this.isClosed || data==null || data.length==0) return;
+		
+		this.chunks.add(ByteBuffer.wrap(data));
+		this.buffered += data.length;
+	}
+	
+	/**
+	 * Waits for data
+	 * @return
+	 * 		The next chunk of data, or <code>null</code> at the end of the stream
+	 * @throws IOException
+	 * 		if the stream is closed or the job failed
+	 */
+	private ByteBuffer await() throws IOException {
+		ByteBuffer chunk;
+		while((chunk = this.chunks.peek())==null) {
+			if(this.isClosed) throw new ClosedChannelException();
+			
+			final GearmanJobEvent result = this.result;
+			if(result!=null) {
+				if(result.getEventType().equals(GearmanJobEventType.GEARMAN_JOB_SUCCESS)) return null;
+				throw new IOException("job failed: " + result.getEventType() + " : " + new String(result.getData(), GearmanUtils.getCharset()));
+			}
+			
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		
+		if(this.isClosed) throw new ClosedChannelException();
+		return chunk;
+	}
+	
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if(!dst.hasRemaining()) return 0;
+		
+		final int size;
+		final GearmanConnection<?> resume;
+		synchronized(this) {
+			final ByteBuffer chunk = this.await();
+			if(chunk==null) return -1;
+			
+			size = Math.min(dst.remaining(), chunk.remaining());
+			final int limit = chunk.limit();
+			chunk.limit(chunk.position()+size);
+			dst.put(chunk);
+			chunk.limit(limit);
+			
+			resume = this.drained(chunk, size);
+		}
+		
+		if(resume!=null) resume.resumeRead();
+		return size;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(off<0 || len<0 || len>b.length-off) throw new IndexOutOfBoundsException();
+		if(len==0) return 0;
+		
+		return this.read(ByteBuffer.wrap(b, off, len));
+	}
+	
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		return this.read(b, 0, 1)==-1? -1: b[0]&0xFF;
+	}
+	
+	/**
+	 * Removes read bytes from the stream
+	 * @return
+	 * 		The connection to resume, or <code>null</code>
+	 */
+	private GearmanConnection<?> drained(final ByteBuffer chunk, final int size) {
+		if(!chunk.hasRemaining()) this.chunks.poll();
+		this.buffered -= size;
+		
+		if(!this.isSuspended || this.buffered>this.capacity/2) return null;
+		
+		this.isSuspended = false;
+		return this.conn;
+	}
+	
+	@Override
+	public synchronized int available() {
+		return (int)Math.min(this.buffered, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	public void close() {
+		final GearmanConnection<?> resume;
+		synchronized(this) {
+			if(this.isClosed) return;
+			this.isClosed = true;
+			
+			// Data received after closing is dropped
+			this.chunks.clear();
+			this.buffered = 0;
+			
+			resume = this.isSuspended? this.conn: null;
+			this.isSuspended = false;
+			this.conn = null;
+			
+			this.notifyAll();
+		}
+		
+		if(resume!=null) resume.resumeRead();
+	}
+	
+	@Override
+	public synchronized boolean isOpen() {
+		return !this.isClosed;
+	}
+	
+	@Override
+	public InputStream getInputStream() {
+		return this;
+	}
+	
+	@Override
+	public byte[] getJobHandle() {
+		return this.jobHandle;
+	}
+	
+	@Override
+	public GearmanJobEvent getResult() {
+		return this.result;
+	}
+}
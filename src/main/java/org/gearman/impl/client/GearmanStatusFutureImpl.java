@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gearman.GearmanJobStatus;
+import org.gearman.GearmanStatusFuture;
+import org.gearman.impl.serverpool.GearmanJobStatusImpl;
+import org.gearman.impl.util.TaskJoin;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Collects the answers to GET_STATUS requests for many jobs. A job may be asked of
+ * several servers. Its status is the first known answer, or not known once every server
+ * has answered.
+ * 
+ * @author isaiah
+ */
+class GearmanStatusFutureImpl implements GearmanStatusFuture {
+	
+	/** Marks a cancelled future */
+	private static final Map<String, GearmanJobStatus> CANCELLED = Collections.unmodifiableMap(new HashMap<String, GearmanJobStatus>());
+	
+	private final ConcurrentHashMap<String, GearmanJobStatus> statuses = new ConcurrentHashMap<>();
+	
+	/** The number of jobs without a status yet */
+	private final AtomicInteger remaining = new AtomicInteger(1);
+	
+	private final AtomicReference<Map<String, GearmanJobStatus>> result = new AtomicReference<>();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final Queue<Listener> listeners = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Adds a job, asked of the given number of servers
+	 * @param jobHandle
+	 * 		The job handle
+	 * @param requests
+	 * 		The status requests sent for the job, one per server
+	 */
+	void add(final String jobHandle, final List<TaskJoin<GearmanJobStatus>> requests) {
+		this.remaining.incrementAndGet();
+		
+		if(requests.isEmpty()) {
+			this.answer(jobHandle, GearmanJobStatusImpl.NOT_KNOWN, new AtomicInteger(1));
+			return;
+		}
+		
+		final AtomicInteger answers = new AtomicInteger(requests.size());
+		for(final TaskJoin<GearmanJobStatus> request : requests) {
+			request.addListener(new Runnable() {
+				@Override
+				public void run() {
+					GearmanStatusFutureImpl.this.answer(jobHandle, request.getValue(), answers);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Called once every job was added
+	 */
+	void ready() {
+		this.finishJob();
+	}
+	
+	private void answer(final String jobHandle, final GearmanJobStatus status, final AtomicInteger answers) {
+		if(status.isKnown()) this.statuses.put(jobHandle, status);
+		
+		if(answers.decrementAndGet()>0) return;
+		
+		if(!this.statuses.containsKey(jobHandle))
+			this.statuses.put(jobHandle, GearmanJobStatusImpl.NOT_KNOWN);
+		this.finishJob();
+	}
+	
+	private void finishJob() {
+		if(this.remaining.decrementAndGet()==0)
+			this.complete(Collections.<String, GearmanJobStatus>unmodifiableMap(this.statuses));
+	}
+	
+	private boolean complete(Map<String, GearmanJobStatus> value) {
+		if(!this.result.compareAndSet(null, value)) return false;
+		
+		this.done.countDown();
+		this.runListeners();
+		return true;
+	}
+	
+	private void runListeners() {
+		Listener l;
+		while((l=this.listeners.poll())!=null) {
+			try {
+				l.executor.execute(l.listener);
+			} catch (Throwable th) {
+				LOGGER.warn("failed to execute future listener", th);
+			}
+		}
+	}
+	
+	@Override
+	public void addListener(Runnable listener, Executor executor) {
+		if(listener==null || executor==null) throw new NullPointerException();
+		
+		this.listeners.add(new Listener(listener, executor));
+		if(this.isDone()) this.runListeners();
+	}
+	
+	@Override
+	public Map<String, GearmanJobStatus> getNow() {
+		final Map<String, GearmanJobStatus> value = this.result.get();
+		return value==CANCELLED? null: value;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		// The requests already sent are answered, but the answers are ignored
+		return this.complete(CANCELLED);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return this.result.get()==CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return this.result.get()!=null;
+	}
+
+	@Override
+	public Map<String, GearmanJobStatus> get() throws InterruptedException {
+		this.done.await();
+		return this.getResult();
+	}
+
+	@Override
+	public Map<String, GearmanJobStatus> get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if(!this.done.await(timeout, unit)) throw new TimeoutException();
+		return this.getResult();
+	}
+	
+	private Map<String, GearmanJobStatus> getResult() {
+		final Map<String, GearmanJobStatus> value = this.result.get();
+		if(value==CANCELLED) throw new CancellationException();
+		return value;
+	}
+	
+	private static final class Listener {
+		private final Runnable listener;
+		private final Executor executor;
+		
+		private Listener(Runnable listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+	}
+}
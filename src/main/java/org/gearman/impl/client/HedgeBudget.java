@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the copies sent of hedged jobs. Each hedged submission earns one token, and each
+ * copy sent costs a number of tokens. This limits the copies to a share of the hedged
+ * jobs, while allowing short bursts. No operation locks.
+ * 
+ * @author isaiah
+ */
+class HedgeBudget {
+	
+	/** The tokens a copy costs */
+	private final int cost;
+	/** The most tokens saved up */
+	private final int max;
+	
+	private final AtomicInteger tokens = new AtomicInteger();
+	
+	HedgeBudget(int cost, int max) {
+		this.cost = cost;
+		this.max = max;
+	}
+	
+	/**
+	 * Earns a token for a hedged submission
+	 */
+	public void deposit() {
+		int current;
+		do {
+			current = this.tokens.get();
+			if(current>=this.max) return;
+		} while(!this.tokens.compareAndSet(current, current+1));
+	}
+	
+	/**
+	 * Takes the tokens for one copy
+	 * @return
+	 * 		<code>true</code> if the copy may be sent
+	 */
+	public boolean take() {
+		int current;
+		do {
+			current = this.tokens.get();
+			if(current<this.cost) return false;
+		} while(!this.tokens.compareAndSet(current, current-this.cost));
+		return true;
+	}
+	
+	public int getTokens() {
+		return this.tokens.get();
+	}
+}
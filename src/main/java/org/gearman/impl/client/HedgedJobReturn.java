@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+
+/**
+ * The return of a hedged job. The job may run as two copies on different servers, and the
+ * first successful result is delivered. If every copy fails, the last failure is
+ * delivered. Intermediate events are only forwarded from the first copy, and events
+ * arriving after the result are ignored.
+ * 
+ * @author isaiah
+ */
+class HedgedJobReturn implements BackendJobReturn {
+	
+	private final BackendJobReturn target;
+	
+	/** The number of copies that have not finished */
+	private final AtomicInteger running = new AtomicInteger(1);
+	private final AtomicBoolean isDone = new AtomicBoolean(false);
+	
+	/** The timer that starts the second copy */
+	private volatile Future<?> timer;
+	
+	/** true once the second copy was started */
+	private volatile boolean isHedged;
+	
+	HedgedJobReturn(BackendJobReturn target) {
+		this.target = target;
+	}
+	
+	public boolean isDone() {
+		return this.isDone.get();
+	}
+	
+	public boolean isHedged() {
+		return this.isHedged;
+	}
+	
+	public void setTimer(Future<?> timer) {
+		this.timer = timer;
+		if(this.isDone.get()) timer.cancel(false);
+	}
+	
+	/**
+	 * Creates the return for the second copy of the job
+	 * @return
+	 * 		The second copy's return, or <code>null</code> if the job already finished or
+	 * 		was already hedged
+	 */
+	public BackendJobReturn createHedge() {
+		int current;
+		do {
+			current = this.running.get();
+			if(current!=1 || this.isHedged || this.isDone.get()) return null;
+		} while(!this.running.compareAndSet(current, current+1));
+		
+		this.isHedged = true;
+		
+		return new BackendJobReturn() {
+			@Override
+			public void put(GearmanJobEvent event) {
+				// The job handle and intermediate events belong to the first copy
+			}
+
+			@Override
+			public void eof(GearmanJobEvent lastevent) {
+				HedgedJobReturn.this.finish(lastevent);
+			}
+		};
+	}
+	
+	@Override
+	public void put(GearmanJobEvent event) {
+		if(this.isDone.get()) return;
+		this.target.put(event);
+	}
+
+	@Override
+	public void eof(GearmanJobEvent lastevent) {
+		this.finish(lastevent);
+	}
+	
+	private void finish(GearmanJobEvent lastevent) {
+		if(this.isDone.get()) return;
+		
+		final boolean isSuccess = lastevent.getEventType().equals(GearmanJobEventType.GEARMAN_JOB_SUCCESS);
+		final int left = this.running.decrementAndGet();
+		if(!isSuccess && left>0) return;
+		
+		if(!this.isDone.compareAndSet(false, true)) return;
+		
+		final Future<?> timer = this.timer;
+		if(timer!=null) timer.cancel(false);
+		
+		this.target.eof(lastevent);
+	}
+}
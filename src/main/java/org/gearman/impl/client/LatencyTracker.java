@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most recent latency samples of a connection and computes percentiles over
+ * them. Samples are written without locking. A percentile read may race with a write and
+ * miss the newest sample, which is acceptable for an estimate.
+ * 
+ * @author isaiah
+ */
+class LatencyTracker {
+	
+	/** The number of samples kept. Must be a power of two */
+	private static final int SIZE = 256;
+	
+	/** The fewest samples a percentile is computed from */
+	private static final int MIN_SAMPLES = 20;
+	
+	/** The number of new samples after which a cached percentile is recomputed */
+	private static final int REFRESH = 32;
+	
+	private static final class Cached {
+		private final double percentile;
+		private final long count;
+		private final long value;
+		
+		private Cached(double percentile, long count, long value) {
+			this.percentile = percentile;
+			this.count = count;
+			this.value = value;
+		}
+	}
+	
+	private final long[] samples = new long[SIZE];
+	private final AtomicLong count = new AtomicLong();
+	private volatile Cached cached;
+	
+	public void record(long nanos) {
+		final long i = this.count.getAndIncrement();
+		this.samples[(int)(i & (SIZE-1))] = nanos;
+	}
+	
+	/**
+	 * Returns the given percentile of the recent samples, in nanoseconds
+	 * @param percentile
+	 * 		The percentile, between 0 and 1
+	 * @return
+	 * 		The percentile, or -1 if there are too few samples
+	 */
+	public long getPercentile(double percentile) {
+		final long n = this.count.get();
+		if(n<MIN_SAMPLES) return -1;
+		
+		final Cached c = this.cached;
+		if(c!=null && c.percentile==percentile && n-c.count<REFRESH) return c.value;
+		
+		final long[] sorted = Arrays.copyOf(this.samples, (int)Math.min(n, SIZE));
+		Arrays.sort(sorted);
+		
+		final int index = Math.min(sorted.length-1, Math.max(0, (int)Math.ceil(percentile*sorted.length)-1));
+		final long value = sorted[index];
+		
+		this.cached = new Cached(percentile, n, value);
+		return value;
+	}
+}
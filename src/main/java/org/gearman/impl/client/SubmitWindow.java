@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.gearman.impl.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An adaptive limit on the jobs of one function in flight on one connection. The limit
+ * follows AIMD: it grows by about one job for each window of jobs that finish normally,
+ * and is cut when the server rejects a job with queue_full or the latency rises above
+ * its long-term average. The latency is the time the server takes to acknowledge a job
+ * with JOB_CREATED, which follows the server's load but not the job's run time. A rejection also pauses submissions for a backoff period that
+ * doubles while rejections continue.<br>
+ * <br>
+ * A job is in flight from the time it is sent until it finishes, or, for background
+ * jobs, until the server acknowledges it.
+ * 
+ * @author isaiah
+ */
+class SubmitWindow {
+	
+	private static final double MIN_LIMIT = 1;
+	private static final double MAX_LIMIT = 10000;
+	private static final double INITIAL_LIMIT = 100;
+	
+	/** The factor applied to the limit on a queue_full rejection */
+	private static final double QUEUE_FULL_DECREASE = 0.5;
+	/** The factor applied to the limit when the latency rises */
+	private static final double LATENCY_DECREASE = 0.9;
+	/** The latency is rising once the recent average is this many times the long-term average */
+	private static final double LATENCY_RISE = 2.0;
+	
+	private static final double SHORT_ALPHA = 0.2;
+	private static final double LONG_ALPHA = 0.01;
+	/** The number of samples taken before the latency is used */
+	private static final int MIN_SAMPLES = 20;
+	
+	private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+	
+	// All fields are guarded by this
+	
+	private double limit = INITIAL_LIMIT;
+	private int inFlight = 0;
+	
+	/** The number of jobs finished. The limit is cut at most once per window of jobs */
+	private long finished = 0;
+	private long lastDecrease = -(long)MAX_LIMIT;
+	
+	private double shortLatency = -1;
+	private double longLatency = -1;
+	private int samples = 0;
+	
+	/** The time, as given by {@link System#nanoTime()}, until which submissions are paused */
+	private long pausedUntil = 0;
+	private long backoff = 0;
+	
+	/**
+	 * Takes a place in the window
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 * @param isAdaptive
+	 * 		If <code>false</code>, the limit is not enforced, but rejections still pause
+	 * 		submissions
+	 * @return
+	 * 		<code>true</code> if the job may be sent
+	 */
+	public synchronized boolean tryAcquire(long now, boolean isAdaptive) {
+		if(!this.hasRoom(now, isAdaptive)) return false;
+		this.inFlight++;
+		return true;
+	}
+	
+	/**
+	 * Tests if a job may be sent
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 * @param isAdaptive
+	 * 		If <code>false</code>, the limit is not enforced
+	 */
+	public synchronized boolean hasRoom(long now, boolean isAdaptive) {
+		if(this.backoff!=0 && now-this.pausedUntil<0) return false;
+		return !isAdaptive || this.inFlight<(int)this.limit;
+	}
+	
+	/**
+	 * Returns the time left in the current pause
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 * @return
+	 * 		The time left in nanoseconds, or 0 if submissions are not paused
+	 */
+	public synchronized long getPause(long now) {
+		if(this.backoff==0) return 0;
+		return Math.max(this.pausedUntil-now, 0);
+	}
+	
+	/**
+	 * Releases the place of a job that finished normally
+	 * @param latency
+	 * 		The time from the job's submission to its JOB_CREATED, in nanoseconds
+	 */
+	public synchronized void onSuccess(long latency) {
+		this.release();
+		this.backoff = 0;
+		
+		this.samples++;
+		this.shortLatency = this.shortLatency<0? latency: this.shortLatency + SHORT_ALPHA * (latency - this.shortLatency);
+		this.longLatency = this.longLatency<0? latency: this.longLatency + LONG_ALPHA * (latency - this.longLatency);
+		
+		if(this.samples>=MIN_SAMPLES && this.shortLatency>LATENCY_RISE*this.longLatency) {
+			this.decrease(LATENCY_DECREASE);
+		} else if(this.inFlight*2>=(int)this.limit) {
+			// Only grow while the window is in use
+			this.limit = Math.min(this.limit + 1/this.limit, MAX_LIMIT);
+		}
+	}
+	
+	/**
+	 * Releases the place of a job that was not completed normally, like a failed job or
+	 * a job lost to a disconnect
+	 */
+	public synchronized void onFinish() {
+		this.release();
+	}
+	
+	/**
+	 * Releases the place of a job the server rejected because its queue is full, and
+	 * pauses submissions
+	 * @param now
+	 * 		The current time, as given by {@link System#nanoTime()}
+	 */
+	public synchronized void onQueueFull(long now) {
+		this.release();
+		this.decrease(QUEUE_FULL_DECREASE);
+		
+		this.backoff = this.backoff==0? MIN_BACKOFF: Math.min(this.backoff*2, MAX_BACKOFF);
+		this.pausedUntil = now + this.backoff;
+	}
+	
+	public synchronized int getLimit() {
+		return (int)this.limit;
+	}
+	
+	private void release() {
+		if(this.inFlight>0) this.inFlight--;
+		this.finished++;
+	}
+	
+	private void decrease(double factor) {
+		if(this.finished-this.lastDecrease<(long)this.limit) return;
+		
+		this.lastDecrease = this.finished;
+		this.limit = Math.max(this.limit * factor, MIN_LIMIT);
+	}
+}
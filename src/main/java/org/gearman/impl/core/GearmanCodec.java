@@ -40,5 +40,27 @@ public interface GearmanCodec<X> {
 	public void init(GearmanCodecChannel<X> channel);
 	public ByteBuffer createByteBuffer();
 	public void decode(GearmanCodecChannel<X> channel, int byteCount);
-	public byte[] encode(GearmanPacket packet);
+	
+	/**
+	 * Encodes the given packet. The returned buffer is owned by the caller, but the bytes
+	 * backing it may be shared with other callers encoding the same packet and must not be
+	 * modified.
+	 * @param packet
+	 * 		The packet to encode
+	 * @return
+	 * 		A buffer holding the encoded packet, positioned to be written
+	 */
+	public ByteBuffer encode(GearmanPacket packet);
+	
+	/**
+	 * Encodes a packet whose last argument is held in a buffer. The packet is returned as a
+	 * sequence of buffers to be written with one gathering write, so the payload buffer is
+	 * never copied.
+	 * @param packet
+	 * 		The packet to encode
+	 * @return
+	 * 		The buffers holding the encoded packet, in order
+	 * @see GearmanPacket#hasPayloadBuffer()
+	 */
+	public ByteBuffer[] encodeGathering(GearmanPacket packet);
 }
@@ -63,6 +63,18 @@ public interface GearmanConnection<X> {
 	public boolean isClosed();
 	public void close() throws IOException;
 	
+	/**
+	 * Stops reading packets from the connection. Suspensions are counted, reading resumes
+	 * once each one is released with {@link #resumeRead()}. Packets already read may still
+	 * be received after this call. Connections that can't be suspended ignore it
+	 */
+	public void suspendRead();
+	
+	/**
+	 * Releases a suspension made by {@link #suspendRead()}
+	 */
+	public void resumeRead();
+	
 	// TODO create an optional response timeout mechanism
 	
 	/*
@@ -234,12 +234,26 @@ public class GearmanConnectionManager {
 			public boolean isClosed() {
 				return socket.isClosed();
 			}
+			
+			@Override
+			public void suspendRead() {
+				socket.suspendRead();
+			}
+			
+			@Override
+			public void resumeRead() {
+				socket.resumeRead();
+			}
 
 			@Override
 			public void sendPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback) {
-				final byte[] data = SocketHandlerImpl.this.codec.encode(packet);
-				final CompleteWrapper2 wrapper = new CompleteWrapper2(packet,callback);
-				this.socket.write(ByteBuffer.wrap(data), null ,wrapper);
+				if(packet.hasPayloadBuffer()) {
+					final ByteBuffer[] data = SocketHandlerImpl.this.codec.encodeGathering(packet);
+					this.socket.write(data, null, new CompleteWrapper2<ByteBuffer[]>(packet,callback));
+				} else {
+					final ByteBuffer data = SocketHandlerImpl.this.codec.encode(packet);
+					this.socket.write(data, null ,new CompleteWrapper2<ByteBuffer>(packet,callback));
+				}
 			}
 		}
 	}
@@ -249,7 +263,7 @@ public class GearmanConnectionManager {
 	 * @author isaiah
 	 *
 	 */
-	private static final class CompleteWrapper2 implements CompletionHandler<ByteBuffer, Void> {
+	private static final class CompleteWrapper2<X> implements CompletionHandler<X, Void> {
 		
 		private final GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback;
 		private final GearmanPacket packet;
@@ -260,7 +274,7 @@ public class GearmanConnectionManager {
 		}
 
 		@Override
-		public void completed(ByteBuffer result, Void attachment) {
+		public void completed(X result, Void attachment) {
 			if(this.callback!=null)
 				this.callback.onComplete(packet, SendCallbackResult.SEND_SUCCESSFUL);
 		}
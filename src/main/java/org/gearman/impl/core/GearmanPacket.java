@@ -28,6 +28,8 @@
 
 package org.gearman.impl.core; 
 
+import java.nio.ByteBuffer;
+
 import org.gearman.impl.util.GearmanUtils;
 
 /**
@@ -53,11 +55,11 @@ import org.gearman.impl.util.GearmanUtils;
  */
 public final class GearmanPacket {
 	
-	public static final GearmanPacket NO_JOB = new GearmanPacket(Magic.RES, Type.NO_JOB);
-	public static final GearmanPacket NOOP = new GearmanPacket(Magic.RES, Type.NOOP);
-	public static final GearmanPacket PRE_SLEEP = new GearmanPacket(Magic.REQ, Type.PRE_SLEEP);
-	public static final GearmanPacket RESET_ABILITIES = new GearmanPacket(Magic.REQ, Type.RESET_ABILITIES);
-	public static final GearmanPacket GRAB_JOB = new GearmanPacket(Magic.REQ, Type.GRAB_JOB);
+	public static final GearmanPacket NO_JOB = new GearmanPacket(Magic.RES, Type.NO_JOB).asConstant();
+	public static final GearmanPacket NOOP = new GearmanPacket(Magic.RES, Type.NOOP).asConstant();
+	public static final GearmanPacket PRE_SLEEP = new GearmanPacket(Magic.REQ, Type.PRE_SLEEP).asConstant();
+	public static final GearmanPacket RESET_ABILITIES = new GearmanPacket(Magic.REQ, Type.RESET_ABILITIES).asConstant();
+	public static final GearmanPacket GRAB_JOB = new GearmanPacket(Magic.REQ, Type.GRAB_JOB).asConstant();
 	
 	/**
 	 * Creates a text based packet for administrative tasks.<br>
@@ -150,6 +152,31 @@ public final class GearmanPacket {
 	public static final GearmanPacket createSUBMIT_JOB_LOW_BG(final String funcName, final byte[] uID, final byte[] data) {
 		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_LOW_BG, funcName.getBytes(GearmanUtils.getCharset()), uID, data);
 	}
+	
+	/**
+	 * Creates a SUBMIT_JOB packet whose data is held in a buffer. The buffer is written to
+	 * the channel as is, so a direct or mapped buffer reaches the socket without being copied
+	 * onto the heap. The buffer's content must not change until the packet has been sent.
+	 * @see #hasPayloadBuffer()
+	 */
+	public static final GearmanPacket createSUBMIT_JOB(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
+	public static final GearmanPacket createSUBMIT_JOB_BG(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_BG, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
+	public static final GearmanPacket createSUBMIT_JOB_HIGH(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_HIGH, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
+	public static final GearmanPacket createSUBMIT_JOB_HIGH_BG(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_HIGH_BG, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
+	public static final GearmanPacket createSUBMIT_JOB_LOW(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_LOW, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
+	public static final GearmanPacket createSUBMIT_JOB_LOW_BG(final String funcName, final byte[] uID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.REQ, Type.SUBMIT_JOB_LOW_BG, data, funcName.getBytes(GearmanUtils.getCharset()), uID);
+	}
 	public static final GearmanPacket createGRAB_JOB() {
 		return GearmanPacket.GRAB_JOB;
 	}
@@ -177,6 +204,12 @@ public final class GearmanPacket {
 	public static final GearmanPacket createSET_CLIENT_ID(String id) {
 		return new GearmanPacket(Magic.REQ, Type.SET_CLIENT_ID, id.getBytes(GearmanUtils.getCharset()));
 	}
+	public static final GearmanPacket createOPTION_REQ(final String option) {
+		return new GearmanPacket(Magic.REQ, Type.OPTION_REQ, option.getBytes(GearmanUtils.getCharset()));
+	}
+	public static final GearmanPacket createOPTION_RES(final byte[] option) {
+		return new GearmanPacket(Magic.RES, Type.OPTION_RES, option);
+	}
 	public static final GearmanPacket createCAN_DO_TIMEOUT(final String funcName, final long timeout) {
 		// TODO not sure if this is right... For the timeout value, is the server expecting
 		// a binary number or a string representation???
@@ -187,10 +220,28 @@ public final class GearmanPacket {
 		return new GearmanPacket(Magic.RES, Type.JOB_ASSIGN, jobHandle, funcName.getBytes(GearmanUtils.getCharset()), data);
 	}
 	
+	/**
+	 * Creates a JOB_ASSIGN packet whose data is held in a buffer. The buffer is written to
+	 * the channel as is, without being copied onto the heap. The buffer's content must
+	 * not change until the packet has been sent.
+	 * @see #hasPayloadBuffer()
+	 */
+	public static final GearmanPacket createJOB_ASSIGN(final byte[] jobHandle, final String funcName, final ByteBuffer data) {
+		return new GearmanPacket(Magic.RES, Type.JOB_ASSIGN, data, jobHandle, funcName.getBytes(GearmanUtils.getCharset()));
+	}
+	
 	public static final GearmanPacket createJOB_ASSIGN_UNIQ(final byte[] jobHandle, final String funcName, final byte[] uniqueID, final byte[] data) {
 		return new GearmanPacket(Magic.RES, Type.JOB_ASSIGN_UNIQ, jobHandle, funcName.getBytes(GearmanUtils.getCharset()), uniqueID, data);
 	}
 	
+	/**
+	 * Creates a JOB_ASSIGN_UNIQ packet whose data is held in a buffer.
+	 * @see #createJOB_ASSIGN(byte[], String, ByteBuffer)
+	 */
+	public static final GearmanPacket createJOB_ASSIGN_UNIQ(final byte[] jobHandle, final String funcName, final byte[] uniqueID, final ByteBuffer data) {
+		return new GearmanPacket(Magic.RES, Type.JOB_ASSIGN_UNIQ, data, jobHandle, funcName.getBytes(GearmanUtils.getCharset()), uniqueID);
+	}
+	
 	public static final GearmanPacket createGET_STATUS(final byte[] jobHandle) {
 		return new GearmanPacket(Magic.REQ, Type.GET_STATUS, jobHandle);
 	}
@@ -203,6 +254,22 @@ public final class GearmanPacket {
     private Type type;
     private byte[][] arguments;
     
+    /**
+     * The encoded form of this packet. It's created on the first call to {@link #toByteBuffer()}
+     * and shared by every connection the packet is sent to, so a packet forwarded to many
+     * listeners is only encoded once. Cleared if the packet is modified.
+     */
+    private volatile ByteBuffer encoded;
+    
+    /** Indicates if this packet is a shared constant and may not be modified */
+    private boolean isConstant = false;
+    
+    /**
+     * The last argument, if it's held in a buffer instead of an array. The buffer is written
+     * to the channel directly, and is only copied into the arguments if the data is requested
+     */
+    private ByteBuffer payload;
+    
     public GearmanPacket(final Magic magic, final Type type , byte[]...arguments) {
     	this.magic = magic;
     	this.type = type;
@@ -223,12 +290,33 @@ public final class GearmanPacket {
     	}
     }
     
+    /**
+     * Creates a packet whose last argument is held in the given buffer
+     * @param payload
+     * 		The last argument. The buffer's remaining bytes are used
+     * @param arguments
+     * 		All arguments but the last
+     */
+    private GearmanPacket(final Magic magic, final Type type, final ByteBuffer payload, final byte[]...arguments) {
+    	this(magic, type, GearmanPacket.withPlaceholder(arguments));
+    	this.payload = payload.asReadOnlyBuffer();
+    	this.arguments[this.arguments.length-1] = null;
+    }
+    
+    private static final byte[][] withPlaceholder(final byte[][] arguments) {
+    	final byte[][] value = new byte[arguments.length+1][];
+    	System.arraycopy(arguments, 0, value, 0, arguments.length);
+    	return value;
+    }
+    
     public final Type getPacketType() {
     	return this.type;
     }
     
     public final void setPacketType(final Type type) {
+    	if(this.isConstant) throw new IllegalStateException("constant packets cannot be modified");
     	this.type = type;
+    	this.encoded = null;
     }
     
     /**
@@ -240,22 +328,65 @@ public final class GearmanPacket {
     }
     
     public final void setMagic(final Magic magic) {
+    	if(this.isConstant) throw new IllegalStateException("constant packets cannot be modified");
     	this.magic = magic;
+    	this.encoded = null;
     }
     
     public final byte[] getArgumentData(final Argument arg) {
     	final int pos = GearmanPacket.getArgumentNumber(this.type, arg);
-    	return pos==-1? null: this.arguments[pos];
+    	return pos==-1? null: this.getArgumentData(pos);
     }
     
     public final byte[] getArgumentData(final int arg) {
-    	return this.arguments[arg];
+    	final byte[] value = this.arguments[arg];
+    	return value==null? this.copyPayload(): value;
+    }
+    
+    /**
+     * Tests if the last argument is held in a buffer rather than an array. Such packets
+     * should be encoded with {@link GearmanCodec#encodeGathering(GearmanPacket)} so the
+     * buffer is written without being copied.
+     * @return
+     * 		true if the last argument is held in a buffer
+     */
+    public final boolean hasPayloadBuffer() {
+    	return this.payload!=null;
+    }
+    
+    /**
+     * Copies the payload buffer, if any, into the packet's arguments and drops the reference
+     * to the buffer. Used when the packet outlives the buffer's content, like when it's handed
+     * to an in-process peer that reads it later
+     */
+    public final void detachPayload() {
+    	if(this.payload==null) return;
+    	
+    	this.copyPayload();
+    	this.payload = null;
+    	this.encoded = null;
+    }
+    
+    private final byte[] copyPayload() {
+    	final int last = this.arguments.length-1;
+    	
+    	byte[] value = this.arguments[last];
+    	if(value==null) {
+    		final ByteBuffer payload = this.payload.duplicate();
+    		value = new byte[payload.remaining()];
+    		payload.get(value);
+    		this.arguments[last] = value;
+    	}
+    	return value;
     }
     
 
     /**
      * Retrieves the Packet as a series of bytes. Typically called when about
-     * to send the packet over a {@link  GearmanJobServerConnection}.
+     * to send the packet over a {@link  GearmanJobServerConnection}.<br>
+     * <br>
+     * A payload buffer is read straight into the returned array. It isn't copied into the
+     * packet's arguments, so the packet doesn't keep a heap copy of an off-heap payload.
      *
      * @return a byte array representing the packet.
      */
@@ -267,13 +398,65 @@ public final class GearmanPacket {
     	
     	// Find the packet size
     	int packet_size = HEADER_SIZE;
-    	for(byte[] arg : this.arguments) {
-    		packet_size += arg.length;
+    	for(int i=0; i<this.arguments.length; i++) {
+    		packet_size += this.getArgumentSize(i);
     	}
     	if(this.arguments.length>0) packet_size += this.arguments.length-1;
     	
     	// Allocate a byte[] to hold the entire packet
     	final byte[] packet = new byte[packet_size];
+    	this.writeHeader(packet, packet_size-HEADER_SIZE);
+    	
+    	// Inject the arguments
+    	int pos = HEADER_SIZE;
+    	for(int i=0; i<this.arguments.length; i++) {
+    		final byte[] arg = this.arguments[i];
+    		final int size = this.getArgumentSize(i);
+    		
+    		if(arg==null) this.payload.duplicate().get(packet, pos, size);
+    		else System.arraycopy(arg, 0, packet, pos, size);
+    		
+    		pos += size+1;
+    	}
+    	
+    	return packet;
+    }
+    
+    private final int getArgumentSize(final int arg) {
+    	final byte[] value = this.arguments[arg];
+    	return value==null? this.payload.remaining(): value.length;
+    }
+    
+    /**
+     * Retrieves a packet holding its last argument in a buffer as two buffers: the header
+     * and leading arguments, followed by a view of the payload buffer. Written in order,
+     * they make up the encoded packet.
+     * @return
+     * 		The buffers making up the encoded packet
+     */
+    public ByteBuffer[] toByteBuffers() {
+    	final ByteBuffer payload = this.payload;
+    	if(payload==null) return new ByteBuffer[] {this.toByteBuffer()};
+    	
+    	// The header and every argument but the last, each followed by a null separator
+    	int header_size = HEADER_SIZE;
+    	for(int i=0; i<this.arguments.length-1; i++) {
+    		header_size += this.arguments[i].length+1;
+    	}
+    	
+    	final byte[] header = new byte[header_size];
+    	this.writeHeader(header, header_size-HEADER_SIZE+payload.remaining());
+    	
+    	int pos = HEADER_SIZE;
+    	for(int i=0; i<this.arguments.length-1; i++) {
+    		System.arraycopy(this.arguments[i], 0, header, pos, this.arguments[i].length);
+    		pos += this.arguments[i].length+1;
+    	}
+    	
+    	return new ByteBuffer[] {ByteBuffer.wrap(header), payload.duplicate()};
+    }
+    
+    private final void writeHeader(final byte[] packet, final int size) {
     	
     	// Set the magic code
     	final int magic = this.magic.getMagicCode();
@@ -290,20 +473,82 @@ public final class GearmanPacket {
     	packet[7] = (byte)(((0x000000FF)&type));
     	
     	// Set the size
-    	final int size = packet_size-12;
     	packet[8] = (byte)(((0xFF000000)&size)>>24);
     	packet[9] = (byte)(((0x00FF0000)&size)>>16);
     	packet[10] = (byte)(((0x0000FF00)&size)>>8);
     	packet[11] = (byte)(((0x000000FF)&size));
+    }
+    
+    /**
+     * Retrieves the packet as a buffer ready to be written to a channel.<br>
+     * <br>
+     * The packet is encoded once and the encoded bytes are shared between all callers. Each
+     * call returns a new read-only view over the shared bytes with its own position and limit,
+     * so the same packet may be written to any number of channels concurrently without being
+     * copied or re-encoded. A packet holding its last argument in a buffer is encoded on each
+     * call, straight from the buffer.
+     * 
+     * @return
+     * 		A read-only buffer holding the encoded packet
+     */
+    public ByteBuffer toByteBuffer() {
+    	if(this.payload!=null) return this.toPayloadByteBuffer();
     	
-    	// Inject the arguments
-    	int pos = HEADER_SIZE;
-    	for(byte[] arg : this.arguments) {
-    		System.arraycopy(arg, 0, packet, pos, arg.length);
-    		pos += arg.length+1;
+    	ByteBuffer encoded = this.encoded;
+    	if(encoded==null) {
+    		/*
+    		 * Two threads may encode the packet at the same time. This is harmless since both
+    		 * produce the same bytes and the last one wins
+    		 */
+    		this.encoded = encoded = ByteBuffer.wrap(this.toBytes()).asReadOnlyBuffer();
     	}
+    	return encoded.duplicate();
+    }
+    
+    /**
+     * Encodes a packet holding its last argument in a buffer into a single buffer. The
+     * payload is put straight from its buffer, and the result is direct if the payload is,
+     * so an off-heap payload isn't copied onto the heap. The result isn't kept, since such
+     * packets are sent to a single peer and would otherwise hold a second copy of the payload.
+     * @return
+     * 		A read-only buffer holding the encoded packet
+     */
+    private final ByteBuffer toPayloadByteBuffer() {
+    	final ByteBuffer[] parts = this.toByteBuffers();
     	
-    	return packet;
+    	int size = 0;
+    	for(ByteBuffer part : parts) {
+    		size += part.remaining();
+    	}
+    	
+    	final ByteBuffer buffer = this.payload.isDirect()? ByteBuffer.allocateDirect(size): ByteBuffer.allocate(size);
+    	for(ByteBuffer part : parts) {
+    		buffer.put(part);
+    	}
+    	buffer.flip();
+    	
+    	return buffer.asReadOnlyBuffer();
+    }
+    
+    /**
+     * Marks this packet as a constant. Constant packets are shared instances, like
+     * {@link #NOOP} and {@link #NO_JOB}, that are sent many times over the life of the
+     * process. The packet is encoded up front into a read-only direct buffer, so each
+     * send is a view over the same bytes with no encoding, no copy and no intermediate
+     * heap array. Once marked, the packet's magic and type may not be changed.
+     * 
+     * @return
+     * 		This packet
+     */
+    public final GearmanPacket asConstant() {
+    	final byte[] bytes = this.toBytes();
+    	final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    	buffer.put(bytes);
+    	buffer.flip();
+    	
+    	this.encoded = buffer.asReadOnlyBuffer();
+    	this.isConstant = true;
+    	return this;
     }
 
     /**
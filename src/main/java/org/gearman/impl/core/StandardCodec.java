@@ -79,8 +79,13 @@ public final class StandardCodec implements GearmanCodec<Integer>{
 	}
 
 	@Override
-	public final byte[] encode(final GearmanPacket packet) {
-		return packet.toBytes();
+	public final ByteBuffer encode(final GearmanPacket packet) {
+		return packet.toByteBuffer();
+	}
+	
+	@Override
+	public final ByteBuffer[] encodeGathering(final GearmanPacket packet) {
+		return packet.toByteBuffers();
 	}
 
 	@Override
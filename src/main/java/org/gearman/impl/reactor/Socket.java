@@ -157,6 +157,35 @@ public interface Socket<X> {
 	 *		sending the data
 	 */
 	public <A> void write(ByteBuffer data, A att, CompletionHandler<ByteBuffer, A> callback);
+	
+	/**
+	 * Writes a sequence of buffers to the socket asynchronously, as if they were one buffer.<br>
+	 * <br>
+	 * The buffers are written in order with gathering writes, so data held in separate
+	 * buffers, like a header and a large payload, is sent without being copied into one
+	 * buffer. The write operation is queued like {@link #write(ByteBuffer, Object, CompletionHandler)}
+	 * and completes once all buffers have been written.
+	 * @param data
+	 * 		The data to send over the socket
+	 * @param att
+	 * 		The attachment given to the callback
+	 * @param callback
+	 * 		Notified once all buffers have been written or the write fails
+	 */
+	public <A> void write(ByteBuffer[] data, A att, CompletionHandler<ByteBuffer[], A> callback);
+	
+	/**
+	 * Stops reading from the socket once the current read completes. Suspensions are
+	 * counted, reading resumes once each suspension has been matched by a call to
+	 * {@link #resumeRead()}. While reading is suspended the peer is slowed down by TCP's
+	 * flow control.
+	 */
+	public void suspendRead();
+	
+	/**
+	 * Releases a suspension made by {@link #suspendRead()}
+	 */
+	public void resumeRead();
 
 	/**
 	 * Returns the ByteBuffer for this socket.
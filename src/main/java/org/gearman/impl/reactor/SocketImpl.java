@@ -37,6 +37,7 @@ import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 import static org.gearman.context.GearmanContext.LOGGER;
 
@@ -51,11 +52,17 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 	private A att;
 	private ByteBuffer buffer;
 	
-	private final Queue<Writter<?>> writters;
+	private final Queue<PendingWrite> writters;
 	private boolean isWriting;
 	
 	private boolean isClosed = false;
 	
+	/** The number of read suspensions. Guarded by readLock */
+	private int suspensions = 0;
+	/** Set if a read was not started because reading is suspended. Guarded by readLock */
+	private boolean isReadParked = false;
+	private final Object readLock = new Object();
+	
 	SocketImpl(AsynchronousSocketChannel socketChannel, SocketHandler<A> handler) throws IOException {
 		this.local = (InetSocketAddress) socketChannel.getLocalAddress();
 		this.remote = (InetSocketAddress) socketChannel.getRemoteAddress();
@@ -65,7 +72,7 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 		this.handler = handler;
 		this.buffer = handler.createSocketBuffer();
 		
-		writters = new LinkedList<Writter<?>>();
+		writters = new LinkedList<PendingWrite>();
 	}
 	
 	@Override
@@ -110,6 +117,24 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 		this.socketChannel.read(this.buffer, null, this);
 	}
 	
+	@Override
+	public void suspendRead() {
+		synchronized(this.readLock) {
+			this.suspensions++;
+		}
+	}
+	
+	@Override
+	public void resumeRead() {
+		synchronized(this.readLock) {
+			// The count may briefly drop below zero if a resume overtakes its suspend
+			if(--this.suspensions>0 || !this.isReadParked) return;
+			this.isReadParked = false;
+		}
+		
+		if(this.socketChannel.isOpen()) this.read();
+	}
+	
 	@Override
 	public int getLocalPort() {
 		return this.local.getPort();
@@ -162,8 +187,17 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 
 	@Override
 	public <A2> void write(ByteBuffer data, A2 att, CompletionHandler<ByteBuffer, A2> callback) {
+		this.write(new Writter<A2>(data, att, callback));
+	}
+	
+	@Override
+	public <A2> void write(ByteBuffer[] data, A2 att, CompletionHandler<ByteBuffer[], A2> callback) {
+		this.write(new GatheringWritter<A2>(data, att, callback));
+	}
+	
+	private final void write(final PendingWrite writter) {
 		synchronized(this.writters) {
-			this.writters.add(new Writter<A2>(data, att, callback));
+			this.writters.add(writter);
 			
 			if(this.isWriting) return;
 			this.isWriting=true;
@@ -174,7 +208,7 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 	private final void writeNext() {
 		assert this.isWriting;
 		
-		final Writter<?> writter;
+		final PendingWrite writter;
 		synchronized(this.writters) {
 			writter = this.writters.poll();;
 			
@@ -203,6 +237,14 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 		}
 		
 		this.handler.onRead(result,this);
+		
+		synchronized(this.readLock) {
+			if(this.suspensions>0) {
+				// The next read is started once reading resumes
+				this.isReadParked = true;
+				return;
+			}
+		}
 		this.socketChannel.read(buffer, null, this);
 	}
 	
@@ -243,7 +285,11 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 		}
 	}
 	
-	private final class Writter<A2> implements CompletionHandler<Integer, Object> {
+	private static interface PendingWrite {
+		public void write();
+	}
+	
+	private final class Writter<A2> implements PendingWrite, CompletionHandler<Integer, Object> {
 		private final ByteBuffer data;
 		private final A2 att;
 		private final CompletionHandler<ByteBuffer, A2> callback;
@@ -280,4 +326,48 @@ final class SocketImpl<A> implements Socket<A>, CompletionHandler<Integer, Objec
 			if(this.callback!=null) this.callback.failed(exc, att);
 		}
 	}
+	
+	private final class GatheringWritter<A2> implements PendingWrite, CompletionHandler<Long, Object> {
+		private final ByteBuffer[] data;
+		private final A2 att;
+		private final CompletionHandler<ByteBuffer[], A2> callback;
+		
+		/** The index of the first buffer with remaining bytes */
+		private int offset = 0;
+		
+		public GatheringWritter(ByteBuffer[] data, A2 att, CompletionHandler<ByteBuffer[], A2> callback) {
+			this.data = data;
+			this.att = att;
+			this.callback = callback;
+		}
+	
+		public void write() {
+			while(this.offset<this.data.length && !this.data[this.offset].hasRemaining())
+				this.offset++;
+			
+			if(this.offset<this.data.length) {
+				SocketImpl.this.socketChannel.write(this.data, this.offset, this.data.length-this.offset, 0L, TimeUnit.MILLISECONDS, null, this);
+			} else {
+				SocketImpl.this.writeNext();
+				
+				try {
+					if(this.callback!=null) this.callback.completed(data, att);
+				} catch (Throwable th) {
+					// user threw exception
+					th.printStackTrace();
+				}
+			}
+		}
+		
+		@Override
+		public void completed(Long result, Object attachment) {
+			this.write();
+		}
+
+		@Override
+		public void failed(Throwable exc, Object attachment) {
+			SocketImpl.this.writeNext();
+			if(this.callback!=null) this.callback.failed(exc, att);
+		}
+	}
 }
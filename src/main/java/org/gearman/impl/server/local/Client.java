@@ -199,6 +199,20 @@ interface Client {
 	 */
 	public void setForwardsExceptions(boolean value);
 	
+	/**
+	 * Sets the deadline of the next job submitted by this client
+	 * @param deadline
+	 * 		The deadline, as given by {@link System#nanoTime()}
+	 */
+	public void setNextDeadline(long deadline);
+	
+	/**
+	 * Returns and clears the deadline set for the next job submitted by this client
+	 * @return
+	 * 		The deadline, as given by {@link System#nanoTime()}, or 0 if none was set
+	 */
+	public long takeNextDeadline();
+	
 	/**
 	 * Places the ServerClient in sleep mode.
 	 */
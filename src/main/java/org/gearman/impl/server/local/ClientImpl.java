@@ -55,6 +55,8 @@ class ClientImpl implements Client {
 	private String clientID	 = "-";
 	/** Indicates if exception packets should be forward to clients*/
 	private boolean isForwardsExceptions = false;
+	/** The deadline of the next submitted job, or 0 if none */
+	private volatile long nextDeadline = 0;
 	/** Indicates if this ServerClient is closed */
 	private boolean isClosed = false;
 	
@@ -220,7 +222,8 @@ class ClientImpl implements Client {
 	
 	@Override
 	public void sendPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback) {
-		LOGGER.info(GearmanUtils.toString(conn) + " : OUT : " + packet.getPacketType().toString());
+		if(LOGGER.isInfoEnabled())
+			LOGGER.info(GearmanUtils.toString(conn) + " : OUT : " + packet.getPacketType().toString());
 		this.conn.sendPacket(packet, callback==null? this.defaultCallback : new SendCallback(callback));
 	}
 	
@@ -234,6 +237,18 @@ class ClientImpl implements Client {
 		this.isForwardsExceptions = value;
 	}
 	
+	@Override
+	public void setNextDeadline(long deadline) {
+		this.nextDeadline = deadline;
+	}
+	
+	@Override
+	public long takeNextDeadline() {
+		final long deadline = this.nextDeadline;
+		if(deadline!=0) this.nextDeadline = 0;
+		return deadline;
+	}
+	
 	@Override
 	public void sleep() {
 		synchronized(funcMap) { this.isSleeping=true; }
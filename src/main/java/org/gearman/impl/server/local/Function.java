@@ -27,19 +27,24 @@
 
 package org.gearman.impl.server.local;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.gearman.GearmanJobPriority;
-import org.gearman.GearmanPersistence;
 import org.gearman.impl.core.GearmanPacket;
 import org.gearman.impl.util.ByteArray;
 import org.gearman.impl.util.EqualsLock;
 import org.gearman.impl.util.GearmanUtils;
 
+import static org.gearman.context.GearmanContext.LOGGER;
+
 class Function {
 	
 	AtomicLong emptyCount = new AtomicLong(0);
@@ -54,11 +59,28 @@ class Function {
 	private final JobQueue<InnerJob> queue = new JobQueue<InnerJob>();
 	/** The list of workers waiting for jobs to be placed in the queue */
 	private final Set<Client> workers = new CopyOnWriteArraySet<Client>();
-	/** The maximum number of jobs this function can have at any one time */
-	private int maxQueueSize = 0;
+	/** The settings given by an administrator */
+	private final FunctionSettings settings;
+	/** The number of jobs and payload bytes this function may hold at any one time */
+	private final QueueBudget budget;
+	/** The number of jobs and payload bytes the server may hold, shared by all functions */
+	private final QueueBudget serverBudget;
+	/** The number of payload bytes held in memory. Once past the spill threshold, new payloads are written to disk */
+	private final AtomicLong memoryBytes = new AtomicLong(0);
+	/**
+	 * The earliest deadline of a queued job, as given by {@link System#nanoTime()}, or 0 if
+	 * no queued job has a deadline. The queue is only searched for expired jobs once it passes
+	 */
+	private final AtomicLong nextExpiry = new AtomicLong(0);
+	/** The scheduler used to forward coalesced WORK_STATUS packets */
+	private final ScheduledExecutorService scheduler;
 	
-	public Function(final ByteArray name) {
+	public Function(final ByteArray name, final ScheduledExecutorService scheduler, final QueueBudget serverBudget, final FunctionSettings settings) {
 		this.name = name;
+		this.scheduler = scheduler;
+		this.serverBudget = serverBudget;
+		this.settings = settings;
+		this.budget = settings.getBudget();
 	}
 	public final void addNoopable(final Client noopable) {
 		workers.add(noopable);
@@ -66,8 +88,36 @@ class Function {
 	public final void removeNoopable(final Client noopable) {
 		workers.remove(noopable);
 	}
-	public final void setMaxQueue(final int size) {
-		synchronized(this.jobSet) { this.maxQueueSize = size; }
+	public final FunctionSettings getSettings() {
+		return this.settings;
+	}
+	
+	/**
+	 * Returns the function's queue usage as a text line: name, jobs, max jobs, bytes, max bytes
+	 * @return
+	 * 		The function's queue usage
+	 */
+	public final GearmanPacket getUsage() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.name.toString(GearmanUtils.getCharset())); sb.append('\t');
+		this.budget.appendUsage(sb); sb.append('\n');
+		
+		return GearmanPacket.createTEXT(sb.toString());
+	}
+	
+	/**
+	 * Returns the minimum amount of time between WORK_STATUS packets forwarded to the
+	 * listening clients of this function's jobs
+	 * @return
+	 * 		The interval in milliseconds. 0 forwards every update
+	 */
+	public final long getStatusInterval() {
+		final long interval = this.settings.getStatusInterval();
+		return interval<0? GearmanUtils.getStatusInterval(): interval;
+	}
+	
+	public final ScheduledExecutorService getScheduler() {
+		return this.scheduler;
 	}
 	
 	public final ByteArray getName() {
@@ -89,11 +139,25 @@ class Function {
 	}
 	
 	public final void put(ByteArray uniqueID, byte[] data, byte[] jobHandle, GearmanJobPriority priority) {
-		final InnerJob job = new InnerJob(uniqueID, data, jobHandle, priority, true, null);
+		final InnerJob job = new InnerJob(uniqueID, this.createPayload(data), jobHandle, priority, true, null);
+		
+		// Recovered jobs are always accepted, even if they exceed the budgets
+		this.budget.add(data.length);
+		this.serverBudget.add(data.length);
+		
 		this.jobSet.put(uniqueID, job);
+		this.queue.add(job);
+		
+		JobAbstract.reserveJobHandle(jobHandle);
 	}
 	
-	public final void createJob(ByteArray uniqueID, final byte[] data, final GearmanJobPriority priority, final Client creator, boolean isBackground, GearmanPersistence persistence) {
+	/**
+	 * Creates a job, or adds the creator to the job with the same unique ID
+	 * @param deadline
+	 * 		The time, as given by {@link System#nanoTime()}, after which the job is dropped if
+	 * 		it's still queued, or 0 if the job has no deadline
+	 */
+	public final void createJob(ByteArray uniqueID, final byte[] data, final GearmanJobPriority priority, final Client creator, boolean isBackground, final long deadline, PersistencePipeline persistence) {
 		
 		if(uniqueID.isEmpty()) {
 			uniqueID = new ByteArray(("emptyID_"+emptyCount.incrementAndGet()).getBytes(GearmanUtils.getCharset()));
@@ -113,65 +177,99 @@ class Function {
 				final InnerJob job = this.jobSet.get(uniqueID);
 				if(job!=null) {
 					synchronized(job) {
-						// If the job is not background, add creator to listener set and send JOB_CREATED packet
-						if(!isBackground) job.addClient(creator);
-						creator.sendPacket(job.createJobCreatedPacket(), null /*TODO*/);
-					
-						return;
+						/*
+						 * A job abandoned by a failed write is leaving the job set. It's
+						 * replaced by a new job below
+						 */
+						if(!job.isAbandoned) {
+							job.extendDeadline(deadline);
+							
+							if(job.parked!=null) {
+								// The job isn't durable yet. The creator is answered once the write completes
+								job.parked.add(new ParkedCreator(creator, isBackground));
+								return;
+							}
+							
+							// If the job is not background, add creator to listener set and send JOB_CREATED packet
+							if(!isBackground) job.addClient(creator);
+							creator.sendPacket(job.createJobCreatedPacket(), null /*TODO*/);
+						
+							return;
+						}
 					}
 				}
 			}
 			
-			final InnerJob job;
-			
-			/* 
-			 * Note: with this maxQueueSize variable not being synchronized, it is
-			 * possible for a few threads to slip in and add jobs after the
-			 * maxQueueSize variable is set, but I've decided that is it not
-			 * worth the cost to guarantee this minute feature, especially since
-			 * it's possible to have more then maxQueueSize jobs if the jobs were
-			 * added prior to the variable being set.
+			/*
+			 * Reserve room in the function's and the server's budgets. The budgets are
+			 * reserved atomically, so concurrent submits can't exceed the limits. The
+			 * room is released when the job is removed from the job set
 			 */
-			if(this.maxQueueSize>0) {
-				synchronized (this.jobSet) {
-					if(maxQueueSize>0 && maxQueueSize<=jobSet.size()) {
-						creator.sendPacket(StaticPackets.ERROR_QUEUE_FULL,null);
-						return;
-					}
-					
-					job = new InnerJob(uniqueID, data, priority, isBackground ,creator);
-					this.jobSet.put(uniqueID, job);
-				}
-			} else {
-				job = new InnerJob(uniqueID, data, priority, isBackground, creator);	
-				this.jobSet.put(uniqueID, job);		// add job to local job set
+			if(!this.acquireBudget(data.length)) {
+				creator.sendPacket(StaticPackets.ERROR_QUEUE_FULL,null);
+				return;
 			}
 			
-			try {
-				if(isBackground && persistence!=null) {
-					persistence.write(new ServerPersistable(job)); 
+			final InnerJob job = new InnerJob(uniqueID, this.createPayload(data), priority, isBackground, creator);
+			job.setDeadline(deadline);
+			if(deadline!=0) this.updateNextExpiry(deadline);
+			this.jobSet.put(uniqueID, job);		// add job to local job set
+			
+			if(isBackground && persistence!=null) {
+				if(persistence.getAckMode()==PersistencePipeline.AckMode.AFTER_PERSIST) {
+					/*
+					 * The job is acknowledged and queued once it's durable. Until then it's only
+					 * in the job set, so it can't be assigned or completed. Submits with the
+					 * same unique ID are parked and answered with the creator
+					 */
+					job.parked = new ArrayList<ParkedCreator>(0);
+					final boolean isAccepted = persistence.write(job, new PersistencePipeline.WriteCallback() {
+						@Override
+						public void onComplete(Exception failure) {
+							final List<ParkedCreator> parked;
+							
+							if(failure==null) {
+								synchronized(job) {
+									parked = job.parked;
+									job.parked = null;
+									
+									// Parked clients are added before the job is queued, so they receive its results
+									for(ParkedCreator p : parked) {
+										if(!p.isBackground) job.addClient(p.client);
+										p.client.sendPacket(job.createJobCreatedPacket(), null);
+									}
+								}
+								Function.this.queueJob(job, creator);
+							} else {
+								synchronized(job) {
+									parked = job.parked;
+									job.parked = null;
+									job.abandon();
+								}
+								creator.sendPacket(StaticPackets.ERROR_PERSISTENCE_FAILED, null);
+								for(ParkedCreator p : parked) {
+									p.client.sendPacket(StaticPackets.ERROR_PERSISTENCE_FAILED, null);
+								}
+							}
+						}
+					});
+					if(!isAccepted) {
+						// No creators were parked, the job's unique ID has been locked since it was added
+						job.abandon();
+						creator.sendPacket(StaticPackets.ERROR_QUEUE_FULL, null);
+					}
+					return;
+				}
+				
+				// The write must be taken before the job is queued, while its payload is still held
+				if(!persistence.write(job, null)) {
+					job.abandon();
+					creator.sendPacket(StaticPackets.ERROR_QUEUE_FULL, null);
+					return;
 				}
-			} catch(Exception e) {
-				// TODO log exception
 			}
 			
-			/* 
-			 * The JOB_CREATED packet must sent before the job is added to the queue.
-			 * Queuing the job before sending the packet may result in another thread
-			 * grabbing, completing and sending a WORK_COMPLETE packet before the
-			 * JOB_CREATED is sent 
-			 */
-			creator.sendPacket(job.createJobCreatedPacket(), null /*TODO*/);
-			
-			/*
-			 * The job must be queued before sending the NOOP packets. Sending the noops
-			 * first may result in a worker failing to grab the job 
-			 */
-			this.queue.add(job);
-			
-			for(Client noop : workers) {
-				noop.noop();
-			}
+			this.queueJob(job, creator);
 			
 		} finally {
 			// Always unlock lock
@@ -179,9 +277,123 @@ class Function {
 		}
 	}
 	
+	/**
+	 * Reserves room for a new job's payload in the function's and the server's budgets. If
+	 * either is full, queued jobs whose deadlines have passed are failed to make room, since
+	 * nobody is waiting for their results
+	 * @param size
+	 * 		The payload's size in bytes
+	 * @return
+	 * 		true if the room was reserved
+	 */
+	private final boolean acquireBudget(final int size) {
+		do {
+			if(this.budget.acquire(size)) {
+				if(this.serverBudget.acquire(size)) return true;
+				this.budget.release(size);
+			}
+		} while(this.purgeExpired());
+		
+		return false;
+	}
+	
+	/**
+	 * Fails the first queued job whose deadline has passed
+	 * @return
+	 * 		true if a job was failed
+	 */
+	private final boolean purgeExpired() {
+		final long next = this.nextExpiry.get();
+		final long now = System.nanoTime();
+		if(next==0 || now-next<0) return false;
+		
+		long earliest = 0;
+		for(InnerJob job : this.queue) {
+			synchronized(job) {
+				if(!job.hasDeadline()) continue;
+				
+				if(job.isExpired(now)) {
+					// The job may have been polled by a worker since it was found
+					if(!this.queue.remove(job)) continue;
+					
+					job.expire();
+					return true;
+				}
+				
+				final long deadline = job.getDeadline();
+				if(earliest==0 || deadline-earliest<0) earliest = deadline;
+			}
+		}
+		
+		// Nothing has expired. The queue isn't searched again until the earliest deadline passes
+		this.nextExpiry.compareAndSet(next, earliest);
+		return false;
+	}
+	
+	/**
+	 * Lowers the time at which the queue is next searched for expired jobs to the given deadline
+	 */
+	private final void updateNextExpiry(final long deadline) {
+		long next;
+		do {
+			next = this.nextExpiry.get();
+			if(next!=0 && next-deadline<=0) return;
+		} while(!this.nextExpiry.compareAndSet(next, deadline));
+	}
+	
+	/**
+	 * Acknowledges a new job and places it in the queue
+	 * @param job
+	 * 		The new job
+	 * @param creator
+	 * 		The client that submitted the job
+	 */
+	private final void queueJob(final InnerJob job, final Client creator) {
+		/* 
+		 * The JOB_CREATED packet must sent before the job is added to the queue.
+		 * Queuing the job before sending the packet may result in another thread
+		 * grabbing, completing and sending a WORK_COMPLETE packet before the
+		 * JOB_CREATED is sent 
+		 */
+		creator.sendPacket(job.createJobCreatedPacket(), null /*TODO*/);
+		
+		/*
+		 * The job must be queued before sending the NOOP packets. Sending the noops
+		 * first may result in a worker failing to grab the job 
+		 */
+		this.queue.add(job);
+		
+		for(Client noop : workers) {
+			noop.noop();
+		}
+	}
+	
+	/**
+	 * Stores a new job's payload. Payloads are held in memory until the bytes held in
+	 * memory by this function pass the spill threshold, then they're written to disk. The
+	 * queue order isn't affected by where a payload is held
+	 * @param data
+	 * 		The payload's bytes
+	 * @return
+	 * 		The stored payload
+	 */
+	private final Payload createPayload(final byte[] data) {
+		final long threshold = GearmanUtils.getSpillThreshold();
+		if(threshold>0 && this.memoryBytes.get()+data.length>threshold) {
+			try {
+				return SpillStore.getInstance().store(data);
+			} catch (IOException e) {
+				LOGGER.warn("Failed to spill job payload to disk. Holding it in memory", e);
+			}
+		}
+		
+		this.memoryBytes.addAndGet(data.length);
+		return PayloadStore.getInstance().store(data);
+	}
+	
 	public final boolean grabJob(final Client worker) {
 		
-		final InnerJob job = this.queue.poll();
+		final InnerJob job = this.pollJob();
 		
 		if(job==null) return false;
 		
@@ -190,20 +402,57 @@ class Function {
 	}
 	
 	public final boolean grabJobUniqueID(final Client worker) {
-		final InnerJob job = this.queue.poll();
+		final InnerJob job = this.pollJob();
 		if(job==null) return false;
 		
 		job.workUniqueID(worker);
 		return true;
 	}
 	
+	/**
+	 * Polls the next job to assign. Jobs whose deadlines passed while queued are failed
+	 * instead, so workers don't spend time on results nobody is waiting for
+	 */
+	private final InnerJob pollJob() {
+		InnerJob job;
+		long now = 0;
+		while((job=this.queue.poll())!=null) {
+			if(!job.hasDeadline()) return job;
+			if(now==0) now = System.nanoTime();
+			
+			synchronized(job) {
+				if(!job.isExpired(now)) return job;
+				job.expire();
+			}
+		}
+		return null;
+	}
+	
+	/** A submit coalesced with a job that's waiting to become durable */
+	private static final class ParkedCreator {
+		private final Client client;
+		private final boolean isBackground;
+		
+		private ParkedCreator(final Client client, final boolean isBackground) {
+			this.client = client;
+			this.isBackground = isBackground;
+		}
+	}
+	
 	private final class InnerJob extends JobAbstract {
+		/**
+		 * Submits waiting on this job's write, or null if the job isn't waiting to become
+		 * durable. Guarded by the job's monitor
+		 */
+		private List<ParkedCreator> parked;
+		/** Set once the job is removed without being queued. Guarded by the job's monitor */
+		private boolean isAbandoned;
 
-		InnerJob(ByteArray uniqueID, byte[] data, GearmanJobPriority priority, boolean isBackground, Client creator) {
+		InnerJob(ByteArray uniqueID, Payload data, GearmanJobPriority priority, boolean isBackground, Client creator) {
 			super(uniqueID, data, priority, isBackground,creator);
 		}
 		
-		InnerJob(ByteArray uniqueID, byte[] data, byte[] jobHandle ,GearmanJobPriority priority, boolean isBackground, Client creator) {
+		InnerJob(ByteArray uniqueID, Payload data, byte[] jobHandle ,GearmanJobPriority priority, boolean isBackground, Client creator) {
 			super(uniqueID, data, jobHandle,priority,isBackground,creator);
 		}
 
@@ -219,11 +468,33 @@ class Function {
 				final Job job = Function.this.jobSet.remove(this.getUniqueID());
 				assert job.equals(this);
 				// Remove from jobSet
+				
+				Function.this.budget.release(this.getDataSize());
+				Function.this.serverBudget.release(this.getDataSize());
+				if(!this.getPayload().isOnDisk())
+					Function.this.memoryBytes.addAndGet(-this.getDataSize());
 			case COMPLETE:
 				// Do nothing
 			}
 		}
 
+		/**
+		 * Removes a job that was never queued, releasing its share of the budgets
+		 */
+		private final synchronized void abandon() {
+			this.isAbandoned = true;
+			
+			final Job job = Function.this.jobSet.remove(this.getUniqueID());
+			assert job.equals(this);
+			
+			Function.this.budget.release(this.getDataSize());
+			Function.this.serverBudget.release(this.getDataSize());
+			if(!this.getPayload().isOnDisk())
+				Function.this.memoryBytes.addAndGet(-this.getDataSize());
+			
+			this.discard();
+		}
+
 		@Override
 		protected final synchronized void onQueue(final JobState prevState) {
 			assert prevState!=null;
@@ -30,14 +30,29 @@ package org.gearman.impl.server.local;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.gearman.impl.core.GearmanPacket;
 import org.gearman.impl.util.ByteArray;
 import org.gearman.impl.util.EqualsLock;
+import org.gearman.impl.util.GearmanUtils;
 
 class FunctionMap {
 	
 	private final ConcurrentHashMap<ByteArray, Reference<InnerFunction>> funcMap = new ConcurrentHashMap<ByteArray, Reference<InnerFunction>>();
 	private final EqualsLock lock = new EqualsLock();
+	private final ScheduledExecutorService scheduler;
+	/** The number of jobs and payload bytes the server may hold, shared by all functions */
+	private final QueueBudget budget = new QueueBudget(GearmanUtils.getMaxQueueJobs(), GearmanUtils.getMaxQueueBytes());
+	/**
+	 * The settings of functions configured by an administrator. Held strongly, so they're
+	 * kept while their function is collected. Changed while holding the function's lock
+	 */
+	private final ConcurrentHashMap<ByteArray, FunctionSettings> settings = new ConcurrentHashMap<ByteArray, FunctionSettings>();
+	
+	public FunctionMap(final ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
 	
 	public final Function getFunction(ByteArray name) {
 		Integer key = name.hashCode();
@@ -48,7 +63,8 @@ class FunctionMap {
 			InnerFunction func;
 			
 			if(ref==null || (func=ref.get())==null) {
-				func = new InnerFunction(name);
+				final FunctionSettings settings = this.settings.get(name);
+				func = new InnerFunction(name, scheduler, budget, settings!=null? settings: new FunctionSettings());
 				final Reference<InnerFunction> ref2 = new SoftReference<InnerFunction>(func);
 				func.ref = ref2;
 				
@@ -66,6 +82,81 @@ class FunctionMap {
 		return ref==null? null: ref.get();
 	}
 	
+	/**
+	 * Sets the maximum number of jobs the function may hold. 0 or less is unlimited
+	 */
+	public final void setMaxQueue(final ByteArray name, final long size) {
+		Integer key = name.hashCode();
+		try {
+			lock.lock(key);
+			
+			final FunctionSettings settings = this.keepSettings(name);
+			settings.getBudget().setMaxJobs(size);
+			this.releaseSettings(name, settings);
+		} finally {
+			lock.unlock(key);
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of payload bytes the function's jobs may hold. 0 or less is
+	 * unlimited
+	 */
+	public final void setMaxQueueBytes(final ByteArray name, final long size) {
+		Integer key = name.hashCode();
+		try {
+			lock.lock(key);
+			
+			final FunctionSettings settings = this.keepSettings(name);
+			settings.getBudget().setMaxBytes(size);
+			this.releaseSettings(name, settings);
+		} finally {
+			lock.unlock(key);
+		}
+	}
+	
+	/**
+	 * Sets the minimum amount of time between WORK_STATUS packets forwarded to the
+	 * listening clients of the function's jobs
+	 * @param millis
+	 * 		The interval in milliseconds. 0 forwards every update, and a negative value
+	 * 		uses the server-wide default
+	 */
+	public final void setStatusInterval(final ByteArray name, final long millis) {
+		Integer key = name.hashCode();
+		try {
+			lock.lock(key);
+			
+			final FunctionSettings settings = this.keepSettings(name);
+			settings.setStatusInterval(millis);
+			this.releaseSettings(name, settings);
+		} finally {
+			lock.unlock(key);
+		}
+	}
+	
+	/**
+	 * Returns the function's settings and keeps them, so they outlive the function.
+	 * Called while holding the function's lock
+	 */
+	private final FunctionSettings keepSettings(final ByteArray name) {
+		FunctionSettings settings = this.settings.get(name);
+		if(settings!=null) return settings;
+		
+		// A live function keeps its settings object, so the change applies to it
+		final Function func = this.getFunctionIfDefined(name);
+		settings = func!=null? func.getSettings(): new FunctionSettings();
+		this.settings.put(name, settings);
+		return settings;
+	}
+	
+	/**
+	 * Stops keeping settings restored to the defaults. Called while holding the function's lock
+	 */
+	private final void releaseSettings(final ByteArray name, final FunctionSettings settings) {
+		if(settings.isDefault()) this.settings.remove(name, settings);
+	}
+	
 	public final void sendStatus(Client client) {
 		
 		for(Reference<InnerFunction> funcRef : funcMap.values()) {
@@ -77,11 +168,30 @@ class FunctionMap {
 		client.sendPacket(StaticPackets.TEXT_DONE, null /*TODO*/);
 	}
 	
+	/**
+	 * Sends the queue usage of each function followed by the server-wide usage, named "*".
+	 * Each line has the format: name, jobs, max jobs, bytes, max bytes
+	 */
+	public final void sendUsage(Client client) {
+		
+		for(Reference<InnerFunction> funcRef : funcMap.values()) {
+			InnerFunction func = funcRef.get();
+			if(func!=null) 
+				client.sendPacket(func.getUsage(), null);
+		}
+		
+		StringBuilder sb = new StringBuilder("*\t");
+		this.budget.appendUsage(sb); sb.append('\n');
+		client.sendPacket(GearmanPacket.createTEXT(sb.toString()), null);
+		
+		client.sendPacket(StaticPackets.TEXT_DONE, null /*TODO*/);
+	}
+	
 	private final class InnerFunction extends Function {
 		private Reference<?> ref;
 		
-		public InnerFunction(ByteArray name) {
-			super(name);
+		public InnerFunction(ByteArray name, ScheduledExecutorService scheduler, QueueBudget budget, FunctionSettings settings) {
+			super(name, scheduler, budget, settings);
 		}
 		
 		@Override
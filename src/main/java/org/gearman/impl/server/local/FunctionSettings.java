@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+/**
+ * The settings an administrator gave a function. Functions are only softly referenced,
+ * so the {@link FunctionMap} keeps the settings that differ from the defaults. A function
+ * collected while idle gets them back when it's created again.
+ * 
+ * @author isaiah
+ */
+final class FunctionSettings {
+	
+	/** The number of jobs and payload bytes the function may hold at any one time */
+	private final QueueBudget budget = new QueueBudget(0, 0);
+	/** The minimum time, in milliseconds, between forwarded WORK_STATUS packets. Negative uses the server default */
+	private volatile long statusInterval = -1;
+	
+	public final QueueBudget getBudget() {
+		return this.budget;
+	}
+	
+	public final long getStatusInterval() {
+		return this.statusInterval;
+	}
+	
+	public final void setStatusInterval(final long millis) {
+		this.statusInterval = millis;
+	}
+	
+	/**
+	 * Tests if every setting has its default value
+	 * @return
+	 * 		true if nothing has been set
+	 */
+	public final boolean isDefault() {
+		return this.budget.getMaxJobs()<=0 && this.budget.getMaxBytes()<=0 && this.statusInterval<0;
+	}
+}
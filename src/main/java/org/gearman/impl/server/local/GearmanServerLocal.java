@@ -126,10 +126,17 @@ public class GearmanServerLocal implements GearmanServerInterface, GearmanConnec
 		
 		this.gearman.getGearmanConnectionManager().closePort(openPort);
 		
+		// Closing a client removes it from the set, so iterate over a copy
+		final Client[] clients;
+		synchronized(this.clients) {
+			clients = this.clients.toArray(new Client[this.clients.size()]);
+		}
 		for(Client client : clients) {
 			client.close();
 		}
 		
+		this.interpreter.shutdown();
+		
 		for(ServerShutdownListener l : listeners) {
 			l.onShutdown(this);
 		}
@@ -265,6 +272,15 @@ public class GearmanServerLocal implements GearmanServerInterface, GearmanConnec
 		public boolean isClosed() {
 			return this.isClosed;
 		}
+		
+		@Override
+		public void suspendRead() {
+			// Packets are handed over by the sending thread, there's no read to suspend
+		}
+		
+		@Override
+		public void resumeRead() {
+		}
 
 		@Override
 		public void sendPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, org.gearman.impl.core.GearmanConnection.SendCallbackResult> callback) {
@@ -274,6 +290,8 @@ public class GearmanServerLocal implements GearmanServerInterface, GearmanConnec
 				return;
 			}
 			
+			// The peer may read the packet after the send completes, once a buffered payload may have been released
+			packet.detachPayload();
 			this.peer.handler.onPacketReceived(packet, peer);
 			if(callback!=null) callback.onComplete(packet, SendCallbackResult.SEND_SUCCESSFUL);
 		}
@@ -308,7 +326,8 @@ public class GearmanServerLocal implements GearmanServerInterface, GearmanConnec
 
 	@Override
 	public void onPacketReceived(GearmanPacket packet, GearmanConnection<Client> conn) {
-		LOGGER.info(GearmanUtils.toString(conn) + " : IN  : " + packet.getPacketType().toString());
+		if(LOGGER.isInfoEnabled())
+			LOGGER.info(GearmanUtils.toString(conn) + " : IN  : " + packet.getPacketType().toString());
 		
 		assert packet!=null;
 		assert conn.getAttachment()!=null;
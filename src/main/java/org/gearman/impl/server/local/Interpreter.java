@@ -28,10 +28,9 @@
 package org.gearman.impl.server.local;
 
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.gearman.GearmanJobPriority;
-import org.gearman.GearmanPersistable;
 import org.gearman.GearmanPersistence;
 import org.gearman.impl.core.GearmanPacket;
 import org.gearman.impl.core.GearmanPacket.Magic;
@@ -48,48 +47,25 @@ import org.gearman.impl.util.GearmanUtils;
  */
 final class Interpreter {
 	
-	private final FunctionMap funcMap = new FunctionMap();
-	private final GearmanPersistence persistence;
+	private final FunctionMap funcMap;
+	/** Writes and deletes background jobs. null if the server has no persistent storage */
+	private final PersistencePipeline persistence;
 	
 	private final GearmanServerLocal server;
 	
 	public Interpreter(GearmanServerLocal server, GearmanPersistence persistence) {
 		this.server = server;
-		this.persistence = persistence;
+		this.persistence = persistence==null? null: new PersistencePipeline(persistence);
+		this.funcMap = new FunctionMap(server.getGearman().getScheduler());
 		
-		if(persistence==null) return;
-		
-		Collection<GearmanPersistable> items = null;
-		try {
-			items = persistence.readAll();
-		} catch (Exception ex) {
-			// TODO LOG
-		}
-		
-		if(items==null) return;
-		for(GearmanPersistable item : items) {
-			try {
-				String functionName = item.getFunctionName();
-				if(functionName==null) {
-					// TODO log
-				}
-				
-				Function func = funcMap.getFunction(new ByteArray(functionName));
-				
-				byte[] uniqueID = item.getUniqueID();
-				byte[] data = item.getData();
-				GearmanJobPriority priority = item.getPriority();
-				byte[] jobHandle = item.getJobHandle();
-				
-				if(uniqueID==null || data==null || priority==null || jobHandle==null) {
-					// TODO log
-				} else {
-					func.put(new ByteArray(uniqueID), data, jobHandle, priority);
-				}
-			} catch (Exception e) {
-				// TODO log
-			}
-		}
+		if(persistence!=null) new JobRecovery(this.funcMap).recover(persistence);
+	}
+	
+	/**
+	 * Waits for pending persistence operations to complete and stops the threads running them
+	 */
+	public final void shutdown() {
+		if(this.persistence!=null) this.persistence.shutdown();
 	}
 		
 	/**
@@ -232,6 +208,15 @@ final class Interpreter {
 		case "MAXQUEUE":
 			text_maxqueue(args, client);
 			return;
+		case "MAXQUEUEBYTES":
+			text_maxqueuebytes(args, client);
+			return;
+		case "QUEUESTATUS":
+			text_queuestatus(args, client);
+			return;
+		case "STATUSINTERVAL":
+			text_statusinterval(args, client);
+			return;
 		case "SHUTDOWN":
 			text_shutdown(args, client);
 			return;
@@ -275,8 +260,68 @@ final class Interpreter {
 			return;
 		}
 		
-		final Function func = this.funcMap.getFunctionIfDefined(funcNameBA);
-		if(func!=null) func.setMaxQueue(size);
+		this.funcMap.setMaxQueue(funcNameBA, size);
+	}
+	
+	/**
+	 * MAXQUEUEBYTES function bytes<br>
+	 * <br>
+	 * Sets the maximum number of payload bytes the function's jobs may hold. Once reached,
+	 * new jobs are rejected with a queue_full error. 0 or less is unlimited.
+	 */
+	private final void text_maxqueuebytes(final String[] args, final Client client) {
+		if(args.length<3) {
+			client.sendPacket(StaticPackets.TEXT_INCOMPLETE_ARGS, null);
+			return;
+		}
+		
+		final long size;
+		try { size = Long.parseLong(args[2]); }
+		catch (NumberFormatException e) {
+			client.sendPacket(StaticPackets.TEXT_INCOMPLETE_ARGS, null);
+			return;
+		}
+		
+		final ByteArray funcName = new ByteArray(args[1].getBytes(GearmanUtils.getCharset()));
+		this.funcMap.setMaxQueueBytes(funcName, size);
+		
+		client.sendPacket(StaticPackets.TEXT_OK, null);
+	}
+	
+	/**
+	 * QUEUESTATUS<br>
+	 * <br>
+	 * Lists the number of jobs and payload bytes held by each function, along with its
+	 * limits, followed by the server-wide totals
+	 */
+	private final void text_queuestatus(final String[] args, final Client client) {
+		this.funcMap.sendUsage(client);
+	}
+	
+	/**
+	 * STATUSINTERVAL function [milliseconds]<br>
+	 * <br>
+	 * Sets the minimum amount of time between WORK_STATUS packets forwarded to the
+	 * listening clients of the function's jobs. A negative value reverts the function
+	 * to the server-wide default, and 0 forwards every update.
+	 */
+	private final void text_statusinterval(final String[] args, final Client client) {
+		if(args.length<3) {
+			client.sendPacket(StaticPackets.TEXT_INCOMPLETE_ARGS, null);
+			return;
+		}
+		
+		final long interval;
+		try { interval = Long.parseLong(args[2]); }
+		catch (NumberFormatException e) {
+			client.sendPacket(StaticPackets.TEXT_INCOMPLETE_ARGS, null);
+			return;
+		}
+		
+		final ByteArray funcName = new ByteArray(args[1].getBytes(GearmanUtils.getCharset()));
+		this.funcMap.setStatusInterval(funcName, interval);
+		
+		client.sendPacket(StaticPackets.TEXT_OK, null);
 	}
 	
 	private final void text_shutdown(final String[] args, final Client client) {
@@ -437,6 +482,9 @@ final class Interpreter {
 		 * Arguments:
 		 * - Name of the option to set. Possibilities are:
 		 * 		"exceptions" - Forward WORK_EXCEPTION packets to the client.
+		 * 		"deadline=<ms>" - The next job submitted is dropped if it's still
+		 * 			queued after the given number of milliseconds. This is an
+		 * 			extension to the protocol.
 		 */
 		
 		final byte[] option = packet.getArgumentData(0);
@@ -444,18 +492,47 @@ final class Interpreter {
 		
 		final byte[] exceptions = new byte[] {'e','x','c','e','p','t','i','o','n','s'};
 		
+		final long deadline;
 		if(Arrays.equals(option, exceptions)) {
 			// exceptions option
 			client.setForwardsExceptions(true);
 			
 			client.sendPacket(StaticPackets.OPTION_RES_EXCEPTIONS, null);
 			
+		} else if ((deadline = parseDeadline(option))>0) {
+			// deadline option
+			client.setNextDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline));
+			
+			client.sendPacket(GearmanPacket.createOPTION_RES(option), null);
+			
 		} else {
 			// unknown option
 			client.sendPacket(StaticPackets.ERROR_UNKNOWN_OPTION, null);
 		}
 	}
 	
+	/**
+	 * Parses the "deadline=&lt;ms&gt;" option
+	 * @return
+	 * 		The deadline in milliseconds, or -1 if the option is not a valid deadline
+	 */
+	private static final long parseDeadline(final byte[] option) {
+		final byte[] prefix = new byte[] {'d','e','a','d','l','i','n','e','='};
+		if(option.length<=prefix.length || option.length>prefix.length+18) return -1;
+		
+		long value = 0;
+		for(int i=0; i<option.length; i++) {
+			if(i<prefix.length) {
+				if(option[i]!=prefix[i]) return -1;
+			} else {
+				final int digit = option[i]-'0';
+				if(digit<0 || digit>9) return -1;
+				value = value*10 + digit;
+			}
+		}
+		return value;
+	}
+	
 	private final void pre_sleep(final GearmanPacket packet, final Client client) {	
 		/*
 		 * This is sent to notify the server that the client is about to
@@ -539,8 +616,11 @@ final class Interpreter {
 		final byte[] data = packet.getArgumentData(2);
 		assert data!=null;
 		
+		// A deadline set by OPTION_REQ applies to this job only. Background jobs have none
+		final long deadline = client.takeNextDeadline();
+		
 		final Function func = this.funcMap.getFunction(funcNameBA);
-		func.createJob(uniqueIDBA, data, priority, client, isBackground, persistence);	
+		func.createJob(uniqueIDBA, data, priority, client, isBackground, isBackground? 0: deadline, persistence);	
 	}
 	
 	private final void work_complete(final GearmanPacket packet, final Client client) {
@@ -562,12 +642,8 @@ final class Interpreter {
 			client.sendPacket(StaticPackets.ERROR_JOB_NOT_FOUND, null);
 		} else {
 			
-			try {
-				if(job.isBackground() && this.persistence!=null) {
-					persistence.delete(new ServerPersistable(job));
-				}
-			} catch (Exception e) {
-				// TODO log issue
+			if(job.isBackground() && this.persistence!=null) {
+				this.persistence.delete(job);
 			}
 			
 			synchronized(job) {
@@ -666,12 +742,8 @@ final class Interpreter {
 			client.sendPacket(StaticPackets.ERROR_JOB_NOT_FOUND, null);
 		} else {
 			
-			try {
-				if(job.isBackground() && this.persistence!=null) {
-					persistence.delete(new ServerPersistable(job));
-				}
-			} catch (Exception e) {
-				// TODO log issue
+			if(job.isBackground() && this.persistence!=null) {
+				this.persistence.delete(job);
 			}
 			
 			job.workComplete(packet);
@@ -707,9 +779,7 @@ final class Interpreter {
 		if(job==null) {
 			client.sendPacket(StaticPackets.ERROR_JOB_NOT_FOUND, null);
 		} else {
-			packet.setMagic(Magic.RES);
-			job.setStatus(num,den);
-			job.sendPacket(packet);
+			job.workStatus(packet);
 		}
 	}
 	
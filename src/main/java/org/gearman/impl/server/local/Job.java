@@ -74,6 +74,13 @@ interface Job {
 	 * @return the opaque data that is given to the function as an argument
 	 */
 	public byte[] getData();
+	
+	/**
+	 * Returns the size of the opaque data in bytes
+	 * 
+	 * @return the size of the opaque data in bytes
+	 */
+	public int getDataSize();
 
 	/**
 	 * Returns the function that manages this job
@@ -145,6 +152,19 @@ interface Job {
 	 *            The status array as specified in the description
 	 */
 	public void setStatus(byte[] numerator, byte[] denominator);
+	
+	/**
+	 * Sets the current status and forwards the WORK_STATUS packet to all listening
+	 * clients.<br>
+	 * <br>
+	 * If the function has a status interval, updates arriving within the interval are
+	 * coalesced and only the latest one is forwarded once the interval has passed. A
+	 * pending update is always forwarded before the job completes.
+	 * 
+	 * @param packet
+	 *            The WORK_STATUS packet received from the worker
+	 */
+	public void workStatus(GearmanPacket packet);
 
 	/**
 	 * Sets the current state to the COMPLETE state. When a job is in a COMPLETE
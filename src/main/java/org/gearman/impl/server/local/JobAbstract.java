@@ -27,10 +27,12 @@
 
 package org.gearman.impl.server.local;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.gearman.GearmanJobPriority;
@@ -73,11 +75,17 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 	/** The server wide ID specified by the server */
 	private final ByteArray jobHandle;
 	/** The opaque data that is given as an argument in the SUBMIT_JOB packet*/
-	private final byte[] data;
+	private final Payload data;
 	/** The status numerator */
 	private byte[] numerator;
 	/** The status denominator */
 	private byte[] denominator;
+	/** The latest WORK_STATUS packet waiting to be forwarded, or null if none is pending */
+	private GearmanPacket pendingStatus;
+	/** The time, in nanoseconds, the last WORK_STATUS packet was forwarded */
+	private long lastStatusTime;
+	/** The JOB_CREATED packet, created once and shared by all clients submitting this job */
+	private GearmanPacket jobCreatedPacket;
 	
 	//--- Listening Clients and Worker --- //
 	
@@ -85,12 +93,17 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 	private final Set<Client> clients = new CopyOnWriteArraySet<Client>();
 	/** The worker assigned to work on this job */
 	private Client worker;
+	/**
+	 * The time, as given by {@link System#nanoTime()}, after which the job is dropped if
+	 * it's still queued, or 0 if it has no deadline
+	 */
+	private volatile long deadline = 0;
 	
-	JobAbstract(final ByteArray uniqueID, final byte[] data, final GearmanJobPriority priority, boolean isBackground, final Client creator) {
+	JobAbstract(final ByteArray uniqueID, final Payload data, final GearmanJobPriority priority, boolean isBackground, final Client creator) {
 		this(uniqueID, data, getNextJobHandle(), priority, isBackground, creator);
 	}
 	
-	JobAbstract(final ByteArray uniqueID, final byte[] data, final byte[] jobHandle, final GearmanJobPriority priority, boolean isBackground, final Client creator) {
+	JobAbstract(final ByteArray uniqueID, final Payload data, final byte[] jobHandle, final GearmanJobPriority priority, boolean isBackground, final Client creator) {
 		this.uniqueID = uniqueID;
 		this.data = data;
 		this.priority = priority;
@@ -114,19 +127,43 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 		return false;
 	}
 
+	/**
+	 * {@inheritDoc}<br>
+	 * <br>
+	 * If the payload is held off-heap, the packet references the stored payload
+	 * directly and is written from it without a copy. The payload must be retained
+	 * until the packet has been sent.
+	 */
 	@Override
 	public final GearmanPacket createJobAssignPacket() {
-		return GearmanPacket.createJOB_ASSIGN(jobHandle.getBytes(), this.getFunction().getName().toString(GearmanUtils.getCharset()), data);
+		final String name = this.getFunction().getName().toString(GearmanUtils.getCharset());
+		final ByteBuffer buffer = this.data.getBuffer();
+		
+		return buffer==null?
+				GearmanPacket.createJOB_ASSIGN(jobHandle.getBytes(), name, this.data.getBytes()):
+				GearmanPacket.createJOB_ASSIGN(jobHandle.getBytes(), name, buffer);
 	}
 
 	@Override
 	public final GearmanPacket createJobAssignUniqPacket() {
-		return new GearmanPacket(Magic.RES, Type.JOB_ASSIGN_UNIQ, this.jobHandle.getBytes(), this.getFunction().getName().getBytes(), this.uniqueID.getBytes(), data);
+		final String name = this.getFunction().getName().toString(GearmanUtils.getCharset());
+		final ByteBuffer buffer = this.data.getBuffer();
+		
+		return buffer==null?
+				GearmanPacket.createJOB_ASSIGN_UNIQ(this.jobHandle.getBytes(), name, this.uniqueID.getBytes(), this.data.getBytes()):
+				GearmanPacket.createJOB_ASSIGN_UNIQ(this.jobHandle.getBytes(), name, this.uniqueID.getBytes(), buffer);
 	}
 
 	@Override
 	public final GearmanPacket createJobCreatedPacket() {
-		return new GearmanPacket(Magic.RES, Type.JOB_CREATED, this.jobHandle.getBytes());
+		/*
+		 * The packet never changes, so it's encoded once on the heap and reused for every
+		 * client coalesced onto this job. Creating it twice in a race is harmless.
+		 */
+		GearmanPacket packet = this.jobCreatedPacket;
+		if(packet==null)
+			this.jobCreatedPacket = packet = new GearmanPacket(Magic.RES, Type.JOB_CREATED, this.jobHandle.getBytes());
+		return packet;
 	}
 
 	@Override
@@ -143,6 +180,15 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 
 	@Override
 	public byte[] getData() {
+		return this.data.getBytes();
+	}
+	
+	@Override
+	public int getDataSize() {
+		return this.data.size();
+	}
+	
+	protected final Payload getPayload() {
 		return this.data;
 	}
 
@@ -184,6 +230,7 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 	public void sendPacket(GearmanPacket packet) {
 		assert packet!=null;
 		
+		// The packet is encoded on the first send and the encoded bytes are shared by all listeners
 		for(Client client : this.clients) {
 			client.sendPacket(packet, null/*TODO*/);
 		}
@@ -195,16 +242,74 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 		this.denominator = denominator;
 	}
 
+	@Override
+	public void workStatus(final GearmanPacket packet) {
+		assert packet.getPacketType().equals(GearmanPacket.Type.WORK_STATUS);
+		packet.setMagic(Magic.RES);
+		
+		this.setStatus(packet.getArgumentData(1), packet.getArgumentData(2));
+		
+		final long interval = this.getFunction().getStatusInterval();
+		if(interval<=0) {
+			this.sendPacket(packet);
+			return;
+		}
+		
+		synchronized(this) {
+			if(this.pendingStatus!=null) {
+				// A flush is already scheduled. Replace the pending update with the latest
+				this.pendingStatus = packet;
+				return;
+			}
+			
+			final long now = System.nanoTime();
+			final long wait = this.lastStatusTime + TimeUnit.MILLISECONDS.toNanos(interval) - now;
+			
+			if(this.lastStatusTime==0 || wait<=0) {
+				this.lastStatusTime = now;
+				this.sendPacket(packet);
+			} else {
+				this.pendingStatus = packet;
+				this.getFunction().getScheduler().schedule(new Runnable() {
+					@Override
+					public void run() {
+						JobAbstract.this.flushStatus();
+					}
+				}, wait, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Forwards the pending WORK_STATUS packet, if any.<br>
+	 * <br>
+	 * The packet is sent while holding the job's lock. Sending only queues the packet on
+	 * the connection, and holding the lock ensures a pending status can't be written after
+	 * the WORK_COMPLETE that follows it
+	 */
+	private final synchronized void flushStatus() {
+		final GearmanPacket packet = this.pendingStatus;
+		if(packet==null) return;
+		
+		this.pendingStatus = null;
+		this.lastStatusTime = System.nanoTime();
+		this.sendPacket(packet);
+	}
+
 	@Override
 	public void workComplete(GearmanPacket packet) {
 		assert packet.getPacketType().equals(GearmanPacket.Type.WORK_COMPLETE) || packet.getPacketType().equals(GearmanPacket.Type.WORK_FAIL);
 		packet.setMagic(Magic.RES);
 		
+		// Clients must always see the final status before the job completes
+		this.flushStatus();
+		
 		final JobState prevState = this.state;
 		this.state = JobState.COMPLETE;
 		
 		this.onComplete(prevState);
 		JobAbstract.globalJobs.remove(this.jobHandle);
+		if(prevState!=JobState.COMPLETE) this.data.release();
 		
 		for(Client client : this.clients) {
 			boolean t = client.removeDisconnectListener(this);
@@ -267,9 +372,12 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 		
 		worker.addDisconnectListener(this);
 		
+		// Hold the payload until the packet is written, in case the job completes in the meantime
+		this.data.retain();
 		worker.sendPacket(this.createJobAssignPacket(), new GearmanCallbackHandler<GearmanPacket, org.gearman.impl.core.GearmanConnection.SendCallbackResult>(){
 			@Override
 			public void onComplete(GearmanPacket data, SendCallbackResult result) {
+				JobAbstract.this.data.release();
 				if(!result.isSuccessful()) 
 					JobAbstract.this.queue();
 			}			 
@@ -283,9 +391,11 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 		
 		worker.addDisconnectListener(this);
 		
+		this.data.retain();
 		worker.sendPacket(this.createJobAssignUniqPacket(), new GearmanCallbackHandler<GearmanPacket, org.gearman.impl.core.GearmanConnection.SendCallbackResult>(){
 			@Override
 			public void onComplete(GearmanPacket data, SendCallbackResult result) {
+				JobAbstract.this.data.release();
 				if(!result.isSuccessful()) 
 					JobAbstract.this.queue();
 			}			 
@@ -294,12 +404,67 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 	
 	protected abstract void onComplete(JobState prevState);
 	
+	protected final void setDeadline(final long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Extends the deadline to cover another client submitting this job. The job keeps a
+	 * deadline only while every submitting client has one, and takes the latest of them
+	 * @param deadline
+	 * 		The client's deadline, or 0 if the client has none
+	 */
+	protected final synchronized void extendDeadline(final long deadline) {
+		final long current = this.deadline;
+		if(current==0) return;
+		if(deadline==0 || deadline-current>0)
+			this.deadline = deadline;
+	}
+	
+	protected final long getDeadline() {
+		return this.deadline;
+	}
+	
+	protected final boolean hasDeadline() {
+		return this.deadline!=0;
+	}
+	
+	protected final boolean isExpired(final long now) {
+		return this.hasDeadline() && now-this.deadline>=0;
+	}
+	
+	/**
+	 * Fails a job whose deadline passed while queued. The job must already be polled from
+	 * the queue
+	 */
+	protected final void expire() {
+		assert this.state==JobState.QUEUED;
+		
+		// The job is no longer queued, so it's completed as if it were working
+		this.state = JobState.WORKING;
+		this.workComplete(GearmanPacket.createWORK_FAIL(Magic.RES, this.jobHandle.getBytes()));
+	}
+	
 	private final void complete() {
 		final JobState prevState = this.state;
 		this.state = JobState.COMPLETE;
 		
 		this.onComplete(prevState);
+		if(prevState!=JobState.COMPLETE) this.data.release();
 	}
+	/**
+	 * Drops a job that was never queued or assigned, like a background job whose
+	 * write to persistent storage failed. The owning function is not notified, and no
+	 * client is listening
+	 */
+	protected final void discard() {
+		assert this.state==JobState.QUEUED && this.clients.isEmpty();
+		this.state = JobState.COMPLETE;
+		
+		JobAbstract.globalJobs.remove(this.jobHandle);
+		this.data.release();
+	}
+	
 	private final void queue() {
 		final JobState prevState = this.state;
 		this.state = JobState.QUEUED;
@@ -333,6 +498,32 @@ abstract class JobAbstract implements Job, ClientDisconnectListener {
 	}
 	
 	
+	/**
+	 * Makes sure a job handle given to a recovered job is never given to a new job. If
+	 * the handle was created with this server's prefix, new handles will be numbered
+	 * after it
+	 * @param jobHandle
+	 * 		The recovered job's handle
+	 */
+	static final void reserveJobHandle(final byte[] jobHandle) {
+		if(jobHandle.length<=jobHandlePrefix.length) return;
+		for(int i=0; i<jobHandlePrefix.length; i++) {
+			if(jobHandle[i]!=jobHandlePrefix[i]) return;
+		}
+		
+		long number = 0;
+		for(int i=jobHandlePrefix.length; i<jobHandle.length; i++) {
+			final int digit = jobHandle[i]-'0';
+			if(digit<0 || digit>9 || number>(Long.MAX_VALUE-digit)/10) return;
+			number = number*10 + digit;
+		}
+		
+		long current;
+		while((current=jobHandleNumber.get())<number) {
+			if(jobHandleNumber.compareAndSet(current, number)) return;
+		}
+	}
+	
 	/**
 	 * Returns the next available job handle
 	 * @return
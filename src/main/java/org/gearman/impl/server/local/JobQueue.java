@@ -27,6 +27,7 @@
 
 package org.gearman.impl.server.local;
 
+import java.util.Iterator;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 
@@ -39,7 +40,7 @@ import java.util.concurrent.LinkedBlockingDeque;
  * @author isaiah
  *
  */
-final class JobQueue <X extends Job> {
+final class JobQueue <X extends Job> implements Iterable<X> {
 	/** Low priority queue */
 	private final BlockingDeque<X> low		= new LinkedBlockingDeque<X>();
 	/** Medium priority queue */
@@ -173,4 +174,36 @@ final class JobQueue <X extends Job> {
 	public final boolean isEmpty() {
 		return high.isEmpty() && mid.isEmpty() && low.isEmpty();
 	}
+	
+	/**
+	 * Returns an iterator over the queued jobs, highest priority first. The iterator is
+	 * weakly consistent and does not support removal. Jobs are removed with {@link #remove(Job)}
+	 * @return
+	 * 		An iterator over the queued jobs
+	 */
+	@Override
+	public final Iterator<X> iterator() {
+		final Iterator<X> high = this.high.iterator();
+		final Iterator<X> mid = this.mid.iterator();
+		final Iterator<X> low = this.low.iterator();
+		
+		return new Iterator<X>() {
+			@Override
+			public boolean hasNext() {
+				return high.hasNext() || mid.hasNext() || low.hasNext();
+			}
+
+			@Override
+			public X next() {
+				if(high.hasNext()) return high.next();
+				if(mid.hasNext()) return mid.next();
+				return low.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
 }
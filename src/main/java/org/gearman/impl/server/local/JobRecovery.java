@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanPersistence;
+import org.gearman.GearmanRecoveryHandler;
+import org.gearman.GearmanStreamingPersistence;
+import org.gearman.impl.util.ByteArray;
+import org.gearman.impl.util.GearmanThreadFactory;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Rebuilds the background jobs held by a {@link GearmanPersistence} when the server starts.<br>
+ * <br>
+ * Items are passed to a set of rebuild threads as they're read. All of a function's jobs
+ * are rebuilt by the same thread, so each function's queue keeps the order the items were
+ * read in, while different functions are rebuilt in parallel. A
+ * {@link GearmanStreamingPersistence} streams its items, so they don't all need to be held
+ * in memory at once. Progress is logged while recovery runs.
+ * 
+ * @author isaiah
+ */
+final class JobRecovery implements GearmanRecoveryHandler {
+	
+	/** The number of items that may wait for each rebuild thread */
+	private static final int QUEUE_SIZE = 1024;
+	/** The time between progress reports */
+	private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	
+	/** Placed on a rebuild thread's queue to stop it */
+	private static final GearmanPersistable STOP = new GearmanPersistable() {
+		@Override public String getFunctionName() { return null; }
+		@Override public byte[] getData() { return null; }
+		@Override public byte[] getJobHandle() { return null; }
+		@Override public byte[] getUniqueID() { return null; }
+		@Override public long epochTime() { return 0; }
+		@Override public GearmanJobPriority getPriority() { return null; }
+	};
+	
+	private final FunctionMap funcMap;
+	private final Rebuilder[] rebuilders;
+	
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	
+	private long read = 0;
+	private long nextReport;
+	
+	public JobRecovery(final FunctionMap funcMap) {
+		this.funcMap = funcMap;
+		this.rebuilders = new Rebuilder[Runtime.getRuntime().availableProcessors()];
+	}
+	
+	/**
+	 * Reads the persisted items and rebuilds their jobs. Returns once every job has been
+	 * rebuilt and queued
+	 * @param persistence
+	 * 		The persistence to recover from
+	 */
+	public final void recover(final GearmanPersistence persistence) {
+		final long start = System.nanoTime();
+		this.nextReport = start + REPORT_INTERVAL;
+		
+		final GearmanThreadFactory factory = new GearmanThreadFactory();
+		for(int i=0; i<this.rebuilders.length; i++) {
+			this.rebuilders[i] = new Rebuilder();
+			this.rebuilders[i].thread = factory.newThread(this.rebuilders[i]);
+			this.rebuilders[i].thread.start();
+		}
+		
+		try {
+			if(persistence instanceof GearmanStreamingPersistence) {
+				((GearmanStreamingPersistence)persistence).readAll(this);
+			} else {
+				final Collection<GearmanPersistable> items = persistence.readAll();
+				if(items!=null) {
+					for(GearmanPersistable item : items) {
+						this.onRecover(item);
+					}
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.error("failed to read persisted jobs", e);
+		} finally {
+			for(Rebuilder rebuilder : this.rebuilders) {
+				rebuilder.add(STOP);
+			}
+			
+			boolean isInterrupted = false;
+			for(Rebuilder rebuilder : this.rebuilders) {
+				while(true) {
+					try {
+						rebuilder.thread.join();
+						break;
+					} catch (InterruptedException e) {
+						isInterrupted = true;
+					}
+				}
+			}
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+		
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+		if(this.failed.get()>0) {
+			LOGGER.warn("failed to recover " + this.failed.get() + " persisted jobs");
+		}
+		if(this.read>0) {
+			LOGGER.info("recovered " + this.recovered.get() + " persisted jobs in " + millis + "ms");
+		}
+	}
+	
+	@Override
+	public void onRecover(final GearmanPersistable item) {
+		this.read++;
+		
+		final String functionName;
+		try {
+			functionName = item.getFunctionName();
+		} catch (Exception e) {
+			LOGGER.warn("failed to read persisted job", e);
+			this.failed.incrementAndGet();
+			return;
+		}
+		if(functionName==null) {
+			LOGGER.warn("persisted job has no function name");
+			this.failed.incrementAndGet();
+			return;
+		}
+		
+		this.rebuilders[(functionName.hashCode() & 0x7FFFFFFF) % this.rebuilders.length].add(item);
+		
+		final long now = System.nanoTime();
+		if(now>=this.nextReport) {
+			this.nextReport = now + REPORT_INTERVAL;
+			LOGGER.info("recovering persisted jobs: " + this.read + " read, " + this.recovered.get() + " recovered");
+		}
+	}
+	
+	/**
+	 * Rebuilds a persisted job and places it in its function's queue
+	 */
+	private final void rebuild(final GearmanPersistable item) {
+		try {
+			final String functionName = item.getFunctionName();
+			final byte[] uniqueID = item.getUniqueID();
+			final byte[] data = item.getData();
+			final GearmanJobPriority priority = item.getPriority();
+			final byte[] jobHandle = item.getJobHandle();
+			
+			if(uniqueID==null || data==null || priority==null || jobHandle==null) {
+				LOGGER.warn("persisted job is incomplete: " + functionName);
+				this.failed.incrementAndGet();
+				return;
+			}
+			
+			final Function func = this.funcMap.getFunction(new ByteArray(functionName));
+			func.put(new ByteArray(uniqueID), data, jobHandle, priority);
+			this.recovered.incrementAndGet();
+		} catch (Exception e) {
+			LOGGER.warn("failed to recover persisted job", e);
+			this.failed.incrementAndGet();
+		}
+	}
+	
+	private final class Rebuilder implements Runnable {
+		private final BlockingQueue<GearmanPersistable> queue = new LinkedBlockingQueue<GearmanPersistable>(QUEUE_SIZE);
+		private Thread thread;
+		
+		private final void add(final GearmanPersistable item) {
+			boolean isInterrupted = false;
+			while(true) {
+				try {
+					this.queue.put(item);
+					break;
+				} catch (InterruptedException e) {
+					isInterrupted = true;
+				}
+			}
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+		
+		@Override
+		public void run() {
+			while(true) {
+				final GearmanPersistable item;
+				try {
+					item = this.queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				
+				if(item==STOP) return;
+				JobRecovery.this.rebuild(item);
+			}
+		}
+	}
+}
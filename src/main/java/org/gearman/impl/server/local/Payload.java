@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A job's payload, the opaque data given in the SUBMIT_JOB packet. Payloads are
+ * held on the heap, in the off-heap {@link PayloadStore}, or on disk in the
+ * {@link SpillStore}.<br>
+ * <br>
+ * Off-heap and on-disk payloads are reference counted. The job holds one reference for its
+ * lifetime, and each in-flight JOB_ASSIGN write holds another, so the memory is
+ * only reused once nothing is reading it.
+ * 
+ * @author isaiah
+ */
+interface Payload {
+	
+	/**
+	 * Returns the payload's size in bytes
+	 * @return
+	 * 		The payload's size in bytes
+	 */
+	public int size();
+	
+	/**
+	 * Tests if the payload is held on disk rather than in memory
+	 * @return
+	 * 		true if the payload is held on disk
+	 */
+	public boolean isOnDisk();
+	
+	/**
+	 * Returns the payload as an array. For off-heap payloads this is a copy
+	 * @return
+	 * 		The payload's bytes
+	 */
+	public byte[] getBytes();
+	
+	/**
+	 * Returns a read-only view of an off-heap payload, or null if the payload is on the heap.
+	 * The caller must hold a reference for as long as it reads the view, and the view must
+	 * not outlive that reference. An on-disk payload's file is unmapped once released, and
+	 * reading it afterwards crashes the JVM
+	 * @return
+	 * 		A view of the payload, or null
+	 */
+	public ByteBuffer getBuffer();
+	
+	/**
+	 * Adds a reference to this payload. Each call must be matched by a call to {@link #release()}
+	 */
+	public void retain();
+	
+	/**
+	 * Removes a reference to this payload. Once the last reference is removed, an off-heap
+	 * payload's memory is returned to the store
+	 */
+	public void release();
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.impl.util.GearmanUtils;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Stores the payloads of queued jobs. Payloads at or above the off-heap threshold are
+ * copied into chunks of direct memory so that a large backlog doesn't grow the heap, and
+ * only a small handle per job remains on the heap.<br>
+ * <br>
+ * Direct memory is allocated in slabs and each slab is cut into equally sized chunks.
+ * Chunk sizes are powers of two, so a payload wastes at most half its chunk. Released
+ * chunks are kept on a free list and reused; slabs are never returned to the system.
+ * Payloads larger than a slab get a dedicated direct buffer. If direct memory is
+ * exhausted, payloads fall back to the heap.
+ * 
+ * @author isaiah
+ */
+final class PayloadStore {
+	
+	/** The smallest chunk size, as a power of two */
+	private static final int MIN_CHUNK_SHIFT = 6;
+	
+	/** Payloads at or above this size, in bytes, are stored off-heap. 0 or less disables the store */
+	private final int threshold;
+	/** The size of each slab in bytes */
+	private final int slabSize;
+	/** The size classes, indexed by chunk size shift */
+	private final SizeClass[] classes;
+	
+	/** The number of payloads currently held in slab chunks */
+	private final AtomicInteger chunks = new AtomicInteger(0);
+	
+	/** Set once direct memory allocation fails, to log the fall back only once */
+	private volatile boolean isExhausted = false;
+	
+	PayloadStore(final int threshold, final int slabSize) {
+		this.threshold = threshold;
+		this.slabSize = slabSize;
+		
+		final int maxShift = 32 - Integer.numberOfLeadingZeros(Math.max(slabSize, 1)-1);
+		this.classes = new SizeClass[maxShift+1];
+		for(int shift=MIN_CHUNK_SHIFT; shift<=maxShift; shift++) {
+			this.classes[shift] = new SizeClass(1<<shift);
+		}
+	}
+	
+	/**
+	 * Stores the given data
+	 * @param data
+	 * 		The payload's bytes
+	 * @return
+	 * 		The stored payload, holding one reference
+	 */
+	public final Payload store(final byte[] data) {
+		if(this.threshold<=0 || data.length<this.threshold)
+			return new HeapPayload(data);
+		
+		try {
+			if(data.length>this.slabSize) {
+				final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+				buffer.put(data);
+				buffer.flip();
+				return new OffHeapPayload(buffer, null);
+			}
+			
+			final int shift = Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(data.length-1));
+			final SizeClass sizeClass = this.classes[shift];
+			
+			final ByteBuffer chunk = sizeClass.allocate();
+			chunk.clear();
+			chunk.put(data);
+			chunk.flip();
+			
+			this.chunks.incrementAndGet();
+			return new OffHeapPayload(chunk, sizeClass);
+		} catch (OutOfMemoryError e) {
+			if(!this.isExhausted) {
+				this.isExhausted = true;
+				LOGGER.warn("Direct memory exhausted. Storing job payloads on the heap", e);
+			}
+			return new HeapPayload(data);
+		}
+	}
+	
+	/**
+	 * Returns the number of payloads currently held in slab chunks
+	 * @return
+	 * 		The number of payloads held in slab chunks
+	 */
+	public final int getChunkCount() {
+		return this.chunks.get();
+	}
+	
+	/**
+	 * The chunks of one size. Slabs are allocated on demand and cut into chunks
+	 */
+	private final class SizeClass {
+		private final int chunkSize;
+		private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+		
+		private SizeClass(final int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+		
+		private final synchronized ByteBuffer allocate() {
+			ByteBuffer chunk = this.free.poll();
+			if(chunk!=null) return chunk;
+			
+			final ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(PayloadStore.this.slabSize, this.chunkSize));
+			for(int pos=0; pos+this.chunkSize<=slab.capacity(); pos+=this.chunkSize) {
+				slab.limit(pos+this.chunkSize);
+				slab.position(pos);
+				this.free.add(slab.slice());
+			}
+			
+			return this.free.poll();
+		}
+		
+		private final synchronized void free(final ByteBuffer chunk) {
+			this.free.push(chunk);
+		}
+	}
+	
+	private static final class HeapPayload implements Payload {
+		private final byte[] data;
+		
+		private HeapPayload(final byte[] data) {
+			this.data = data;
+		}
+		
+		@Override
+		public int size() {
+			return this.data.length;
+		}
+
+		@Override
+		public boolean isOnDisk() {
+			return false;
+		}
+		
+		@Override
+		public byte[] getBytes() {
+			return this.data;
+		}
+
+		@Override
+		public ByteBuffer getBuffer() {
+			return null;
+		}
+
+		@Override
+		public void retain() {
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+	
+	private final class OffHeapPayload implements Payload {
+		
+		/** The chunk holding the payload, with the limit set to the payload's size */
+		private final ByteBuffer chunk;
+		/** The size class the chunk is returned to, or null if the chunk is a dedicated buffer */
+		private final SizeClass sizeClass;
+		private final AtomicInteger references = new AtomicInteger(1);
+		
+		private OffHeapPayload(final ByteBuffer chunk, final SizeClass sizeClass) {
+			this.chunk = chunk;
+			this.sizeClass = sizeClass;
+		}
+		
+		@Override
+		public int size() {
+			return this.chunk.limit();
+		}
+
+		@Override
+		public boolean isOnDisk() {
+			return false;
+		}
+		
+		@Override
+		public byte[] getBytes() {
+			final ByteBuffer buffer = this.chunk.duplicate();
+			final byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return data;
+		}
+
+		@Override
+		public ByteBuffer getBuffer() {
+			return this.chunk.asReadOnlyBuffer();
+		}
+
+		@Override
+		public void retain() {
+			final int count = this.references.getAndIncrement();
+			assert count>0;
+		}
+
+		@Override
+		public void release() {
+			final int count = this.references.decrementAndGet();
+			assert count>=0;
+			
+			if(count==0 && this.sizeClass!=null) {
+				PayloadStore.this.chunks.decrementAndGet();
+				this.sizeClass.free(this.chunk);
+			}
+		}
+	}
+	
+	/** The payload store shared by all local servers */
+	private static final PayloadStore instance = new PayloadStore(GearmanUtils.getOffHeapThreshold(), GearmanUtils.getOffHeapSlabSize());
+	
+	public static final PayloadStore getInstance() {
+		return instance;
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.GearmanBatchPersistence;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanPersistence;
+import org.gearman.impl.util.ByteArray;
+import org.gearman.impl.util.GearmanThreadFactory;
+import org.gearman.impl.util.GearmanUtils;
+import org.gearman.persistence.GearmanBatchPersistenceAdapter;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Moves background job writes and deletes off the submitting and reporting threads.<br>
+ * <br>
+ * Operations are placed on queues, each drained by a dedicated thread. A job's
+ * operations always go to the same queue, so its delete never reaches the storage before
+ * its write. A drain thread takes every operation waiting on its queue as one batch, and
+ * passes its writes and its deletes to the storage as {@link GearmanBatchPersistence}
+ * batches. Storage without batch support receives them one at a time. If a batch
+ * fails, its items are retried one at a time, so an item the storage can't take doesn't
+ * fail the rest of its batch. If a job is deleted while its write is still waiting,
+ * both are dropped and neither reaches the storage. The number of writes waiting on a
+ * queue is bounded. When it's reached, the write is refused so the submit can be
+ * answered with an error, and the submitting thread, often a reactor thread, never
+ * blocks. Deletes are always accepted: they carry only the job's identifiers, and each
+ * one matches a write that was accepted.<br>
+ * <br>
+ * The ack mode defines when a background job is acknowledged:
+ * <ul>
+ * <li>{@link AckMode#AFTER_PERSIST}: JOB_CREATED is sent, and the job is queued, only
+ * once the write has completed. If the write fails, the job is dropped and the client
+ * receives an error. An acknowledged job survives a restart.</li>
+ * <li>{@link AckMode#IMMEDIATE}: JOB_CREATED is sent and the job is queued right away.
+ * Acknowledged jobs whose write is still waiting are lost if the server stops.</li>
+ * </ul>
+ * 
+ * @author isaiah
+ */
+final class PersistencePipeline {
+	
+	/** Defines when a background job is acknowledged, relative to its write */
+	static enum AckMode {
+		AFTER_PERSIST, IMMEDIATE;
+		
+		static AckMode parse(final String value) {
+			if(value==null || value.trim().isEmpty()) return AFTER_PERSIST;
+			return AckMode.valueOf(value.trim().toUpperCase());
+		}
+	}
+	
+	/** Notified once a job's write has completed */
+	static interface WriteCallback {
+		/**
+		 * Called once the write has completed, or has been dropped because the job
+		 * was deleted first
+		 * @param failure
+		 * 		The reason the write failed, or null if it was successful
+		 */
+		public void onComplete(Exception failure);
+	}
+	
+	private final GearmanBatchPersistence persistence;
+	private final AckMode mode;
+	private final Stripe[] stripes;
+	
+	private volatile boolean isShutdown = false;
+	
+	public PersistencePipeline(final GearmanPersistence persistence) {
+		this.persistence = GearmanBatchPersistenceAdapter.valueOf(persistence);
+		this.mode = AckMode.parse(GearmanUtils.getPersistenceAck());
+		
+		final int threads = Math.max(1, GearmanUtils.getPersistenceThreads());
+		final int capacity = Math.max(1, GearmanUtils.getPersistenceQueueSize()/threads);
+		
+		final GearmanThreadFactory factory = new GearmanThreadFactory();
+		this.stripes = new Stripe[threads];
+		for(int i=0; i<threads; i++) {
+			this.stripes[i] = new Stripe(capacity);
+			this.stripes[i].thread = factory.newThread(this.stripes[i]);
+			// Don't hold the JVM open if the server is never shutdown
+			this.stripes[i].thread.setDaemon(true);
+			this.stripes[i].thread.start();
+		}
+	}
+	
+	public final AckMode getAckMode() {
+		return this.mode;
+	}
+	
+	/**
+	 * Writes a background job to the storage. The job's data is copied before returning,
+	 * so the job may be assigned and completed while the write is waiting
+	 * @param job
+	 * 		The job to write
+	 * @param callback
+	 * 		Notified once the write has completed. May be null
+	 * @return
+	 * 		<code>false</code> if too many writes are waiting and the write was refused. The
+	 * 		callback is not notified of a refused write
+	 */
+	public final boolean write(final Job job, final WriteCallback callback) {
+		final ByteArray jobHandle = job.getJobHandle();
+		final Stripe stripe = this.getStripe(jobHandle);
+		if(!stripe.reserveWrite()) return false;
+		
+		final Operation op = new Operation(true, jobHandle, new ServerPersistable(job), callback);
+		stripe.pendingWrites.put(op.jobHandle, op);
+		stripe.add(op);
+		return true;
+	}
+	
+	/**
+	 * Deletes a background job from the storage. If the job's write is still waiting,
+	 * the write is dropped instead
+	 * @param job
+	 * 		The job to delete
+	 */
+	public final void delete(final Job job) {
+		final Stripe stripe = this.getStripe(job.getJobHandle());
+		
+		final Operation write = stripe.pendingWrites.remove(job.getJobHandle());
+		if(write!=null) {
+			// The write never reached the storage, so there is nothing to delete
+			write.complete(null);
+			return;
+		}
+		
+		stripe.add(new Operation(false, job.getJobHandle(), ServerPersistable.createKey(job), null));
+	}
+	
+	/**
+	 * Stops the drain threads once every waiting operation has reached the storage.
+	 * Operations added afterwards are run on the calling thread
+	 */
+	public final void shutdown() {
+		this.isShutdown = true;
+		for(Stripe stripe : this.stripes) {
+			stripe.add(Operation.SHUTDOWN);
+		}
+		
+		for(Stripe stripe : this.stripes) {
+			try {
+				stripe.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	private final Stripe getStripe(final ByteArray jobHandle) {
+		return this.stripes[(jobHandle.hashCode() & 0x7FFFFFFF) % this.stripes.length];
+	}
+	
+	/**
+	 * Runs a batch of operations against the storage. The writes are passed on as one
+	 * batch, followed by the deletes. A job's delete is never in the same batch as its
+	 * write, since the write is either cancelled or taken by an earlier batch
+	 */
+	private final void execute(final List<Operation> batch) {
+		final List<Operation> writes = new ArrayList<Operation>(batch.size());
+		final List<Operation> deletes = new ArrayList<Operation>(batch.size());
+		for(Operation op : batch) {
+			(op.isWrite? writes: deletes).add(op);
+		}
+		
+		this.execute(writes, true);
+		this.execute(deletes, false);
+	}
+	
+	private final void execute(final List<Operation> ops, final boolean isWrite) {
+		if(ops.isEmpty()) return;
+		
+		final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>(ops.size());
+		for(Operation op : ops) {
+			items.add(op.item);
+		}
+		
+		try {
+			if(isWrite) {
+				this.persistence.writeBatch(items);
+			} else {
+				this.persistence.deleteBatch(items);
+			}
+		} catch (Exception e) {
+			if(ops.size()==1) {
+				LOGGER.error("failed to " + (isWrite? "write": "delete") + " persisted job", e);
+				ops.get(0).complete(e);
+				return;
+			}
+			
+			/*
+			 * A failed batch leaves none of its items written. The failure may be caused by
+			 * a single item, so the items are retried one at a time and only the items that
+			 * fail again are failed
+			 */
+			LOGGER.warn("failed to " + (isWrite? "write ": "delete ") + ops.size() + " persisted jobs. Retrying them one at a time", e);
+			for(Operation op : ops) {
+				this.execute(op, isWrite);
+			}
+			return;
+		}
+		
+		for(Operation op : ops) {
+			op.complete(null);
+		}
+	}
+	
+	private final void execute(final Operation op, final boolean isWrite) {
+		try {
+			if(isWrite) {
+				this.persistence.write(op.item);
+			} else {
+				this.persistence.delete(op.item);
+			}
+		} catch (Exception e) {
+			LOGGER.error("failed to " + (isWrite? "write": "delete") + " persisted job", e);
+			op.complete(e);
+			return;
+		}
+		op.complete(null);
+	}
+	
+	private static final class Operation {
+		private static final Operation SHUTDOWN = new Operation(false, null, null, null);
+		
+		private final boolean isWrite;
+		private final ByteArray jobHandle;
+		private final GearmanPersistable item;
+		private final WriteCallback callback;
+		
+		private Operation(final boolean isWrite, final ByteArray jobHandle, final GearmanPersistable item, final WriteCallback callback) {
+			this.isWrite = isWrite;
+			this.jobHandle = jobHandle;
+			this.item = item;
+			this.callback = callback;
+		}
+		
+		private final void complete(final Exception failure) {
+			if(this.callback==null) return;
+			
+			try {
+				this.callback.onComplete(failure);
+			} catch (Throwable th) {
+				LOGGER.error("persistence callback failed", th);
+			}
+		}
+	}
+	
+	private final class Stripe implements Runnable {
+		private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<Operation>();
+		/** Writes that haven't been taken by the drain thread. A delete may still cancel them */
+		private final ConcurrentMap<ByteArray, Operation> pendingWrites = new ConcurrentHashMap<ByteArray, Operation>();
+		/** The number of writes on the queue, including cancelled ones */
+		private final AtomicInteger writes = new AtomicInteger();
+		private final int capacity;
+		private Thread thread;
+		
+		private Stripe(final int capacity) {
+			this.capacity = capacity;
+		}
+		
+		/**
+		 * Reserves a place on the queue for a write
+		 * @return
+		 * 		<code>false</code> if the queue already holds its capacity of writes
+		 */
+		private final boolean reserveWrite() {
+			int current;
+			do {
+				current = this.writes.get();
+				if(current>=this.capacity) return false;
+			} while(!this.writes.compareAndSet(current, current+1));
+			return true;
+		}
+		
+		private final void add(final Operation op) {
+			if(PersistencePipeline.this.isShutdown && op!=Operation.SHUTDOWN) {
+				if(op.isWrite) this.writes.decrementAndGet();
+				if(!op.isWrite || this.pendingWrites.remove(op.jobHandle, op)) {
+					final List<Operation> batch = new ArrayList<Operation>(1);
+					batch.add(op);
+					PersistencePipeline.this.execute(batch);
+				}
+				return;
+			}
+			
+			// The queue is unbounded, writes are limited by reserveWrite
+			this.queue.add(op);
+		}
+		
+		@Override
+		public void run() {
+			final List<Operation> taken = new ArrayList<Operation>();
+			final List<Operation> batch = new ArrayList<Operation>();
+			
+			while(true) {
+				try {
+					taken.add(this.queue.take());
+				} catch (InterruptedException e) {
+					continue;
+				}
+				this.queue.drainTo(taken);
+				
+				boolean isShutdown = false;
+				for(Operation op : taken) {
+					if(op==Operation.SHUTDOWN) {
+						isShutdown = true;
+						continue;
+					}
+					
+					if(op.isWrite) this.writes.decrementAndGet();
+					if(!op.isWrite || this.pendingWrites.remove(op.jobHandle, op)) {
+						// Writes no longer pending were cancelled by a delete
+						batch.add(op);
+					}
+				}
+				taken.clear();
+				
+				if(!batch.isEmpty()) PersistencePipeline.this.execute(batch);
+				batch.clear();
+				
+				if(isShutdown) return;
+			}
+		}
+	}
+}
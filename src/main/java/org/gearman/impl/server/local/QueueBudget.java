@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the number of jobs and the number of payload bytes held by the server, and
+ * rejects new jobs once either limit is reached. Budgets are checked and reserved
+ * atomically, so concurrent submits can't push the usage past the limits.
+ * 
+ * @author isaiah
+ */
+final class QueueBudget {
+	
+	/** The number of jobs currently held */
+	private final AtomicLong jobs = new AtomicLong(0);
+	/** The number of payload bytes currently held */
+	private final AtomicLong bytes = new AtomicLong(0);
+	
+	/** The maximum number of jobs. 0 or less is unlimited */
+	private volatile long maxJobs;
+	/** The maximum number of payload bytes. 0 or less is unlimited */
+	private volatile long maxBytes;
+	
+	QueueBudget(final long maxJobs, final long maxBytes) {
+		this.maxJobs = maxJobs;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Reserves room for one job with the given payload size
+	 * @param size
+	 * 		The payload size in bytes
+	 * @return
+	 * 		true if the job fits within the budget and has been reserved, false if the
+	 * 		budget is full and nothing has been reserved
+	 */
+	public final boolean acquire(final long size) {
+		if(!acquire(this.jobs, 1, this.maxJobs))
+			return false;
+		
+		if(!acquire(this.bytes, size, this.maxBytes)) {
+			this.jobs.decrementAndGet();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Reserves room for one job regardless of the limits. Used for jobs that must be
+	 * accepted, like those recovered from persistent storage
+	 * @param size
+	 * 		The payload size in bytes
+	 */
+	public final void add(final long size) {
+		this.jobs.incrementAndGet();
+		this.bytes.addAndGet(size);
+	}
+	
+	/**
+	 * Releases the room held by one job
+	 * @param size
+	 * 		The payload size in bytes
+	 */
+	public final void release(final long size) {
+		this.jobs.decrementAndGet();
+		this.bytes.addAndGet(-size);
+	}
+	
+	private static final boolean acquire(final AtomicLong counter, final long amount, final long max) {
+		if(max<=0) {
+			counter.addAndGet(amount);
+			return true;
+		}
+		
+		long current;
+		do {
+			current = counter.get();
+			if(current+amount>max) return false;
+		} while(!counter.compareAndSet(current, current+amount));
+		
+		return true;
+	}
+	
+	public final long getJobs() {
+		return this.jobs.get();
+	}
+	
+	public final long getBytes() {
+		return this.bytes.get();
+	}
+	
+	public final long getMaxJobs() {
+		return this.maxJobs;
+	}
+	
+	public final void setMaxJobs(final long maxJobs) {
+		this.maxJobs = maxJobs;
+	}
+	
+	public final long getMaxBytes() {
+		return this.maxBytes;
+	}
+	
+	public final void setMaxBytes(final long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Appends this budget's usage to the given builder as tab separated values:
+	 * jobs, max jobs, bytes, max bytes
+	 */
+	final StringBuilder appendUsage(final StringBuilder sb) {
+		sb.append(this.getJobs()); sb.append('\t');
+		sb.append(this.getMaxJobs()); sb.append('\t');
+		sb.append(this.getBytes()); sb.append('\t');
+		sb.append(this.getMaxBytes());
+		return sb;
+	}
+}
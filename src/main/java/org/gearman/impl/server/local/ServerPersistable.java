@@ -40,15 +40,33 @@ class ServerPersistable implements GearmanPersistable {
 	private final long epoch;
 	private final GearmanJobPriority priority;
 	
+	private static final byte[] NO_DATA = new byte[0];
+	
 	ServerPersistable(Job job) {
+		this(job, job.getData());
+	}
+	
+	private ServerPersistable(Job job, byte[] data) {
 		this.functionName = job.getFunction().getName().toString(GearmanUtils.getCharset());
-		this.data = job.getData().clone();
+		this.data = data;
 		this.jobHandle = job.getJobHandle().getBytes();
 		this.uniqueID = job.getUniqueID().getBytes();
 		this.epoch = 0;
 		this.priority = job.getPriority();
 	}
 	
+	/**
+	 * Creates a persistable that identifies the job without copying its data. Used for
+	 * deletes, which only need the job's keys
+	 * @param job
+	 * 		The job to identify
+	 * @return
+	 * 		A persistable with the job's identifiers and no data
+	 */
+	static ServerPersistable createKey(Job job) {
+		return new ServerPersistable(job, NO_DATA);
+	}
+	
 	@Override
 	public String getFunctionName() {
 		return functionName;
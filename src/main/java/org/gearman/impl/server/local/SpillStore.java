@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.server.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.impl.util.GearmanUtils;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Holds the payloads of jobs queued beyond a function's in-memory threshold in
+ * append-only, memory-mapped segment files.<br>
+ * <br>
+ * Payloads are appended to the active segment until it's full, then a new segment is
+ * started. Nothing is read back until a job is assigned, and then the mapped region is
+ * written to the worker directly, so the operating system pages the payload in as
+ * workers drain the queue. A segment is deleted once every payload in it has been
+ * released and it's either full or no longer the active segment, so a store whose
+ * payloads have all been consumed keeps nothing on disk.<br>
+ * <br>
+ * Segment files are scratch space, not persistent storage. Each store keeps its segments
+ * in its own subdirectory of the spill directory, created with the first segment, so
+ * several processes may share the spill directory. Segments are unmapped and deleted as
+ * they're consumed, and the subdirectory is deleted when the JVM shuts down. A process
+ * that crashes leaves its subdirectory behind, and no other process removes it.
+ * 
+ * @author isaiah
+ */
+final class SpillStore {
+	
+	private static final String PREFIX = "gearman-spill-";
+	private static final String SUFFIX = ".seg";
+	
+	/** Unmaps a mapped buffer, or null if the runtime doesn't allow it */
+	private static final Unmapper UNMAPPER = createUnmapper();
+	
+	/** The directory shared by every process's spill directory */
+	private final File directory;
+	/** This store's directory, holding its segment files. Created with the first segment */
+	private File storeDirectory;
+	/** The size of each segment file in bytes */
+	private final int segmentSize;
+	
+	/** The segment new payloads are appended to */
+	private Segment active;
+	
+	/** The number of segments currently on disk */
+	private final AtomicInteger segments = new AtomicInteger(0);
+	
+	SpillStore(final File directory, final int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+	
+	/**
+	 * Returns this store's directory, creating it on first use. Called while holding the
+	 * store's lock
+	 * @return
+	 * 		This store's directory
+	 * @throws IOException
+	 * 		If the directory can't be created
+	 */
+	private final File getStoreDirectory() throws IOException {
+		if(this.storeDirectory==null) {
+			Files.createDirectories(this.directory.toPath());
+			
+			final File storeDirectory = Files.createTempDirectory(this.directory.toPath(), PREFIX).toFile();
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					SpillStore.deleteDirectory(storeDirectory);
+				}
+			}));
+			this.storeDirectory = storeDirectory;
+		}
+		return this.storeDirectory;
+	}
+	
+	/**
+	 * Deletes the given store directory and the segment files in it. Files still mapped stay
+	 * readable where the system allows deleting them, otherwise they're left behind
+	 */
+	private static final void deleteDirectory(final File directory) {
+		final File[] files = directory.listFiles();
+		if(files!=null) {
+			for(File file : files) {
+				if(!file.delete()) LOGGER.debug("Failed to delete spill segment: " + file);
+			}
+		}
+		if(!directory.delete()) LOGGER.debug("Failed to delete spill directory: " + directory);
+	}
+	
+	/**
+	 * Appends the given data to the active segment
+	 * @param data
+	 * 		The payload's bytes
+	 * @return
+	 * 		The stored payload, holding one reference
+	 * @throws IOException
+	 * 		If a segment file can't be created or mapped
+	 */
+	public final synchronized Payload store(final byte[] data) throws IOException {
+		if(this.active==null || this.active.remaining()<data.length) {
+			if(this.active!=null) this.active.seal();
+			this.active = new Segment(this.getStoreDirectory(), Math.max(this.segmentSize, data.length));
+		}
+		
+		return this.active.append(data);
+	}
+	
+	/**
+	 * Seals the given segment if it's still the active segment and every payload in it has
+	 * been released. The next payload starts a new segment, so an idle store doesn't keep a
+	 * partly used segment on disk
+	 * @param segment
+	 * 		The segment whose last payload was released
+	 */
+	private final synchronized void trim(final Segment segment) {
+		if(this.active!=segment || !segment.isEmpty()) return;
+		
+		this.active = null;
+		segment.seal();
+	}
+	
+	/**
+	 * Returns the number of segment files currently on disk
+	 * @return
+	 * 		The number of segment files currently on disk
+	 */
+	public final int getSegmentCount() {
+		return this.segments.get();
+	}
+	
+	private final class Segment {
+		private final File file;
+		private final MappedByteBuffer map;
+		
+		/** The number of payloads in this segment that have not been released */
+		private int live = 0;
+		/** Set once the segment is full and no more payloads will be appended */
+		private boolean isSealed = false;
+		
+		private Segment(final File directory, final int size) throws IOException {
+			this.file = File.createTempFile(PREFIX, SUFFIX, directory);
+			
+			try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+				// The mapping remains valid after the channel is closed
+				this.map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				this.file.delete();
+				throw e;
+			}
+			
+			SpillStore.this.segments.incrementAndGet();
+		}
+		
+		private final int remaining() {
+			return this.map.remaining();
+		}
+		
+		/** Called while holding the store's lock */
+		private final Payload append(final byte[] data) {
+			final int position = this.map.position();
+			this.map.put(data);
+			
+			final ByteBuffer region = this.map.duplicate();
+			region.position(position);
+			region.limit(position+data.length);
+			
+			synchronized(this) { this.live++; }
+			return new SpillPayload(this, region.slice());
+		}
+		
+		private final synchronized void seal() {
+			this.isSealed = true;
+			if(this.live==0) this.delete();
+		}
+		
+		private final synchronized boolean isEmpty() {
+			return this.live==0;
+		}
+		
+		private final void release() {
+			final boolean isIdle;
+			synchronized(this) {
+				this.live--;
+				assert this.live>=0;
+				if(this.live==0 && this.isSealed) this.delete();
+				
+				isIdle = this.live==0 && !this.isSealed;
+			}
+			
+			// The store's lock is taken before the segment's, so it's taken outside of it
+			if(isIdle) SpillStore.this.trim(this);
+		}
+		
+		private final void delete() {
+			SpillStore.this.segments.decrementAndGet();
+			
+			/*
+			 * Every payload has been released, so nothing reads the mapping anymore. Views
+			 * are only handed to holders of a reference, which is the JOB_ASSIGN write, and
+			 * packets sent to in-process peers are copied before the write completes. Copies
+			 * are taken while holding a reference. Reading an unmapped buffer crashes the
+			 * JVM, so every read of a payload must follow these rules. It's unmapped now
+			 * rather than when the buffer is garbage collected, so the disk space is freed
+			 * with the file
+			 */
+			unmap(this.map);
+			if(!this.file.delete())
+				LOGGER.warn("Failed to delete spill segment: " + this.file);
+		}
+	}
+	
+	private static final class SpillPayload implements Payload {
+		private final Segment segment;
+		private final ByteBuffer region;
+		private final AtomicInteger references = new AtomicInteger(1);
+		
+		private SpillPayload(final Segment segment, final ByteBuffer region) {
+			this.segment = segment;
+			this.region = region;
+		}
+
+		@Override
+		public int size() {
+			return this.region.limit();
+		}
+
+		@Override
+		public boolean isOnDisk() {
+			return true;
+		}
+		
+		@Override
+		public byte[] getBytes() {
+			// Holds a reference while copying, so the segment can't be unmapped in the meantime
+			if(!this.tryRetain()) throw new IllegalStateException("payload released");
+			try {
+				final ByteBuffer buffer = this.region.duplicate();
+				final byte[] data = new byte[buffer.remaining()];
+				buffer.get(data);
+				return data;
+			} finally {
+				this.release();
+			}
+		}
+
+		@Override
+		public ByteBuffer getBuffer() {
+			if(this.references.get()==0) throw new IllegalStateException("payload released");
+			return this.region.asReadOnlyBuffer();
+		}
+		
+		private final boolean tryRetain() {
+			for(;;) {
+				final int count = this.references.get();
+				if(count==0) return false;
+				if(this.references.compareAndSet(count, count+1)) return true;
+			}
+		}
+
+		@Override
+		public void retain() {
+			final int count = this.references.getAndIncrement();
+			assert count>0;
+		}
+
+		@Override
+		public void release() {
+			final int count = this.references.decrementAndGet();
+			assert count>=0;
+			if(count==0) this.segment.release();
+		}
+	}
+	
+	/**
+	 * Unmaps the given buffer. The buffer must not be used afterwards. If the runtime
+	 * doesn't allow it, the mapping is released when the buffer is garbage collected
+	 */
+	private static final void unmap(final MappedByteBuffer buffer) {
+		if(UNMAPPER==null) return;
+		try {
+			UNMAPPER.unmap(buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Failed to unmap spill segment", e);
+		}
+	}
+	
+	private static interface Unmapper {
+		public void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+	}
+	
+	/**
+	 * Looks up how to unmap a buffer. Up to Java 8 the buffer's cleaner is invoked. From
+	 * Java 9 the cleaner is no longer accessible, and Unsafe.invokeCleaner is used instead
+	 */
+	private static final Unmapper createUnmapper() {
+		try {
+			final Class<?> unsafeType = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeType.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field field = unsafeType.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			final Object unsafe = field.get(null);
+			
+			return new Unmapper() {
+				@Override
+				public void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException {
+					invokeCleaner.invoke(unsafe, buffer);
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8 and older, ((sun.nio.ch.DirectBuffer)buffer).cleaner().clean()
+		}
+		
+		try {
+			final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			
+			return new Unmapper() {
+				@Override
+				public void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException {
+					final Object value = cleaner.invoke(buffer);
+					if(value!=null) clean.invoke(value);
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Mapped spill segments can't be unmapped by this runtime");
+			return null;
+		}
+	}
+	
+	/** The spill store shared by all local servers */
+	private static final SpillStore instance = new SpillStore(GearmanUtils.getSpillDirectory(), GearmanUtils.getSpillSegmentSize());
+	
+	public static final SpillStore getInstance() {
+		return instance;
+	}
+}
@@ -33,7 +33,8 @@ import org.gearman.impl.core.GearmanPacket.Type;
 import org.gearman.impl.util.GearmanUtils;
 
 /**
- * All static gearman packets are located in this container
+ * All static gearman packets are located in this container. Every packet here is a
+ * constant and is encoded once, when the class is loaded.
  * 
  * @author isaiah
  */
@@ -46,13 +47,13 @@ final class StaticPackets {
 	 * This is given to notify the client that a bad magic number was used.
 	 */
 	public static final GearmanPacket ERROR_BAD_MAGIC = new GearmanPacket(
-			Magic.RES, Type.ERROR, "bad_magic".getBytes(), "Request magic expected".getBytes(GearmanUtils.getCharset()));
+			Magic.RES, Type.ERROR, "bad_magic".getBytes(), "Request magic expected".getBytes(GearmanUtils.getCharset())).asConstant();
 
 	/**
 	 * Sent to a client when an unknown or unimplemented packet type is received
 	 */
 	public static final GearmanPacket ERROR_BAD_COMMAND = new GearmanPacket(
-			Magic.RES, Type.ERROR, "bad command".getBytes(), "Command not expected".getBytes());
+			Magic.RES, Type.ERROR, "bad command".getBytes(), "Command not expected".getBytes()).asConstant();
 
 	/**
 	 * Sent to a client when a job cannot be found in with the following
@@ -64,7 +65,7 @@ final class StaticPackets {
 					111, 98, 95, 110, 111, 116, 95, 102, 111, 117, 110, 100}, new byte[]{
 					74, 111, 98, 32, 103, 105, 118, 101, 110, 32, 105, 110, 32,
 					119, 111, 114, 107, 32, 114, 101, 115, 117, 108, 116, 32,
-					110, 111, 116, 32, 102, 111, 117, 110, 100 });
+					110, 111, 116, 32, 102, 111, 117, 110, 100 }).asConstant();
 
 	public static final GearmanPacket ERROR_UNKNOWN_OPTION = new GearmanPacket(
 			Magic.RES, Type.ERROR, new byte[] { 117,
@@ -72,21 +73,28 @@ final class StaticPackets {
 					110}, new byte[]{ 83, 101, 114, 118, 101, 114, 32, 100, 111, 101,
 					115, 32, 110, 111, 116, 32, 114, 101, 99, 111, 103, 110,
 					105, 122, 101, 32, 103, 105, 118, 101, 110, 32, 111, 112,
-					116, 105, 111, 110 });
+					116, 105, 111, 110 }).asConstant();
 
 	public static final GearmanPacket ERROR_QUEUE_FULL = new GearmanPacket(
 			Magic.RES, Type.ERROR, new byte[] { 113,
 					117, 101, 117, 101, 95, 102, 117, 108, 108}, new byte[]{ 74, 111, 98,
 					32, 113, 117, 101, 117, 101, 32, 105, 115, 32, 102, 117,
-					108, 108 });
+					108, 108 }).asConstant();
+
+	/**
+	 * Sent to a client when a background job could not be written to persistent storage.
+	 * The job is dropped
+	 */
+	public static final GearmanPacket ERROR_PERSISTENCE_FAILED = new GearmanPacket(
+			Magic.RES, Type.ERROR, "persistence_failed".getBytes(), "Job could not be persisted".getBytes()).asConstant();
 
 	public static final GearmanPacket OPTION_RES_EXCEPTIONS = new GearmanPacket(
 			Magic.RES, Type.OPTION_RES, new byte[] {
-					101, 120, 99, 101, 112, 116, 105, 111, 110, 115 });
+					101, 120, 99, 101, 112, 116, 105, 111, 110, 115 }).asConstant();
 
-	public static final GearmanPacket TEXT_UNKNOWN_COMMAND = GearmanPacket.createTEXT("ERR unknown_command Unknown+server+command\n");
-	public static final GearmanPacket TEXT_INCOMPLETE_ARGS = GearmanPacket.createTEXT("ERR incomplete_args An+incomplete+set+of+arguments+was+sent+to+this+command\n");
-	public static final GearmanPacket TEXT_OK = GearmanPacket.createTEXT("OK\n");
-	public static final GearmanPacket TEXT_DONE = GearmanPacket.createTEXT(".\n");
-	public static final GearmanPacket TEXT_VERSION = GearmanPacket.createTEXT(GearmanUtils.getVersion());
+	public static final GearmanPacket TEXT_UNKNOWN_COMMAND = GearmanPacket.createTEXT("ERR unknown_command Unknown+server+command\n").asConstant();
+	public static final GearmanPacket TEXT_INCOMPLETE_ARGS = GearmanPacket.createTEXT("ERR incomplete_args An+incomplete+set+of+arguments+was+sent+to+this+command\n").asConstant();
+	public static final GearmanPacket TEXT_OK = GearmanPacket.createTEXT("OK\n").asConstant();
+	public static final GearmanPacket TEXT_DONE = GearmanPacket.createTEXT(".\n").asConstant();
+	public static final GearmanPacket TEXT_VERSION = GearmanPacket.createTEXT(GearmanUtils.getVersion()).asConstant();
 }
@@ -270,7 +270,8 @@ public abstract class AbstractConnectionController implements ConnectionControll
 	public boolean sendPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback) {
 		if(this.conn==null || conn.isClosed()) return false;
 		
-		LOGGER.info(GearmanUtils.toString(conn) + " : OUT : " + packet.getPacketType().toString());
+		if(LOGGER.isInfoEnabled())
+			LOGGER.info(GearmanUtils.toString(conn) + " : OUT : " + packet.getPacketType().toString());
 		this.conn.sendPacket(packet, callback==null? this.defaultCallback: new SendCallback(callback));
 		return true;
 	}
@@ -451,7 +452,6 @@ public abstract class AbstractConnectionController implements ConnectionControll
 			if(this.state.equals(ControllerState.DROPPED)) return;
 			
 			this.state = ControllerState.DROPPED;
-			sc.removeServer(this.key, true);
 			
 			if(this.conn!=null) {
 				try {
@@ -471,6 +471,9 @@ public abstract class AbstractConnectionController implements ConnectionControll
 				this.pendingJobStatus = null;
 			}
 		}
+		
+		// Removed outside of the lock. The pool holds its close lock while dropping servers
+		sc.removeServer(this.key, true);
 		this.onDrop(oldState);
 	}
 	
@@ -59,12 +59,14 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 	
 	private final GearmanImpl gearman;
 	
-	private final ConcurrentHashMap<GearmanServerInterface, X> connMap = new ConcurrentHashMap<GearmanServerInterface, X>();
+	/** Maps each server to its connections. The lists are never modified */
+	private final ConcurrentHashMap<GearmanServerInterface, List<X>> connMap = new ConcurrentHashMap<GearmanServerInterface, List<X>>();
 	private final GearmanLostConnectionPolicy defaultPolicy;
 	private GearmanLostConnectionPolicy policy;;
 	private long waitPeriod;
 	private boolean isShutdown = false;
 	private String id = AbstractJobServerPool.DEFAULT_CLIENT_ID;
+	private volatile int connectionsPerServer = 1;
 	
 	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
 	
@@ -86,10 +88,16 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 			
 			if(this.isShutdown) throw new IllegalStateException("In Shutdown State");
 			
-			X x = this.createController(key);
+			final int count = this.connectionsPerServer;
+			final List<X> xs = new ArrayList<X>(count);
+			for(int i=0; i<count; i++) {
+				xs.add(this.createController(key, i));
+			}
 			
-			if(this.connMap.putIfAbsent(key, x)==null) {
-				x.onNew();
+			if(this.connMap.putIfAbsent(key, Collections.unmodifiableList(xs))==null) {
+				for(X x : xs) {
+					x.onNew();
+				}
 				return true;
 			} else {
 				return false;
@@ -114,6 +122,11 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 		return unit.convert(this.waitPeriod,TimeUnit.NANOSECONDS);
 	}
 
+	@Override
+	public int getConnectionsPerServer() {
+		return this.connectionsPerServer;
+	}
+
 	@Override
 	public int getServerCount() {
 		return this.connMap.size();
@@ -148,9 +161,11 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 			if(this.isShutdown && !isOnShutdown)
 				throw new IllegalStateException("In Shutdown State");
 			
-			X x = this.connMap.remove(srvr);
-			if(x!=null) {
-				x.dropServer();
+			List<X> xs = this.connMap.remove(srvr);
+			if(xs!=null) {
+				for(X x : xs) {
+					x.dropServer();
+				}
 				return true;
 			} else {
 				return false;
@@ -170,22 +185,38 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 			
 			this.id = id;
 			
-			for(final Map.Entry<GearmanServerInterface, X> entry : this.connMap.entrySet()) {
-				entry.getValue().sendPacket(GearmanPacket.createSET_CLIENT_ID(id), new GearmanCallbackHandler<GearmanPacket, SendCallbackResult>() {
-					@Override
-					public void onComplete(GearmanPacket data, SendCallbackResult result) {
-						if(result.isSuccessful()) return;
-						
-						GearmanServerInterface gsi = entry.getKey();
-						LOGGER.warn("failed to set client id: " + gsi.getHostName() + ":" + gsi.getPort());
-					}
-				});
+			for(final Map.Entry<GearmanServerInterface, List<X>> entry : this.connMap.entrySet()) {
+				for(X x : entry.getValue()) {
+					x.sendPacket(GearmanPacket.createSET_CLIENT_ID(id), new GearmanCallbackHandler<GearmanPacket, SendCallbackResult>() {
+						@Override
+						public void onComplete(GearmanPacket data, SendCallbackResult result) {
+							if(result.isSuccessful()) return;
+							
+							GearmanServerInterface gsi = entry.getKey();
+							LOGGER.warn("failed to set client id: " + gsi.getHostName() + ":" + gsi.getPort());
+						}
+					});
+				}
 			}
 		} finally {
 			closeLock.readLock().unlock();
 		}
 	}
 
+	@Override
+	public void setConnectionsPerServer(int count) {
+		if(count<1) throw new IllegalArgumentException("count must be at least 1: " + count);
+		
+		try {
+			closeLock.readLock().lock();
+			
+			if(this.isShutdown) throw new IllegalStateException("In Shutdown State");
+			this.connectionsPerServer = count;
+		} finally {
+			closeLock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public void setLostConnectionPolicy(GearmanLostConnectionPolicy policy) {
 		try {
@@ -232,10 +263,25 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 		}
 	}
 	
-	protected Map<GearmanServerInterface, X> getConnections() {
+	/**
+	 * Returns the connections to each server. A server's connections are listed in the
+	 * order of their index.
+	 */
+	protected Map<GearmanServerInterface, List<X>> getConnections() {
 		return Collections.unmodifiableMap(this.connMap);
 	}
 	
+	/**
+	 * Returns the connections to all servers
+	 */
+	protected Collection<X> getAllConnections() {
+		final List<X> value = new ArrayList<X>();
+		for(List<X> xs : this.connMap.values()) {
+			value.addAll(xs);
+		}
+		return value;
+	}
+	
 	protected GearmanLostConnectionPolicy getDefaultPolicy() {
 		return this.defaultPolicy;
 	}
@@ -264,8 +310,10 @@ public abstract class AbstractJobServerPool <X extends AbstractConnectionControl
 	 * of connections.  
 	 * @param key
 	 * 		The ConnectionControler's key
+	 * @param index
+	 * 		The controller's position among the connections to the server, starting at 0
 	 * @return
 	 * 		
 	 */
-	protected abstract X createController(GearmanServerInterface key);
+	protected abstract X createController(GearmanServerInterface key, int index);
 }
@@ -69,6 +69,24 @@ public interface GearmanServerPool extends GearmanService {
 	 */
 	public int getServerCount();
 	
+	/**
+	 * Sets the number of connections made to each server. Servers already in the pool keep
+	 * their current connections, so the value should be set before servers are added. The
+	 * default is one connection per server.
+	 * @param count
+	 * 		The number of connections per server
+	 * @throws IllegalArgumentException
+	 * 		if the count is less than one
+	 */
+	public void setConnectionsPerServer(int count);
+	
+	/**
+	 * Returns the number of connections made to each server added to the pool
+	 * @return
+	 * 		The number of connections per server
+	 */
+	public int getConnectionsPerServer();
+	
 	/**
 	 * Removes all servers from this service
 	 */
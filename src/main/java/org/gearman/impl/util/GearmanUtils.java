@@ -27,9 +27,9 @@
 
 package org.gearman.impl.util;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
-import java.util.UUID;
 
 import org.gearman.context.GearmanContext;
 import org.gearman.impl.core.GearmanConnection;
@@ -51,7 +51,7 @@ public class GearmanUtils {
 	}
 	
 	public static final byte[] createUID() {
-		return UUID.randomUUID().toString().getBytes();
+		return SequenceUniqueIdGenerator.INSTANCE.createUniqueID();
 	}
 	
 	public static final String getProjectName() {
@@ -78,6 +78,50 @@ public class GearmanUtils {
 		return (Charset) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_CHARSET);
 	}
 	
+	public static final long getStatusInterval() {
+		return (Long) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_STATUS_INTERVAL);
+	}
+	
+	public static final long getMaxQueueJobs() {
+		return (Long) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_MAX_QUEUE_JOBS);
+	}
+	
+	public static final long getMaxQueueBytes() {
+		return (Long) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_MAX_QUEUE_BYTES);
+	}
+	
+	public static final int getOffHeapThreshold() {
+		return (Integer) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_OFF_HEAP_THRESHOLD);
+	}
+	
+	public static final int getOffHeapSlabSize() {
+		return (Integer) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_OFF_HEAP_SLAB_SIZE);
+	}
+	
+	public static final long getSpillThreshold() {
+		return (Long) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_SPILL_THRESHOLD);
+	}
+	
+	public static final File getSpillDirectory() {
+		return (File) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_SPILL_DIRECTORY);
+	}
+	
+	public static final int getSpillSegmentSize() {
+		return (Integer) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_SPILL_SEGMENT_SIZE);
+	}
+	
+	public static final String getPersistenceAck() {
+		return (String) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_PERSISTENCE_ACK);
+	}
+	
+	public static final int getPersistenceThreads() {
+		return (Integer) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_PERSISTENCE_THREADS);
+	}
+	
+	public static final int getPersistenceQueueSize() {
+		return (Integer) GearmanContext.getAttribute(GearmanContext.ATTRIBUTE_PERSISTENCE_QUEUE_SIZE);
+	}
+	
 	public static final String getJobHandlePrefix() {
 		return GearmanContext.getProperty(GearmanContext.PROPERTY_JOB_HANDLE_PREFIX);
 	}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.util;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gearman.GearmanUniqueIdGenerator;
+
+/**
+ * The default {@link GearmanUniqueIdGenerator}. An ID is a random node prefix, chosen once
+ * per JVM, followed by a slot assigned to each thread and a counter held by that thread.
+ * Creating an ID doesn't lock, block or touch shared state, and the ID is written directly
+ * as URL-safe base64 characters.<br>
+ * <br>
+ * The 66-bit node prefix keeps IDs from different processes apart. Within a process, the
+ * slot and counter are never repeated.
+ * 
+ * @author isaiah
+ */
+public final class SequenceUniqueIdGenerator implements GearmanUniqueIdGenerator {
+	
+	private static final byte[] DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(Charset.forName("US-ASCII"));
+	
+	/** Characters in the node prefix, 6 bits each */
+	private static final int PREFIX_LENGTH = 11;
+	
+	/** Characters in the thread slot, 6 bits each */
+	private static final int SLOT_LENGTH = 5;
+	
+	/** The largest counter is 11 characters long */
+	private static final int MAX_COUNTER_LENGTH = 11;
+	
+	/** Declared after the constants it uses during construction */
+	public static final SequenceUniqueIdGenerator INSTANCE = new SequenceUniqueIdGenerator();
+	
+	private final byte[] prefix = new byte[PREFIX_LENGTH];
+	private final AtomicLong slots = new AtomicLong();
+	
+	private final ThreadLocal<Sequence> sequence = new ThreadLocal<Sequence>() {
+		@Override
+		protected Sequence initialValue() {
+			return new Sequence(slots.getAndIncrement());
+		}
+	};
+	
+	private SequenceUniqueIdGenerator() {
+		// The only SecureRandom use, once per process
+		final SecureRandom random = new SecureRandom();
+		for(int i=0; i<PREFIX_LENGTH; i++) {
+			this.prefix[i] = DIGITS[random.nextInt(DIGITS.length)];
+		}
+	}
+	
+	@Override
+	public byte[] createUniqueID() {
+		return this.sequence.get().next();
+	}
+	
+	private final class Sequence {
+		/** The node prefix and this thread's slot */
+		private final byte[] head = new byte[PREFIX_LENGTH + SLOT_LENGTH];
+		private final byte[] scratch = new byte[MAX_COUNTER_LENGTH];
+		private long counter = 0;
+		
+		private Sequence(long slot) {
+			System.arraycopy(prefix, 0, this.head, 0, PREFIX_LENGTH);
+			for(int i=head.length-1; i>=PREFIX_LENGTH; i--) {
+				this.head[i] = DIGITS[(int)(slot & 0x3f)];
+				slot >>>= 6;
+			}
+		}
+		
+		private byte[] next() {
+			long value = this.counter++;
+			
+			// Write the counter backwards, without leading zeros
+			int pos = MAX_COUNTER_LENGTH;
+			do {
+				this.scratch[--pos] = DIGITS[(int)(value & 0x3f)];
+				value >>>= 6;
+			} while(value!=0);
+			
+			final int length = MAX_COUNTER_LENGTH - pos;
+			final byte[] id = new byte[this.head.length + length];
+			System.arraycopy(this.head, 0, id, 0, this.head.length);
+			System.arraycopy(this.scratch, pos, id, this.head.length, length);
+			return id;
+		}
+	}
+}
@@ -1,9 +1,15 @@
 package org.gearman.impl.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TaskJoin<T> {
 	
 	private T value;
 	
+	/** Listeners waiting for the value, or null if none */
+	private List<Runnable> listeners;
+	
 	public TaskJoin() {
 		this(null);
 	}
@@ -53,10 +59,38 @@ public class TaskJoin<T> {
 		return value;
 	}
 	
-	public synchronized void setValue(T value) {
+	/**
+	 * Runs the listener once the value is set. If the value is already set, the listener
+	 * is run immediately. Otherwise it's run on the thread setting the value, so it should
+	 * not block
+	 */
+	public void addListener(Runnable listener) {
+		synchronized(this) {
+			if(this.value==null) {
+				if(this.listeners==null) this.listeners = new ArrayList<>(1);
+				this.listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+	
+	public void setValue(T value) {
 		if(value==null)
 			throw new IllegalArgumentException();
-		this.value = value;
-		this.notifyAll();
+		
+		final List<Runnable> listeners;
+		synchronized(this) {
+			this.value = value;
+			this.notifyAll();
+			
+			listeners = this.listeners;
+			this.listeners = null;
+		}
+		
+		if(listeners==null) return;
+		for(Runnable listener : listeners) {
+			listener.run();
+		}
 	}
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.impl.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * Starts tasks on virtual threads, when the runtime has them. Virtual threads were added in
+ * Java 21, so they're looked up by reflection and this library still runs on older runtimes.
+ * 
+ * @author isaiah
+ */
+public final class VirtualThreads {
+	
+	private static final String NAME_PREFIX = "gearman-virtual-";
+	
+	/** Starts each task on a new virtual thread, or null if virtual threads are not available */
+	private static final Executor EXECUTOR = createExecutor();
+	
+	private VirtualThreads() {}
+	
+	/**
+	 * Tests if the runtime supports virtual threads
+	 * @return
+	 * 		<code>true</code> if the runtime supports virtual threads
+	 */
+	public static boolean isSupported() {
+		return EXECUTOR!=null;
+	}
+	
+	/**
+	 * Returns an executor that starts each task on a new virtual thread
+	 * @return
+	 * 		The executor, or <code>null</code> if virtual threads are not supported
+	 */
+	public static Executor getExecutor() {
+		return EXECUTOR;
+	}
+	
+	private static Executor createExecutor() {
+		final ThreadFactory factory;
+		try {
+			// Thread.ofVirtual().name(NAME_PREFIX, 0).factory()
+			final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builderType.getMethod("name", String.class, long.class).invoke(builder, NAME_PREFIX, 0L);
+			factory = (ThreadFactory)builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Virtual threads are not supported by this runtime");
+			return null;
+		}
+		
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				factory.newThread(command).start();
+			}
+		};
+	}
+}
@@ -30,6 +30,7 @@ package org.gearman.impl.worker;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -44,6 +45,7 @@ import org.gearman.impl.GearmanImpl;
 import org.gearman.impl.server.GearmanServerInterface;
 import org.gearman.impl.serverpool.ControllerState;
 import org.gearman.impl.serverpool.AbstractJobServerPool;
+import org.gearman.impl.util.VirtualThreads;
 
 public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionController> implements GearmanWorker {
 	
@@ -60,7 +62,7 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 		public void run() {
 			final long time = System.currentTimeMillis();
 			
-			for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+			for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 				switch(cc.getState()) {
 				case CONNECTING:
 					// If connecting, nothing to do until a connection is established
@@ -190,6 +192,9 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 	}
 	
 	private final Dispatcher dispatcher = new Dispatcher();
+	
+	/** Set if assigned jobs run on virtual threads */
+	private volatile boolean isVirtualThreads = false;
 	private final ConcurrentHashMap<String, FunctionInfo> funcMap = new ConcurrentHashMap<String, FunctionInfo>();
 	
 	private final Heartbeat heartbeat = new Heartbeat();
@@ -209,7 +214,7 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 	}
 
 	@Override
-	protected WorkerConnectionController createController(GearmanServerInterface key) {
+	protected WorkerConnectionController createController(GearmanServerInterface key, int index) {
 		return new InnerConnectionController(key);
 	}
 
@@ -229,7 +234,7 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 			
 			if(oldFunc!=null) return oldFunc.function;
 			if(this.isConnected()) {
-				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values())
+				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections())
 					cc.canDo(name);
 				
 				if(this.future==null)this.future = super.getGearman().getScheduler().scheduleAtFixedRate(this.heartbeat, HEARTBEAT_PERIOD, HEARTBEAT_PERIOD, TimeUnit.NANOSECONDS);
@@ -238,7 +243,7 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 			
 			if(this.future==null)this.future = super.getGearman().getScheduler().scheduleAtFixedRate(this.heartbeat, HEARTBEAT_PERIOD, HEARTBEAT_PERIOD, TimeUnit.NANOSECONDS);
 			
-			for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+			for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 				cc.openServer(false);
 			}
 			
@@ -282,12 +287,12 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 					future=null;
 				}
 				
-				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 					cc.cantDo(functionName);
 					cc.closeIfNotWorking();
 				}
 			} else {
-				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 					cc.cantDo(functionName);
 				}
 			}
@@ -299,6 +304,27 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 	public void setMaximumConcurrency(int maxConcurrentJobs) {
 		this.dispatcher.setMaxCount(maxConcurrentJobs);
 	}
+	
+	@Override
+	public void setVirtualThreads(boolean isVirtual) {
+		if(isVirtual && !VirtualThreads.isSupported())
+			throw new UnsupportedOperationException("virtual threads are not supported by this runtime");
+		this.isVirtualThreads = isVirtual;
+	}
+	
+	@Override
+	public boolean isVirtualThreads() {
+		return this.isVirtualThreads;
+	}
+	
+	/**
+	 * Returns the executor that runs assigned jobs
+	 * @return
+	 * 		The virtual thread executor in virtual thread mode, otherwise the gearman scheduler
+	 */
+	final Executor getJobExecutor() {
+		return this.isVirtualThreads? VirtualThreads.getExecutor(): super.getGearman().getScheduler();
+	}
 
 	@Override
 	public void removeAllServers() {
@@ -334,12 +360,12 @@ public class GearmanWorkerImpl extends AbstractJobServerPool<WorkerConnectionCon
 					future=null;
 				}
 				
-				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 					cc.resetAbilities();
 					cc.closeIfNotWorking();
 				}
 			} else {
-				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getConnections().values()) {
+				for(WorkerConnectionController cc : GearmanWorkerImpl.super.getAllConnections()) {
 					cc.resetAbilities();
 				}
 			}
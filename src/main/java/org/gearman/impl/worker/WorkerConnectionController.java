@@ -168,7 +168,7 @@ abstract class WorkerConnectionController extends AbstractConnectionController {
 		this.toDispatcher();
 		
 		
-		this.getWorker().getGearman().getScheduler().execute(new Runnable() {
+		this.getWorker().getJobExecutor().execute(new Runnable() {
 
 			@Override
 			public void run() {
@@ -249,7 +249,8 @@ abstract class WorkerConnectionController extends AbstractConnectionController {
 	
 	@Override
 	public void onPacketReceived(GearmanPacket packet, GearmanConnection<Object> conn) {
-		LOGGER.info(GearmanUtils.toString(conn)+ " : IN : " + packet.getPacketType());
+		if(LOGGER.isInfoEnabled())
+			LOGGER.info(GearmanUtils.toString(conn)+ " : IN : " + packet.getPacketType());
 		
 		switch (packet.getPacketType()) {
 		case NOOP:
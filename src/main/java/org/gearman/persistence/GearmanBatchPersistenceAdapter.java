@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.gearman.GearmanBatchPersistence;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanPersistence;
+
+/**
+ * Adds batch operations to a {@link GearmanPersistence} that only supports single items.
+ * Each batch is written or deleted one item at a time, using the wrapped persistence.
+ * 
+ * @author isaiah
+ */
+public class GearmanBatchPersistenceAdapter implements GearmanBatchPersistence {
+	
+	private final GearmanPersistence persistence;
+	
+	/**
+	 * Creates an adapter for the given persistence
+	 * @param persistence
+	 * 		The persistence receiving the operations
+	 */
+	public GearmanBatchPersistenceAdapter(final GearmanPersistence persistence) {
+		if(persistence==null) throw new NullPointerException("persistence");
+		this.persistence = persistence;
+	}
+	
+	/**
+	 * Returns the given persistence if it supports batch operations, or an adapter for it
+	 * if it doesn't
+	 * @param persistence
+	 * 		A persistence
+	 * @return
+	 * 		A batch persistence using the given persistence
+	 */
+	public static GearmanBatchPersistence valueOf(final GearmanPersistence persistence) {
+		if(persistence instanceof GearmanBatchPersistence)
+			return (GearmanBatchPersistence)persistence;
+		return new GearmanBatchPersistenceAdapter(persistence);
+	}
+	
+	/**
+	 * Returns the wrapped persistence
+	 * @return
+	 * 		The wrapped persistence
+	 */
+	public GearmanPersistence getPersistence() {
+		return this.persistence;
+	}
+	
+	/**
+	 * {@inheritDoc}<br>
+	 * <br>
+	 * Items are written in order. If a write fails, the items already written are deleted
+	 * before the exception is thrown. A failed delete is added to the exception as a
+	 * suppressed exception, and its item is left written.
+	 */
+	@Override
+	public void writeBatch(final Collection<GearmanPersistable> items) throws Exception {
+		final List<GearmanPersistable> written = new ArrayList<GearmanPersistable>(items.size());
+		try {
+			for(GearmanPersistable item : items) {
+				this.persistence.write(item);
+				written.add(item);
+			}
+		} catch (Exception e) {
+			// None of the items may be considered written
+			for(GearmanPersistable item : written) {
+				try {
+					this.persistence.delete(item);
+				} catch (Exception suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteBatch(final Collection<GearmanPersistable> items) throws Exception {
+		for(GearmanPersistable item : items) {
+			this.persistence.delete(item);
+		}
+	}
+
+	@Override
+	public void write(final GearmanPersistable item) throws Exception {
+		this.persistence.write(item);
+	}
+
+	@Override
+	public void delete(final GearmanPersistable item) throws Exception {
+		this.persistence.delete(item);
+	}
+
+	@Override
+	public void deleteAll() throws Exception {
+		this.persistence.deleteAll();
+	}
+
+	@Override
+	public Collection<GearmanPersistable> readAll() throws Exception {
+		return this.persistence.readAll();
+	}
+}
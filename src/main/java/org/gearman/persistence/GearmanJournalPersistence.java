@@ -0,0 +1,931 @@
+/*
+ * Copyright (c) 2012, Isaiah van der Elst (isaiah.v@comcast.net)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *   
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *   
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.gearman.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.gearman.GearmanBatchPersistence;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanRecoveryHandler;
+import org.gearman.GearmanStreamingPersistence;
+import org.gearman.impl.util.GearmanThreadFactory;
+
+import static org.gearman.context.GearmanContext.LOGGER;
+
+/**
+ * A {@link org.gearman.GearmanPersistence GearmanPersistence} that appends every write and delete to a journal.<br>
+ * <br>
+ * Operations are group committed. Each write or delete appends a record to an in-memory
+ * batch and waits until the batch is durable. The first waiting thread writes the whole
+ * batch and forces it to disk, then wakes the rest, so all operations arriving while a
+ * force is in progress share the next one. A call returns only once its record is on
+ * disk, so a background job is durable before the server sends JOB_CREATED. A batch
+ * write or delete appends all of its records at once and waits for a single force.<br>
+ * <br>
+ * The journal is a set of numbered segment files, named after the given base file
+ * ("jobs.1", "jobs.2", ...), and at most one snapshot ("jobs.snapshot.2"). The journal
+ * keeps an in-memory index of where each live job's write record is. Once the current
+ * segment reaches the checkpoint size, a checkpoint is taken in the background: a new
+ * segment is started, the live records of all older files are copied to a new snapshot,
+ * and the older files are deleted. Writes and deletes continue while the snapshot is
+ * written. On restart, only the snapshot and the segments after it are read, so restart
+ * time depends on the number of live jobs rather than the length of the history.<br>
+ * <br>
+ * Each record is framed by its length and a CRC32 of its content. On open, anything
+ * after the last intact record of the last segment, like a write torn by a crash, is
+ * truncated. A snapshot is written under a temporary name and renamed once complete, so
+ * a crash during a checkpoint leaves the previous files in place. If a write to the
+ * journal fails, the journal is closed and every later operation fails, since the end of
+ * the segment is in an unknown state.<br>
+ * <br>
+ * Record format, all integers big-endian:
+ * <pre>
+ * int    body length
+ * int    CRC32 of the body
+ * byte   type (1 = write, 2 = delete)
+ * short  job handle length, job handle
+ * write records only:
+ * short  function name length, function name (UTF-8)
+ * short  unique id length, unique id
+ * byte   priority
+ * long   epoch time
+ * int    data length, data
+ * </pre>
+ * 
+ * @author isaiah
+ */
+public class GearmanJournalPersistence implements GearmanStreamingPersistence, GearmanBatchPersistence, Closeable {
+	
+	/** The default size, in bytes, a segment may reach before a checkpoint is taken */
+	public static final long DEFAULT_CHECKPOINT_SIZE = 64L*1024L*1024L;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final byte TYPE_WRITE = 1;
+	private static final byte TYPE_DELETE = 2;
+	
+	/** The size of a record's length and CRC fields */
+	private static final int FRAME_SIZE = 8;
+	
+	private static final String SNAPSHOT = "snapshot.";
+	private static final String TEMPORARY = ".tmp";
+	
+	/** Creates the threads background checkpoints are taken on */
+	private static final GearmanThreadFactory CHECKPOINT_THREADS = new GearmanThreadFactory();
+	
+	private final File file;
+	private final long checkpointSize;
+	
+	/** Guards the batch, commit state and index */
+	private final Object lock = new Object();
+	/** Held while a checkpoint is taken. Acquired before the lock */
+	private final Object checkpointLock = new Object();
+	
+	/** The location of each live job's write record, in the order they were written */
+	private final Map<ByteBuffer, Location> index = new LinkedHashMap<ByteBuffer, Location>();
+	/** The latest snapshot, or null if no checkpoint has been taken */
+	private Segment snapshot;
+	/** Full segments not yet covered by a snapshot, oldest first */
+	private final List<Segment> sealed = new ArrayList<Segment>();
+	/** The segment new records are appended to */
+	private Segment active;
+	/** The size of the active segment, including records still in the batch */
+	private long end;
+	
+	/** Records appended but not yet written to the active segment */
+	private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	/** The sequence number of the last appended record */
+	private long appended = 0;
+	/** The sequence number of the last record forced to disk */
+	private long durable = 0;
+	/** Set while a thread is writing and forcing a batch */
+	private boolean isCommitting = false;
+	/** Set while a background checkpoint is running */
+	private boolean isCheckpointing = false;
+	/** Set if a write failed or the journal was closed. All later operations fail */
+	private IOException failure;
+	
+	/**
+	 * Opens the journal with the given base file, creating it if it doesn't exist. A
+	 * checkpoint is taken each time a segment reaches {@link #DEFAULT_CHECKPOINT_SIZE}
+	 * @param file
+	 * 		The journal's base file. Segment and snapshot files are created next to it
+	 * @throws IOException
+	 * 		If the journal can't be opened
+	 */
+	public GearmanJournalPersistence(final File file) throws IOException {
+		this(file, DEFAULT_CHECKPOINT_SIZE);
+	}
+	
+	/**
+	 * Opens the journal with the given base file, creating it if it doesn't exist
+	 * @param file
+	 * 		The journal's base file. Segment and snapshot files are created next to it
+	 * @param checkpointSize
+	 * 		The size, in bytes, a segment may reach before a checkpoint is taken. 0 disables
+	 * 		automatic checkpoints
+	 * @throws IOException
+	 * 		If the journal can't be opened
+	 */
+	public GearmanJournalPersistence(final File file, final long checkpointSize) throws IOException {
+		this.file = file.getAbsoluteFile();
+		this.checkpointSize = checkpointSize;
+		
+		final File dir = this.file.getParentFile();
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("failed to create directory: " + dir);
+		
+		final String prefix = this.file.getName() + '.';
+		final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+		final TreeMap<Long, File> snapshots = new TreeMap<Long, File>();
+		
+		final File[] files = dir.listFiles();
+		if(files==null) throw new IOException("failed to list directory: " + dir);
+		for(File f : files) {
+			final String name = f.getName();
+			if(!name.startsWith(prefix)) continue;
+			
+			final String suffix = name.substring(prefix.length());
+			try {
+				if(suffix.endsWith(TEMPORARY)) {
+					// An unfinished snapshot
+					f.delete();
+				} else if(suffix.startsWith(SNAPSHOT)) {
+					snapshots.put(Long.parseLong(suffix.substring(SNAPSHOT.length())), f);
+				} else {
+					segments.put(Long.parseLong(suffix), f);
+				}
+			} catch (NumberFormatException e) {
+				// Not a journal file
+			}
+		}
+		
+		// Only the latest snapshot and the segments after it are needed
+		long last = 0;
+		if(!snapshots.isEmpty()) {
+			last = snapshots.lastKey();
+			for(File f : snapshots.headMap(last).values()) f.delete();
+			for(File f : segments.headMap(last, true).values()) f.delete();
+			
+			this.snapshot = new Segment(snapshots.get(last), last);
+			GearmanJournalPersistence.scan(this.snapshot.file, this.snapshot.channel.size(), new Indexer(this.snapshot));
+		}
+		
+		for(Map.Entry<Long, File> entry : segments.tailMap(last, false).entrySet()) {
+			final Segment segment = new Segment(entry.getValue(), entry.getKey());
+			final long valid = GearmanJournalPersistence.scan(segment.file, segment.channel.size(), new Indexer(segment));
+			
+			if(this.active!=null) this.sealed.add(this.active);
+			this.active = segment;
+			this.end = valid;
+		}
+		
+		if(this.active==null) {
+			this.active = this.createSegment(last+1);
+			this.end = 0;
+		} else if(this.end<this.active.channel.size()) {
+			// Drop anything after the last intact record so new records aren't appended after garbage
+			this.active.channel.truncate(this.end);
+			this.active.channel.force(true);
+		}
+		this.active.channel.position(this.end);
+	}
+	
+	/**
+	 * Returns the journal's base file
+	 * @return
+	 * 		The journal's base file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+	
+	@Override
+	public void write(final GearmanPersistable item) throws Exception {
+		final byte[] jobHandle = item.getJobHandle();
+		this.commit(this.append(new byte[][]{GearmanJournalPersistence.encodeWrite(jobHandle, item)}, new byte[][]{jobHandle}, true));
+	}
+
+	@Override
+	public void delete(final GearmanPersistable item) throws Exception {
+		final byte[] jobHandle = item.getJobHandle();
+		this.commit(this.append(new byte[][]{GearmanJournalPersistence.encodeDelete(jobHandle)}, new byte[][]{jobHandle}, false));
+	}
+	
+	/**
+	 * {@inheritDoc}<br>
+	 * <br>
+	 * The records are appended together and made durable with a single sync. Every item is
+	 * encoded first, so an item that can't be stored, such as one whose function name or
+	 * unique ID is longer than 65535 bytes, fails the batch before anything is appended.
+	 */
+	@Override
+	public void writeBatch(final Collection<GearmanPersistable> items) throws Exception {
+		if(items.isEmpty()) return;
+		
+		final byte[][] records = new byte[items.size()][];
+		final byte[][] jobHandles = new byte[items.size()][];
+		
+		int i = 0;
+		for(GearmanPersistable item : items) {
+			jobHandles[i] = item.getJobHandle();
+			records[i] = GearmanJournalPersistence.encodeWrite(jobHandles[i], item);
+			i++;
+		}
+		
+		this.commit(this.append(records, jobHandles, true));
+	}
+	
+	/**
+	 * {@inheritDoc}<br>
+	 * <br>
+	 * The records are appended together and made durable with a single sync.
+	 */
+	@Override
+	public void deleteBatch(final Collection<GearmanPersistable> items) throws Exception {
+		if(items.isEmpty()) return;
+		
+		final byte[][] records = new byte[items.size()][];
+		final byte[][] jobHandles = new byte[items.size()][];
+		
+		int i = 0;
+		for(GearmanPersistable item : items) {
+			jobHandles[i] = item.getJobHandle();
+			records[i] = GearmanJournalPersistence.encodeDelete(jobHandles[i]);
+			i++;
+		}
+		
+		this.commit(this.append(records, jobHandles, false));
+	}
+
+	@Override
+	public void deleteAll() throws Exception {
+		synchronized(this.checkpointLock) {
+			synchronized(this.lock) {
+				this.awaitIdle();
+				if(this.failure!=null) throw new IOException("journal unavailable", this.failure);
+				
+				// Records still in the batch are discarded and reported as durable, since they're deleted anyway
+				this.batch.reset();
+				this.durable = this.appended;
+				this.index.clear();
+				
+				if(this.snapshot!=null) this.snapshot.delete();
+				this.snapshot = null;
+				for(Segment segment : this.sealed) segment.delete();
+				this.sealed.clear();
+				
+				this.active.channel.truncate(0);
+				this.active.channel.force(true);
+				this.end = 0;
+				
+				this.lock.notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public Collection<GearmanPersistable> readAll() throws Exception {
+		final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>();
+		this.readAll(new GearmanRecoveryHandler() {
+			@Override
+			public void onRecover(GearmanPersistable item) {
+				items.add(item);
+			}
+		});
+		return items;
+	}
+	
+	/**
+	 * {@inheritDoc}<br>
+	 * <br>
+	 * The snapshot and segments are read in order, and the write records the index
+	 * marks as live are passed on as they're reached, in the order they were written.
+	 */
+	@Override
+	public void readAll(final GearmanRecoveryHandler handler) throws Exception {
+		synchronized(this.checkpointLock) {
+			synchronized(this.lock) {
+				this.awaitIdle();
+				if(this.index.isEmpty()) return;
+				
+				final List<Segment> segments = new ArrayList<Segment>(this.sealed.size()+2);
+				if(this.snapshot!=null) segments.add(this.snapshot);
+				segments.addAll(this.sealed);
+				segments.add(this.active);
+				
+				for(final Segment segment : segments) {
+					GearmanJournalPersistence.scan(segment.file, segment.channel.size(), new RecordVisitor() {
+						@Override
+						public void visit(long position, ByteBuffer body) {
+							if(body.get()!=TYPE_WRITE) return;
+							final byte[] jobHandle = readShortArray(body);
+							
+							final Location location = GearmanJournalPersistence.this.index.get(ByteBuffer.wrap(jobHandle));
+							if(location==null || location.segment!=segment || location.position!=position) return;
+							
+							handler.onRecover(readWrite(jobHandle, body));
+						}
+					});
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Takes a checkpoint. A new segment is started, the live records of every older
+	 * segment and the previous snapshot are copied to a new snapshot, and the older files
+	 * are deleted. Writes and deletes may continue while the snapshot is written.<br>
+	 * <br>
+	 * Checkpoints are taken automatically once a segment reaches the checkpoint size.
+	 * @throws IOException
+	 * 		If the snapshot can't be written. The older files are kept and tracked as
+	 * 		before, and the next checkpoint covers them again. Records written since have
+	 * 		gone to a new segment
+	 */
+	public void checkpoint() throws IOException {
+		synchronized(this.checkpointLock) {
+			final Segment previous;
+			final List<Segment> covered;
+			final ByteBuffer[] jobHandles;
+			final Location[] locations;
+			
+			synchronized(this.lock) {
+				this.awaitIdle();
+				if(this.failure!=null) throw new IOException("journal unavailable", this.failure);
+				if(this.end==0 && this.sealed.isEmpty()) return;
+				
+				// Records still in the batch belong to the active segment, so write them before it's sealed
+				this.flushBatch();
+				
+				covered = new ArrayList<Segment>(this.sealed);
+				covered.add(this.active);
+				this.sealed.clear();
+				
+				this.active = this.createSegment(this.active.number+1);
+				this.end = 0;
+				
+				previous = this.snapshot;
+				
+				// The live records at this point are all in the covered files
+				jobHandles = this.index.keySet().toArray(new ByteBuffer[this.index.size()]);
+				locations = this.index.values().toArray(new Location[this.index.size()]);
+			}
+			
+			final long number = covered.get(covered.size()-1).number;
+			final File target = this.getSnapshotFile(number);
+			final File temporary = new File(target.getPath() + TEMPORARY);
+			
+			final long[] positions = new long[locations.length];
+			boolean isMoved = false;
+			boolean isWritten = false;
+			try {
+				try (RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+					final FileChannel channel = out.getChannel();
+					channel.truncate(0);
+					
+					long position = 0;
+					for(int i=0; i<locations.length; i++) {
+						final ByteBuffer record = locations[i].read();
+						positions[i] = position;
+						position += record.remaining();
+						
+						while(record.hasRemaining()) {
+							channel.write(record);
+						}
+					}
+					channel.force(true);
+				}
+				Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				isMoved = true;
+				
+				// The rename is only durable once the directory is
+				this.syncDirectory();
+				isWritten = true;
+			} finally {
+				if(!isWritten) {
+					(isMoved? target: temporary).delete();
+					
+					// The covered files still hold the live records. Track them again, ahead of newer segments
+					synchronized(this.lock) {
+						this.sealed.addAll(0, covered);
+					}
+				}
+			}
+			
+			final Segment next = new Segment(target, number);
+			synchronized(this.lock) {
+				for(int i=0; i<jobHandles.length; i++) {
+					// Jobs deleted since the copy stay deleted
+					if(this.index.get(jobHandles[i])==locations[i])
+						this.index.put(jobHandles[i], new Location(next, positions[i]));
+				}
+				this.snapshot = next;
+			}
+			
+			if(previous!=null) previous.delete();
+			for(Segment segment : covered) segment.delete();
+		}
+	}
+	
+	/**
+	 * Closes the journal. Records not yet committed are discarded, and any thread waiting
+	 * for them fails
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this.checkpointLock) {
+			synchronized(this.lock) {
+				if(this.failure==null)
+					this.failure = new IOException("journal closed");
+				this.awaitIdle();
+				this.lock.notifyAll();
+				
+				if(this.snapshot!=null) this.snapshot.channel.close();
+				for(Segment segment : this.sealed) segment.channel.close();
+				this.active.channel.close();
+			}
+		}
+	}
+	
+	private final File getSegmentFile(final long number) {
+		return new File(this.file.getPath() + '.' + number);
+	}
+	
+	private final File getSnapshotFile(final long number) {
+		return new File(this.file.getPath() + '.' + SNAPSHOT + number);
+	}
+	
+	private final Segment createSegment(final long number) throws IOException {
+		final Segment segment = new Segment(this.getSegmentFile(number), number);
+		segment.channel.truncate(0);
+		
+		// Records synced to the segment are lost in a crash if the segment's directory entry is
+		this.syncDirectory();
+		return segment;
+	}
+	
+	/**
+	 * Forces the journal's directory, so the files created and renamed in it survive a
+	 * crash. Skipped on platforms that can't open a directory, such as Windows
+	 */
+	private final void syncDirectory() throws IOException {
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(this.file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Appends records to the current batch and updates the index
+	 * @return
+	 * 		The last record's sequence number
+	 */
+	private final long append(final byte[][] records, final byte[][] jobHandles, final boolean isWrite) throws IOException {
+		synchronized(this.lock) {
+			if(this.failure!=null) throw new IOException("journal unavailable", this.failure);
+			
+			for(int i=0; i<records.length; i++) {
+				final ByteBuffer key = ByteBuffer.wrap(jobHandles[i]);
+				if(isWrite) {
+					// Removed first, so the index stays in the order the live records were written
+					this.index.remove(key);
+					this.index.put(key, new Location(this.active, this.end));
+				} else {
+					this.index.remove(key);
+				}
+				
+				this.end += records[i].length;
+				this.batch.write(records[i]);
+			}
+			
+			this.appended += records.length;
+			return this.appended;
+		}
+	}
+	
+	/**
+	 * Waits until the given record is durable. If no other thread is committing, this thread
+	 * writes and forces the current batch, including the records of every thread waiting
+	 */
+	private final void commit(final long sequence) throws IOException {
+		while(true) {
+			final ByteArrayOutputStream batch;
+			final long target;
+			final Segment segment;
+			
+			synchronized(this.lock) {
+				while(true) {
+					if(this.durable>=sequence) return;
+					if(this.failure!=null) throw new IOException("journal unavailable", this.failure);
+					if(!this.isCommitting) break;
+					this.awaitUninterruptibly();
+				}
+				
+				// Become the committing thread and take the current batch
+				this.isCommitting = true;
+				batch = this.batch;
+				target = this.appended;
+				segment = this.active;
+				this.batch = new ByteArrayOutputStream(Math.max(32, batch.size()));
+			}
+			
+			IOException failure = null;
+			try {
+				write(segment, batch);
+			} catch (IOException e) {
+				failure = e;
+			}
+			
+			boolean isCheckpointDue = false;
+			synchronized(this.lock) {
+				this.isCommitting = false;
+				if(failure==null) {
+					this.durable = target;
+				} else if(this.failure==null) {
+					this.failure = failure;
+				}
+				this.lock.notifyAll();
+				
+				if(this.checkpointSize>0 && this.end>=this.checkpointSize && !this.isCheckpointing && this.failure==null) {
+					this.isCheckpointing = true;
+					isCheckpointDue = true;
+				}
+			}
+			
+			if(isCheckpointDue) this.startCheckpoint();
+		}
+	}
+	
+	/**
+	 * Writes and forces the current batch from the calling thread. Called while holding
+	 * the lock, when no other thread is committing
+	 */
+	private final void flushBatch() throws IOException {
+		if(this.batch.size()==0) return;
+		
+		try {
+			write(this.active, this.batch);
+		} catch (IOException e) {
+			this.failure = e;
+			this.lock.notifyAll();
+			throw e;
+		}
+		
+		this.batch = new ByteArrayOutputStream();
+		this.durable = this.appended;
+		this.lock.notifyAll();
+	}
+	
+	private static final void write(final Segment segment, final ByteArrayOutputStream batch) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+		while(buffer.hasRemaining()) {
+			segment.channel.write(buffer);
+		}
+		segment.channel.force(false);
+	}
+	
+	/** Takes a checkpoint on a background thread */
+	private final void startCheckpoint() {
+		final Thread thread = CHECKPOINT_THREADS.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					GearmanJournalPersistence.this.checkpoint();
+				} catch (IOException e) {
+					LOGGER.warn("journal checkpoint failed: " + GearmanJournalPersistence.this.file, e);
+				} finally {
+					synchronized(GearmanJournalPersistence.this.lock) {
+						GearmanJournalPersistence.this.isCheckpointing = false;
+					}
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/** Waits until no batch is being committed. Called while holding the lock */
+	private final void awaitIdle() {
+		while(this.isCommitting) {
+			this.awaitUninterruptibly();
+		}
+	}
+	
+	/** Waits on the lock, deferring interrupts until the wait ends. Called while holding the lock */
+	private final void awaitUninterruptibly() {
+		try {
+			this.lock.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static final byte[] encodeWrite(final byte[] jobHandle, final GearmanPersistable item) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		
+		final byte[] data = item.getData();
+		
+		out.writeByte(TYPE_WRITE);
+		writeShortArray(out, jobHandle);
+		writeShortArray(out, item.getFunctionName().getBytes(UTF8));
+		writeShortArray(out, item.getUniqueID());
+		out.writeByte(item.getPriority().ordinal());
+		out.writeLong(item.epochTime());
+		out.writeInt(data.length);
+		out.write(data);
+		
+		return frame(bytes.toByteArray());
+	}
+	
+	private static final byte[] encodeDelete(final byte[] jobHandle) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeByte(TYPE_DELETE);
+		writeShortArray(out, jobHandle);
+		
+		return frame(bytes.toByteArray());
+	}
+	
+	private static final void writeShortArray(final DataOutputStream out, final byte[] value) throws IOException {
+		if(value.length>0xFFFF) throw new IllegalArgumentException("value too long: " + value.length + " bytes");
+		out.writeShort(value.length);
+		out.write(value);
+	}
+	
+	private static final byte[] frame(final byte[] body) {
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+		
+		final ByteBuffer record = ByteBuffer.allocate(FRAME_SIZE+body.length);
+		record.putInt(body.length);
+		record.putInt((int)crc.getValue());
+		record.put(body);
+		return record.array();
+	}
+	
+	/** Receives each intact record while a file is scanned */
+	private static interface RecordVisitor {
+		/**
+		 * @param position
+		 * 		The record's position in the file
+		 * @param body
+		 * 		The record's content, without the length and CRC
+		 * @throws RuntimeException
+		 * 		If the record is malformed. The scan stops at this record
+		 */
+		public void visit(long position, ByteBuffer body);
+	}
+	
+	/**
+	 * Reads a segment or snapshot file from the start
+	 * @param file
+	 * 		The file to read
+	 * @param size
+	 * 		The number of bytes to read
+	 * @param visitor
+	 * 		Receives each intact record
+	 * @return
+	 * 		The position just after the last intact record
+	 */
+	private static final long scan(final File file, final long size, final RecordVisitor visitor) throws IOException {
+		final CRC32 crc = new CRC32();
+		
+		long position = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while(position+FRAME_SIZE<=size) {
+				final int length = in.readInt();
+				final int checksum = in.readInt();
+				if(length<=0 || position+FRAME_SIZE+length>size) break;
+				
+				final byte[] body = new byte[length];
+				in.readFully(body);
+				
+				crc.reset();
+				crc.update(body);
+				if((int)crc.getValue()!=checksum) break;
+				
+				try {
+					visitor.visit(position, ByteBuffer.wrap(body));
+				} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+					// Malformed record
+					break;
+				}
+				position += FRAME_SIZE+length;
+			}
+		} catch (EOFException e) {
+			// Torn record at the end of the file
+		}
+		
+		return position;
+	}
+	
+	/** Builds the index while the journal is opened */
+	private final class Indexer implements RecordVisitor {
+		private final Segment segment;
+		
+		private Indexer(final Segment segment) {
+			this.segment = segment;
+		}
+		
+		@Override
+		public void visit(long position, ByteBuffer body) {
+			final byte type = body.get();
+			final ByteBuffer jobHandle = ByteBuffer.wrap(readShortArray(body));
+			
+			if(type==TYPE_WRITE) {
+				GearmanJournalPersistence.this.index.remove(jobHandle);
+				GearmanJournalPersistence.this.index.put(jobHandle, new Location(this.segment, position));
+			} else {
+				GearmanJournalPersistence.this.index.remove(jobHandle);
+			}
+		}
+	}
+	
+	/** A segment or snapshot file */
+	private static final class Segment {
+		private final File file;
+		private final long number;
+		private final FileChannel channel;
+		
+		private Segment(final File file, final long number) throws IOException {
+			this.file = file;
+			this.number = number;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+		}
+		
+		/** Closes and deletes the file */
+		private final void delete() {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// Deleted anyway
+			}
+			if(!this.file.delete())
+				LOGGER.warn("failed to delete journal file: " + this.file);
+		}
+	}
+	
+	/** The location of a write record */
+	private static final class Location {
+		private final Segment segment;
+		private final long position;
+		
+		private Location(final Segment segment, final long position) {
+			this.segment = segment;
+			this.position = position;
+		}
+		
+		/**
+		 * Reads the whole record, including its length and CRC
+		 */
+		private final ByteBuffer read() throws IOException {
+			final ByteBuffer length = ByteBuffer.allocate(4);
+			readFully(length, this.position);
+			
+			final ByteBuffer record = ByteBuffer.allocate(FRAME_SIZE + length.getInt(0));
+			readFully(record, this.position);
+			record.flip();
+			return record;
+		}
+		
+		private final void readFully(final ByteBuffer buffer, final long position) throws IOException {
+			long offset = position;
+			while(buffer.hasRemaining()) {
+				final int read = this.segment.channel.read(buffer, offset);
+				if(read<0) throw new EOFException("journal record truncated: " + this.segment.file);
+				offset += read;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the rest of a write record, after its job handle
+	 */
+	private static final GearmanPersistable readWrite(final byte[] jobHandle, final ByteBuffer in) {
+		final String functionName = new String(readShortArray(in), UTF8);
+		final byte[] uniqueID = readShortArray(in);
+		final GearmanJobPriority priority = GearmanJobPriority.values()[in.get()];
+		final long epoch = in.getLong();
+		final byte[] data = new byte[in.getInt()];
+		in.get(data);
+		
+		return new Item(functionName, data, jobHandle, uniqueID, epoch, priority);
+	}
+	
+	private static final byte[] readShortArray(final ByteBuffer in) {
+		final byte[] value = new byte[in.getShort() & 0xFFFF];
+		in.get(value);
+		return value;
+	}
+	
+	/**
+	 * A background job read back from the journal
+	 */
+	private static final class Item implements GearmanPersistable {
+		private final String functionName;
+		private final byte[] data;
+		private final byte[] jobHandle;
+		private final byte[] uniqueID;
+		private final long epoch;
+		private final GearmanJobPriority priority;
+		
+		private Item(String functionName, byte[] data, byte[] jobHandle, byte[] uniqueID, long epoch, GearmanJobPriority priority) {
+			this.functionName = functionName;
+			this.data = data;
+			this.jobHandle = jobHandle;
+			this.uniqueID = uniqueID;
+			this.epoch = epoch;
+			this.priority = priority;
+		}
+		
+		@Override
+		public String getFunctionName() {
+			return functionName;
+		}
+
+		@Override
+		public byte[] getData() {
+			return data;
+		}
+
+		@Override
+		public byte[] getJobHandle() {
+			return jobHandle;
+		}
+
+		@Override
+		public byte[] getUniqueID() {
+			return uniqueID;
+		}
+
+		@Override
+		public long epochTime() {
+			return epoch;
+		}
+
+		@Override
+		public GearmanJobPriority getPriority() {
+			return priority;
+		}
+	}
+}
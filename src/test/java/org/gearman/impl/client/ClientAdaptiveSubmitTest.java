@@ -0,0 +1,101 @@
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gearman.Gearman;
+import org.gearman.GearmanClient;
+import org.gearman.GearmanFunction;
+import org.gearman.GearmanFunctionCallback;
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobReturn;
+import org.gearman.GearmanServer;
+import org.gearman.GearmanWorker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a function whose submission window is full doesn't hold back the jobs of
+ * other functions on the same connection
+ *
+ * @author isaiah
+ */
+public class ClientAdaptiveSubmitTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The initial limit of a function's submission window */
+	private static final int WINDOW = 100;
+
+	private Gearman gearman;
+	private GearmanServer server;
+	private GearmanClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.gearman = Gearman.createGearman();
+		this.server = this.gearman.startGearmanServer();
+		this.client = this.gearman.createGearmanClient();
+		this.client.setAdaptiveSubmission(true);
+		this.client.addServer(this.server);
+
+		final GearmanWorker worker = this.gearman.createGearmanWorker();
+		worker.addFunction("echo", new GearmanFunction() {
+			@Override
+			public byte[] work(String function, byte[] data, GearmanFunctionCallback callback) {
+				return data;
+			}
+		});
+		worker.addServer(this.server);
+	}
+
+	@After
+	public void tearDown() {
+		this.gearman.shutdown();
+	}
+
+	@Test
+	public void testOff() {
+		assertFalse(this.gearman.createGearmanClient().isAdaptiveSubmission());
+	}
+
+	@Test
+	public void testFullWindowSkipped() throws Exception {
+		// No worker runs "idle", so its jobs fill its window and the rest wait
+		final List<GearmanJobReturn> idle = new ArrayList<GearmanJobReturn>();
+		for(int i=0; i<2*WINDOW; i++) {
+			idle.add(this.client.submitJob("idle", ("idle:" + i).getBytes(UTF8)));
+		}
+
+		// The jobs of another function are still sent
+		final long start = System.nanoTime();
+		for(int i=0; i<10; i++) {
+			final GearmanJobReturn jobReturn = this.client.submitJob("echo", ("echo:" + i).getBytes(UTF8));
+
+			GearmanJobEvent last = null;
+			while(!jobReturn.isEOF()) {
+				last = jobReturn.poll(10, TimeUnit.SECONDS);
+				assertNotNull(last);
+			}
+			assertEquals(GearmanJobEventType.GEARMAN_JOB_SUCCESS, last.getEventType());
+			assertEquals("echo:" + i, new String(last.getData(), UTF8));
+		}
+		assertTrue(System.nanoTime()-start<TimeUnit.SECONDS.toNanos(5));
+
+		// The jobs past the window are still waiting in the client's queue
+		int waiting = 0;
+		for(GearmanJobReturn jobReturn : idle) {
+			if(jobReturn.pollNow()==null) waiting++;
+		}
+		assertEquals(WINDOW, waiting);
+	}
+}
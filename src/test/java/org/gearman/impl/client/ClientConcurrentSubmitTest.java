@@ -0,0 +1,177 @@
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.gearman.Gearman;
+import org.gearman.GearmanClient;
+import org.gearman.GearmanFunction;
+import org.gearman.GearmanFunctionCallback;
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobFuture;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanJobReturn;
+import org.gearman.GearmanServer;
+import org.gearman.GearmanWorker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Submits jobs from many threads through one client, the path that no longer takes the
+ * connection pool's lock. Checks every job is accepted and completed, and that each
+ * thread's jobs reach the server in the order they were submitted
+ *
+ * @author isaiah
+ */
+public class ClientConcurrentSubmitTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int THREADS = 8;
+	private static final int BACKGROUND_JOBS = 500;
+	private static final int JOBS = 200;
+
+	private Gearman gearman;
+	private GearmanServer server;
+	private GearmanClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.gearman = Gearman.createGearman();
+		this.server = this.gearman.startGearmanServer();
+		this.client = this.gearman.createGearmanClient();
+		this.client.addServer(this.server);
+	}
+
+	@After
+	public void tearDown() {
+		this.gearman.shutdown();
+	}
+
+	@Test
+	public void testBackgroundSubmits() throws Exception {
+		// One worker thread runs the jobs in the order the server queued them
+		final List<String> order = new CopyOnWriteArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(THREADS*BACKGROUND_JOBS);
+		final GearmanWorker worker = this.gearman.createGearmanWorker();
+		worker.setMaximumConcurrency(1);
+		worker.addFunction("record", new GearmanFunction() {
+			@Override
+			public byte[] work(String function, byte[] data, GearmanFunctionCallback callback) {
+				order.add(new String(data, UTF8));
+				done.countDown();
+				return null;
+			}
+		});
+
+		run(new Task() {
+			@Override
+			public void run(final int thread) throws Exception {
+				final List<GearmanJobFuture> futures = new ArrayList<GearmanJobFuture>(BACKGROUND_JOBS);
+				for(int i=0; i<BACKGROUND_JOBS; i++) {
+					final byte[] data = (thread + ":" + i).getBytes(UTF8);
+					futures.add(client.submitBackgroundJobAsync("record", data, GearmanJobPriority.NORMAL_PRIORITY));
+				}
+				for(GearmanJobFuture future : futures) {
+					final GearmanJobEvent event = future.get(30, TimeUnit.SECONDS);
+					assertEquals(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS, event.getEventType());
+				}
+			}
+		});
+
+		worker.addServer(this.server);
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		assertEquals(THREADS*BACKGROUND_JOBS, order.size());
+
+		// Every job ran once, and each thread's jobs ran in submission order
+		final Map<Integer, Integer> next = new ConcurrentHashMap<Integer, Integer>();
+		for(String job : order) {
+			final int split = job.indexOf(':');
+			final Integer thread = Integer.valueOf(job.substring(0, split));
+			final int expected = next.containsKey(thread)? next.get(thread): 0;
+			assertEquals(job, expected, Integer.parseInt(job.substring(split+1)));
+			next.put(thread, expected+1);
+		}
+		assertEquals(THREADS, next.size());
+	}
+
+	@Test
+	public void testForegroundJobs() throws Exception {
+		final GearmanWorker worker = this.gearman.createGearmanWorker();
+		worker.setMaximumConcurrency(THREADS);
+		worker.addFunction("echo", new GearmanFunction() {
+			@Override
+			public byte[] work(String function, byte[] data, GearmanFunctionCallback callback) {
+				return data;
+			}
+		});
+		worker.addServer(this.server);
+
+		run(new Task() {
+			@Override
+			public void run(final int thread) throws Exception {
+				for(int i=0; i<JOBS; i++) {
+					final byte[] data = (thread + ":" + i).getBytes(UTF8);
+					final GearmanJobReturn jobReturn = client.submitJob("echo", data);
+
+					// Each job gets its own result
+					byte[] result = null;
+					while(!jobReturn.isEOF()) {
+						final GearmanJobEvent event = jobReturn.poll();
+						if(event.getEventType()==GearmanJobEventType.GEARMAN_JOB_SUCCESS) result = event.getData();
+					}
+					assertNotNull(result);
+					assertArrayEquals(data, result);
+				}
+			}
+		});
+	}
+
+	/** The work of one submitting thread */
+	private static interface Task {
+		public void run(int thread) throws Exception;
+	}
+
+	/**
+	 * Runs the task on each of {@link #THREADS} threads, and waits for them all
+	 */
+	private static void run(final Task task) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int t=0; t<THREADS; t++) {
+				final int thread = t;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						task.run(thread);
+						return null;
+					}
+				});
+			}
+
+			for(Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gearman.Gearman;
+import org.gearman.GearmanClient;
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobOptions;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanJobReturn;
+import org.gearman.GearmanServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that jobs whose deadlines pass give up their places on the connection, so they
+ * don't hold back the jobs submitted after them
+ *
+ * @author isaiah
+ */
+public class ClientDeadlineTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The initial limit of a function's submission window */
+	private static final int WINDOW = 100;
+
+	private Gearman gearman;
+	private GearmanServer server;
+	private GearmanClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.gearman = Gearman.createGearman();
+		this.server = this.gearman.startGearmanServer();
+		this.client = this.gearman.createGearmanClient();
+		this.client.setAdaptiveSubmission(true);
+		this.client.addServer(this.server);
+	}
+
+	@After
+	public void tearDown() {
+		this.gearman.shutdown();
+	}
+
+	@Test
+	public void testExpiredJobsReleaseWindow() throws Exception {
+		// No worker runs "idle", so its jobs stay queued on the server past their deadlines
+		final GearmanJobOptions options = new GearmanJobOptions().setDeadline(100, TimeUnit.MILLISECONDS);
+
+		final List<GearmanJobReturn> returns = new ArrayList<GearmanJobReturn>();
+		for(int i=0; i<2*WINDOW; i++) {
+			returns.add(this.client.submitJob("idle", ("job:" + i).getBytes(UTF8), options));
+		}
+
+		for(GearmanJobReturn jobReturn : returns) {
+			GearmanJobEvent last = null;
+			while(!jobReturn.isEOF()) {
+				last = jobReturn.poll(10, TimeUnit.SECONDS);
+				assertNotNull(last);
+			}
+			assertEquals(GearmanJobEventType.GEARMAN_JOB_FAIL, last.getEventType());
+			assertEquals("Deadline Exceeded", new String(last.getData(), UTF8));
+		}
+
+		// The expired jobs no longer fill the function's window
+		final GearmanJobEvent event = this.client.submitBackgroundJobAsync("idle", new byte[0], GearmanJobPriority.NORMAL_PRIORITY).get(10, TimeUnit.SECONDS);
+		assertEquals(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS, event.getEventType());
+	}
+}
@@ -0,0 +1,106 @@
+package org.gearman.impl.client;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.Gearman;
+import org.gearman.GearmanClient;
+import org.gearman.GearmanFunction;
+import org.gearman.GearmanFunctionCallback;
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobReturn;
+import org.gearman.GearmanServer;
+import org.gearman.GearmanWorker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a hedged job stuck on one server is completed by its copy on another
+ *
+ * @author isaiah
+ */
+public class ClientHedgeTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Enough jobs for each server's round trip percentile and the first copies' tokens */
+	private static final int WARMUP = 200;
+
+	private Gearman gearman;
+	private GearmanClient client;
+
+	/** Holds the first run of the "stuck" job */
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger stuckRuns = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		this.gearman = Gearman.createGearman();
+		final GearmanServer first = this.gearman.startGearmanServer(freePort());
+		final GearmanServer second = this.gearman.startGearmanServer(freePort());
+
+		final GearmanWorker worker = this.gearman.createGearmanWorker();
+		worker.setMaximumConcurrency(4);
+		worker.addFunction("hedged", new GearmanFunction() {
+			@Override
+			public byte[] work(String function, byte[] data, GearmanFunctionCallback callback) throws Exception {
+				if("stuck".equals(new String(data, UTF8)) && stuckRuns.getAndIncrement()==0)
+					release.await(10, TimeUnit.SECONDS);
+				return data;
+			}
+		});
+		worker.addServer(first);
+		worker.addServer(second);
+
+		this.client = this.gearman.createGearmanClient();
+		this.client.setHedged("hedged", true);
+		this.client.addServer(first);
+		this.client.addServer(second);
+	}
+
+	@After
+	public void tearDown() {
+		this.release.countDown();
+		this.gearman.shutdown();
+	}
+
+	@Test
+	public void testCopyWins() throws Exception {
+		for(int i=0; i<WARMUP; i++) {
+			assertEquals(GearmanJobEventType.GEARMAN_JOB_SUCCESS, last(this.client.submitJob("hedged", ("job:" + i).getBytes(UTF8))).getEventType());
+		}
+
+		// The copy is sent once the job outlasts the server's usual round trip
+		final long start = System.nanoTime();
+		final GearmanJobEvent last = last(this.client.submitJob("hedged", "stuck".getBytes(UTF8)));
+		assertEquals(GearmanJobEventType.GEARMAN_JOB_SUCCESS, last.getEventType());
+		assertEquals("stuck", new String(last.getData(), UTF8));
+		assertTrue(System.nanoTime()-start<TimeUnit.SECONDS.toNanos(5));
+		assertEquals(2, this.stuckRuns.get());
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static GearmanJobEvent last(final GearmanJobReturn jobReturn) throws InterruptedException {
+		GearmanJobEvent last = null;
+		while(!jobReturn.isEOF()) {
+			last = jobReturn.poll(10, TimeUnit.SECONDS);
+			assertNotNull(last);
+		}
+		return last;
+	}
+}
@@ -0,0 +1,280 @@
+package org.gearman.impl.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gearman.GearmanJobPriority;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the order in which pending submissions are polled
+ *
+ * @author isaiah
+ */
+public class ClientJobQueueTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testPriority() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission low = job("f", GearmanJobPriority.LOW_PRIORITY);
+		final ClientJobSubmission normal = job("f", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission high = job("f", GearmanJobPriority.HIGH_PRIORITY);
+
+		queue.add(low);
+		queue.add(normal);
+		queue.add(high);
+		assertEquals(3, queue.size());
+		assertEquals(GearmanJobPriority.HIGH_PRIORITY, queue.peekPriority());
+
+		assertSame(high, queue.poll());
+		assertSame(normal, queue.poll());
+		assertEquals(GearmanJobPriority.LOW_PRIORITY, queue.peekPriority());
+		assertSame(low, queue.poll());
+
+		assertNull(queue.poll());
+		assertNull(queue.peekPriority());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testSharedOrder() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission a1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b1 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+
+		queue.add(a1);
+		queue.add(a2);
+		queue.add(b1);
+
+		// Without per-function queues, jobs of one priority are polled in submission order
+		assertSame(a1, queue.poll());
+		assertSame(a2, queue.poll());
+		assertSame(b1, queue.poll());
+	}
+
+	@Test
+	public void testPerFunction() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		queue.setPerFunction(true);
+
+		final ClientJobSubmission a1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a3 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b1 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission c1 = job("c", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission high = job("a", GearmanJobPriority.HIGH_PRIORITY);
+
+		queue.add(a1);
+		queue.add(a2);
+		queue.add(a3);
+		queue.add(b1);
+		queue.add(c1);
+		queue.add(high);
+
+		// A burst for one function doesn't hold back the others, and priority still comes first
+		assertSame(high, queue.poll());
+		assertSame(a1, queue.poll());
+		assertSame(b1, queue.poll());
+		assertSame(c1, queue.poll());
+		assertSame(a2, queue.poll());
+		assertSame(a3, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testAddFirst() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission j1 = job("f", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission j2 = job("f", GearmanJobPriority.NORMAL_PRIORITY);
+
+		queue.add(j1);
+		queue.add(j2);
+
+		// A job that couldn't be sent goes back ahead of the jobs queued after it
+		assertSame(j1, queue.poll());
+		queue.addFirst(j1);
+		assertSame(j1, queue.poll());
+		assertSame(j2, queue.poll());
+	}
+
+	@Test
+	public void testAddFirstPerFunction() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		queue.setPerFunction(true);
+
+		final ClientJobSubmission a1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b1 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+
+		queue.add(a1);
+		queue.add(a2);
+		queue.add(b1);
+
+		assertSame(a1, queue.poll());
+		queue.addFirst(a1);
+
+		// The requeued job is ahead of its function's jobs, and the functions keep taking turns
+		assertSame(b1, queue.poll());
+		assertSame(a1, queue.poll());
+		assertSame(a2, queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testNewest() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission j1 = job("f", GearmanJobPriority.HIGH_PRIORITY);
+		final ClientJobSubmission j2 = job("f", GearmanJobPriority.LOW_PRIORITY);
+
+		assertNull(queue.peekNewest());
+		queue.add(j1);
+		queue.add(j2);
+		assertSame(j2, queue.peekNewest());
+
+		// A requeued job keeps its place in the submission order
+		assertSame(j1, queue.poll());
+		queue.addFirst(j1);
+		assertSame(j2, queue.peekNewest());
+	}
+
+	@Test
+	public void testPollUpTo() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		queue.setPerFunction(true);
+
+		final ClientJobSubmission h1 = job("a", GearmanJobPriority.HIGH_PRIORITY);
+		final ClientJobSubmission l1 = job("b", GearmanJobPriority.LOW_PRIORITY);
+		final ClientJobSubmission n1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission h2 = job("b", GearmanJobPriority.HIGH_PRIORITY);
+		final ClientJobSubmission n2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission l2 = job("a", GearmanJobPriority.LOW_PRIORITY);
+
+		queue.add(h1);
+		queue.add(l1);
+		queue.add(n1);
+		queue.add(h2);
+		queue.add(n2);
+		queue.add(l2);
+
+		// Jobs across all priorities are removed in the order they were added
+		final List<ClientJobSubmission> polled = queue.pollUpTo(h2);
+		assertEquals(list(h1, l1, n1, h2), polled);
+
+		assertEquals(2, queue.size());
+		assertFalse(queue.contains(h1));
+		assertTrue(queue.contains(n2));
+		assertSame(n2, queue.poll());
+		assertSame(l2, queue.poll());
+	}
+
+	@Test
+	public void testRemove() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission j1 = job("f", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission j2 = job("f", GearmanJobPriority.NORMAL_PRIORITY);
+
+		queue.add(j1);
+		queue.add(j2);
+
+		assertTrue(queue.remove(j1));
+		assertFalse(queue.remove(j1));
+		assertEquals(1, queue.size());
+		assertSame(j2, queue.poll());
+	}
+
+	@Test
+	public void testClear() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		queue.setPerFunction(true);
+
+		queue.add(job("a", GearmanJobPriority.HIGH_PRIORITY));
+		queue.add(job("b", GearmanJobPriority.NORMAL_PRIORITY));
+		queue.add(job("a", GearmanJobPriority.LOW_PRIORITY));
+
+		assertEquals(3, queue.clear().size());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.size());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testFilterShared() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		final ClientJobSubmission a1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b1 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b2 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+
+		queue.add(a1);
+		queue.add(b1);
+		queue.add(a2);
+		queue.add(b2);
+
+		// The jobs of a turned away function keep their places
+		assertSame(b1, queue.poll(reject("a")));
+		assertSame(b2, queue.poll(reject("a")));
+		assertNull(queue.poll(reject("a")));
+		assertEquals(2, queue.size());
+
+		assertSame(a1, queue.poll(reject("b")));
+		assertSame(a2, queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testFilterPerFunction() {
+		final ClientJobQueue queue = new ClientJobQueue();
+		queue.setPerFunction(true);
+
+		final ClientJobSubmission a1 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission a2 = job("a", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission b1 = job("b", GearmanJobPriority.NORMAL_PRIORITY);
+		final ClientJobSubmission c1 = job("c", GearmanJobPriority.LOW_PRIORITY);
+
+		queue.add(a1);
+		queue.add(a2);
+		queue.add(b1);
+		queue.add(c1);
+
+		// Turned away sub-queues stay ready, and lower priorities are still polled
+		assertSame(b1, queue.poll(reject("a")));
+		assertSame(c1, queue.poll(reject("a")));
+		assertNull(queue.poll(reject("a")));
+
+		assertSame(a1, queue.poll());
+		assertSame(a2, queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	private static ClientJobQueue.Filter reject(final String rejected) {
+		return new ClientJobQueue.Filter() {
+			@Override
+			public boolean accept(String functionName) {
+				return !functionName.equals(rejected);
+			}
+		};
+	}
+
+	private static ClientJobSubmission job(final String functionName, final GearmanJobPriority priority) {
+		return new ClientJobSubmission(functionName, ByteBuffer.allocate(0), "id".getBytes(UTF8), null, priority, false);
+	}
+
+	private static List<ClientJobSubmission> list(final ClientJobSubmission... jobs) {
+		final List<ClientJobSubmission> list = new ArrayList<ClientJobSubmission>();
+		for(ClientJobSubmission job : jobs) {
+			list.add(job);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,91 @@
+package org.gearman.impl.client;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gearman.Gearman;
+import org.gearman.GearmanClient;
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanJobStatus;
+import org.gearman.GearmanRoutingPolicy;
+import org.gearman.GearmanServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks job status requests with connections open to several servers
+ *
+ * @author isaiah
+ */
+public class ClientStatusTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int JOBS = 20;
+
+	private Gearman gearman;
+	private GearmanClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.gearman = Gearman.createGearman();
+		final GearmanServer first = this.gearman.startGearmanServer(freePort());
+		final GearmanServer second = this.gearman.startGearmanServer(freePort());
+
+		// Connects to every server, so status requests are sent over several connections
+		this.client = this.gearman.createGearmanClient();
+		this.client.setRoutingPolicy(GearmanRoutingPolicy.POWER_OF_TWO_CHOICES);
+		this.client.addServer(first);
+		this.client.addServer(second);
+	}
+
+	@After
+	public void tearDown() {
+		this.gearman.shutdown();
+	}
+
+	@Test
+	public void testStatus() throws Exception {
+		// No worker runs "idle", so its jobs stay queued
+		final List<byte[]> handles = new ArrayList<byte[]>();
+		for(int i=0; i<JOBS; i++) {
+			final GearmanJobEvent event = this.client.submitBackgroundJobAsync("idle", ("job:" + i).getBytes(UTF8), GearmanJobPriority.NORMAL_PRIORITY).get(10, TimeUnit.SECONDS);
+			assertEquals(GearmanJobEventType.GEARMAN_SUBMIT_SUCCESS, event.getEventType());
+			handles.add(event.getData());
+		}
+
+		// Each job is known to one of the servers
+		for(byte[] handle : handles) {
+			final GearmanJobStatus status = this.client.getStatus(handle);
+			assertTrue(status.isKnown());
+			assertFalse(status.isRunning());
+		}
+		assertFalse(this.client.getStatus("H:unknown:1".getBytes(UTF8)).isKnown());
+
+		handles.add("H:unknown:1".getBytes(UTF8));
+		final Map<String, GearmanJobStatus> statuses = this.client.getStatusAsync(handles).get(10, TimeUnit.SECONDS);
+		assertEquals(JOBS+1, statuses.size());
+		for(int i=0; i<JOBS; i++) {
+			assertTrue(statuses.get(new String(handles.get(i), UTF8)).isKnown());
+		}
+		assertFalse(statuses.get("H:unknown:1").isKnown());
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how keys are spread over the ring, and how many move when nodes are added or
+ * removed
+ *
+ * @author isaiah
+ */
+public class ConsistentHashRingTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int KEYS = 10000;
+
+	@Test
+	public void testEmpty() {
+		final ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+		assertTrue(ring.isEmpty());
+		assertNull(ring.get(key(0)));
+
+		ring.add("a");
+		ring.remove("a");
+		assertTrue(ring.isEmpty());
+		assertNull(ring.get(key(0)));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoVirtualNodes() {
+		new ConsistentHashRing<String>(0);
+	}
+
+	@Test
+	public void testBalance() {
+		final ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+
+		final int[] counts = new int[4];
+		for(int i=0; i<KEYS; i++) {
+			counts[ring.get(key(i)).charAt(0)-'a']++;
+		}
+
+		for(int count : counts) {
+			assertTrue("unbalanced: " + count, count>KEYS/8 && count<KEYS*3/8);
+		}
+	}
+
+	@Test
+	public void testAdd() {
+		final ConsistentHashRing<String> ring = ring("a", "b", "c");
+		final String[] before = owners(ring);
+
+		ring.add("d");
+		final String[] after = owners(ring);
+
+		int moved = 0;
+		for(int i=0; i<KEYS; i++) {
+			if(before[i].equals(after[i])) continue;
+
+			// Keys only move to the new node
+			assertEquals("d", after[i]);
+			moved++;
+		}
+		assertTrue("moved: " + moved, moved>KEYS/8 && moved<KEYS*3/8);
+	}
+
+	@Test
+	public void testRemove() {
+		final ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+		final String[] before = owners(ring);
+
+		ring.remove("b");
+		final String[] after = owners(ring);
+
+		for(int i=0; i<KEYS; i++) {
+			if(before[i].equals("b")) {
+				assertTrue(!after[i].equals("b"));
+			} else {
+				// Keys of the other nodes stay where they were
+				assertEquals(before[i], after[i]);
+			}
+		}
+
+		// Adding the node back restores the original placement
+		ring.add("b");
+		final String[] restored = owners(ring);
+		for(int i=0; i<KEYS; i++) {
+			assertEquals(before[i], restored[i]);
+		}
+	}
+
+	@Test
+	public void testStable() {
+		final String[] first = owners(ring("a", "b", "c"));
+		final String[] second = owners(ring("c", "b", "a"));
+
+		// Placement depends on the nodes, not the order they were added
+		for(int i=0; i<KEYS; i++) {
+			assertEquals(first[i], second[i]);
+		}
+	}
+
+	private static ConsistentHashRing<String> ring(final String... nodes) {
+		final ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+		for(String node : nodes) {
+			ring.add(node);
+		}
+		return ring;
+	}
+
+	private static String[] owners(final ConsistentHashRing<String> ring) {
+		final String[] owners = new String[KEYS];
+		for(int i=0; i<KEYS; i++) {
+			owners[i] = ring.get(key(i));
+		}
+		return owners;
+	}
+
+	private static byte[] key(final int i) {
+		return ("job-" + i).getBytes(UTF8);
+	}
+}
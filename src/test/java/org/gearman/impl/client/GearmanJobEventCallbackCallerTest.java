@@ -0,0 +1,168 @@
+package org.gearman.impl.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventCallback;
+import org.gearman.GearmanJobEventType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.gearman.impl.client.GearmanJobReturnImplTest.event;
+import static org.gearman.impl.client.GearmanJobReturnImplTest.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that callback events are delivered one at a time and in order, however many
+ * threads put them, and that no event is left behind by a finishing drain
+ *
+ * @author isaiah
+ */
+public class GearmanJobEventCallbackCallerTest {
+
+	private static final int EVENTS = 100000;
+	private static final int PRODUCERS = 4;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		this.executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		final RecordingCallback callback = new RecordingCallback();
+		final GearmanJobEventCallbackCaller<Object> caller = new GearmanJobEventCallbackCaller<Object>(null, callback, this.executor);
+
+		for(int i=0; i<EVENTS; i++) {
+			caller.put(event(i));
+		}
+		caller.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+		caller.join(10, TimeUnit.SECONDS);
+		assertTrue(caller.isEOF());
+
+		// The data events, the last event and the end marker, in order and one at a time
+		assertEquals(EVENTS+2, callback.events.size());
+		for(int i=0; i<EVENTS; i++) {
+			assertEquals(i, value(callback.events.get(i)));
+		}
+		assertSame(GearmanJobEventImmutable.GEARMAN_JOB_FAIL, callback.events.get(EVENTS));
+		assertSame(GearmanJobEventImmutable.GEARMAN_EOF, callback.events.get(EVENTS+1));
+		assertEquals(0, callback.overlaps.get());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final RecordingCallback callback = new RecordingCallback();
+		final GearmanJobEventCallbackCaller<Object> caller = new GearmanJobEventCallbackCaller<Object>(null, callback, this.executor);
+
+		final ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+		try {
+			final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int p=0; p<PRODUCERS; p++) {
+				final int producer = p;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for(int i=0; i<EVENTS/PRODUCERS; i++) {
+							caller.put(event(producer*EVENTS + i));
+						}
+						return null;
+					}
+				});
+			}
+			for(Future<Object> future : producers.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			producers.shutdown();
+		}
+		caller.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+		caller.join(10, TimeUnit.SECONDS);
+		assertTrue(caller.isEOF());
+		assertEquals(EVENTS+2, callback.events.size());
+		assertEquals(0, callback.overlaps.get());
+
+		// Each producer's events keep their order
+		final int[] next = new int[PRODUCERS];
+		for(GearmanJobEvent event : callback.events) {
+			if(!event.getEventType().equals(GearmanJobEventType.GEARMAN_JOB_DATA)) continue;
+			final int value = value(event);
+			final int producer = value/EVENTS;
+			assertEquals(next[producer]++, value%EVENTS);
+		}
+		for(int count : next) {
+			assertEquals(EVENTS/PRODUCERS, count);
+		}
+	}
+
+	@Test
+	public void testInterleaved() throws Exception {
+		// Drains finish between puts. An event put as a drain finishes is delivered by it or by the next
+		final RecordingCallback callback = new RecordingCallback();
+		final GearmanJobEventCallbackCaller<Object> caller = new GearmanJobEventCallbackCaller<Object>(null, callback, this.executor);
+
+		for(int i=0; i<1000; i++) {
+			caller.put(event(i));
+			if(i%10==0) Thread.yield();
+		}
+		caller.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+		caller.join(10, TimeUnit.SECONDS);
+		assertTrue(caller.isEOF());
+		assertEquals(1002, callback.events.size());
+	}
+
+	@Test
+	public void testCallbackFails() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final GearmanJobEventCallbackCaller<Object> caller = new GearmanJobEventCallbackCaller<Object>(null, new GearmanJobEventCallback<Object>() {
+			@Override
+			public void onEvent(Object attachment, GearmanJobEvent event) {
+				calls.incrementAndGet();
+				throw new RuntimeException("callback failure");
+			}
+		}, this.executor);
+
+		caller.put(event(0));
+		caller.put(event(1));
+		caller.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+		// A failing callback doesn't stop the later events
+		caller.join(10, TimeUnit.SECONDS);
+		assertTrue(caller.isEOF());
+		assertEquals(4, calls.get());
+	}
+
+	private static final class RecordingCallback implements GearmanJobEventCallback<Object> {
+		private final List<GearmanJobEvent> events = Collections.synchronizedList(new ArrayList<GearmanJobEvent>());
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger overlaps = new AtomicInteger();
+
+		@Override
+		public void onEvent(Object attachment, GearmanJobEvent event) {
+			if(this.active.incrementAndGet()!=1) this.overlaps.incrementAndGet();
+			this.events.add(event);
+			this.active.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.gearman.impl.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hand off of events between the connection's thread and polling threads,
+ * checking that no event is lost, duplicated or reordered, and that no wakeup is missed
+ *
+ * @author isaiah
+ */
+public class GearmanJobReturnImplTest {
+
+	private static final int EVENTS = 100000;
+	private static final int ROUNDS = 20000;
+	private static final int CONSUMERS = 4;
+
+	@Test
+	public void testOrder() throws Exception {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+		assertNull(jobReturn.pollNow());
+
+		for(int i=0; i<10; i++) {
+			jobReturn.put(event(i));
+		}
+		jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		assertFalse(jobReturn.isEOF());
+
+		for(int i=0; i<10; i++) {
+			assertEquals(i, value(jobReturn.poll()));
+		}
+		assertSame(GearmanJobEventImmutable.GEARMAN_JOB_FAIL, jobReturn.poll());
+		assertTrue(jobReturn.isEOF());
+
+		// Once drained, polls return the end of the events without blocking
+		assertSame(GearmanJobEventImmutable.GEARMAN_EOF, jobReturn.poll());
+		assertSame(GearmanJobEventImmutable.GEARMAN_EOF, jobReturn.pollNow());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testPutAfterEof() {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+		jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		jobReturn.put(event(0));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+
+		final long start = System.nanoTime();
+		assertNull(jobReturn.poll(50, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime()-start>=TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void testInterrupt() throws Exception {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+
+		final Thread poller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					jobReturn.poll();
+				} catch (Throwable th) {
+					thrown.set(th);
+				}
+			}
+		};
+		poller.start();
+		Thread.sleep(50);
+		poller.interrupt();
+		poller.join(10000);
+
+		assertFalse(poller.isAlive());
+		assertTrue(thrown.get() instanceof InterruptedException);
+	}
+
+	@Test
+	public void testPingPong() throws Exception {
+		// Each poll blocks until the other thread puts, so a missed wakeup stalls a round
+		final GearmanJobReturnImpl ping = new GearmanJobReturnImpl();
+		final GearmanJobReturnImpl pong = new GearmanJobReturnImpl();
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Object> echo = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					for(int i=0; i<ROUNDS; i++) {
+						final GearmanJobEvent event = ping.poll(10, TimeUnit.SECONDS);
+						assertNotNull(event);
+						pong.put(event);
+					}
+					return null;
+				}
+			});
+
+			for(int i=0; i<ROUNDS; i++) {
+				ping.put(event(i));
+				final GearmanJobEvent event = pong.poll(10, TimeUnit.SECONDS);
+				assertNotNull(event);
+				assertEquals(i, value(event));
+			}
+			echo.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentConsumers() throws Exception {
+		final GearmanJobReturnImpl jobReturn = new GearmanJobReturnImpl();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(CONSUMERS);
+		final List<Future<List<Integer>>> consumers = new ArrayList<Future<List<Integer>>>();
+		try {
+			for(int c=0; c<CONSUMERS; c++) {
+				consumers.add(executor.submit(new Callable<List<Integer>>() {
+					@Override
+					public List<Integer> call() throws Exception {
+						final List<Integer> values = new ArrayList<Integer>();
+						for(;;) {
+							final GearmanJobEvent event = jobReturn.poll(10, TimeUnit.SECONDS);
+							assertNotNull(event);
+							if(event==GearmanJobEventImmutable.GEARMAN_EOF) return values;
+							if(event.getEventType().equals(GearmanJobEventType.GEARMAN_JOB_DATA)) values.add(value(event));
+						}
+					}
+				}));
+			}
+
+			for(int i=0; i<EVENTS; i++) {
+				jobReturn.put(event(i));
+			}
+			jobReturn.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+			// Every event is taken once, and each consumer sees them in order
+			final boolean[] seen = new boolean[EVENTS];
+			for(Future<List<Integer>> consumer : consumers) {
+				int last = -1;
+				for(int value : consumer.get()) {
+					assertTrue(value>last);
+					assertFalse(seen[value]);
+					seen[value] = true;
+					last = value;
+				}
+			}
+			for(boolean s : seen) {
+				assertTrue(s);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	static GearmanJobEvent event(final int value) {
+		return new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_DATA, ByteBuffer.allocate(4).putInt(value).array());
+	}
+
+	static int value(final GearmanJobEvent event) {
+		return ByteBuffer.wrap(event.getData()).getInt();
+	}
+}
@@ -0,0 +1,169 @@
+package org.gearman.impl.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.GearmanJobStatus;
+import org.gearman.impl.serverpool.GearmanJobStatusImpl;
+import org.gearman.impl.util.TaskJoin;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the answers of several servers are combined into a job's status
+ *
+ * @author isaiah
+ */
+public class GearmanStatusFutureImplTest {
+
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Test
+	public void testKnownAnswerWins() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		final TaskJoin<GearmanJobStatus> first = new TaskJoin<GearmanJobStatus>();
+		final TaskJoin<GearmanJobStatus> second = new TaskJoin<GearmanJobStatus>();
+		future.add("H:1", Arrays.asList(first, second));
+		future.ready();
+
+		final GearmanJobStatus known = known();
+		second.setValue(known);
+		assertFalse(future.isDone());
+
+		// Not known by one server doesn't replace the other server's answer
+		first.setValue(GearmanJobStatusImpl.NOT_KNOWN);
+		assertTrue(future.isDone());
+		assertSame(known, future.get().get("H:1"));
+	}
+
+	@Test
+	public void testNotKnown() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		final TaskJoin<GearmanJobStatus> request = new TaskJoin<GearmanJobStatus>();
+		future.add("H:1", Collections.singletonList(request));
+		future.add("H:2", new ArrayList<TaskJoin<GearmanJobStatus>>());
+		future.ready();
+
+		request.setValue(GearmanJobStatusImpl.NOT_KNOWN);
+		final Map<String, GearmanJobStatus> statuses = future.get(1, TimeUnit.SECONDS);
+		assertEquals(2, statuses.size());
+		assertFalse(statuses.get("H:1").isKnown());
+		assertFalse(statuses.get("H:2").isKnown());
+	}
+
+	@Test
+	public void testWaitsForReady() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		future.add("H:1", Collections.singletonList(new TaskJoin<GearmanJobStatus>(known())));
+
+		// More jobs may still be added
+		assertFalse(future.isDone());
+		assertNull(future.getNow());
+
+		future.ready();
+		assertTrue(future.isDone());
+		assertEquals(1, future.getNow().size());
+	}
+
+	@Test(expected=TimeoutException.class)
+	public void testTimeout() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		future.add("H:1", Collections.singletonList(new TaskJoin<GearmanJobStatus>()));
+		future.ready();
+		future.get(10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testListeners() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		final TaskJoin<GearmanJobStatus> request = new TaskJoin<GearmanJobStatus>();
+		future.add("H:1", Collections.singletonList(request));
+		future.ready();
+
+		final AtomicInteger runs = new AtomicInteger();
+		future.addListener(counter(runs), DIRECT);
+		assertEquals(0, runs.get());
+
+		request.setValue(known());
+		assertEquals(1, runs.get());
+
+		// Listeners added once done run at once
+		future.addListener(counter(runs), DIRECT);
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final GearmanStatusFutureImpl future = new GearmanStatusFutureImpl();
+		final TaskJoin<GearmanJobStatus> request = new TaskJoin<GearmanJobStatus>();
+		future.add("H:1", Collections.singletonList(request));
+		future.ready();
+
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		assertNull(future.getNow());
+
+		// A late answer is ignored
+		request.setValue(known());
+		assertTrue(future.isCancelled());
+		assertFalse(future.cancel(false));
+
+		try {
+			future.get();
+			assertTrue(false);
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+	private static GearmanJobStatus known() {
+		return new GearmanJobStatus() {
+			@Override
+			public boolean isKnown() {
+				return true;
+			}
+
+			@Override
+			public boolean isRunning() {
+				return false;
+			}
+
+			@Override
+			public long getNumerator() {
+				return 0;
+			}
+
+			@Override
+			public long getDenominator() {
+				return 0;
+			}
+		};
+	}
+
+	private static Runnable counter(final AtomicInteger runs) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+	}
+}
@@ -0,0 +1,93 @@
+package org.gearman.impl.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how many copies of hedged jobs the token budget allows
+ *
+ * @author isaiah
+ */
+public class HedgeBudgetTest {
+
+	private static final int COST = 10;
+	private static final int MAX = 100 * COST;
+
+	private static final int THREADS = 8;
+
+	@Test
+	public void testCost() {
+		final HedgeBudget budget = new HedgeBudget(COST, MAX);
+		assertFalse(budget.take());
+
+		for(int i=1; i<COST; i++) {
+			budget.deposit();
+		}
+		assertFalse(budget.take());
+
+		budget.deposit();
+		assertTrue(budget.take());
+		assertEquals(0, budget.getTokens());
+		assertFalse(budget.take());
+	}
+
+	@Test
+	public void testMax() {
+		final HedgeBudget budget = new HedgeBudget(COST, MAX);
+		for(int i=0; i<2*MAX; i++) {
+			budget.deposit();
+		}
+		assertEquals(MAX, budget.getTokens());
+
+		// A burst is limited to the tokens saved up
+		for(int i=0; i<MAX/COST; i++) {
+			assertTrue(budget.take());
+		}
+		assertFalse(budget.take());
+	}
+
+	@Test
+	public void testConcurrentTake() throws Exception {
+		final HedgeBudget budget = new HedgeBudget(COST, MAX);
+		for(int i=0; i<MAX; i++) {
+			budget.deposit();
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		int taken = 0;
+		try {
+			final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for(int t=0; t<THREADS; t++) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int count = 0;
+						for(int i=0; i<MAX/COST; i++) {
+							if(budget.take()) count++;
+						}
+						return count;
+					}
+				});
+			}
+			for(Future<Integer> future : executor.invokeAll(tasks)) {
+				taken += future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// Each token is spent once
+		assertEquals(MAX/COST, taken);
+		assertEquals(0, budget.getTokens());
+	}
+}
@@ -0,0 +1,157 @@
+package org.gearman.impl.client;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+import org.gearman.GearmanJobEvent;
+import org.gearman.GearmanJobEventType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests which copy of a hedged job delivers the result, and when the hedge timer is
+ * cancelled
+ *
+ * @author isaiah
+ */
+public class HedgedJobReturnTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testHedgeSucceedsFirst() {
+		final RecordingReturn target = new RecordingReturn();
+		final HedgedJobReturn hedge = new HedgedJobReturn(target);
+		final FutureTask<Object> timer = timer();
+		hedge.setTimer(timer);
+
+		final BackendJobReturn copy = hedge.createHedge();
+		assertNotNull(copy);
+		assertTrue(hedge.isHedged());
+
+		final GearmanJobEvent result = success("copy");
+		copy.eof(result);
+		assertTrue(hedge.isDone());
+		assertTrue(timer.isCancelled());
+		assertSame(result, target.last);
+
+		// The slower copy's result is dropped
+		hedge.eof(success("first"));
+		assertEquals(1, target.eofs);
+		assertSame(result, target.last);
+	}
+
+	@Test
+	public void testFailureWaitsForOtherCopy() {
+		final RecordingReturn target = new RecordingReturn();
+		final HedgedJobReturn hedge = new HedgedJobReturn(target);
+		final BackendJobReturn copy = hedge.createHedge();
+
+		// A failed copy isn't reported while the other may still succeed
+		hedge.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		assertFalse(hedge.isDone());
+		assertEquals(0, target.eofs);
+
+		final GearmanJobEvent result = success("copy");
+		copy.eof(result);
+		assertEquals(1, target.eofs);
+		assertSame(result, target.last);
+	}
+
+	@Test
+	public void testAllCopiesFail() {
+		final RecordingReturn target = new RecordingReturn();
+		final HedgedJobReturn hedge = new HedgedJobReturn(target);
+		final BackendJobReturn copy = hedge.createHedge();
+
+		copy.eof(GearmanJobEventImmutable.GEARMAN_JOB_DISCONNECT);
+		hedge.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+
+		// The last failure is delivered
+		assertTrue(hedge.isDone());
+		assertEquals(1, target.eofs);
+		assertSame(GearmanJobEventImmutable.GEARMAN_JOB_FAIL, target.last);
+	}
+
+	@Test
+	public void testUnhedgedFailure() {
+		final RecordingReturn target = new RecordingReturn();
+		final HedgedJobReturn hedge = new HedgedJobReturn(target);
+
+		hedge.eof(GearmanJobEventImmutable.GEARMAN_JOB_FAIL);
+		assertTrue(hedge.isDone());
+		assertSame(GearmanJobEventImmutable.GEARMAN_JOB_FAIL, target.last);
+
+		// A finished job is not hedged, and a late timer is cancelled at once
+		assertNull(hedge.createHedge());
+		final FutureTask<Object> timer = timer();
+		hedge.setTimer(timer);
+		assertTrue(timer.isCancelled());
+	}
+
+	@Test
+	public void testSingleHedge() {
+		final HedgedJobReturn hedge = new HedgedJobReturn(new RecordingReturn());
+		assertFalse(hedge.isHedged());
+		assertNotNull(hedge.createHedge());
+		assertNull(hedge.createHedge());
+	}
+
+	@Test
+	public void testEventsFromFirstCopy() {
+		final RecordingReturn target = new RecordingReturn();
+		final HedgedJobReturn hedge = new HedgedJobReturn(target);
+		final BackendJobReturn copy = hedge.createHedge();
+
+		hedge.put(data("first"));
+		copy.put(data("copy"));
+		assertEquals(1, target.events.size());
+		assertEquals("first", new String(target.events.get(0).getData(), UTF8));
+
+		// Events after the result are dropped
+		copy.eof(success("copy"));
+		hedge.put(data("late"));
+		assertEquals(1, target.events.size());
+	}
+
+	private static GearmanJobEvent success(final String data) {
+		return new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_SUCCESS, data.getBytes(UTF8));
+	}
+
+	private static GearmanJobEvent data(final String data) {
+		return new GearmanJobEventImpl(GearmanJobEventType.GEARMAN_JOB_DATA, data.getBytes(UTF8));
+	}
+
+	private static FutureTask<Object> timer() {
+		return new FutureTask<Object>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+	}
+
+	private static final class RecordingReturn implements BackendJobReturn {
+		private final List<GearmanJobEvent> events = new ArrayList<GearmanJobEvent>();
+		private GearmanJobEvent last;
+		private int eofs;
+
+		@Override
+		public void put(GearmanJobEvent event) {
+			this.events.add(event);
+		}
+
+		@Override
+		public void eof(GearmanJobEvent lastevent) {
+			this.last = lastevent;
+			this.eofs++;
+		}
+	}
+}
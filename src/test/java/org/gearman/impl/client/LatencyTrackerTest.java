@@ -0,0 +1,70 @@
+package org.gearman.impl.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the percentiles computed over a connection's recent latencies
+ *
+ * @author isaiah
+ */
+public class LatencyTrackerTest {
+
+	@Test
+	public void testTooFewSamples() {
+		final LatencyTracker tracker = new LatencyTracker();
+		for(int i=1; i<20; i++) {
+			tracker.record(i);
+		}
+		assertEquals(-1, tracker.getPercentile(0.95));
+
+		tracker.record(20);
+		assertEquals(19, tracker.getPercentile(0.95));
+	}
+
+	@Test
+	public void testPercentile() {
+		final LatencyTracker tracker = new LatencyTracker();
+		for(int i=100; i>0; i--) {
+			tracker.record(i);
+		}
+		assertEquals(95, tracker.getPercentile(0.95));
+		assertEquals(50, tracker.getPercentile(0.5));
+		assertEquals(100, tracker.getPercentile(1));
+		assertEquals(1, tracker.getPercentile(0));
+	}
+
+	@Test
+	public void testRecentSamples() {
+		final LatencyTracker tracker = new LatencyTracker();
+		for(int i=0; i<256; i++) {
+			tracker.record(1000);
+		}
+		assertEquals(1000, tracker.getPercentile(0.5));
+
+		// Only the last 256 samples are kept
+		for(int i=0; i<256; i++) {
+			tracker.record(1);
+		}
+		assertEquals(1, tracker.getPercentile(1));
+	}
+
+	@Test
+	public void testCached() {
+		final LatencyTracker tracker = new LatencyTracker();
+		for(int i=0; i<100; i++) {
+			tracker.record(10);
+		}
+		assertEquals(10, tracker.getPercentile(0.95));
+
+		// The percentile is recomputed once enough new samples were recorded
+		for(int i=0; i<31; i++) {
+			tracker.record(1000);
+		}
+		assertEquals(10, tracker.getPercentile(0.95));
+
+		tracker.record(1000);
+		assertEquals(1000, tracker.getPercentile(0.95));
+	}
+}
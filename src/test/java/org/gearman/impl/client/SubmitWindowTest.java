@@ -0,0 +1,155 @@
+package org.gearman.impl.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the submit window's limit grows and shrinks, and how rejections pause
+ * submissions
+ *
+ * @author isaiah
+ */
+public class SubmitWindowTest {
+
+	private static final long NOW = TimeUnit.SECONDS.toNanos(1000);
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testLimit() {
+		final SubmitWindow window = new SubmitWindow();
+		assertEquals(100, window.getLimit());
+
+		for(int i=0; i<100; i++) {
+			assertTrue(window.tryAcquire(NOW, true));
+		}
+		assertFalse(window.tryAcquire(NOW, true));
+
+		// The limit isn't enforced unless the window is adaptive
+		assertTrue(window.hasRoom(NOW, false));
+
+		window.onFinish();
+		assertTrue(window.tryAcquire(NOW, true));
+	}
+
+	@Test
+	public void testIncrease() {
+		final SubmitWindow window = new SubmitWindow();
+		for(int i=0; i<100; i++) {
+			window.tryAcquire(NOW, true);
+		}
+
+		// While the window is full, each window of jobs grows the limit by about one
+		for(int i=0; i<150; i++) {
+			window.onSuccess(MILLIS);
+			assertTrue(window.tryAcquire(NOW, true));
+		}
+		assertEquals(101, window.getLimit());
+	}
+
+	@Test
+	public void testNoIncreaseWhenIdle() {
+		final SubmitWindow window = new SubmitWindow();
+		for(int i=0; i<500; i++) {
+			assertTrue(window.tryAcquire(NOW, true));
+			window.onSuccess(MILLIS);
+		}
+		assertEquals(100, window.getLimit());
+	}
+
+	@Test
+	public void testLatencyRise() {
+		final SubmitWindow window = new SubmitWindow();
+		for(int i=0; i<30; i++) {
+			window.tryAcquire(NOW, true);
+			window.onSuccess(MILLIS);
+		}
+		assertEquals(100, window.getLimit());
+
+		// A latency well above the long-term average cuts the limit
+		window.tryAcquire(NOW, true);
+		window.onSuccess(10*MILLIS);
+		assertEquals(90, window.getLimit());
+
+		// At most once per window of jobs
+		window.tryAcquire(NOW, true);
+		window.onSuccess(10*MILLIS);
+		assertEquals(90, window.getLimit());
+
+		// Rising latency doesn't pause submissions
+		assertTrue(window.hasRoom(NOW, true));
+	}
+
+	@Test
+	public void testQueueFull() {
+		final SubmitWindow window = new SubmitWindow();
+
+		assertTrue(window.tryAcquire(NOW, true));
+		window.onQueueFull(NOW);
+		assertEquals(50, window.getLimit());
+
+		// Submissions pause for the backoff, even if the window isn't adaptive
+		assertEquals(10*MILLIS, window.getPause(NOW));
+		assertFalse(window.hasRoom(NOW, true));
+		assertFalse(window.hasRoom(NOW, false));
+		assertFalse(window.tryAcquire(NOW + 9*MILLIS, true));
+		assertTrue(window.hasRoom(NOW + 10*MILLIS, true));
+
+		// The backoff doubles while rejections continue. The limit is cut once per window
+		final long later = NOW + 10*MILLIS;
+		assertTrue(window.tryAcquire(later, true));
+		window.onQueueFull(later);
+		assertEquals(50, window.getLimit());
+		assertEquals(20*MILLIS, window.getPause(later));
+		assertFalse(window.hasRoom(later + 19*MILLIS, true));
+		assertTrue(window.hasRoom(later + 20*MILLIS, true));
+	}
+
+	@Test
+	public void testQueueFullBackoffLimit() {
+		final SubmitWindow window = new SubmitWindow();
+
+		// The backoff stops doubling at one second
+		for(int i=0; i<20; i++) {
+			window.onQueueFull(NOW);
+		}
+		assertEquals(TimeUnit.SECONDS.toNanos(1), window.getPause(NOW));
+	}
+
+	@Test
+	public void testQueueFullMinimum() {
+		final SubmitWindow window = new SubmitWindow();
+
+		// With enough jobs finished between rejections, each one halves the limit
+		for(int i=0; i<20; i++) {
+			for(int j=0; j<100; j++) {
+				window.onFinish();
+			}
+			window.onQueueFull(NOW);
+		}
+		assertEquals(1, window.getLimit());
+		assertFalse(window.hasRoom(NOW, true));
+	}
+
+	@Test
+	public void testSuccessEndsBackoff() {
+		final SubmitWindow window = new SubmitWindow();
+
+		window.tryAcquire(NOW, true);
+		window.onQueueFull(NOW);
+		assertFalse(window.hasRoom(NOW, true));
+
+		window.tryAcquire(NOW + 10*MILLIS, true);
+		window.onSuccess(MILLIS);
+		assertEquals(0, window.getPause(NOW));
+		assertTrue(window.hasRoom(NOW, true));
+
+		// The next rejection starts from the shortest backoff again
+		window.onQueueFull(NOW);
+		assertEquals(10*MILLIS, window.getPause(NOW));
+	}
+}
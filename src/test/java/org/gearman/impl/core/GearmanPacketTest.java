@@ -0,0 +1,83 @@
+package org.gearman.impl.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks packets holding their data in a buffer encode to the same bytes as packets
+ * holding it in an array
+ *
+ * @author isaiah
+ */
+public class GearmanPacketTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] HANDLE = "H:host:1".getBytes(UTF8);
+	private static final byte[] DATA = "some job data".getBytes(UTF8);
+
+	@Test
+	public void testEncodeDirectPayload() {
+		final GearmanPacket expected = GearmanPacket.createJOB_ASSIGN(HANDLE, "f", DATA);
+		final GearmanPacket packet = GearmanPacket.createJOB_ASSIGN(HANDLE, "f", direct(DATA));
+
+		assertArrayEquals(expected.toBytes(), packet.toBytes());
+
+		final ByteBuffer encoded = packet.toByteBuffer();
+		assertTrue(encoded.isDirect());
+		assertArrayEquals(expected.toBytes(), bytes(encoded));
+		assertArrayEquals(expected.toBytes(), bytes(packet.toByteBuffers()));
+
+		// Encoding doesn't consume the payload, so the packet can be encoded again
+		assertArrayEquals(expected.toBytes(), bytes(packet.toByteBuffer()));
+		assertArrayEquals(DATA, packet.getArgumentData(2));
+	}
+
+	@Test
+	public void testEncodeEmptyPayload() {
+		final GearmanPacket expected = GearmanPacket.createSUBMIT_JOB_BG("f", new byte[] {'u'}, new byte[0]);
+		final GearmanPacket packet = GearmanPacket.createSUBMIT_JOB_BG("f", new byte[] {'u'}, direct(new byte[0]));
+
+		assertArrayEquals(expected.toBytes(), packet.toBytes());
+		assertArrayEquals(expected.toBytes(), bytes(packet.toByteBuffer()));
+		assertEquals(0, packet.getArgumentData(2).length);
+	}
+
+	@Test
+	public void testEncodeDetached() {
+		final GearmanPacket expected = GearmanPacket.createJOB_ASSIGN(HANDLE, "f", DATA);
+		final ByteBuffer payload = direct(DATA);
+		final GearmanPacket packet = GearmanPacket.createJOB_ASSIGN(HANDLE, "f", payload);
+
+		packet.detachPayload();
+		assertTrue(!packet.hasPayloadBuffer());
+
+		// Once detached, the buffer's content may change without affecting the packet
+		payload.put(0, (byte)'x');
+		assertArrayEquals(expected.toBytes(), bytes(packet.toByteBuffer()));
+	}
+
+	private static ByteBuffer direct(final byte[] data) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte[] bytes(final ByteBuffer... buffers) {
+		byte[] value = new byte[0];
+		for(ByteBuffer buffer : buffers) {
+			final int pos = value.length;
+			value = Arrays.copyOf(value, pos + buffer.remaining());
+			buffer.duplicate().get(value, pos, buffer.remaining());
+		}
+		return value;
+	}
+}
@@ -0,0 +1,45 @@
+package org.gearman.impl.server.local;
+
+import org.gearman.impl.util.ByteArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that the settings given to a function are kept while the function itself is
+ * only softly referenced
+ *
+ * @author isaiah
+ */
+public class FunctionMapTest {
+
+	private final FunctionMap map = new FunctionMap(null);
+
+	@Test
+	public void testSettingsBeforeFunction() {
+		final ByteArray name = new ByteArray("f");
+		this.map.setMaxQueue(name, 10);
+		this.map.setMaxQueueBytes(name, 1000);
+		this.map.setStatusInterval(name, 250);
+
+		// A function created after its settings, or created again after being collected, gets them
+		final Function function = this.map.getFunction(name);
+		final QueueBudget budget = function.getSettings().getBudget();
+		assertEquals(10, budget.getMaxJobs());
+		assertEquals(1000, budget.getMaxBytes());
+		assertEquals(250, function.getStatusInterval());
+	}
+
+	@Test
+	public void testSettingsOfLiveFunction() {
+		final ByteArray name = new ByteArray("f");
+		final Function function = this.map.getFunction(name);
+		final FunctionSettings defaults = function.getSettings();
+
+		// The live function's settings are kept and changed in place
+		this.map.setMaxQueueBytes(name, 1000);
+		assertSame(defaults, function.getSettings());
+		assertEquals(1000, function.getSettings().getBudget().getMaxBytes());
+	}
+}
@@ -0,0 +1,114 @@
+package org.gearman.impl.server.local;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.gearman.GearmanJobPriority;
+import org.gearman.impl.core.GearmanCallbackHandler;
+import org.gearman.impl.core.GearmanConnection.SendCallbackResult;
+import org.gearman.impl.core.GearmanPacket;
+import org.gearman.impl.core.GearmanPacket.Type;
+import org.gearman.impl.util.ByteArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that queued jobs whose deadlines have passed make room for new jobs when the
+ * function's queue is full
+ *
+ * @author isaiah
+ */
+public class FunctionTest {
+
+	private static final byte[] DATA = new byte[] {1, 2, 3};
+
+	private final FunctionSettings settings = new FunctionSettings();
+	private final Function function = new Function(new ByteArray("f"), null, new QueueBudget(0, 0), this.settings);
+
+	@Test
+	public void testExpiredJobsMakeRoom() throws Exception {
+		this.settings.getBudget().setMaxJobs(1);
+
+		final RecordingClient first = new RecordingClient();
+		this.createJob("a", first, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(Type.JOB_CREATED, first.getLast());
+
+		// The queue is full while the queued job's deadline hasn't passed
+		final RecordingClient second = new RecordingClient();
+		this.createJob("b", second, 0);
+		assertEquals(Type.ERROR, second.getLast());
+
+		Thread.sleep(100);
+
+		// Once it has, the expired job is failed to make room
+		final RecordingClient third = new RecordingClient();
+		this.createJob("c", third, 0);
+		assertEquals(Type.JOB_CREATED, third.getLast());
+		assertEquals(Type.WORK_FAIL, first.getLast());
+		assertEquals(1, this.settings.getBudget().getJobs());
+	}
+
+	@Test
+	public void testUnexpiredJobsKept() throws Exception {
+		this.settings.getBudget().setMaxJobs(2);
+
+		// Jobs without deadlines, or whose deadlines haven't passed, are never dropped
+		final RecordingClient first = new RecordingClient();
+		this.createJob("a", first, 0);
+		final RecordingClient second = new RecordingClient();
+		this.createJob("b", second, System.nanoTime() + TimeUnit.SECONDS.toNanos(60));
+
+		final RecordingClient third = new RecordingClient();
+		this.createJob("c", third, 0);
+		assertEquals(Type.ERROR, third.getLast());
+		assertEquals(Type.JOB_CREATED, first.getLast());
+		assertEquals(Type.JOB_CREATED, second.getLast());
+	}
+
+	private void createJob(final String uniqueID, final Client creator, final long deadline) {
+		this.function.createJob(new ByteArray(uniqueID), DATA, GearmanJobPriority.NORMAL_PRIORITY, creator, false, deadline, null);
+	}
+
+	/** A client that records the types of the packets sent to it */
+	private static final class RecordingClient implements Client {
+		private final List<Type> packets = new CopyOnWriteArrayList<Type>();
+
+		private Type getLast() {
+			return this.packets.get(this.packets.size()-1);
+		}
+
+		@Override
+		public void sendPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback) {
+			this.packets.add(packet.getPacketType());
+		}
+
+		@Override
+		public void sendExceptionPacket(GearmanPacket packet, GearmanCallbackHandler<GearmanPacket, SendCallbackResult> callback) {
+			this.packets.add(packet.getPacketType());
+		}
+
+		@Override public boolean addDisconnectListener(ClientDisconnectListener listener) { return true; }
+		@Override public boolean removeDisconnectListener(ClientDisconnectListener listener) { return true; }
+		@Override public boolean can_do(Function func) { return false; }
+		@Override public boolean cant_do(ByteArray funcName) { return false; }
+		@Override public void close() { }
+		@Override public String getClientId() { return "-"; }
+		@Override public Iterable<Function> getFunctions() { return null; }
+		@Override public int getLocalPort() { return 0; }
+		@Override public int getPort() { return 0; }
+		@Override public GearmanPacket getStatus() { return null; }
+		@Override public void grabJob() { }
+		@Override public void grabJobUniq() { }
+		@Override public boolean isClosed() { return false; }
+		@Override public boolean isForwardsExceptions() { return false; }
+		@Override public void noop() { }
+		@Override public void reset() { }
+		@Override public void setClientId(String id) { }
+		@Override public void setForwardsExceptions(boolean value) { }
+		@Override public void setNextDeadline(long deadline) { }
+		@Override public long takeNextDeadline() { return 0; }
+		@Override public void sleep() { }
+	}
+}
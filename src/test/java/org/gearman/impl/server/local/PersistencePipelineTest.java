@@ -0,0 +1,492 @@
+package org.gearman.impl.server.local;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gearman.GearmanBatchPersistence;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanPersistence;
+import org.gearman.impl.core.GearmanPacket;
+import org.gearman.impl.util.ByteArray;
+import org.gearman.impl.util.GearmanUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs writes and deletes through the persistence pipeline, checking each reaches the
+ * storage once, that waiting operations are grouped into batches, and that a failed
+ * item only fails itself
+ *
+ * @author isaiah
+ */
+public class PersistencePipelineTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int JOBS = 1000;
+
+	private final Function function = new Function(new ByteArray("f"), null, new QueueBudget(0, 0), new FunctionSettings());
+
+	@Test
+	public void testBatches() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BatchStorage storage = new BatchStorage() {
+			@Override
+			public void writeBatch(Collection<GearmanPersistable> items) throws Exception {
+				started.countDown();
+				release.await();
+				super.writeBatch(items);
+			}
+		};
+
+		final PersistencePipeline pipeline = new PersistencePipeline(storage);
+		try {
+			// Writes arriving while the storage is busy are taken as one batch
+			final TestJob first = new TestJob("H:first");
+			final List<TestJob> jobs = sameStripe(first, "H:job", 10);
+			final Callback done = new Callback(jobs.size()+1);
+
+			assertTrue(pipeline.write(first, done));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			for(TestJob job : jobs) {
+				assertTrue(pipeline.write(job, done));
+			}
+			release.countDown();
+
+			assertTrue(done.latch.await(10, TimeUnit.SECONDS));
+			assertNull(done.failure);
+			assertEquals(2, storage.batches.get());
+			assertEquals(jobs.size()+1, storage.written.size());
+		} finally {
+			release.countDown();
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchStorage() throws Exception {
+		final BatchStorage storage = new BatchStorage();
+		this.writeAll(storage, JOBS);
+
+		assertEquals(JOBS, storage.written.size());
+		assertEquals(JOBS, storage.deleted.size());
+	}
+
+	@Test
+	public void testSingleStorage() throws Exception {
+		final SingleStorage storage = new SingleStorage();
+		this.writeAll(storage, JOBS);
+
+		// Storage without batch support is adapted, one call per job
+		assertTrue(storage.stored.isEmpty());
+		assertEquals(JOBS*2, storage.calls.get());
+	}
+
+	@Test
+	public void testDeleteCancelsWrite() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BatchStorage storage = new BatchStorage() {
+			@Override
+			public void writeBatch(Collection<GearmanPersistable> items) throws Exception {
+				started.countDown();
+				release.await();
+				super.writeBatch(items);
+			}
+		};
+
+		final PersistencePipeline pipeline = new PersistencePipeline(storage);
+		try {
+			// The first write holds its stripe's thread, so the second write, on the same stripe, waits
+			final TestJob first = new TestJob("H:first");
+			final TestJob second = sameStripe(first, "H:other", 1).get(0);
+			final Callback firstDone = new Callback(1);
+			final Callback secondDone = new Callback(1);
+
+			assertTrue(pipeline.write(first, firstDone));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			assertTrue(pipeline.write(second, secondDone));
+
+			// A delete of a waiting write drops the write, and completes it
+			pipeline.delete(second);
+			assertTrue(secondDone.latch.await(10, TimeUnit.SECONDS));
+			assertNull(secondDone.failure);
+
+			release.countDown();
+			assertTrue(firstDone.latch.await(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			pipeline.shutdown();
+		}
+
+		assertEquals(Collections.singleton("H:first"), storage.written);
+		assertTrue(storage.deleted.isEmpty());
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		final Exception failure = new Exception("storage failure");
+		final BatchStorage storage = new BatchStorage() {
+			@Override
+			public void writeBatch(Collection<GearmanPersistable> items) throws Exception {
+				throw failure;
+			}
+		};
+
+		final PersistencePipeline pipeline = new PersistencePipeline(storage);
+		try {
+			final Callback callback = new Callback(1);
+			assertTrue(pipeline.write(new TestJob("H:1"), callback));
+			assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+			assertEquals(failure, callback.failure);
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchItemFailure() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BatchStorage storage = new BatchStorage() {
+			@Override
+			public void writeBatch(Collection<GearmanPersistable> items) throws Exception {
+				started.countDown();
+				release.await();
+
+				// Like an item that can't be encoded, one bad item fails its whole batch
+				for(GearmanPersistable item : items) {
+					if(isBad(item)) throw new IllegalArgumentException("bad item");
+				}
+				super.writeBatch(items);
+			}
+
+			@Override
+			public void write(GearmanPersistable item) throws Exception {
+				if(isBad(item)) throw new IllegalArgumentException("bad item");
+				this.writeBatch(Collections.singletonList(item));
+			}
+		};
+
+		final Set<String> written = this.assertItemFailure(storage, started, release);
+		assertEquals(written, storage.written);
+	}
+
+	@Test
+	public void testPartialWriteFailure() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleStorage storage = new SingleStorage() {
+			@Override
+			public void write(GearmanPersistable item) throws Exception {
+				if(new String(item.getJobHandle(), UTF8).equals("H:first")) {
+					started.countDown();
+					release.await();
+				}
+				if(isBad(item)) throw new IllegalArgumentException("bad item");
+				super.write(item);
+			}
+		};
+
+		/*
+		 * The adapter writes the batch one item at a time. The items written before the
+		 * bad one are deleted again, and then written on their own
+		 */
+		final Set<String> written = this.assertItemFailure(storage, started, release);
+		assertEquals(written, storage.stored);
+	}
+
+	/**
+	 * Writes a job that holds the storage, then a batch on the same stripe with a bad job
+	 * in the middle. Only the bad job fails
+	 * @return
+	 * 		The job handles of the jobs written successfully
+	 */
+	private Set<String> assertItemFailure(final GearmanPersistence storage, final CountDownLatch started, final CountDownLatch release) throws Exception {
+		final PersistencePipeline pipeline = new PersistencePipeline(storage);
+		try {
+			final TestJob first = new TestJob("H:first");
+			final List<TestJob> jobs = sameStripe(first, "H:job", 2);
+			final TestJob bad = sameStripe(first, "H:bad", 1).get(0);
+
+			final Callback firstDone = new Callback(1);
+			final Callback[] done = {new Callback(1), new Callback(1), new Callback(1)};
+
+			assertTrue(pipeline.write(first, firstDone));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			assertTrue(pipeline.write(jobs.get(0), done[0]));
+			assertTrue(pipeline.write(bad, done[1]));
+			assertTrue(pipeline.write(jobs.get(1), done[2]));
+			release.countDown();
+
+			for(Callback callback : done) {
+				assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+			}
+			assertNull(done[0].failure);
+			assertNotNull(done[1].failure);
+			assertNull(done[2].failure);
+
+			assertTrue(firstDone.latch.await(10, TimeUnit.SECONDS));
+			assertNull(firstDone.failure);
+
+			final Set<String> written = new HashSet<String>();
+			for(TestJob job : Arrays.asList(first, jobs.get(0), jobs.get(1))) {
+				written.add(job.getJobHandle().toString(UTF8));
+			}
+			return written;
+		} finally {
+			release.countDown();
+			pipeline.shutdown();
+		}
+	}
+
+	/**
+	 * Writes the given number of jobs, waits for every write, then deletes them all and
+	 * waits for the pipeline to drain
+	 */
+	private void writeAll(final GearmanPersistence storage, final int count) throws InterruptedException {
+		final List<TestJob> jobs = new ArrayList<TestJob>(count);
+		for(int i=0; i<count; i++) {
+			jobs.add(new TestJob("H:" + i));
+		}
+
+		final Callback written = new Callback(count);
+		final PersistencePipeline pipeline = new PersistencePipeline(storage);
+		try {
+			for(TestJob job : jobs) {
+				assertTrue(pipeline.write(job, written));
+			}
+			assertTrue(written.latch.await(60, TimeUnit.SECONDS));
+			assertNull(written.failure);
+
+			for(TestJob job : jobs) {
+				pipeline.delete(job);
+			}
+		} finally {
+			// Returns once every waiting operation has reached the storage
+			pipeline.shutdown();
+		}
+	}
+
+	/**
+	 * Creates jobs whose operations go to the same stripe as the given job's
+	 */
+	private List<TestJob> sameStripe(final TestJob job, final String prefix, final int count) {
+		final int stripes = Math.max(1, GearmanUtils.getPersistenceThreads());
+		final int stripe = (job.getJobHandle().hashCode() & 0x7FFFFFFF) % stripes;
+
+		final List<TestJob> jobs = new ArrayList<TestJob>(count);
+		for(int i=0; jobs.size()<count; i++) {
+			final TestJob other = new TestJob(prefix + ":" + i);
+			if((other.getJobHandle().hashCode() & 0x7FFFFFFF) % stripes == stripe) jobs.add(other);
+		}
+		return jobs;
+	}
+
+	private static boolean isBad(final GearmanPersistable item) throws Exception {
+		return new String(item.getJobHandle(), UTF8).startsWith("H:bad");
+	}
+
+	/** Storage supporting batches */
+	private static class BatchStorage implements GearmanBatchPersistence {
+		final Set<String> written = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicInteger batches = new AtomicInteger();
+
+		@Override
+		public void writeBatch(Collection<GearmanPersistable> items) throws Exception {
+			this.batches.incrementAndGet();
+			for(GearmanPersistable item : items) {
+				assertTrue(this.written.add(new String(item.getJobHandle(), UTF8)));
+			}
+		}
+
+		@Override
+		public void deleteBatch(Collection<GearmanPersistable> items) throws Exception {
+			this.batches.incrementAndGet();
+			for(GearmanPersistable item : items) {
+				assertTrue(this.deleted.add(new String(item.getJobHandle(), UTF8)));
+			}
+		}
+
+		@Override
+		public void write(GearmanPersistable item) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void delete(GearmanPersistable item) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void deleteAll() throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Collection<GearmanPersistable> readAll() throws Exception {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Storage without batch support */
+	private static class SingleStorage implements GearmanPersistence {
+		final Set<String> stored = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public void write(GearmanPersistable item) throws Exception {
+			this.calls.incrementAndGet();
+			assertTrue(this.stored.add(new String(item.getJobHandle(), UTF8)));
+		}
+
+		@Override
+		public void delete(GearmanPersistable item) throws Exception {
+			this.calls.incrementAndGet();
+			assertTrue(this.stored.remove(new String(item.getJobHandle(), UTF8)));
+		}
+
+		@Override
+		public void deleteAll() throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Collection<GearmanPersistable> readAll() throws Exception {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Counts down once per completed write, and keeps the last failure */
+	private static final class Callback implements PersistencePipeline.WriteCallback {
+		final CountDownLatch latch;
+		volatile Exception failure;
+
+		Callback(final int count) {
+			this.latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onComplete(Exception failure) {
+			if(failure!=null) this.failure = failure;
+			this.latch.countDown();
+		}
+	}
+
+	/** A background job. Only the fields the pipeline copies are supported */
+	private final class TestJob implements Job {
+		private final ByteArray jobHandle;
+		private final byte[] data = new byte[64];
+
+		TestJob(final String jobHandle) {
+			this.jobHandle = new ByteArray(jobHandle.getBytes(UTF8));
+		}
+
+		@Override
+		public byte[] getData() {
+			return this.data;
+		}
+
+		@Override
+		public int getDataSize() {
+			return this.data.length;
+		}
+
+		@Override
+		public Function getFunction() {
+			return PersistencePipelineTest.this.function;
+		}
+
+		@Override
+		public ByteArray getJobHandle() {
+			return this.jobHandle;
+		}
+
+		@Override
+		public GearmanJobPriority getPriority() {
+			return GearmanJobPriority.NORMAL_PRIORITY;
+		}
+
+		@Override
+		public ByteArray getUniqueID() {
+			return this.jobHandle;
+		}
+
+		@Override
+		public boolean isBackground() {
+			return true;
+		}
+
+		@Override
+		public JobState getState() {
+			return JobState.QUEUED;
+		}
+
+		@Override
+		public GearmanPacket createStatusResPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public GearmanPacket createJobAssignPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public GearmanPacket createJobAssignUniqPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public GearmanPacket createJobCreatedPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public GearmanPacket createWorkStatusPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void sendExceptionPacket(GearmanPacket packet) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void sendPacket(GearmanPacket packet) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setStatus(byte[] numerator, byte[] denominator) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void workStatus(GearmanPacket packet) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void workComplete(GearmanPacket packet) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.gearman.impl.server.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests where spilled payloads are kept, and when their segment files are deleted
+ *
+ * @author isaiah
+ */
+public class SpillStoreTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File dir;
+	private SpillStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = Files.createTempDirectory("gearman-spill-test-").toFile();
+		this.store = new SpillStore(this.dir, 16);
+	}
+
+	@After
+	public void tearDown() {
+		delete(this.dir);
+	}
+
+	@Test
+	public void testSharedDirectory() throws Exception {
+		// Files of other processes sharing the directory are left alone
+		final File other = new File(this.dir, "gearman-spill-other.seg");
+		assertTrue(other.createNewFile());
+
+		final Payload payload = this.store.store(bytes("0123456789"));
+		assertArrayEquals(bytes("0123456789"), payload.getBytes());
+
+		final File[] files = this.dir.listFiles();
+		assertEquals(2, files.length);
+		assertTrue(other.exists());
+
+		// The store's segments are in its own directory
+		final File storeDirectory = files[0].equals(other)? files[1]: files[0];
+		assertTrue(storeDirectory.isDirectory());
+		assertEquals(1, storeDirectory.listFiles().length);
+		assertEquals(1, this.store.getSegmentCount());
+
+		payload.release();
+		assertEquals(0, storeDirectory.listFiles().length);
+		assertTrue(other.exists());
+	}
+
+	@Test
+	public void testSealedWhenFull() throws Exception {
+		final Payload first = this.store.store(bytes("0123456789"));
+		final Payload second = this.store.store(bytes("abcdefghij"));
+		assertEquals(2, this.store.getSegmentCount());
+
+		// The full segment is deleted once its payload is released
+		first.release();
+		assertEquals(1, this.store.getSegmentCount());
+		assertArrayEquals(bytes("abcdefghij"), second.getBytes());
+
+		second.release();
+		assertEquals(0, this.store.getSegmentCount());
+	}
+
+	@Test
+	public void testTrimmedWhenEmpty() throws Exception {
+		final Payload first = this.store.store(bytes("01234"));
+		final Payload second = this.store.store(bytes("56789"));
+		assertEquals(1, this.store.getSegmentCount());
+
+		// The active segment is kept while it holds a payload
+		first.release();
+		assertEquals(1, this.store.getSegmentCount());
+
+		// and deleted once it's empty, even though it isn't full
+		second.release();
+		assertEquals(0, this.store.getSegmentCount());
+
+		// The next payload starts a new segment
+		final Payload third = this.store.store(bytes("abcde"));
+		assertEquals(1, this.store.getSegmentCount());
+		assertArrayEquals(bytes("abcde"), third.getBytes());
+		third.release();
+		assertEquals(0, this.store.getSegmentCount());
+	}
+
+	@Test
+	public void testRetained() throws Exception {
+		final Payload payload = this.store.store(bytes("01234"));
+
+		// A reference held by a write keeps the segment after the job releases the payload
+		payload.retain();
+		final ByteBuffer buffer = payload.getBuffer();
+		payload.release();
+		assertEquals(1, this.store.getSegmentCount());
+		assertEquals('0', buffer.get(0));
+
+		payload.release();
+		assertEquals(0, this.store.getSegmentCount());
+	}
+
+	@Test
+	public void testReleased() throws Exception {
+		final Payload payload = this.store.store(bytes("01234"));
+		payload.release();
+
+		// A released payload can't be read, since its segment may be unmapped
+		try {
+			payload.getBytes();
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			payload.getBuffer();
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] bytes(final String value) {
+		return value.getBytes(UTF8);
+	}
+
+	private static void delete(final File file) {
+		final File[] files = file.listFiles();
+		if(files!=null) {
+			for(File f : files) delete(f);
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,86 @@
+package org.gearman.impl.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gearman.GearmanUniqueIdGenerator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the IDs created by the default generator are unique across threads and made of
+ * URL-safe characters
+ *
+ * @author isaiah
+ */
+public class SequenceUniqueIdGeneratorTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+	private static final int THREADS = 8;
+	private static final int IDS = 50000;
+
+	@Test
+	public void testFormat() {
+		final GearmanUniqueIdGenerator generator = SequenceUniqueIdGenerator.INSTANCE;
+
+		final String first = new String(generator.createUniqueID(), UTF8);
+		for(int i=0; i<IDS; i++) {
+			final String id = new String(generator.createUniqueID(), UTF8);
+
+			// The node prefix and thread slot are 16 characters, followed by the counter
+			assertTrue(id, id.length()>16 && id.length()<=27);
+			assertEquals(first.substring(0, 16), id.substring(0, 16));
+			for(int c=0; c<id.length(); c++) {
+				assertTrue(id, DIGITS.indexOf(id.charAt(c))>=0);
+			}
+		}
+	}
+
+	@Test
+	public void testUniqueAcrossThreads() throws Exception {
+		final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int t=0; t<THREADS; t++) {
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for(int i=0; i<IDS; i++) {
+							final String id = new String(SequenceUniqueIdGenerator.INSTANCE.createUniqueID(), UTF8);
+							assertTrue(id, ids.add(id));
+						}
+						return null;
+					}
+				});
+			}
+			for(Future<Object> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(THREADS*IDS, ids.size());
+
+		// Threads get their own slots, so IDs from different threads differ before the counter
+		final Set<String> heads = new HashSet<String>();
+		for(String id : ids) {
+			heads.add(id.substring(0, 16));
+		}
+		assertTrue(heads.size()>=THREADS);
+	}
+}
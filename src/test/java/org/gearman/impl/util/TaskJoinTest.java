@@ -0,0 +1,107 @@
+package org.gearman.impl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that task join listeners run exactly once, whether they are added before or after
+ * the value is set
+ *
+ * @author isaiah
+ */
+public class TaskJoinTest {
+
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 10000;
+
+	@Test
+	public void testListenerBeforeValue() {
+		final TaskJoin<String> join = new TaskJoin<String>();
+		final AtomicInteger runs = new AtomicInteger();
+
+		join.addListener(counter(runs));
+		join.addListener(counter(runs));
+		assertEquals(0, runs.get());
+
+		join.setValue("value");
+		assertEquals(2, runs.get());
+		assertEquals("value", join.getValue());
+	}
+
+	@Test
+	public void testListenerAfterValue() {
+		final TaskJoin<String> join = new TaskJoin<String>("value");
+		final AtomicInteger runs = new AtomicInteger();
+
+		// Run at once by the adding thread
+		join.addListener(counter(runs));
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void testTimeout() {
+		final TaskJoin<String> join = new TaskJoin<String>();
+		assertNull(join.getValue(10));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullValue() {
+		new TaskJoin<String>().setValue(null);
+	}
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			for(int round=0; round<ROUNDS; round++) {
+				final TaskJoin<String> join = new TaskJoin<String>();
+				final AtomicInteger runs = new AtomicInteger();
+
+				// Listeners added while the value is set are neither lost nor run twice
+				final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+				for(int t=0; t<THREADS-1; t++) {
+					tasks.add(new Callable<Object>() {
+						@Override
+						public Object call() {
+							join.addListener(counter(runs));
+							return null;
+						}
+					});
+				}
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						join.setValue("value");
+						return null;
+					}
+				});
+
+				for(Future<Object> future : executor.invokeAll(tasks)) {
+					future.get();
+				}
+				assertEquals(THREADS-1, runs.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static Runnable counter(final AtomicInteger runs) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+	}
+}
@@ -0,0 +1,130 @@
+package org.gearman.persistence;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gearman.GearmanBatchPersistence;
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanPersistable;
+import org.gearman.GearmanPersistence;
+import org.gearman.persistence.GearmanJournalPersistenceTest.Job;
+import org.junit.Test;
+
+import static org.gearman.persistence.GearmanJournalPersistenceTest.assertHandles;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the batch operations added to a persistence that only supports single items
+ *
+ * @author isaiah
+ */
+public class GearmanBatchPersistenceAdapterTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testValueOf() throws Exception {
+		final Storage storage = new Storage();
+		final GearmanBatchPersistence batch = GearmanBatchPersistenceAdapter.valueOf(storage);
+		assertSame(storage, ((GearmanBatchPersistenceAdapter)batch).getPersistence());
+
+		// Batch persistence is used as it is
+		assertSame(batch, GearmanBatchPersistenceAdapter.valueOf(batch));
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		final Storage storage = new Storage();
+		final GearmanBatchPersistence batch = GearmanBatchPersistenceAdapter.valueOf(storage);
+
+		batch.writeBatch(jobs("H:1", "H:2", "H:3"));
+		batch.deleteBatch(jobs("H:2"));
+		assertHandles(storage.readAll(), "H:1", "H:3");
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		final Storage storage = new Storage();
+		storage.failWrite = "H:3";
+		final GearmanBatchPersistence batch = GearmanBatchPersistenceAdapter.valueOf(storage);
+		batch.writeBatch(jobs("H:0"));
+
+		try {
+			batch.writeBatch(jobs("H:1", "H:2", "H:3", "H:4"));
+			fail("batch succeeded");
+		} catch (Exception e) {
+			assertEquals("write failed: H:3", e.getMessage());
+		}
+
+		// The items written before the failure are deleted, so none of the batch is left written
+		assertHandles(storage.readAll(), "H:0");
+		assertEquals(4, storage.writes);
+	}
+
+	@Test
+	public void testWriteFailureRollbackFailure() throws Exception {
+		final Storage storage = new Storage();
+		storage.failWrite = "H:3";
+		storage.failDelete = "H:1";
+		final GearmanBatchPersistence batch = GearmanBatchPersistenceAdapter.valueOf(storage);
+
+		try {
+			batch.writeBatch(jobs("H:1", "H:2", "H:3"));
+			fail("batch succeeded");
+		} catch (Exception e) {
+			// The failed delete is reported with the failed write
+			assertEquals("write failed: H:3", e.getMessage());
+			assertEquals(1, e.getSuppressed().length);
+			assertEquals("delete failed: H:1", e.getSuppressed()[0].getMessage());
+		}
+
+		assertHandles(storage.readAll(), "H:1");
+	}
+
+	private static List<GearmanPersistable> jobs(final String... jobHandles) {
+		final List<GearmanPersistable> jobs = new ArrayList<GearmanPersistable>();
+		for(String jobHandle : jobHandles) {
+			jobs.add(new Job(jobHandle, "f", "data", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+		return jobs;
+	}
+
+	/** Storage without batch support, holding the items in memory */
+	private static final class Storage implements GearmanPersistence {
+		private final Map<String, GearmanPersistable> items = new LinkedHashMap<String, GearmanPersistable>();
+		private int writes;
+		private String failWrite;
+		private String failDelete;
+
+		@Override
+		public void write(GearmanPersistable item) throws Exception {
+			final String jobHandle = new String(item.getJobHandle(), UTF8);
+			this.writes++;
+			if(jobHandle.equals(this.failWrite)) throw new Exception("write failed: " + jobHandle);
+			this.items.put(jobHandle, item);
+		}
+
+		@Override
+		public void delete(GearmanPersistable item) throws Exception {
+			final String jobHandle = new String(item.getJobHandle(), UTF8);
+			if(jobHandle.equals(this.failDelete)) throw new Exception("delete failed: " + jobHandle);
+			this.items.remove(jobHandle);
+		}
+
+		@Override
+		public void deleteAll() throws Exception {
+			this.items.clear();
+		}
+
+		@Override
+		public Collection<GearmanPersistable> readAll() throws Exception {
+			return new ArrayList<GearmanPersistable>(this.items.values());
+		}
+	}
+}
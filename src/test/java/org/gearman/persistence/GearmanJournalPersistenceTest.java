@@ -0,0 +1,506 @@
+package org.gearman.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gearman.GearmanJobPriority;
+import org.gearman.GearmanPersistable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the group-commit journal: what survives a reopen, and how a damaged tail is
+ * recovered
+ *
+ * @author isaiah
+ */
+public class GearmanJournalPersistenceTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The directory holding the journal's files */
+	private File dir;
+	/** The journal's base file */
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = Files.createTempDirectory("gearman-journal-").toFile();
+		this.file = new File(this.dir, "jobs");
+	}
+
+	@After
+	public void tearDown() {
+		delete(this.dir);
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.HIGH_PRIORITY));
+			journal.write(new Job("H:2", "g", "two", GearmanJobPriority.LOW_PRIORITY));
+			journal.write(new Job("H:3", "f", "three", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.delete(new Job("H:2", "g", "two", GearmanJobPriority.LOW_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>(journal.readAll());
+			assertHandles(items, "H:1", "H:3");
+
+			final GearmanPersistable item = items.get(0);
+			assertEquals("f", item.getFunctionName());
+			assertArrayEquals("one".getBytes(UTF8), item.getData());
+			assertArrayEquals("u-H:1".getBytes(UTF8), item.getUniqueID());
+			assertEquals(GearmanJobPriority.HIGH_PRIORITY, item.getPriority());
+		}
+	}
+
+	@Test
+	public void testRewrite() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "old", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:1", "f", "new", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>(journal.readAll());
+
+			// The latest write of a job handle wins, in the position it was written
+			assertHandles(items, "H:2", "H:1");
+			assertArrayEquals("new".getBytes(UTF8), items.get(1).getData());
+		}
+	}
+
+	@Test
+	public void testTornTail() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:3", "f", "three", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		// A crash in the middle of the last record
+		final File segment = new File(this.dir, "jobs.1");
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length()-3);
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:1", "H:2");
+
+			// The torn record is truncated, so new records are appended after the last intact one
+			journal.write(new Job("H:4", "f", "four", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:1", "H:2", "H:4");
+		}
+	}
+
+	@Test
+	public void testTornFrame() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		// Only part of the next record's length and CRC reached the disk
+		final File segment = new File(this.dir, "jobs.1");
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.seek(raf.length());
+			raf.write(new byte[] {0, 0, 0, 40, 1});
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:1");
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:1", "H:2");
+		}
+	}
+
+	@Test
+	public void testCorruptRecord() throws Exception {
+		final long second;
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			second = new File(this.dir, "jobs.1").length();
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:3", "f", "three", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		// Flip a byte in the second record's data. Its CRC no longer matches
+		final File segment = new File(this.dir, "jobs.1");
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			final long position = second + 20;
+			raf.seek(position);
+			final int value = raf.read();
+			raf.seek(position);
+			raf.write(value ^ 0xFF);
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			// Nothing after the damaged record can be trusted
+			assertHandles(journal.readAll(), "H:1");
+			assertEquals(second, segment.length());
+		}
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		final List<GearmanPersistable> writes = new ArrayList<GearmanPersistable>();
+		for(int i=0; i<100; i++) {
+			writes.add(new Job("H:" + i, "f", "data " + i, GearmanJobPriority.NORMAL_PRIORITY));
+		}
+		final List<GearmanPersistable> deletes = new ArrayList<GearmanPersistable>();
+		for(int i=0; i<100; i+=2) {
+			deletes.add(writes.get(i));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.writeBatch(writes);
+			journal.deleteBatch(deletes);
+			journal.writeBatch(new ArrayList<GearmanPersistable>());
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>(journal.readAll());
+			assertEquals(50, items.size());
+			for(int i=0; i<50; i++) {
+				assertArrayEquals(("data " + (i*2+1)).getBytes(UTF8), items.get(i).getData());
+			}
+		}
+	}
+
+	@Test
+	public void testValueTooLong() throws Exception {
+		final char[] name = new char[0x10000];
+		Arrays.fill(name, 'f');
+		final Job first = new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY);
+		final Job tooLong = new Job("H:2", new String(name), "two", GearmanJobPriority.NORMAL_PRIORITY);
+		final Job last = new Job("H:3", "f", "three", GearmanJobPriority.NORMAL_PRIORITY);
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			try {
+				journal.writeBatch(Arrays.<GearmanPersistable>asList(first, tooLong, last));
+				fail("wrote a function name longer than 65535 bytes");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+
+			// Nothing from the failed batch was appended
+			assertHandles(journal.readAll());
+			journal.writeBatch(Arrays.<GearmanPersistable>asList(first, last));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:1", "H:3");
+		}
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		final int threads = 8;
+		final int count = 200;
+
+		try (final GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+				for(int t=0; t<threads; t++) {
+					final int thread = t;
+					futures.add(executor.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							for(int i=0; i<count; i++) {
+								final Job job = new Job("H:" + thread + ":" + i, "f", "data", GearmanJobPriority.NORMAL_PRIORITY);
+								journal.write(job);
+								if(i%2==0) journal.delete(job);
+							}
+							return null;
+						}
+					}));
+				}
+				for(Future<Object> future : futures) future.get();
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertEquals(threads*count/2, journal.readAll().size());
+		}
+	}
+
+	@Test
+	public void testDeleteAll() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.deleteAll();
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:2");
+		}
+	}
+
+	@Test
+	public void testClosed() throws Exception {
+		final GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0);
+		journal.close();
+
+		try {
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			fail("write succeeded on a closed journal");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			for(int i=0; i<6; i++) {
+				journal.write(new Job("H:" + i, "f", "data " + i, GearmanJobPriority.NORMAL_PRIORITY));
+			}
+			journal.delete(new Job("H:1", "f", "data 1", GearmanJobPriority.NORMAL_PRIORITY));
+
+			journal.checkpoint();
+			assertFiles("jobs.2", "jobs.snapshot.1");
+			assertHandles(journal.readAll(), "H:0", "H:2", "H:3", "H:4", "H:5");
+
+			// Jobs now located in the snapshot are deleted and copied again by the next checkpoint
+			journal.delete(new Job("H:3", "f", "data 3", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:6", "f", "data 6", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:0", "f", "data 0b", GearmanJobPriority.NORMAL_PRIORITY));
+
+			journal.checkpoint();
+			assertFiles("jobs.3", "jobs.snapshot.2");
+			assertHandles(journal.readAll(), "H:2", "H:4", "H:5", "H:6", "H:0");
+
+			journal.write(new Job("H:7", "f", "data 7", GearmanJobPriority.NORMAL_PRIORITY));
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final List<GearmanPersistable> items = new ArrayList<GearmanPersistable>(journal.readAll());
+			assertHandles(items, "H:2", "H:4", "H:5", "H:6", "H:0", "H:7");
+			assertArrayEquals("data 0b".getBytes(UTF8), items.get(4).getData());
+		}
+	}
+
+	@Test
+	public void testCheckpointEmpty() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			journal.checkpoint();
+			assertFiles("jobs.1");
+
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.delete(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.checkpoint();
+			assertFiles("jobs.2", "jobs.snapshot.1");
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll());
+		}
+	}
+
+	@Test
+	public void testCheckpointWhileDeleting() throws Exception {
+		final int count = 2000;
+		final byte[] data = new byte[1024];
+
+		try (final GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final List<GearmanPersistable> jobs = new ArrayList<GearmanPersistable>();
+			for(int i=0; i<count; i++) {
+				jobs.add(new Job("H:" + i, "f", data, GearmanJobPriority.NORMAL_PRIORITY));
+			}
+			journal.writeBatch(jobs);
+
+			// Delete every other job while the live records are copied to the snapshot
+			final ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				final Future<Object> deletes = executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						for(int i=0; i<count; i+=2) {
+							journal.delete(jobs.get(i));
+						}
+						return null;
+					}
+				});
+				journal.checkpoint();
+				deletes.get();
+			} finally {
+				executor.shutdown();
+			}
+
+			assertEquals(count/2, journal.readAll().size());
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			final String[] expected = new String[count/2];
+			for(int i=0; i<expected.length; i++) {
+				expected[i] = "H:" + (i*2+1);
+			}
+			assertHandles(journal.readAll(), expected);
+		}
+	}
+
+	@Test
+	public void testAutomaticCheckpoint() throws Exception {
+		final byte[] data = new byte[256];
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 4096)) {
+			for(int i=0; i<200; i++) {
+				final Job job = new Job("H:" + i, "f", data, GearmanJobPriority.NORMAL_PRIORITY);
+				journal.write(job);
+				if(i%4!=0) journal.delete(job);
+			}
+
+			// Checkpoints run in the background. Wait for them to remove the older segments
+			final long deadline = System.currentTimeMillis() + 10000;
+			while(this.dir.list().length>3 && System.currentTimeMillis()<deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(Arrays.toString(this.dir.list()), this.dir.list().length<=3);
+			assertEquals(50, journal.readAll().size());
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 4096)) {
+			assertEquals(50, journal.readAll().size());
+		}
+	}
+
+	@Test
+	public void testCheckpointFailure() throws Exception {
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			// A directory in the snapshot's place makes the rename fail
+			final File blocker = new File(this.dir, "jobs.snapshot.1");
+			assertTrue(blocker.mkdir());
+			assertTrue(new File(blocker, "file").createNewFile());
+
+			journal.write(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:2", "f", "two", GearmanJobPriority.NORMAL_PRIORITY));
+
+			try {
+				journal.checkpoint();
+				fail("checkpoint succeeded");
+			} catch (IOException e) {
+				// Expected
+			}
+
+			// The covered segment is still read, and is covered by the next checkpoint
+			assertHandles(journal.readAll(), "H:1", "H:2");
+			journal.delete(new Job("H:1", "f", "one", GearmanJobPriority.NORMAL_PRIORITY));
+			journal.write(new Job("H:3", "f", "three", GearmanJobPriority.NORMAL_PRIORITY));
+			assertHandles(journal.readAll(), "H:2", "H:3");
+
+			delete(blocker);
+			journal.checkpoint();
+			assertFiles("jobs.3", "jobs.snapshot.2");
+			assertHandles(journal.readAll(), "H:2", "H:3");
+		}
+
+		try (GearmanJournalPersistence journal = new GearmanJournalPersistence(this.file, 0)) {
+			assertHandles(journal.readAll(), "H:2", "H:3");
+		}
+	}
+
+	/**
+	 * Asserts the names of the files in the journal's directory
+	 */
+	private void assertFiles(final String... names) {
+		final String[] actual = this.dir.list();
+		Arrays.sort(actual);
+		assertArrayEquals(names, actual);
+	}
+
+	/**
+	 * Asserts the items' job handles, in order
+	 */
+	static void assertHandles(final Collection<GearmanPersistable> items, final String... jobHandles) throws Exception {
+		final List<String> actual = new ArrayList<String>();
+		for(GearmanPersistable item : items) {
+			actual.add(new String(item.getJobHandle(), UTF8));
+		}
+		assertArrayEquals(jobHandles, actual.toArray());
+	}
+
+	static void delete(final File file) {
+		final File[] files = file.listFiles();
+		if(files!=null) {
+			for(File f : files) delete(f);
+		}
+		file.delete();
+	}
+
+	/** A background job. Its unique ID is derived from its job handle */
+	static final class Job implements GearmanPersistable {
+		private final String jobHandle;
+		private final String functionName;
+		private final byte[] data;
+		private final GearmanJobPriority priority;
+
+		Job(final String jobHandle, final String functionName, final String data, final GearmanJobPriority priority) {
+			this(jobHandle, functionName, data.getBytes(UTF8), priority);
+		}
+
+		Job(final String jobHandle, final String functionName, final byte[] data, final GearmanJobPriority priority) {
+			this.jobHandle = jobHandle;
+			this.functionName = functionName;
+			this.data = data;
+			this.priority = priority;
+		}
+
+		@Override
+		public String getFunctionName() {
+			return this.functionName;
+		}
+
+		@Override
+		public byte[] getData() {
+			return this.data;
+		}
+
+		@Override
+		public byte[] getJobHandle() {
+			return this.jobHandle.getBytes(UTF8);
+		}
+
+		@Override
+		public byte[] getUniqueID() {
+			return ("u-" + this.jobHandle).getBytes(UTF8);
+		}
+
+		@Override
+		public long epochTime() {
+			return 0;
+		}
+
+		@Override
+		public GearmanJobPriority getPriority() {
+			return this.priority;
+		}
+	}
+}